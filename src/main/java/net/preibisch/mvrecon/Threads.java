@@ -45,6 +45,21 @@ public class Threads
 	public static ExecutorService createFixedExecutorService( final int nThreads ) { return Executors.newFixedThreadPool( nThreads ); }
 	public static ExecutorService createFixedExecutorService() { return createFixedExecutorService( numThreads() ); }
 
+	private static ExecutorService sharedFlexibleExecutorService;
+
+	/**
+	 * @return a work-stealing pool for nested parallel loops that run within tasks of another pool (e.g. within one pair of
+	 * the pairwise matching), created on first use and shared by all of them. It does not stall on nested tasks and is never
+	 * shut down (its threads are daemon threads).
+	 */
+	public static synchronized ExecutorService sharedFlexibleExecutorService()
+	{
+		if ( sharedFlexibleExecutorService == null )
+			sharedFlexibleExecutorService = createFlexibleExecutorService();
+
+		return sharedFlexibleExecutorService;
+	}
+
 	public static < T > List< ArrayList< Callable< T > > > splitTasks( final List< Callable< T > > tasks, final int batchSize )
 	{
 		if ( tasks == null )
@@ -254,6 +254,9 @@ public class FileListDatasetDefinition implements MultiViewDatasetDefinition
 						+ "   net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinition.windowsHack = false;", GUIHelper.smallStatusFont, Color.RED );
 			}
 
+			// added last, the listeners above access the components by index
+			gdp.addCheckbox( "cache_metadata (re-scanned if files or directories change)", FileListMetadataScanner.useCache );
+
 			GUIHelper.addScrollBars( gdp );
 			gdp.showDialog();
 
@@ -269,6 +272,7 @@ public class FileListDatasetDefinition implements MultiViewDatasetDefinition
 				fileInput = String.join( File.separator, fileInput, "*" );
 
 			List<File> files = getFilesFromPattern( fileInput, (long) gdp.getNextNumber() * KB_FACTOR );
+			FileListMetadataScanner.useCache = gdp.getNextBoolean();
 
 			files.forEach(f -> System.out.println( "Including file " + f + " in dataset." ));
 
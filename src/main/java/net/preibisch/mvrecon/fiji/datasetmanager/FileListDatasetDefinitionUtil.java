@@ -24,6 +24,7 @@ package net.preibisch.mvrecon.fiji.datasetmanager;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -90,9 +91,10 @@ public class FileListDatasetDefinitionUtil
 	}
 	
 	
-	public static class ChannelInfo
+	public static class ChannelInfo implements Serializable
 	{
-		
+		private static final long serialVersionUID = -2953620592283958117L;
+
 		public String name;
 		public String fluorophore;
 		public Double wavelength;
@@ -148,8 +150,10 @@ public class FileListDatasetDefinitionUtil
 				
 	}
 	
-	public static class TileInfo
+	public static class TileInfo implements Serializable
 	{
+		private static final long serialVersionUID = 4470373390812040392L;
+
 		public Double locationX;
 		public Double locationY;
 		public Double locationZ;
@@ -204,8 +208,10 @@ public class FileListDatasetDefinitionUtil
 		}
 	}
 	
-	public static class AngleInfo
+	public static class AngleInfo implements Serializable
 	{
+		private static final long serialVersionUID = -7093385829604733128L;
+
 		public Double angle;
 		public Integer axis;
 		
@@ -1038,34 +1044,11 @@ public class FileListDatasetDefinitionUtil
 										 FileListViewDetectionState state)
 	{
 		Map<File, Map<Class<? extends Entity>, CheckResult>> multiplicityMapInner = new HashMap<>();
-		List<String> usedFiles = new ArrayList<>();
-		
+
 		Collections.sort( files );
-		
-		for (File file : files)
-			if (!usedFiles.contains( file.getAbsolutePath() ))
-			{
-				ImageReader reader = new ImageReader();
-				reader.setMetadataStore( new OMEXMLMetadataImpl() );
-				detectViewsInFile( 	file,
-									multiplicityMapInner,
-									state,
-									usedFiles,
-									reader);
-
-				detectDimensionsInFile (file, state.getDimensionMap(), reader);
-				
-				try
-				{
-					reader.close();
-				}
-				catch ( IOException e )
-				{
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
-		
+
+		// scan metadata of all files concurrently (or get it from the cache), merged in sorted order
+		FileListMetadataScanner.scan( files, state, multiplicityMapInner );
 		
 		for (Map<Class<? extends Entity>, CheckResult> cr : multiplicityMapInner.values())
 		{
@@ -0,0 +1,509 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.datasetmanager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import loci.formats.ImageReader;
+import loci.formats.ome.OMEXMLMetadataImpl;
+import mpicbg.spim.data.generic.base.Entity;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil.CheckResult;
+
+/**
+ * Scans the Bio-Formats metadata of many files concurrently for {@link FileListDatasetDefinitionUtil#detectViewsInFiles(List, FileListViewDetectionState)}.
+ * Every file is scanned into its own {@link FileScanResult} with one {@link ImageReader} per thread, the results are
+ * merged in sorted file order afterwards, which yields the same {@link FileListViewDetectionState} as scanning
+ * sequentially. Optionally ({@link #useCache}), results are cached on disk, keyed by the path of the file and validated
+ * against size and modification time of all files it uses and against the contents of the directories these files are in.
+ */
+public class FileListMetadataScanner
+{
+	public static int numThreads = Math.min( 8, Threads.numThreads() );
+	// set in the dialog of FileListDatasetDefinition
+	public static boolean useCache = false;
+	public static File cacheDirectory = new File( new File( System.getProperty( "user.home" ), ".multiview-reconstruction" ), "metadata-cache" );
+
+	/**
+	 * Everything that scanning a single file contributes to the {@link FileListViewDetectionState}, in a serializable form.
+	 * All file references within the state are the 'master' file of the group (currentFile).
+	 */
+	public static class FileScanResult implements Serializable
+	{
+		private static final long serialVersionUID = 5937582736584093721L;
+
+		String currentFile;
+		ArrayList< String > usedFiles = new ArrayList<>();
+
+		// used file -> { length, lastModified }
+		HashMap< String, long[] > stamps = new HashMap<>();
+
+		// directory of the used files -> digest of its sorted file listing, detects files added to or removed from a group
+		HashMap< String, String > listings = new HashMap<>();
+
+		boolean groupedFormat, ambiguousAngleTile, ambiguousIllumChannel;
+
+		// used file -> series
+		LinkedHashMap< String, Integer > groupUsage = new LinkedHashMap<>();
+
+		// entity -> id (e.g. TileInfo) -> list of (series, channel)
+		HashMap< Class< ? extends Entity >, LinkedHashMap< Object, ArrayList< int[] > > > accumulate = new HashMap<>();
+
+		HashMap< Class< ? extends Entity >, CheckResult > multiplicity;
+
+		// (series, channel) -> dimensions, voxel size
+		ArrayList< int[] > dimensionKeys = new ArrayList<>();
+		ArrayList< long[] > dimensions = new ArrayList<>();
+		ArrayList< String > units = new ArrayList<>();
+		ArrayList< double[] > voxelSizes = new ArrayList<>();
+
+		protected static FileScanResult fromState(
+				final FileListViewDetectionState state,
+				final Map< File, Map< Class< ? extends Entity >, CheckResult > > multiplicityMap,
+				final List< String > usedFiles )
+		{
+			final FileScanResult r = new FileScanResult();
+
+			r.currentFile = multiplicityMap.keySet().iterator().next().getAbsolutePath();
+			r.multiplicity = new HashMap<>( multiplicityMap.values().iterator().next() );
+			r.usedFiles.addAll( usedFiles );
+
+			for ( final String f : usedFiles )
+			{
+				final File parent = new File( f ).getAbsoluteFile().getParentFile();
+
+				r.stamps.put( f, stamp( new File( f ) ) );
+
+				if ( parent != null && !r.listings.containsKey( parent.getAbsolutePath() ) )
+					r.listings.put( parent.getAbsolutePath(), listing( parent ) );
+			}
+
+			r.groupedFormat = state.getGroupedFormat();
+			r.ambiguousAngleTile = state.getAmbiguousAngleTile();
+			r.ambiguousIllumChannel = state.getAmbiguousIllumChannel();
+
+			for ( final Map.Entry< String, Pair< File, Integer > > e : state.getGroupUsageMap().entrySet() )
+				r.groupUsage.put( e.getKey(), e.getValue().getB() );
+
+			for ( final Class< ? extends Entity > cl : state.accumulativeMap.keySet() )
+			{
+				final LinkedHashMap< Object, ArrayList< int[] > > map = new LinkedHashMap<>();
+
+				for ( final Map.Entry< Object, List< Pair< File, Pair< Integer, Integer > > > > e : state.getAccumulateMap( cl ).entrySet() )
+				{
+					final ArrayList< int[] > list = new ArrayList<>();
+
+					for ( final Pair< File, Pair< Integer, Integer > > p : e.getValue() )
+						list.add( new int[]{ p.getB().getA(), p.getB().getB() } );
+
+					map.put( e.getKey(), list );
+				}
+
+				r.accumulate.put( cl, map );
+			}
+
+			for ( final Map.Entry< Pair< File, Pair< Integer, Integer > >, Pair< Dimensions, VoxelDimensions > > e : state.getDimensionMap().entrySet() )
+			{
+				final Dimensions dim = e.getValue().getA();
+				final VoxelDimensions vox = e.getValue().getB();
+
+				final long[] d = new long[ dim.numDimensions() ];
+				dim.dimensions( d );
+
+				final double[] v = new double[ vox.numDimensions() ];
+				vox.dimensions( v );
+
+				r.dimensionKeys.add( new int[]{ e.getKey().getB().getA(), e.getKey().getB().getB() } );
+				r.dimensions.add( d );
+				r.units.add( vox.unit() );
+				r.voxelSizes.add( v );
+			}
+
+			return r;
+		}
+
+		/**
+		 * Adds this result to the global state, the same way {@link FileListDatasetDefinitionUtil#detectViewsInFile} and
+		 * {@link FileListDatasetDefinitionUtil#detectDimensionsInFile} would have done it directly.
+		 *
+		 * @param state - the global state
+		 * @param multiplicityMap - the multiplicity per file
+		 * @param usedFiles - all files used so far
+		 */
+		public void mergeInto(
+				final FileListViewDetectionState state,
+				final Map< File, Map< Class< ? extends Entity >, CheckResult > > multiplicityMap,
+				final Set< String > usedFiles )
+		{
+			final File file = new File( currentFile );
+
+			usedFiles.addAll( this.usedFiles );
+
+			if ( groupedFormat )
+				state.setGroupedFormat( true );
+
+			for ( final Map.Entry< String, Integer > e : groupUsage.entrySet() )
+				state.getGroupUsageMap().put( e.getKey(), new ValuePair< File, Integer >( file, e.getValue() ) );
+
+			multiplicityMap.put( file, new HashMap<>( multiplicity ) );
+
+			for ( final Class< ? extends Entity > cl : accumulate.keySet() )
+			{
+				for ( final Map.Entry< Object, ArrayList< int[] > > e : accumulate.get( cl ).entrySet() )
+				{
+					if ( !state.getAccumulateMap( cl ).containsKey( e.getKey() ) )
+						state.getAccumulateMap( cl ).put( e.getKey(), new ArrayList<>() );
+
+					for ( final int[] series : e.getValue() )
+						state.getAccumulateMap( cl ).get( e.getKey() ).add(
+								new ValuePair< File, Pair< Integer, Integer > >( file, new ValuePair< Integer, Integer >( series[ 0 ], series[ 1 ] ) ) );
+				}
+			}
+
+			if ( ambiguousAngleTile )
+				state.setAmbiguousAngleTile( true );
+
+			if ( ambiguousIllumChannel )
+				state.setAmbiguousIllumChannel( true );
+
+			for ( int i = 0; i < dimensionKeys.size(); ++i )
+				state.getDimensionMap().put(
+						new ValuePair< File, Pair< Integer, Integer > >( file, new ValuePair< Integer, Integer >( dimensionKeys.get( i )[ 0 ], dimensionKeys.get( i )[ 1 ] ) ),
+						new ValuePair< Dimensions, VoxelDimensions >( new FinalDimensions( dimensions.get( i ) ), new FinalVoxelDimensions( units.get( i ), voxelSizes.get( i ) ) ) );
+		}
+
+		/**
+		 * @return true if none of the files used changed since the scan and no files were added to or removed from their directories
+		 */
+		public boolean isValid()
+		{
+			for ( final Map.Entry< String, long[] > e : stamps.entrySet() )
+			{
+				final long[] s = stamp( new File( e.getKey() ) );
+
+				if ( s[ 0 ] != e.getValue()[ 0 ] || s[ 1 ] != e.getValue()[ 1 ] )
+					return false;
+			}
+
+			for ( final Map.Entry< String, String > e : listings.entrySet() )
+				if ( !e.getValue().equals( listing( new File( e.getKey() ) ) ) )
+					return false;
+
+			return true;
+		}
+	}
+
+	/**
+	 * Scans all files (except the ones that are part of a group another file was already scanned for) concurrently
+	 * and merges the results into the state in sorted order.
+	 *
+	 * @param files - the files (sorted)
+	 * @param state - the state to populate
+	 * @param multiplicityMap - the multiplicity per file to populate
+	 */
+	public static void scan(
+			final List< File > files,
+			final FileListViewDetectionState state,
+			final Map< File, Map< Class< ? extends Entity >, CheckResult > > multiplicityMap )
+	{
+		// files that are covered by a file that was scanned already
+		final Set< String > claimed = Collections.newSetFromMap( new ConcurrentHashMap<>() );
+		final List< ImageReader > readers = Collections.synchronizedList( new ArrayList<>() );
+		final ThreadLocal< ImageReader > threadReader = ThreadLocal.withInitial( () ->
+		{
+			final ImageReader reader = new ImageReader();
+			readers.add( reader );
+			return reader;
+		});
+
+		final ExecutorService service = Threads.createFixedExecutorService( Math.max( 1, numThreads ) );
+		final HashMap< File, Future< FileScanResult > > futures = new HashMap<>();
+
+		for ( final File file : files )
+			futures.put( file, service.submit( () ->
+			{
+				if ( claimed.contains( file.getAbsolutePath() ) )
+					return null;
+
+				final FileScanResult r = scanFile( file, threadReader.get() );
+				claimed.addAll( r.usedFiles );
+
+				return r;
+			}));
+
+		final HashSet< String > usedFiles = new HashSet<>();
+
+		try
+		{
+			for ( final File file : files )
+			{
+				if ( usedFiles.contains( file.getAbsolutePath() ) )
+					continue;
+
+				FileScanResult r;
+
+				try
+				{
+					r = futures.get( file ).get();
+				}
+				catch ( ExecutionException e )
+				{
+					if ( e.getCause() instanceof RuntimeException )
+						throw (RuntimeException)e.getCause();
+
+					throw new RuntimeException( e.getCause() );
+				}
+
+				// was skipped by the worker because a later file in the same group was scanned first
+				if ( r == null )
+					r = scanFile( file );
+
+				r.mergeInto( state, multiplicityMap, usedFiles );
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			service.shutdownNow();
+
+			for ( final ImageReader reader : readers )
+			{
+				try { reader.close(); } catch ( IOException e ) {}
+			}
+		}
+	}
+
+	/**
+	 * Scans a single file with a new {@link ImageReader} that is closed afterwards, or loads the result from the cache
+	 * if it is enabled and still valid.
+	 *
+	 * @param file - the file
+	 * @return the result
+	 */
+	public static FileScanResult scanFile( final File file )
+	{
+		try ( final ImageReader reader = new ImageReader() )
+		{
+			return scanFile( file, reader );
+		}
+		catch ( IOException e )
+		{
+			throw new RuntimeException( "Could not close reader for " + file.getAbsolutePath() + ": " + e, e );
+		}
+	}
+
+	/**
+	 * Scans a single file, or loads the result from the cache if it is enabled and still valid.
+	 *
+	 * @param file - the file
+	 * @param reader - the reader to use, it is reset (closed) before it is used but remains owned by the caller, who has to close it eventually
+	 * @return the result
+	 */
+	public static FileScanResult scanFile( final File file, final ImageReader reader )
+	{
+		if ( useCache )
+		{
+			final FileScanResult cached = loadCached( file );
+
+			if ( cached != null )
+			{
+				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Using cached metadata for " + file.getAbsolutePath() );
+				return cached;
+			}
+		}
+
+		try
+		{
+			reader.close();
+		}
+		catch ( IOException e ) {}
+
+		reader.setMetadataStore( new OMEXMLMetadataImpl() );
+
+		final FileListViewDetectionState fileState = new FileListViewDetectionState();
+		final Map< File, Map< Class< ? extends Entity >, CheckResult > > fileMultiplicity = new HashMap<>();
+		final List< String > fileUsedFiles = new ArrayList<>();
+
+		FileListDatasetDefinitionUtil.detectViewsInFile( file, fileMultiplicity, fileState, fileUsedFiles, reader );
+		FileListDatasetDefinitionUtil.detectDimensionsInFile( file, fileState.getDimensionMap(), reader );
+
+		final FileScanResult r = FileScanResult.fromState( fileState, fileMultiplicity, fileUsedFiles );
+
+		// the file itself is part of the key
+		r.stamps.put( file.getAbsolutePath(), stamp( file ) );
+
+		if ( useCache )
+			saveCached( file, r );
+
+		return r;
+	}
+
+	protected static FileScanResult loadCached( final File file )
+	{
+		final File cacheFile = cacheFile( file );
+
+		if ( cacheFile == null || !cacheFile.exists() )
+			return null;
+
+		try ( final ObjectInputStream in = new ObjectInputStream( new FileInputStream( cacheFile ) ) )
+		{
+			final String path = (String)in.readObject();
+			final FileScanResult r = (FileScanResult)in.readObject();
+
+			if ( !path.equals( file.getAbsolutePath() ) || !r.stamps.containsKey( path ) || !r.isValid() )
+				return null;
+
+			return r;
+		}
+		catch ( Exception e )
+		{
+			// outdated or broken cache entry, just scan again
+			return null;
+		}
+	}
+
+	protected static void saveCached( final File file, final FileScanResult r )
+	{
+		final File cacheFile = cacheFile( file );
+
+		if ( cacheFile == null )
+			return;
+
+		try
+		{
+			if ( !cacheDirectory.exists() )
+				cacheDirectory.mkdirs();
+
+			// write to a temporary file first so concurrent runs never see half-written entries
+			final File tmp = new File( cacheFile.getAbsolutePath() + "." + Thread.currentThread().getId() + ".tmp" );
+
+			try ( final ObjectOutputStream out = new ObjectOutputStream( new FileOutputStream( tmp ) ) )
+			{
+				out.writeObject( file.getAbsolutePath() );
+				out.writeObject( r );
+			}
+
+			if ( !tmp.renameTo( cacheFile ) )
+			{
+				cacheFile.delete();
+				tmp.renameTo( cacheFile );
+			}
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "Could not write metadata cache for " + file.getAbsolutePath() + ": " + e );
+		}
+	}
+
+	protected static File cacheFile( final File file )
+	{
+		try
+		{
+			final byte[] hash = MessageDigest.getInstance( "SHA-1" ).digest( file.getAbsolutePath().getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder name = new StringBuilder();
+
+			for ( final byte b : hash )
+				name.append( String.format( "%02x", b ) );
+
+			return new File( cacheDirectory, name.append( ".meta" ).toString() );
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			return null;
+		}
+	}
+
+	protected static long[] stamp( final File file )
+	{
+		return new long[]{ file.length(), file.lastModified() };
+	}
+
+	/**
+	 * @param dir - a directory
+	 * @return a SHA-1 digest of the sorted names of all entries in the directory (empty if it cannot be listed)
+	 */
+	protected static String listing( final File dir )
+	{
+		final String[] names = dir.list();
+
+		if ( names == null )
+			return "";
+
+		Arrays.sort( names );
+
+		try
+		{
+			final MessageDigest md = MessageDigest.getInstance( "SHA-1" );
+
+			for ( final String name : names )
+			{
+				md.update( name.getBytes( StandardCharsets.UTF_8 ) );
+				md.update( (byte)0 );
+			}
+
+			final StringBuilder digest = new StringBuilder();
+
+			for ( final byte b : md.digest() )
+				digest.append( String.format( "%02x", b ) );
+
+			return digest.toString();
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			return String.join( "/", names );
+		}
+	}
+}
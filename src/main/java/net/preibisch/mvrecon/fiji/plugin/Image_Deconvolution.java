@@ -27,6 +27,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.ImageJ;
 import ij.plugin.PlugIn;
@@ -38,6 +39,7 @@ import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.fusion.DeconvolutionGUI;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.GenericLoadParseQueryXML;
@@ -61,6 +63,8 @@ import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.FusionTools.ImgDataType;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.pipeline.TimepointPipeline;
 
 /**
  * Plugin to fuse images using transformations from the SpimData object
@@ -113,46 +117,168 @@ public class Image_Deconvolution implements PlugIn
 		if ( !exporter.queryParameters( decon ) )
 			return false;
 
-		final List< Group< ViewDescription > > deconGroupBatches = decon.getFusionGroups();
-		int i = 0;
+		// the metrics of this run only
+		Metrics.reset();
 
-		for ( final Group< ViewDescription > deconGroup : Group.getGroupsSorted( deconGroupBatches ) )
+		final List< Group< ViewDescription > > deconGroupBatches = Group.getGroupsSorted( decon.getFusionGroups() );
+		final AtomicInteger i = new AtomicInteger();
+
+		// the input of the next group (e.g. timepoint) is prepared while the current one is deconvolved, and the result of the previous one is exported
+		// (the result counts against the memory budget until it is exported)
+		final boolean success = new TimepointPipeline< Group< ViewDescription >, DeconInput, RandomAccessibleInterval< FloatType > >(
+				deconGroup -> prepareInput( spimData, decon, deconGroup, service, i.incrementAndGet(), deconGroupBatches.size() ),
+				( deconGroup, input ) -> deconvolve( decon, input, service ),
+				( deconGroup, psi ) ->
+				{
+					final Pair< Double, String > transformedCal = TransformationTools.computeAverageCalibration( deconGroup, spimData.getViewRegistrations() );
+					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Approximate pixel size of fused image (without downsampling): " + transformedCal.getA() + " " + transformedCal.getB() );
+
+					if ( Calibrateable.class.isInstance( exporter ) )
+						((Calibrateable)exporter).setCalibration( transformedCal.getA(), transformedCal.getB() );
+
+					if ( !export( psi, decon, exporter, deconGroup ) )
+					{
+						IOFunctions.println( "ERROR exporting the image using '" + exporter.getClass().getSimpleName() + "'" );
+						return false;
+					}
+
+					return true;
+				},
+				deconGroup -> estimateInputBytes( decon, deconGroup ) )
+				.setResultEstimate( deconGroup -> estimateOutputBytes( decon ) ).run( deconGroupBatches );
+
+		service.shutdown();
+
+		if ( !success )
+			return false;
+
+		exporter.finish();
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
+
+		Metrics.endRun();
+
+		return true;
+	}
+
+	/**
+	 * The fused, normalized input images, weights and PSFs of one deconvolution
+	 */
+	protected static class DeconInput
+	{
+		final Group< ViewDescription > deconGroup;
+		final List< Group< ViewDescription > > deconVirtualViews;
+		final ProcessInputImages< ViewDescription > fusion;
+		final HashMap< Group< ViewDescription >, ArrayImg< FloatType, ? > > psfs;
+
+		public DeconInput(
+				final Group< ViewDescription > deconGroup,
+				final List< Group< ViewDescription > > deconVirtualViews,
+				final ProcessInputImages< ViewDescription > fusion,
+				final HashMap< Group< ViewDescription >, ArrayImg< FloatType, ? > > psfs )
 		{
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Deconvolving group " + (++i) + "/" + deconGroupBatches.size() + " (group=" + deconGroup + ")" );
+			this.deconGroup = deconGroup;
+			this.deconVirtualViews = deconVirtualViews;
+			this.fusion = fusion;
+			this.psfs = psfs;
+		}
+	}
+
+	/**
+	 * @param decon - the parameters
+	 * @param deconGroup - the group to deconvolve
+	 * @return the estimated memory required for the input images and weights of all 'virtual views'
+	 */
+	protected static long estimateInputBytes( final DeconvolutionGUI decon, final Group< ViewDescription > deconGroup )
+	{
+		final Interval bb = decon.getBoundingBox();
+		final double downsampling = Double.isNaN( decon.getDownsampling() ) ? 1.0 : decon.getDownsampling();
+
+		double voxels = 1;
+
+		for ( int d = 0; d < bb.numDimensions(); ++d )
+			voxels *= Math.ceil( bb.dimension( d ) / downsampling );
+
+		// image and weight (float) for every virtual view
+		return (long)Math.min( Long.MAX_VALUE / 2, voxels * 4 * 2 * decon.getDeconvolutionGrouping( deconGroup ).size() );
+	}
 
-			final Pair< Double, String > transformedCal = TransformationTools.computeAverageCalibration( deconGroup, spimData.getViewRegistrations() );
-			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Approximate pixel size of fused image (without downsampling): " + transformedCal.getA() + " " + transformedCal.getB() );
+	/**
+	 * @return memory of the deconvolved image (psi) of a group, which is kept until it is exported
+	 */
+	protected static long estimateOutputBytes( final DeconvolutionGUI decon )
+	{
+		final Interval bb = decon.getBoundingBox();
+		final double downsampling = Double.isNaN( decon.getDownsampling() ) ? 1.0 : decon.getDownsampling();
 
-			if ( Calibrateable.class.isInstance( exporter ) )
-				((Calibrateable)exporter).setCalibration( transformedCal.getA(), transformedCal.getB() );
+		double voxels = 1;
 
-			final List< Group< ViewDescription > > deconVirtualViews = Group.getGroupsSorted( decon.getDeconvolutionGrouping( deconGroup ) );
+		for ( int d = 0; d < bb.numDimensions(); ++d )
+			voxels *= Math.ceil( bb.dimension( d ) / downsampling );
 
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): This group contains the following 'virtual views':" );
+		return (long)Math.min( Long.MAX_VALUE / 2, voxels * 4 );
+	}
 
-			for ( final Group< ViewDescription > virtualView : deconVirtualViews )
-				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): " + Group.gvids( Group.getViewsSorted( virtualView.getViews() ) ) );
+	protected static DeconInput prepareInput(
+			final SpimData2 spimData,
+			final DeconvolutionGUI decon,
+			final Group< ViewDescription > deconGroup,
+			final ExecutorService service,
+			final int i,
+			final int numGroups )
+	{
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Preparing input of group " + i + "/" + numGroups + " (group=" + deconGroup + ")" );
 
-			final Interval bb = decon.getBoundingBox();
-			final double downsampling = decon.getDownsampling();
+		final List< Group< ViewDescription > > deconVirtualViews = Group.getGroupsSorted( decon.getDeconvolutionGrouping( deconGroup ) );
 
-			final ProcessInputImages< ViewDescription > fusion = new ProcessInputImages<>(
-					spimData,
-					deconVirtualViews,
-					service,
-					bb,
-					downsampling,
-					true,
-					FusionTools.defaultBlendingRange,
-					FusionTools.defaultBlendingBorder,
-					true,
-					decon.getBlendingRange(),
-					decon.getBlendingBorder() / ( Double.isNaN( downsampling ) ? 1.0f : (float)downsampling ),
-					decon.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null );
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): This group contains the following 'virtual views':" );
 
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusion of 'virtual views' " );
-			fusion.fuseGroups();
+		for ( final Group< ViewDescription > virtualView : deconVirtualViews )
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): " + Group.gvids( Group.getViewsSorted( virtualView.getViews() ) ) );
+
+		final Interval bb = decon.getBoundingBox();
+		final double downsampling = decon.getDownsampling();
+
+		final ProcessInputImages< ViewDescription > fusion = new ProcessInputImages<>(
+				spimData,
+				deconVirtualViews,
+				service,
+				bb,
+				downsampling,
+				true,
+				FusionTools.defaultBlendingRange,
+				FusionTools.defaultBlendingBorder,
+				true,
+				decon.getBlendingRange(),
+				decon.getBlendingBorder() / ( Double.isNaN( downsampling ) ? 1.0f : (float)downsampling ),
+				decon.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null );
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusion of 'virtual views' " );
+		fusion.fuseGroups();
+
+		if ( decon.getWeightCacheType() == ImgDataType.PRECOMPUTED && ProcessInputImages.defaultSinglePass )
+		{
+			final boolean copyImages = decon.getInputImgCacheType() == ImgDataType.PRECOMPUTED;
+
+			// images, weights and their normalization of all 'virtual views' in one parallel pass, written as cells of the copy factory
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Precomputing " + ( copyImages ? "fused input images and " : "" ) + "normalized weight images ... " );
+			fusion.precomputeGroups(
+					copyImages,
+					decon.getCopyFactory(),
+					FusionTools.alignBrickSize( FusionTools.defaultBrickSize, Util.getArrayFromValue( decon.getPsiCopyBlockSize(), FusionTools.defaultBrickSize.length ) ),
+					decon.getOSEMSpeedUp(),
+					decon.getAdditionalSmoothBlending(),
+					0.1f,
+					0.05f );
 
+			if ( decon.getInputImgCacheType() == ImgDataType.CACHED )
+			{
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Caching fused input images ... " );
+				fusion.cacheImages();
+			}
+		}
+		else
+		{
 			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Normalizing weights ... " );
 			fusion.normalizeWeights( decon.getOSEMSpeedUp(), decon.getAdditionalSmoothBlending(), 0.1f, 0.05f );
 
@@ -180,109 +306,114 @@ public class Image_Deconvolution implements PlugIn
 				fusion.cacheUnnormalizedWeights();
 				fusion.copyNormalizedWeights( decon.getCopyFactory() );
 			}
+		}
 
-			final ImgFactory< FloatType > psiFactory = decon.getPsiFactory();
-			final int[] blockSize = decon.getComputeBlockSize();
-			final int numIterations = decon.getNumIterations();
-			final PSFTYPE psfType = decon.getPSFType();
-			final boolean filterBlocksForContent = decon.testEmptyBlocks();
-			final boolean debug = decon.getDebugMode();
-			final int debugInterval = decon.getDebugInterval();
-			final ComputeBlockThreadFactory< ? > cptf = decon.getComputeBlockThreadFactory();
-			final boolean mul = decon.isMultiplicative();
-			final PsiInitFactory psiInitFactory = decon.getPsiInitFactory();
-
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Grouping, and transforming PSF's " );
+		final boolean mul = decon.isMultiplicative();
 
-			if ( mul )
-				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Making all PSF's the same size to support multiplicative updates." );
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Grouping, and transforming PSF's " );
 
-			final HashMap< Group< ViewDescription >, ArrayImg< FloatType, ? > > psfs =
-					PSFPreparation.loadGroupTransformPSFs( spimData.getPointSpreadFunctions(), fusion, mul );
+		if ( mul )
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Making all PSF's the same size to support multiplicative updates." );
 
-			try
-			{
-				if ( filterBlocksForContent )
-					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Setting up blocks for deconvolution and testing for empty ones that can be dropped." );
-				else
-					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Setting up blocks for deconvolution." );
+		final HashMap< Group< ViewDescription >, ArrayImg< FloatType, ? > > psfs =
+				PSFPreparation.loadGroupTransformPSFs( spimData.getPointSpreadFunctions(), fusion, mul );
 
-				final ArrayList< DeconView > deconViews = new ArrayList<>();
-
-				for ( final Group< ViewDescription > virtualView : Group.getGroupsSorted( fusion.getGroups() ) )
-				{
-					final DeconView view = new DeconView(
-							service,
-							fusion.getImages().get( virtualView ),
-							fusion.getNormalizedWeights().get( virtualView ),
-							psfs.get( virtualView ),
-							psfType,
-							blockSize,
-							cptf.numParallelBlocks(),
-							filterBlocksForContent );
-
-					if ( view.getNumBlocks() <= 0 )
-						return false;
+		return new DeconInput( deconGroup, deconVirtualViews, fusion, psfs );
+	}
 
-					view.setTitle( Group.gvids( virtualView ) );
-					deconViews.add( view );
+	/**
+	 * @param decon - the parameters
+	 * @param input - the prepared input
+	 * @param service - the executor service
+	 * @return the deconvolved image, null if it failed
+	 */
+	@SuppressWarnings("unchecked")
+	protected static RandomAccessibleInterval< FloatType > deconvolve(
+			final DeconvolutionGUI decon,
+			final DeconInput input,
+			final ExecutorService service )
+	{
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Deconvolving group " + input.deconGroup );
+
+		final ImgFactory< FloatType > psiFactory = decon.getPsiFactory();
+		final int[] blockSize = decon.getComputeBlockSize();
+		final int numIterations = decon.getNumIterations();
+		final PSFTYPE psfType = decon.getPSFType();
+		final boolean filterBlocksForContent = decon.testEmptyBlocks();
+		final boolean debug = decon.getDebugMode();
+		final int debugInterval = decon.getDebugInterval();
+		final ComputeBlockThreadFactory< ? > cptf = decon.getComputeBlockThreadFactory();
+		final boolean mul = decon.isMultiplicative();
+		final PsiInitFactory psiInitFactory = decon.getPsiInitFactory();
+
+		try
+		{
+			if ( filterBlocksForContent )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Setting up blocks for deconvolution and testing for empty ones that can be dropped." );
+			else
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Setting up blocks for deconvolution." );
 
-					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Added " + view );
-				}
+			final ArrayList< DeconView > deconViews = new ArrayList<>();
 
-				final DeconViews views = new DeconViews( deconViews, service );
+			for ( final Group< ViewDescription > virtualView : Group.getGroupsSorted( input.fusion.getGroups() ) )
+			{
+				final DeconView view = new DeconView(
+						service,
+						input.fusion.getImages().get( virtualView ),
+						input.fusion.getNormalizedWeights().get( virtualView ),
+						input.psfs.get( virtualView ),
+						psfType,
+						blockSize,
+						cptf.numParallelBlocks(),
+						filterBlocksForContent );
+
+				if ( view.getNumBlocks() <= 0 )
+					return null;
+
+				view.setTitle( Group.gvids( virtualView ) );
+				deconViews.add( view );
+
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Added " + view );
+			}
 
-				final MultiViewDeconvolution< ? > mvDecon;
+			final DeconViews views = new DeconViews( deconViews, service );
 
-				if ( mul )
-				{
-					if ( !ComputeBlockMulThreadCPUFactory.class.isInstance( cptf ) )
-					{
-						IOFunctions.println( "For multiplicative deconvolution only CPU is supported so far, sorry. Please open a github issue and I'll implement it." );
-						IOFunctions.println( "GITHUB page: https://github.com/PreibischLab/multiview-reconstruction/issues" );
-						return false;
-					}
+			final MultiViewDeconvolution< ? > mvDecon;
 
-					((ComputeBlockMulThreadCPUFactory)cptf).setNumViews( deconVirtualViews.size() );
-					mvDecon = new MultiViewDeconvolutionMul( views, numIterations, psiInitFactory, (ComputeBlockMulThreadCPUFactory)cptf, psiFactory );
-				}
-				else
+			if ( mul )
+			{
+				if ( !ComputeBlockMulThreadCPUFactory.class.isInstance( cptf ) )
 				{
-					mvDecon = new MultiViewDeconvolutionSeq( views, numIterations, psiInitFactory, (ComputeBlockThreadFactory< ComputeBlockSeqThread >)cptf, psiFactory );
+					IOFunctions.println( "For multiplicative deconvolution only CPU is supported so far, sorry. Please open a github issue and I'll implement it." );
+					IOFunctions.println( "GITHUB page: https://github.com/PreibischLab/multiview-reconstruction/issues" );
+					return null;
 				}
 
-				if ( !mvDecon.initWasSuccessful() )
-					return false;
-				mvDecon.setDebug( debug );
-				mvDecon.setDebugInterval( debugInterval );
-				mvDecon.runIterations();
-
-				if ( !export( mvDecon.getPSI(), decon, exporter, deconGroup ) )
-				{
-					IOFunctions.println( "ERROR exporting the image using '" + exporter.getClass().getSimpleName() + "'" );
-					return false;
-				}
+				((ComputeBlockMulThreadCPUFactory)cptf).setNumViews( input.deconVirtualViews.size() );
+				mvDecon = new MultiViewDeconvolutionMul( views, numIterations, psiInitFactory, (ComputeBlockMulThreadCPUFactory)cptf, psiFactory );
 			}
-			catch ( OutOfMemoryError oome )
+			else
 			{
-				oome.printStackTrace();
-
-				IOFunctions.println( "Out of memory.  Use smaller blocks, virtual/cached inputs, and check \"Edit > Options > Memory & Threads\"" );
-				IOFunctions.println( "Your java instance has access to a total amount of RAM of: " + Runtime.getRuntime().maxMemory() / (1024*1024) );
-
-				service.shutdown();
-
-				return false;
+				mvDecon = new MultiViewDeconvolutionSeq( views, numIterations, psiInitFactory, (ComputeBlockThreadFactory< ComputeBlockSeqThread >)cptf, psiFactory );
 			}
-		}
 
-		service.shutdown();
+			if ( !mvDecon.initWasSuccessful() )
+				return null;
+			mvDecon.setDebug( debug );
+			mvDecon.setDebugInterval( debugInterval );
+			mvDecon.runIterations();
 
-		exporter.finish();
+			return mvDecon.getPSI();
+		}
+		catch ( OutOfMemoryError oome )
+		{
+			oome.printStackTrace();
 
-		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
+			IOFunctions.println( "Out of memory.  Use smaller blocks, virtual/cached inputs, and check \"Edit > Options > Memory & Threads\"" );
+			IOFunctions.println( "Your java instance has access to a total amount of RAM of: " + Runtime.getRuntime().maxMemory() / (1024*1024) );
 
-		return true;
+			return null;
+		}
 	}
 
 	protected static boolean export(
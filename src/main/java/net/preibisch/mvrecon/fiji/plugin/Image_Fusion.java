@@ -26,8 +26,10 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.Sets;
@@ -36,6 +38,7 @@ import ij.IJ;
 import ij.ImageJ;
 import ij.plugin.PlugIn;
 import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewTransform;
 import mpicbg.spim.data.sequence.SetupImgLoader;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
@@ -45,6 +48,8 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.RealUnsignedShortConverter;
 import net.imglib2.converter.read.ConvertedRandomAccessibleInterval;
 import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.img.cell.AbstractCellImg;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.img.imageplus.ImagePlusImgFactory;
 import net.imglib2.realtransform.AffineTransform3D;
@@ -63,11 +68,16 @@ import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.process.export.Calibrateable;
 import net.preibisch.mvrecon.process.export.DisplayImage;
+import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.export.ImgExport;
+import net.preibisch.mvrecon.process.fusion.FusionStatistics;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonRigidTools;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.pipeline.TimepointPipeline;
 
 /**
  * Plugin to fuse images using transformations from the SpimData object
@@ -99,7 +109,6 @@ public class Image_Fusion implements PlugIn
 			return false;
 
 		final List< Group< ViewDescription > > groups = fusion.getFusionGroups();
-		int i = 0;
 
 		if ( !Double.isNaN( fusion.getAnisotropyFactor() ) ) // flatten the fused image
 		{
@@ -131,160 +140,319 @@ public class Image_Fusion implements PlugIn
 		// one common executerservice
 		final ExecutorService taskExecutor = Executors.newFixedThreadPool( Threads.numThreads() );
 
-		for ( final Group< ViewDescription > group : Group.getGroupsSorted( groups ) )
+		// the metrics of this run only
+		Metrics.reset();
+
+		final List< Group< ViewDescription > > sortedGroups = Group.getGroupsSorted( groups );
+		final AtomicInteger i = new AtomicInteger();
+
+		// the input views of the next group (e.g. timepoint) are loaded while the current group is fused, and the previous one is exported
+		// (a precomputed fused image counts against the memory budget until it is exported)
+		final boolean success = new TimepointPipeline< Group< ViewDescription >, Boolean, Callable< Boolean > >(
+				group -> prefetchInput( spimData, group, fusion.getDownsampling() ),
+				( group, prefetched ) -> fuseGroup( spimData, group, fusion, exporter, taskExecutor, i.incrementAndGet(), groups.size() ),
+				( group, export ) -> export.call(),
+				group -> estimateInputBytes( spimData, group, fusion.getDownsampling() ) )
+				.setResultEstimate( fusion.getCacheType() == 2 ? group -> estimateOutputBytes( spimData, group, fusion ) : null ).run( sortedGroups );
+
+		if ( !success )
 		{
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing group " + (++i) + "/" + groups.size() + " (group=" + group + ")" );
+			taskExecutor.shutdown();
+			return false;
+		}
 
-			final Pair< Double, String > transformedCal = TransformationTools.computeAverageCalibration( group, spimData.getViewRegistrations() );
-			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Approximate pixel size of fused image (without downsampling): " + transformedCal.getA() + " " + transformedCal.getB() );
+		exporter.finish();
 
-			if ( Calibrateable.class.isInstance( exporter ) )
-				((Calibrateable)exporter).setCalibration( transformedCal.getA(), transformedCal.getB() );
+		taskExecutor.shutdown();
 
-			final ArrayList< ViewId > viewsToUse;
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
 
-			if ( fusion.getNonRigidParameters().isActive() )
-			{
-				viewsToUse = NonRigidTools.assembleViewsToUse( spimData, group.getViews(), fusion.getNonRigidParameters().nonRigidAcrossTime() );
+		Metrics.endRun();
+
+		return true;
+	}
+
+	/**
+	 * Sets up the fusion of one group, which (if precomputed) also computes the fused image.
+	 *
+	 * @return the export of the fused image (to be called after this method returned), null if it failed
+	 */
+	protected static Callable< Boolean > fuseGroup(
+			final SpimData2 spimData,
+			final Group< ViewDescription > group,
+			final FusionGUI fusion,
+			final ImgExport exporter,
+			final ExecutorService taskExecutor,
+			final int i,
+			final int numGroups )
+	{
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Fusing group " + i + "/" + numGroups + " (group=" + group + ")" );
+
+		final Pair< Double, String > transformedCal = TransformationTools.computeAverageCalibration( group, spimData.getViewRegistrations() );
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Approximate pixel size of fused image (without downsampling): " + transformedCal.getA() + " " + transformedCal.getB() );
+
+		final ArrayList< ViewId > viewsToUse;
+
+		if ( fusion.getNonRigidParameters().isActive() )
+		{
+			viewsToUse = NonRigidTools.assembleViewsToUse( spimData, group.getViews(), fusion.getNonRigidParameters().nonRigidAcrossTime() );
+
+			if ( viewsToUse == null )
+				return null;
 
-				if ( viewsToUse == null )
-					return false;
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Non-Rigid Views being used for current group" );
 
-				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Non-Rigid Views being used for current group" );
+			for ( final ViewId v : viewsToUse )
+				IOFunctions.println( "\t" + Group.pvid( v ) );
+		}
+		else
+		{
+			viewsToUse = null;
+		}
+
+		final Interval boundingBox = fusion.getBoundingBox();
 
-				for ( final ViewId v : viewsToUse )
-					IOFunctions.println( "\t" + Group.pvid( v ) );
+		final RandomAccessibleInterval< FloatType > virtual;
+
+		if ( Double.isNaN( fusion.getAnisotropyFactor() ) ) // no flattening of the fused image
+		{
+			if ( fusion.getNonRigidParameters().isActive() )
+			{
+				virtual = NonRigidTools.fuseVirtualInterpolatedNonRigid(
+								spimData,
+								group.getViews(),
+								viewsToUse,
+								fusion.getNonRigidParameters().getLabels(),
+								fusion.useBlending(),
+								fusion.useContentBased(),
+								fusion.getNonRigidParameters().showDistanceMap(),
+								Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
+								fusion.getNonRigidParameters().getAlpha(),
+								false,
+								fusion.getInterpolation(),
+								boundingBox,
+								fusion.getDownsampling(),
+								fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+								taskExecutor ).getA();
 			}
 			else
 			{
-				viewsToUse = null;
+				virtual = FusionTools.fuseVirtual(
+					spimData,
+					group.getViews(),
+					fusion.useBlending(),
+					fusion.useContentBased(),
+					fusion.getInterpolation(),
+					boundingBox,
+					fusion.getDownsampling(),
+					fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+					taskExecutor ).getA();
 			}
+		}
+		else
+		{
+			// update the transformations
+			final HashMap< ViewId, AffineTransform3D > registrations = new HashMap<>();
 
-			final Interval boundingBox = fusion.getBoundingBox();
-
-			final RandomAccessibleInterval< FloatType > virtual;
+			// get updated registration for views to fuse AND all other views that may influence the fusion
+			for ( final ViewId viewId : fusion.getNonRigidParameters().isActive() ?
+					Sets.union( group.getViews(), viewsToUse.stream().collect( Collectors.toSet() ) ) : group.getViews() )
+			{
+				final ViewRegistration vr = spimData.getViewRegistrations().getViewRegistration( viewId );
+				vr.updateModel();
+				final AffineTransform3D model = vr.getModel().copy();
+				final AffineTransform3D aniso = new AffineTransform3D();
+				aniso.set(
+						1.0, 0.0, 0.0, 0.0,
+						0.0, 1.0, 0.0, 0.0,
+						0.0, 0.0, 1.0/fusion.getAnisotropyFactor(), 0.0 );
+				model.preConcatenate( aniso );
+				registrations.put( viewId, model );
+			}
 
-			if ( Double.isNaN( fusion.getAnisotropyFactor() ) ) // no flattening of the fused image
+			if ( fusion.getNonRigidParameters().isActive() )
+			{
+				virtual = NonRigidTools.fuseVirtualInterpolatedNonRigid(
+								spimData.getSequenceDescription().getImgLoader(),
+								registrations,
+								spimData.getViewInterestPoints().getViewInterestPoints(),
+								spimData.getSequenceDescription().getViewDescriptions(),
+								group.getViews(),
+								viewsToUse,
+								fusion.getNonRigidParameters().getLabels(),
+								fusion.useBlending(),
+								fusion.useContentBased(),
+								fusion.getNonRigidParameters().showDistanceMap(),
+								Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
+								fusion.getNonRigidParameters().getAlpha(),
+								false,
+								fusion.getInterpolation(),
+								boundingBox,
+								fusion.getDownsampling(),
+								fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+								taskExecutor ).getA();
+			}
+			else
 			{
-				if ( fusion.getNonRigidParameters().isActive() )
-				{
-					virtual = NonRigidTools.fuseVirtualInterpolatedNonRigid(
-									spimData,
-									group.getViews(),
-									viewsToUse,
-									fusion.getNonRigidParameters().getLabels(),
-									fusion.useBlending(),
-									fusion.useContentBased(),
-									fusion.getNonRigidParameters().showDistanceMap(),
-									Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
-									fusion.getNonRigidParameters().getAlpha(),
-									false,
-									fusion.getInterpolation(),
-									boundingBox,
-									fusion.getDownsampling(),
-									fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
-									taskExecutor ).getA();
-				}
-				else
-				{
-					virtual = FusionTools.fuseVirtual(
-						spimData,
+				virtual = FusionTools.fuseVirtual(
+						spimData.getSequenceDescription().getImgLoader(),
+						registrations,
+						spimData.getSequenceDescription().getViewDescriptions(),
 						group.getViews(),
 						fusion.useBlending(),
 						fusion.useContentBased(),
 						fusion.getInterpolation(),
 						boundingBox,
 						fusion.getDownsampling(),
-						fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null ).getA();
-				}
-			}
-			else
-			{
-				// update the transformations
-				final HashMap< ViewId, AffineTransform3D > registrations = new HashMap<>();
-
-				// get updated registration for views to fuse AND all other views that may influence the fusion
-				for ( final ViewId viewId : fusion.getNonRigidParameters().isActive() ?
-						Sets.union( group.getViews(), viewsToUse.stream().collect( Collectors.toSet() ) ) : group.getViews() )
-				{
-					final ViewRegistration vr = spimData.getViewRegistrations().getViewRegistration( viewId );
-					vr.updateModel();
-					final AffineTransform3D model = vr.getModel().copy();
-					final AffineTransform3D aniso = new AffineTransform3D();
-					aniso.set(
-							1.0, 0.0, 0.0, 0.0,
-							0.0, 1.0, 0.0, 0.0,
-							0.0, 0.0, 1.0/fusion.getAnisotropyFactor(), 0.0 );
-					model.preConcatenate( aniso );
-					registrations.put( viewId, model );
-				}
-
-				if ( fusion.getNonRigidParameters().isActive() )
-				{
-					virtual = NonRigidTools.fuseVirtualInterpolatedNonRigid(
-									spimData.getSequenceDescription().getImgLoader(),
-									registrations,
-									spimData.getViewInterestPoints().getViewInterestPoints(),
-									spimData.getSequenceDescription().getViewDescriptions(),
-									group.getViews(),
-									viewsToUse,
-									fusion.getNonRigidParameters().getLabels(),
-									fusion.useBlending(),
-									fusion.useContentBased(),
-									fusion.getNonRigidParameters().showDistanceMap(),
-									Util.getArrayFromValue( fusion.getNonRigidParameters().getControlPointDistance(), 3 ),
-									fusion.getNonRigidParameters().getAlpha(),
-									false,
-									fusion.getInterpolation(),
-									boundingBox,
-									fusion.getDownsampling(),
-									fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
-									taskExecutor ).getA();
-				}
-				else
-				{
-					virtual = FusionTools.fuseVirtual(
-							spimData.getSequenceDescription().getImgLoader(),
-							registrations,
-							spimData.getSequenceDescription().getViewDescriptions(),
-							group.getViews(),
-							fusion.useBlending(),
-							fusion.useContentBased(),
-							fusion.getInterpolation(),
-							boundingBox,
-							fusion.getDownsampling(),
-							fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null ).getA();
-				}
+						fusion.adjustIntensities() ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+						taskExecutor ).getA();
 			}
+		}
 
-			if ( fusion.getPixelType() == 1 ) // 16 bit
+		final Callable< Boolean > export;
+
+		if ( fusion.getPixelType() == 1 ) // 16 bit
+		{
+			final double[] inputRange = getInputBitDepth( group, spimData );
+
+			if ( inputRange != null )
 			{
-				final double[] minmax = determineInputBitDepth( group, spimData, virtual );
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Range for conversion to 16-bit, min=" + minmax[ 0 ] + ", max=" + minmax[ 1 ] );
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Range for conversion to 16-bit, min=" + inputRange[ 0 ] + ", max=" + inputRange[ 1 ] );
 
-				if ( !cacheAndExport(
+				final RandomAccessibleInterval< UnsignedShortType > processed = cache(
 						new ConvertedRandomAccessibleInterval< FloatType, UnsignedShortType >(
-								virtual, new RealUnsignedShortConverter<>( minmax[ 0 ], minmax[ 1 ] ), new UnsignedShortType() ),
-						taskExecutor, new UnsignedShortType(), fusion, exporter, group, minmax ) )
-					return false;
+								virtual, new RealUnsignedShortConverter<>( inputRange[ 0 ], inputRange[ 1 ] ), new UnsignedShortType() ),
+						taskExecutor, new UnsignedShortType(), fusion, null );
+
+				export = () -> export( processed, fusion, exporter, group, inputRange );
 			}
 			else
 			{
-				if ( !cacheAndExport( virtual, taskExecutor, new FloatType(), fusion, exporter, group, null ) )
-					return false;
+				export = fuseOnce16bit( virtual, taskExecutor, fusion, exporter, group );
 			}
 		}
+		else
+		{
+			final RandomAccessibleInterval< FloatType > processed = cache( virtual, taskExecutor, new FloatType(), fusion, null );
 
-		exporter.finish();
+			export = () -> export( processed, fusion, exporter, group, null );
+		}
 
-		taskExecutor.shutdown();
+		// the calibration of the exporter is set right before the export, since the next group is already fused at that time
+		return () ->
+		{
+			if ( Calibrateable.class.isInstance( exporter ) )
+				((Calibrateable)exporter).setCalibration( transformedCal.getA(), transformedCal.getB() );
 
-		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
+			return export.call();
+		};
+	}
+
+	/**
+	 * Loads the input views of a group ahead of time if their image loader keeps them cached (i.e. they are cell images),
+	 * other image loaders read on access anyways, so loading them ahead would only read them twice.
+	 *
+	 * @param spimData - the data
+	 * @param group - the group
+	 * @param downsampling - the downsampling of the fusion (or NaN)
+	 * @return true
+	 */
+	protected static Boolean prefetchInput( final SpimData2 spimData, final Group< ViewDescription > group, final double downsampling )
+	{
+		for ( final ViewDescription vd : group )
+		{
+			if ( !vd.isPresent() )
+				continue;
+
+			// concatenate without updating the ViewRegistration, the fusion might access it at the same time
+			final AffineTransform3D model = new AffineTransform3D();
+
+			for ( final ViewTransform t : spimData.getViewRegistrations().getViewRegistration( vd ).getTransformList() )
+				model.concatenate( t.asAffine3D() );
+
+			if ( !Double.isNaN( downsampling ) )
+				TransformVirtual.scaleTransform( model, 1.0 / downsampling );
+
+			// the same resolution level the fusion will use
+			final RandomAccessibleInterval< ? > img = DownsampleTools.openDownsampled( spimData.getSequenceDescription().getImgLoader(), vd, model );
+
+			// accessing the cells loads them into the cache of the image loader
+			if ( AbstractCellImg.class.isInstance( img ) )
+			{
+				long numCells = 0;
+
+				for ( final Object cell : ( (AbstractCellImg< ?, ?, ?, ? >)img ).getCells() )
+					if ( cell != null )
+						++numCells;
+
+				Metrics.counter( "fusion.prefetchedCells" ).add( numCells );
+			}
+		}
 
 		return true;
 	}
 
+	/**
+	 * @return estimated memory of the input views of a group at the resolution used for fusion
+	 */
+	protected static long estimateInputBytes( final SpimData2 spimData, final Group< ViewDescription > group, final double downsampling )
+	{
+		final long ds = Double.isNaN( downsampling ) ? 1 : Math.max( 1, Math.round( downsampling ) );
+
+		long bytes = 0;
+
+		for ( final ViewDescription vd : group )
+		{
+			final long b = TimepointPipeline.estimateBytes( vd, new long[] { ds, ds, ds }, 2 );
+
+			if ( b == Long.MAX_VALUE )
+				return Long.MAX_VALUE;
+
+			bytes += b;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * @return memory of the precomputed fused image of a group (16 bit output of non-8/16 bit input is precomputed as float)
+	 */
+	protected static long estimateOutputBytes( final SpimData2 spimData, final Group< ViewDescription > group, final FusionGUI fusion )
+	{
+		final Interval bb = fusion.getBoundingBox();
+		final double downsampling = Double.isNaN( fusion.getDownsampling() ) ? 1.0 : fusion.getDownsampling();
+
+		double voxels = 1;
+
+		for ( int d = 0; d < bb.numDimensions(); ++d )
+			voxels *= Math.ceil( bb.dimension( d ) / downsampling );
+
+		final boolean shortOutput = fusion.getPixelType() == 1 && getInputBitDepth( group, spimData ) != null;
+
+		return (long)Math.min( Long.MAX_VALUE / 2, voxels * ( shortOutput ? 2 : 4 ) );
+	}
+
 	public static double[] determineInputBitDepth( final Group< ViewDescription > group, final SpimData2 spimData, final RandomAccessibleInterval< FloatType > virtual )
+	{
+		final double[] inputRange = getInputBitDepth( group, spimData );
+
+		if ( inputRange != null )
+			return inputRange;
+		else
+		{
+			IOFunctions.println( "WARNING: You are saving a non-8/16 bit input as 16bit, have to manually determine min/max of the fused image." );
+
+			final float[] minmax = FusionTools.minMax( virtual );
+			return new double[]{ minmax[ 0 ], minmax[ 1 ] };
+		}
+	}
+
+	/**
+	 * @param group - the group to fuse
+	 * @param spimData - the data
+	 * @return the range of the input pixel type for 8 and 16 bit input, otherwise null
+	 */
+	public static double[] getInputBitDepth( final Group< ViewDescription > group, final SpimData2 spimData )
 	{
 		SetupImgLoader< ? > loader = spimData.getSequenceDescription().getImgLoader().getSetupImgLoader( group.iterator().next().getViewSetupId() );
 		Object type = loader.getImageType();
@@ -293,32 +461,98 @@ public class Image_Fusion implements PlugIn
 			return new double[] { 0, 255 };
 		else if ( UnsignedShortType.class.isInstance( type ) )
 			return new double[] { 0, 65535 };
+		else
+			return null;
+	}
+
+	/**
+	 * Saves a non-8/16 bit input as 16 bit, the fusion is evaluated only once. If the fused image is precomputed, it is
+	 * precomputed as float, the exact min and max are collected from the precomputed image and it is scaled to 16 bit
+	 * during the export. Otherwise the conversion uses the range estimated from a sparse sample and clamps values outside
+	 * of it, the statistics of the actual image are collected while the cells are computed and reported afterwards.
+	 *
+	 * @param virtual - the virtual fused image
+	 * @param taskExecutor - the executor
+	 * @param fusion - the fusion parameters
+	 * @param exporter - the exporter
+	 * @param group - the group
+	 * @return the export (to be called after this method returned, e.g. while the next group is fused)
+	 */
+	protected static Callable< Boolean > fuseOnce16bit(
+			final RandomAccessibleInterval< FloatType > virtual,
+			final ExecutorService taskExecutor,
+			final FusionGUI fusion,
+			final ImgExport exporter,
+			final Group< ViewDescription > group )
+	{
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Saving a non-8/16 bit input as 16bit, estimating the range of the fused image ..." );
+
+		final FusionStatistics stats = FusionStatistics.estimate( virtual );
+		final RandomAccessibleInterval< UnsignedShortType > processed;
+		final double[] minmax;
+
+		if ( fusion.getCacheType() == 2 ) // Precomputed
+		{
+			// fuse once as float, the statistics of the precomputed image do not evaluate the fusion again
+			final RandomAccessibleInterval< FloatType > precomputed = cache( virtual, taskExecutor, new FloatType(), fusion, null );
+
+			stats.addAll( precomputed, taskExecutor );
+			minmax = stats.getMinMax();
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Range for conversion to 16-bit, min=" + minmax[ 0 ] + ", max=" + minmax[ 1 ] );
+
+			processed = new ConvertedRandomAccessibleInterval< FloatType, UnsignedShortType >(
+					precomputed, new RealUnsignedShortConverter<>( minmax[ 0 ], minmax[ 1 ] ), new UnsignedShortType() );
+		}
 		else
 		{
-			IOFunctions.println( "WARNING: You are saving a non-8/16 bit input as 16bit, have to manually determine min/max of the fused image." );
+			minmax = stats.getEstimatedMinMax();
 
-			final float[] minmax = FusionTools.minMax( virtual );
-			return new double[]{ minmax[ 0 ], minmax[ 1 ] };
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Range for conversion to 16-bit, min=" + minmax[ 0 ] + ", max=" + minmax[ 1 ] );
+
+			processed = new ConvertedRandomAccessibleInterval< FloatType, UnsignedShortType >(
+					cache( virtual, taskExecutor, new FloatType(), fusion, stats ),
+					new RealUnsignedShortConverter<>( minmax[ 0 ], minmax[ 1 ] ), new UnsignedShortType() );
 		}
+
+		return () ->
+		{
+			final boolean success = export( processed, fusion, exporter, group, minmax );
+
+			if ( stats.getCount() > 0 )
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Intensity statistics of the fused image: " + stats );
+
+			return success;
+		};
 	}
 
-	protected static < T extends RealType< T > & NativeType< T > > boolean cacheAndExport(
+	protected static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > cache(
 			final RandomAccessibleInterval< T > output,
 			final ExecutorService taskExecutor,
 			final T type,
 			final FusionGUI fusion,
-			final ImgExport exporter,
-			final Group< ViewDescription > group,
-			final double[] minmax )
+			final FusionStatistics stats )
 	{
 		RandomAccessibleInterval< T > processedOutput = null;
 
 		if ( fusion.getCacheType() == 0 ) // Virtual
 			processedOutput = output;
 		else if ( fusion.getCacheType() == 1 ) // Cached
-			processedOutput = FusionTools.cacheRandomAccessibleInterval( output, FusionGUI.maxCacheSize, type, FusionGUI.cellDim );
+			processedOutput = FusionTools.cacheRandomAccessibleInterval( output, FusionGUI.maxCacheSize, type, stats, FusionGUI.cellDim );
 		else // Precomputed
 		{
+			if ( FusionTools.useBricks( output ) )
+			{
+				// compute the fused image in bricks (aligned to the cell grid, in Morton order) so the input cells are reused
+				final long[] dim = new long[ output.numDimensions() ];
+				output.dimensions( dim );
+
+				final Img< T > img = new ImagePlusImgFactory< T >( type ).create( dim );
+				FusionTools.copyImgBricks( output, img, taskExecutor, true, FusionTools.alignBrickSize( FusionTools.defaultBrickSize, FusionGUI.cellDim ) );
+
+				return img;
+			}
+
 			if ( FloatType.class.isInstance( type ) )
 			{
 				//IJ.log( "fast float" );
@@ -337,7 +571,16 @@ public class Image_Fusion implements PlugIn
 			}
 		}
 
+		return processedOutput;
+	}
 
+	protected static < T extends RealType< T > & NativeType< T > > boolean export(
+			final RandomAccessibleInterval< T > processedOutput,
+			final FusionGUI fusion,
+			final ImgExport exporter,
+			final Group< ViewDescription > group,
+			final double[] minmax )
+	{
 		final String title = getTitle( fusion.getSplittingType(), group );
 
 		if ( minmax == null )
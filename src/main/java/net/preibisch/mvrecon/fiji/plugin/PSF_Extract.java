@@ -25,19 +25,23 @@ package net.preibisch.mvrecon.fiji.plugin;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.type.numeric.real.FloatType;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunction;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
-import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.psf.PSFEngine;
 import net.preibisch.mvrecon.process.psf.PSFExtraction;
 
 public class PSF_Extract implements PlugIn
@@ -155,26 +159,31 @@ public class PSF_Extract implements PlugIn
 
 		int count = 0;
 
+		// all views are extracted in parallel
+		final ExecutorService service = Threads.createFixedExecutorService();
+		final HashMap< ViewId, PSFEngine > psfs = PSFEngine.extract( spimData, viewIds, label, corresponding, new long[]{ psfSizeX, psfSizeY, psfSizeZ }, service );
+		service.shutdown();
+
 		for ( final ViewId viewId : viewIds )
 		{
-			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracting PSF for " + Group.pvid( viewId ) + " ... " );
-
-			final PSFExtraction< FloatType > psf = new PSFExtraction< FloatType >( spimData, viewId, label, corresponding, new FloatType(), new long[]{ psfSizeX, psfSizeY, psfSizeZ } );
+			final PSFEngine psf = psfs.get( viewId );
 
-			if ( psf.hadDetections() )
+			if ( psf.getNumBeads() > 0 )
 			{
 				++count;
 
+				final ArrayImg< FloatType, ? > img = psf.getPSF();
+
 				if ( removeMinIntensity )
-					psf.removeMinProjections();
+					PSFExtraction.removeMinProjections( img );
 
-				spimData.getPointSpreadFunctions().addPSF( viewId, new PointSpreadFunction( spimData, viewId, psf.getPSF() ) );
-				
-				if ( saveXml )
-					SpimData2.saveXML( spimData, xmlFileName, clusterExtension );
+				spimData.getPointSpreadFunctions().addPSF( viewId, new PointSpreadFunction( spimData, viewId, img ) );
 			}
 		}
 
+		if ( saveXml && count > 0 )
+			SpimData2.saveXML( spimData, xmlFileName, clusterExtension );
+
 		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracted " + count + "/" + viewIds.size() + " PSFs." );
 
 		return true;
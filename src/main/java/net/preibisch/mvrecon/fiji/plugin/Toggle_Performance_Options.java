@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.plugin;
+
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LazyBioformatsPlanes;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LegacyLightSheet7ImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LegacyLightSheetZ1ImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.pyramidcache.PyramidCacheWrappedImgLoader;
+import net.preibisch.mvrecon.process.deconvolution.util.PSFKernelCache;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+
+/**
+ * Global options of the processing pipeline that are not part of the individual dialogs (macro-recordable).
+ */
+public class Toggle_Performance_Options implements PlugIn
+{
+	@Override
+	public void run( String arg0 )
+	{
+		final GenericDialog gd = new GenericDialog( "Toggle Performance Options" );
+		gd.addCheckbox( "Write_metrics_report (.metrics.json/.csv next to the XML when saving)", Metrics.writeReports );
+		gd.addCheckbox( "Save_only_changes to a journal (.xml.journal next to the XML)", XmlIoSpimData2.defaultUseJournal );
+		gd.addNumericField( "Maximal_journal_entries (then the complete XML is written)", XmlIoSpimData2.maxJournalEntries, 0 );
+		gd.addCheckbox( "Read_and_write_XML_using_StAX", XmlIoSpimData2.useStAX );
+		gd.addCheckbox( "Load_Zeiss_Lightsheet_Z.1/7_planes_lazily (new datasets and XMLs without the setting)", LegacyLightSheetZ1ImgLoader.defaultLazyLoading );
+		gd.addNumericField( "Maximal_readers_per_file (lazy loading)", LazyBioformatsPlanes.defaultNumReaders, 0 );
+		gd.addCheckbox( "Cache_deconvolution_kernels on disk (" + PSFKernelCache.getCacheDirectory() + ")", PSFKernelCache.defaultUseDiskCache );
+		gd.addNumericField( "Maximal_size_of_kernel_cache (MB)", PSFKernelCache.defaultMaxDiskCacheBytes / ( 1024 * 1024 ), 0 );
+		gd.addCheckbox( "Cache_downsampled_levels of single-resolution datasets when loading (" + PyramidCacheWrappedImgLoader.defaultContainerName + ")", PyramidCacheWrappedImgLoader.defaultWrapOnLoad );
+		gd.showDialog();
+
+		if ( gd.wasCanceled() )
+			return;
+
+		Metrics.writeReports = gd.getNextBoolean();
+		XmlIoSpimData2.defaultUseJournal = gd.getNextBoolean();
+		XmlIoSpimData2.maxJournalEntries = Math.max( 0, (int)Math.round( gd.getNextNumber() ) );
+		XmlIoSpimData2.useStAX = gd.getNextBoolean();
+		LegacyLightSheetZ1ImgLoader.defaultLazyLoading = LegacyLightSheet7ImgLoader.defaultLazyLoading = gd.getNextBoolean();
+		LazyBioformatsPlanes.defaultNumReaders = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
+		PSFKernelCache.defaultUseDiskCache = gd.getNextBoolean();
+		PSFKernelCache.defaultMaxDiskCacheBytes = Math.max( 0, Math.round( gd.getNextNumber() ) ) * 1024l * 1024l;
+		PyramidCacheWrappedImgLoader.defaultWrapOnLoad = gd.getNextBoolean();
+
+		IOFunctions.println( "Metrics reports: " + ( Metrics.writeReports ? "ON" : "OFF" ) );
+		IOFunctions.println( "XML journal: " + ( XmlIoSpimData2.defaultUseJournal ? "ON (max " + XmlIoSpimData2.maxJournalEntries + " entries)" : "OFF (next save compacts an existing journal into the XML)" ) );
+		IOFunctions.println( "StAX XML reading/writing: " + ( XmlIoSpimData2.useStAX ? "ON" : "OFF" ) );
+		IOFunctions.println( "Lazy loading of Zeiss Lightsheet Z.1/7: " + ( LegacyLightSheetZ1ImgLoader.defaultLazyLoading ? "ON (max " + LazyBioformatsPlanes.defaultNumReaders + " readers per file)" : "OFF" ) );
+		IOFunctions.println( "Disk cache for deconvolution kernels: " + ( PSFKernelCache.defaultUseDiskCache ? "ON (max " + PSFKernelCache.defaultMaxDiskCacheBytes / ( 1024 * 1024 ) + " MB in " + PSFKernelCache.getCacheDirectory() + ")" : "OFF" ) );
+		IOFunctions.println( "Caching downsampled levels when loading: " + ( PyramidCacheWrappedImgLoader.defaultWrapOnLoad ? "ON" : "OFF" ) );
+	}
+}
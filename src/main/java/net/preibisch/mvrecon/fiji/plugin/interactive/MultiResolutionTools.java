@@ -35,6 +35,9 @@ import bdv.util.Bdv;
 import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvPointsSource;
+import bdv.util.BdvStackSource;
+import bdv.util.volatiles.SharedQueue;
+import bdv.util.volatiles.VolatileView;
 import bdv.util.volatiles.VolatileViews;
 import mpicbg.models.AffineModel1D;
 import mpicbg.spim.data.generic.sequence.BasicImgLoader;
@@ -43,6 +46,8 @@ import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.type.volatiles.VolatileFloatType;
@@ -61,6 +66,9 @@ import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.ModelGrid;
 
 public class MultiResolutionTools
 {
+	// threads that compute fused cells in the background for BigDataViewer
+	public static int defaultNumFetcherThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+
 	public static void updateBDV( final Bdv bdv )
 	{
 		final BdvOptions options = Bdv.options();
@@ -198,13 +206,12 @@ public class MultiResolutionTools
 		return multiRes;
 	}
 
-	public static ArrayList< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > createMultiResolutionAffine(
-			final SpimData2 spimData,
-			final Collection< ? extends ViewId > viewIds,
-			final Interval boundingBox,
-			final int minDS,
-			final int maxDS,
-			final int dsInc )
+	/**
+	 * @param spimData - the data
+	 * @param viewIds - the views
+	 * @return copies of the current (updated) registrations of the views
+	 */
+	public static HashMap< ViewId, AffineTransform3D > getRegistrations( final SpimData2 spimData, final Collection< ? extends ViewId > viewIds )
 	{
 		final HashMap< ViewId, AffineTransform3D > registrations = new HashMap<>();
 
@@ -215,9 +222,20 @@ public class MultiResolutionTools
 			registrations.put( viewId, vr.getModel().copy() );
 		}
 
+		return registrations;
+	}
+
+	public static ArrayList< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > createMultiResolutionAffine(
+			final SpimData2 spimData,
+			final Collection< ? extends ViewId > viewIds,
+			final Interval boundingBox,
+			final int minDS,
+			final int maxDS,
+			final int dsInc )
+	{
 		return createMultiResolutionAffine(
 				spimData.getSequenceDescription().getImgLoader(),
-				registrations,
+				getRegistrations( spimData, viewIds ),
 				spimData.getSequenceDescription().getViewDescriptions(),
 				viewIds, true, false, 1, boundingBox, null, minDS, maxDS, dsInc );
 	}
@@ -258,6 +276,45 @@ public class MultiResolutionTools
 		return multiRes;
 	}
 
+	/**
+	 * @param numLevels - the maximal number of resolution levels of the sources that will share the queue
+	 * @return a queue whose fetcher threads compute the cells of all levels, one priority per level
+	 */
+	public static SharedQueue createFetcherQueue( final int numLevels )
+	{
+		return new SharedQueue( defaultNumFetcherThreads, Math.max( 1, numLevels ) );
+	}
+
+	/**
+	 * Shows a fused multiresolution pyramid as a volatile source, the cells are computed by the fetcher threads of the
+	 * queue: coarse levels before fine levels and the most recently requested cells (i.e. the current view) first.
+	 * BigDataViewer displays the coarse levels immediately and refines the image as cells finish.
+	 *
+	 * @param multiRes - the (virtual) fused pyramid, full resolution first
+	 * @param name - name of the source
+	 * @param queue - the fetcher queue (can be shared by several sources), see {@link #createFetcherQueue(int)}
+	 * @param options - the BDV options (e.g. addTo an existing BDV)
+	 * @return the BDV source
+	 */
+	public static BdvStackSource< VolatileFloatType > showProgressive(
+			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes,
+			final String name,
+			final SharedQueue queue,
+			final BdvOptions options )
+	{
+		final ArrayList< Pair< RandomAccessibleInterval< VolatileFloatType >, AffineTransform3D > > volatileMultiRes =
+				createVolatileRAIs( multiRes, FusionGUI.maxCacheSize, FusionGUI.cellDim, queue );
+
+		final BdvStackSource< VolatileFloatType > source = BdvFunctions.show( new MultiResolutionSource( volatileMultiRes, name ), options );
+
+		// lets BDV drop requests for cells that are not visible anymore when the view changes
+		for ( final Pair< RandomAccessibleInterval< VolatileFloatType >, AffineTransform3D > level : volatileMultiRes )
+			if ( VolatileView.class.isInstance( level.getA() ) )
+				source.getBdvHandle().getCacheControls().addCacheControl( ( (VolatileView< ?, ? >)level.getA() ).getVolatileViewData().getCacheControl() );
+
+		return source;
+	}
+
 	public static ArrayList< Pair< RandomAccessibleInterval< VolatileFloatType >, AffineTransform3D > > createVolatileRAIs(
 			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes )
 	{
@@ -268,18 +325,40 @@ public class MultiResolutionTools
 			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes,
 			final long maxCacheSize,
 			final int[] cellDim )
+	{
+		return createVolatileRAIs( multiRes, maxCacheSize, cellDim, createFetcherQueue( multiRes.size() ) );
+	}
+
+	/**
+	 * @param multiRes - the (virtual) fused pyramid, full resolution first
+	 * @param maxCacheSize - max number of cells per level
+	 * @param cellDim - the cell size
+	 * @param queue - the fetcher queue, level i is computed with priority (numLevels - 1 - i), so the coarsest level comes first
+	 * @return the cached, volatile pyramid
+	 */
+	public static ArrayList< Pair< RandomAccessibleInterval< VolatileFloatType >, AffineTransform3D > > createVolatileRAIs(
+			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes,
+			final long maxCacheSize,
+			final int[] cellDim,
+			final SharedQueue queue )
 	{
 		final ArrayList< Pair< RandomAccessibleInterval< VolatileFloatType >, AffineTransform3D > > volatileMultiRes = new ArrayList<>();
 
-		for ( final Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > virtualImg : multiRes )
+		for ( int level = 0; level < multiRes.size(); ++level )
 		{
+			final Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > virtualImg = multiRes.get( level );
+
 			final RandomAccessibleInterval< FloatType > cachedImg = FusionTools.cacheRandomAccessibleInterval(
 					virtualImg.getA(),
-					FusionGUI.maxCacheSize,
+					maxCacheSize,
 					new FloatType(),
-					FusionGUI.cellDim );
+					cellDim );
+
+			// coarse levels first, newest requests (= what is currently displayed) to the front of the queue
+			final int priority = Math.min( multiRes.size() - 1 - level, queue.getNumPriorities() - 1 );
+			final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, priority, true );
 
-			final RandomAccessibleInterval< VolatileFloatType > volatileImg = VolatileViews.wrapAsVolatile( cachedImg );
+			final RandomAccessibleInterval< VolatileFloatType > volatileImg = VolatileViews.wrapAsVolatile( cachedImg, queue, hints );
 			//DisplayImage.getImagePlusInstance( virtual, true, "ds="+ds, 0, 255 ).show();
 			//ImageJFunctions.show( virtualVolatile );
 
@@ -24,6 +24,7 @@ package net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise;
 
 import ij.gui.GenericDialog;
 import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.TransformationModelGUI;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
@@ -49,14 +50,14 @@ public class IterativeClosestPointGUI extends PairwiseGUI
 	public IterativeClosestPointPairwise< InterestPoint > pairwiseMatchingInstance()
 	{
 		final IterativeClosestPointParameters ip = new IterativeClosestPointParameters( model.getModel() );
-		return new IterativeClosestPointPairwise< InterestPoint >( ip );
+		return new IterativeClosestPointPairwise< InterestPoint >( ip, Threads.sharedFlexibleExecutorService() );
 	}
 
 	@Override
 	public MatcherPairwise< GroupedInterestPoint< ViewId > > pairwiseGroupedMatchingInstance()
 	{
 		final IterativeClosestPointParameters ip = new IterativeClosestPointParameters( model.getModel() );
-		return new IterativeClosestPointPairwise< GroupedInterestPoint< ViewId > >( ip );
+		return new IterativeClosestPointPairwise< GroupedInterestPoint< ViewId > >( ip, Threads.sharedFlexibleExecutorService() );
 	}
 
 	@Override
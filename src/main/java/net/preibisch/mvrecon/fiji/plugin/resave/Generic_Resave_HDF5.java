@@ -46,6 +46,7 @@ import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.Toggle_Cluster_Options;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 import mpicbg.spim.data.SpimDataException;
 import mpicbg.spim.data.generic.AbstractSpimData;
@@ -250,7 +251,11 @@ public class Generic_Resave_HDF5 implements PlugIn
 				final ProgressWriter p = new SubTaskProgressWriter( progressWriter, 0, 0.95 * i / partitions.size() );
 				progressWriter.out().printf( "proccessing partition %d / %d\n", ( i + 1 ), partitions.size() );
 				if ( !params.onlyRunSingleJob || params.jobId == i + 1 )
+				{
+					final long time = Metrics.timer( "resave.hdf5" ).start();
 					WriteSequenceToHdf5.writeHdf5PartitionFile( seq, perSetupExportMipmapInfo, params.deflate, partition, lbh, null, Threads.numThreads(), p );
+					Metrics.timer( "resave.hdf5" ).stop( time );
+				}
 			}
 			if ( !params.onlyRunSingleJob || params.jobId == 0 )
 				WriteSequenceToHdf5.writeHdf5PartitionLinkFile( seq, perSetupExportMipmapInfo, partitions, params.hdf5File );
@@ -258,7 +263,9 @@ public class Generic_Resave_HDF5 implements PlugIn
 		else
 		{
 			final ProgressWriter p = new SubTaskProgressWriter( progressWriter, 0, 0.95 );
+			final long time = Metrics.timer( "resave.hdf5" ).start();
 			WriteSequenceToHdf5.writeHdf5File( seq, perSetupExportMipmapInfo, params.deflate, params.hdf5File, lbh, null, Threads.numThreads(), p );
+			Metrics.timer( "resave.hdf5" ).stop( time );
 		}
 	}
 
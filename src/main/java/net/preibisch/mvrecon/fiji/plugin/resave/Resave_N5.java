@@ -64,6 +64,7 @@ import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
 import net.preibisch.mvrecon.headless.resave.HeadlessParseQueryXML;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 public class Resave_N5 implements PlugIn
 {
@@ -89,7 +90,13 @@ public class Resave_N5 implements PlugIn
 	}
 
 
-	public static void resaveN5(
+	/**
+	 * @param data - the project
+	 * @param vidsToResave - the views to resave
+	 * @param n5Params - the parameters
+	 * @return true if the data (and XML if requested) was written successfully
+	 */
+	public static boolean resaveN5(
 			final SpimData2 data,
 			final Collection<? extends ViewId> vidsToResave,
 			final N5Parameters n5Params )
@@ -125,6 +132,8 @@ public class Resave_N5 implements PlugIn
 
 			try
 			{
+				final long time = Metrics.timer( "resave.n5" ).start();
+
 				WriteSequenceToN5.writeN5File(
 						sdReduced.getSequenceDescription(),
 						proposedMipmaps,
@@ -135,6 +144,8 @@ public class Resave_N5 implements PlugIn
 						n5Params.numCellCreatorThreads, // Runtime.getRuntime().availableProcessors()
 						progressWriter );
 
+				Metrics.timer( "resave.n5" ).stop( time, vidsToResave.size() );
+
 				if ( n5Params.setFinishedAttributeInN5 )
 				{
 					final N5FSWriter n5 = new N5FSWriter( n5Params.n5File.getAbsolutePath() );
@@ -145,7 +156,9 @@ public class Resave_N5 implements PlugIn
 			}
 			catch ( IOException e )
 			{
+				IOFunctions.println( "Failed to write N5 '" + n5Params.n5File.getAbsolutePath() + "': " + e );
 				e.printStackTrace();
+				return false;
 			}
 		}
 
@@ -160,12 +173,16 @@ public class Resave_N5 implements PlugIn
 			}
 			catch ( SpimDataException e )
 			{
+				IOFunctions.println( "Failed to save XML '" + n5Params.xmlFile.getAbsolutePath() + "': " + e );
 				e.printStackTrace();
+				return false;
 			}
 		}
 
 		progressWriter.setProgress( 1.0 );
 		progressWriter.out().println( new Date( System.currentTimeMillis() ) + ": Finished saving " + n5Params.n5File.getAbsolutePath() );
+
+		return true;
 	}
 
 	private static class Arguments implements Serializable
@@ -227,7 +244,7 @@ public class Resave_N5 implements PlugIn
 			{
 				System.err.println( e.getMessage() );
 				parser.printUsage( System.err );
-				System.exit( 1 );
+				throw new IllegalArgumentException( e.getMessage(), e );
 			}
 		}
 
@@ -391,14 +408,16 @@ public class Resave_N5 implements PlugIn
 		}
 	}
 
-	public static void main(String[] args)
+	/**
+	 * Resaves headless, e.g. as a job of a {@link net.preibisch.mvrecon.headless.cluster.LocalJobWorker} that shares the JVM
+	 * with other jobs, so it does not exit and reports failure instead.
+	 *
+	 * @param args - the command line arguments
+	 * @return true if everything was resaved successfully
+	 * @throws IllegalArgumentException if the arguments cannot be parsed
+	 */
+	public static boolean runJob( final String[] args ) throws IllegalArgumentException
 	{
-		/*
-		new ImageJ();
-		new Resave_N5().run( null );
-		SimpleMultiThreading.threadHaltUnClean();
-		*/
-
 		final Arguments parsedArgs = new Arguments( args );
 
 		// try to load SpimData
@@ -406,19 +425,43 @@ public class Resave_N5 implements PlugIn
 		if ( !xml.loadXML( parsedArgs.getInputXMLPath(), false ) )
 		{
 			IOFunctions.println( "Could not load xml: " + parsedArgs.getInputXMLPath() );
-			return;
+			return false;
 		}
 
 		final List< ViewId > viewIdsToResave = parsedArgs.getViewIdsToResave( xml.getData().getSequenceDescription().getViewDescriptions().keySet() );
 
 		if ( viewIdsToResave == null )
-			return;
+			return false;
 
 		final N5Parameters n5Params = parsedArgs.getParameters( viewIdsToResave );
 
 		if ( n5Params == null )
+			return false;
+
+		return resaveN5( xml.getData(), viewIdsToResave, n5Params );
+	}
+
+	public static void main(String[] args)
+	{
+		/*
+		new ImageJ();
+		new Resave_N5().run( null );
+		SimpleMultiThreading.threadHaltUnClean();
+		*/
+
+		final boolean success;
+
+		try
+		{
+			success = runJob( args );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			System.exit( 1 );
 			return;
+		}
 
-		resaveN5( xml.getData(), viewIdsToResave, n5Params );
+		if ( !success )
+			System.exit( 1 );
 	}
 }
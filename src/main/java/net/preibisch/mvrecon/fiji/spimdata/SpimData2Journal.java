@@ -0,0 +1,460 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewTransform;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.legacy.io.TextFileAccess;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunction;
+
+/**
+ * Append-only sidecar journal ([name].xml.journal) of a {@link SpimData2} XML. Instead of writing the whole XML,
+ * a save only appends the view registrations, bounding boxes, PSF assignments and interest point references that changed
+ * since the XML was loaded or last written. The journal is replayed when the XML is loaded, and compacted into the XML by
+ * a full save (which deletes it). Everything else (sequence description incl. ImgLoader, view setups and missing views,
+ * stitching results, intensity adjustments) is only compared by a digest, if it changed a full save is required.
+ * <p>
+ * The first line stores size and modification time of the XML the journal belongs to, a journal that does not match
+ * its XML (e.g. because the XML was written by another program) is ignored.
+ */
+public class SpimData2Journal
+{
+	final static String HEADER = "journal";
+	final static String REMOVE = "remove";
+	final static String REGISTRATION = "registration";
+	final static String BOUNDINGBOX = "boundingbox";
+	final static String PSF = "psf";
+	final static String INTERESTPOINTS = "interestpoints";
+
+	// the state of each SpimData2 object as it is stored in XML + journal
+	final static WeakHashMap< SpimData2, State > states = new WeakHashMap<>();
+
+	protected static class State
+	{
+		final File xmlFile;
+		final HashMap< String, String > entries;
+		final String digest;
+		int numJournalEntries;
+
+		public State( final File xmlFile, final HashMap< String, String > entries, final String digest, final int numJournalEntries )
+		{
+			this.xmlFile = xmlFile;
+			this.entries = entries;
+			this.digest = digest;
+			this.numJournalEntries = numJournalEntries;
+		}
+	}
+
+	public static File journalFile( final File xmlFile ) { return new File( xmlFile.getAbsolutePath() + ".journal" ); }
+
+	/**
+	 * Remembers what is stored for this object in the XML (after a full save or a load).
+	 *
+	 * @param spimData - the project
+	 * @param xmlFile - the XML it was saved to or loaded from
+	 * @param digest - digest of everything that is not journaled (null means the journal is never used)
+	 * @param numJournalEntries - number of entries in the journal
+	 */
+	public static void remember( final SpimData2 spimData, final File xmlFile, final String digest, final int numJournalEntries )
+	{
+		synchronized ( states )
+		{
+			states.put( spimData, new State( xmlFile.getAbsoluteFile(), snapshot( spimData ), digest, numJournalEntries ) );
+		}
+	}
+
+	/**
+	 * Deletes the journal of an XML (after it was written completely).
+	 *
+	 * @param xmlFile - the XML
+	 */
+	public static void delete( final File xmlFile )
+	{
+		final File journal = journalFile( xmlFile );
+
+		if ( journal.exists() && !journal.delete() )
+			IOFunctions.println( "Could not delete journal '" + journal + "'." );
+	}
+
+	/**
+	 * Appends everything that changed since the XML was loaded or last written to the journal.
+	 *
+	 * @param spimData - the project
+	 * @param xmlFile - the XML
+	 * @param digest - current digest of everything that is not journaled, if it differs from the remembered one nothing is appended
+	 * @param maxEntries - if the journal would get longer, nothing is appended and false is returned (compact instead)
+	 * @return true if the journal was written, false if a full save is required
+	 */
+	public static boolean append( final SpimData2 spimData, final File xmlFile, final String digest, final int maxEntries )
+	{
+		final State state;
+
+		synchronized ( states )
+		{
+			state = states.get( spimData );
+		}
+
+		if ( state == null || !state.xmlFile.equals( xmlFile.getAbsoluteFile() ) || !xmlFile.exists() )
+			return false;
+
+		// e.g. stitching results, intensity adjustments, the ImgLoader or the view setups changed
+		if ( state.digest == null || !state.digest.equals( digest ) )
+			return false;
+
+		final File journal = journalFile( xmlFile );
+
+		if ( journal.exists() && !isValid( journal, xmlFile ) )
+			return false;
+
+		final HashMap< String, String > current = snapshot( spimData );
+		final ArrayList< String > lines = new ArrayList<>();
+
+		for ( final Entry< String, String > e : current.entrySet() )
+			if ( !e.getValue().equals( state.entries.get( e.getKey() ) ) )
+				lines.add( e.getValue() );
+
+		for ( final String key : state.entries.keySet() )
+			if ( !current.containsKey( key ) )
+				lines.add( REMOVE + "\t" + key );
+
+		if ( state.numJournalEntries + lines.size() > maxEntries )
+			return false;
+
+		// PSFs are written as separate files, just like a full save does
+		for ( final PointSpreadFunction psf : spimData.getPointSpreadFunctions().getPointSpreadFunctions().values() )
+			if ( psf.isModified() && !psf.save() )
+				IOFunctions.println( "ERROR: Could not save PSF '" + psf.getFile() + "'" );
+
+		if ( lines.size() == 0 )
+			return true;
+
+		try
+		{
+			final boolean exists = journal.exists();
+			final PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter( journal, true ) ) );
+
+			if ( !exists )
+				out.println( HEADER + "\t" + xmlFile.length() + "\t" + xmlFile.lastModified() );
+
+			for ( final String line : lines )
+				out.println( line );
+
+			out.close();
+
+			if ( out.checkError() )
+				throw new IOException( "write error" );
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "Could not append to journal '" + journal + "': " + e + ", saving complete XML." );
+			return false;
+		}
+
+		state.entries.clear();
+		state.entries.putAll( current );
+		state.numJournalEntries += lines.size();
+
+		return true;
+	}
+
+	/**
+	 * Applies a journal to a project that was just loaded from its XML.
+	 *
+	 * @param spimData - the project
+	 * @param xmlFile - the XML it was loaded from
+	 * @return the number of entries applied, -1 if there is no valid journal
+	 */
+	public static int replay( final SpimData2 spimData, final File xmlFile )
+	{
+		final File journal = journalFile( xmlFile );
+
+		if ( !journal.exists() )
+			return -1;
+
+		if ( !isValid( journal, xmlFile ) )
+		{
+			IOFunctions.println( "WARNING: Journal '" + journal + "' does not belong to the current version of '" + xmlFile.getName() + "', ignoring it." );
+			return -1;
+		}
+
+		int count = 0;
+
+		try
+		{
+			final BufferedReader in = TextFileAccess.openFileReadEx( journal );
+			in.readLine(); // header
+
+			String line;
+
+			while ( ( line = in.readLine() ) != null )
+			{
+				if ( line.length() == 0 )
+					continue;
+
+				apply( spimData, line.split( "\t", -1 ) );
+				++count;
+			}
+
+			in.close();
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "WARNING: Journal '" + journal + "' could not be read completely (" + e + "), applied " + count + " entries." );
+		}
+
+		IOFunctions.println( "Applied " + count + " entries from journal '" + journal.getName() + "'." );
+
+		return count;
+	}
+
+	protected static boolean isValid( final File journal, final File xmlFile )
+	{
+		try
+		{
+			final BufferedReader in = TextFileAccess.openFileReadEx( journal );
+			final String[] header = in.readLine().split( "\t" );
+			in.close();
+
+			return header[ 0 ].equals( HEADER ) && Long.parseLong( header[ 1 ] ) == xmlFile.length() && Long.parseLong( header[ 2 ] ) == xmlFile.lastModified();
+		}
+		catch ( final Exception e )
+		{
+			return false;
+		}
+	}
+
+	protected static void apply( final SpimData2 spimData, final String[] p )
+	{
+		final boolean remove = p[ 0 ].equals( REMOVE );
+		final int o = remove ? 1 : 0; // offset of the key
+
+		final String type = p[ o ];
+
+		if ( type.equals( REGISTRATION ) )
+		{
+			final ViewId viewId = new ViewId( Integer.parseInt( p[ o + 1 ] ), Integer.parseInt( p[ o + 2 ] ) );
+			final Map< ViewId, ViewRegistration > registrations = spimData.getViewRegistrations().getViewRegistrations();
+
+			if ( remove )
+			{
+				registrations.remove( viewId );
+				return;
+			}
+
+			final int n = Integer.parseInt( p[ 3 ] );
+			final ArrayList< ViewTransform > transforms = new ArrayList<>();
+
+			for ( int t = 0, i = 4; t < n; ++t )
+			{
+				final String name = unescape( p[ i++ ] );
+				final double[] m = new double[ 12 ];
+
+				for ( int j = 0; j < 12; ++j )
+					m[ j ] = Double.parseDouble( p[ i++ ] );
+
+				final AffineTransform3D affine = new AffineTransform3D();
+				affine.set( m );
+				transforms.add( new ViewTransformAffine( name, affine ) );
+			}
+
+			final ViewRegistration vr = new ViewRegistration( viewId.getTimePointId(), viewId.getViewSetupId(), transforms );
+			vr.updateModel();
+			registrations.put( viewId, vr );
+		}
+		else if ( type.equals( BOUNDINGBOX ) )
+		{
+			final String title = unescape( p[ o + 1 ] );
+
+			for ( final Iterator< BoundingBox > it = spimData.getBoundingBoxes().getBoundingBoxes().iterator(); it.hasNext(); )
+				if ( Objects.equals( it.next().getTitle(), title ) )
+					it.remove();
+
+			if ( remove )
+				return;
+
+			final int n = Integer.parseInt( p[ 2 ] );
+			final int[] min = new int[ n ];
+			final int[] max = new int[ n ];
+
+			for ( int d = 0; d < n; ++d )
+			{
+				min[ d ] = Integer.parseInt( p[ 3 + d ] );
+				max[ d ] = Integer.parseInt( p[ 3 + n + d ] );
+			}
+
+			spimData.getBoundingBoxes().addBoundingBox( new BoundingBox( title, min, max ) );
+		}
+		else if ( type.equals( PSF ) )
+		{
+			final ViewId viewId = new ViewId( Integer.parseInt( p[ o + 1 ] ), Integer.parseInt( p[ o + 2 ] ) );
+
+			if ( remove )
+				spimData.getPointSpreadFunctions().getPointSpreadFunctions().remove( viewId );
+			else
+				spimData.getPointSpreadFunctions().addPSF( viewId, new PointSpreadFunction( spimData.getBasePath(), unescape( p[ 3 ] ) ) );
+		}
+		else if ( type.equals( INTERESTPOINTS ) )
+		{
+			final ViewId viewId = new ViewId( Integer.parseInt( p[ o + 1 ] ), Integer.parseInt( p[ o + 2 ] ) );
+			final String label = unescape( p[ o + 3 ] );
+			final ViewInterestPointLists lists = spimData.getViewInterestPoints().getViewInterestPointLists( viewId );
+
+			if ( lists == null )
+				return;
+
+			if ( remove )
+			{
+				lists.getHashMap().remove( label );
+				return;
+			}
+
+			final InterestPointList list = new InterestPointList( spimData.getBasePath(), new File( unescape( p[ 4 ] ) ) );
+			list.setParameters( unescape( p[ 5 ] ) );
+			lists.addInterestPointList( label, list );
+		}
+		else
+		{
+			throw new IllegalArgumentException( "Unknown journal entry '" + type + "'" );
+		}
+	}
+
+	/**
+	 * @param spimData - the project
+	 * @return all journaled entries of the project, key to line
+	 */
+	protected static HashMap< String, String > snapshot( final SpimData2 spimData )
+	{
+		final HashMap< String, String > entries = new HashMap<>();
+
+		for ( final ViewRegistration vr : spimData.getViewRegistrations().getViewRegistrations().values() )
+		{
+			final StringBuilder line = new StringBuilder( key( REGISTRATION, vr ) );
+			line.append( "\t" + vr.getTransformList().size() );
+
+			for ( final ViewTransform t : vr.getTransformList() )
+			{
+				line.append( "\t" + escape( t.getName() ) );
+
+				for ( final double v : t.asAffine3D().getRowPackedCopy() )
+					line.append( "\t" + v );
+			}
+
+			put( entries, line.toString() );
+		}
+
+		for ( final BoundingBox bb : spimData.getBoundingBoxes().getBoundingBoxes() )
+		{
+			final StringBuilder line = new StringBuilder( BOUNDINGBOX + "\t" + escape( bb.getTitle() ) + "\t" + bb.numDimensions() );
+
+			for ( final int v : bb.getMin() )
+				line.append( "\t" + v );
+
+			for ( final int v : bb.getMax() )
+				line.append( "\t" + v );
+
+			put( entries, line.toString() );
+		}
+
+		for ( final Entry< ViewId, PointSpreadFunction > e : spimData.getPointSpreadFunctions().getPointSpreadFunctions().entrySet() )
+			put( entries, key( PSF, e.getKey() ) + "\t" + escape( e.getValue().getFile() ) );
+
+		for ( final ViewInterestPointLists lists : spimData.getViewInterestPoints().getViewInterestPoints().values() )
+			for ( final Entry< String, InterestPointList > e : lists.getHashMap().entrySet() )
+				put( entries, key( INTERESTPOINTS, lists ) + "\t" + escape( e.getKey() ) + "\t" +
+						escape( e.getValue().getFile().toString().replace( "\\", "/" ) ) + "\t" + escape( e.getValue().getParameters() ) );
+
+		return entries;
+	}
+
+	protected static String key( final String type, final ViewId viewId )
+	{
+		return type + "\t" + viewId.getTimePointId() + "\t" + viewId.getViewSetupId();
+	}
+
+	// the key are the fields that identify the entry (2 for bounding boxes, 3 for registrations/psfs, 4 for interest points)
+	protected static void put( final HashMap< String, String > entries, final String line )
+	{
+		final String[] p = line.split( "\t", -1 );
+		final int numKeyFields = p[ 0 ].equals( BOUNDINGBOX ) ? 2 : p[ 0 ].equals( INTERESTPOINTS ) ? 4 : 3;
+
+		entries.put( String.join( "\t", Arrays.copyOf( p, numKeyFields ) ), line );
+	}
+
+	// marks a field that was null (e.g. the name of a transform), an escaped backslash is never followed by 0
+	final static String NULL = "\\0";
+
+	protected static String escape( final String s )
+	{
+		if ( s == null )
+			return NULL;
+
+		return s.replace( "\\", "\\\\" ).replace( "\t", "\\t" ).replace( "\n", "\\n" ).replace( "\r", "\\r" );
+	}
+
+	protected static String unescape( final String s )
+	{
+		if ( s.equals( NULL ) )
+			return null;
+
+		final StringBuilder out = new StringBuilder( s.length() );
+
+		for ( int i = 0; i < s.length(); ++i )
+		{
+			final char c = s.charAt( i );
+
+			if ( c == '\\' && i + 1 < s.length() )
+			{
+				final char n = s.charAt( ++i );
+				out.append( n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n );
+			}
+			else
+			{
+				out.append( c );
+			}
+		}
+
+		return out.toString();
+	}
+}
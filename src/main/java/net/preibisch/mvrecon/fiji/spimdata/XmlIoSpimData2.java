@@ -22,16 +22,33 @@
  */
 package net.preibisch.mvrecon.fiji.spimdata;
 
+import static mpicbg.spim.data.XmlKeys.IMGLOADER_TAG;
+import static mpicbg.spim.data.XmlKeys.SEQUENCEDESCRIPTION_TAG;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Date;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
 import net.preibisch.mvrecon.fiji.spimdata.boundingbox.XmlIoBoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.pyramidcache.PyramidCacheWrappedImgLoader;
 import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
 import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.XmlIoIntensityAdjustments;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
@@ -40,14 +57,24 @@ import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunct
 import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.XmlIoPointSpreadFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.XmlIoStitchingResults;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.SpimDataIOException;
 import mpicbg.spim.data.generic.XmlIoAbstractSpimData;
+import mpicbg.spim.data.generic.sequence.ImgLoaders;
+import mpicbg.spim.data.generic.sequence.XmlIoBasicImgLoader;
 import mpicbg.spim.data.registration.XmlIoViewRegistrations;
+import mpicbg.spim.data.sequence.ImgLoader;
 import mpicbg.spim.data.sequence.SequenceDescription;
 import mpicbg.spim.data.sequence.XmlIoSequenceDescription;
 
+import org.jdom2.Document;
 import org.jdom2.Element;
+import org.jdom2.input.StAXStreamBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.StAXStreamOutputter;
+import org.jdom2.output.XMLOutputter;
 
 public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription, SpimData2 >
 {
@@ -57,8 +84,22 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 	final XmlIoStitchingResults xmlStitchingResults;
 	final XmlIoIntensityAdjustments xmlIntensityAdjustments;
 
+	// only used for the digest of what the journal does not cover
+	final XmlIoSequenceDescription xmlSequenceDigest = new XmlIoSequenceDescription();
+
 	String clusterExt, lastFileName;
 	public static int numBackups = 5;
+
+	// only append changed registrations, bounding boxes, PSFs and interest point references to [name].xml.journal when saving,
+	// if anything else changed (compared by a digest) the complete XML is written, see Toggle_Performance_Options
+	public static boolean defaultUseJournal = false;
+
+	// if the journal would get longer, the complete XML is written instead (which compacts the journal into the XML),
+	// the same happens for every save once the journal is switched off
+	public static int maxJournalEntries = 100000;
+
+	// read and write the XML with StAX instead of SAX/XMLOutputter, see Toggle_Performance_Options
+	public static boolean useStAX = false;
 	
 	public XmlIoSpimData2( final String clusterExt )
 	{
@@ -103,23 +144,52 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 
 		this.lastFileName = xmlFilename;
 
-		// fist make a copy of the XML and save it to not loose it
-		if ( new File( xmlFilename ).exists() )
+		final File xmlFile = new File( xmlFilename );
+
+		if ( defaultUseJournal && SpimData2Journal.append( spimData, xmlFile, digestNotJournaled( spimData ), maxJournalEntries ) )
+		{
+			Metrics.writeReport( xmlFile );
+			return;
+		}
+
+		saveComplete( spimData, xmlFile );
+	}
+
+	protected void saveComplete( final SpimData2 spimData, final File xmlFile ) throws SpimDataException
+	{
+		final Metrics.Timer timer = Metrics.timer( "xml.save" );
+		final long time = timer.start();
+
+		// write to a temporary file first, the existing XML becomes the first backup only once the new one is complete
+		final File tmpFile = new File( xmlFile.getAbsolutePath() + ".tmp" );
+		final Document doc = new Document( toXml( spimData, xmlFile.getAbsoluteFile().getParentFile() ) );
+
+		try
+		{
+			writeXml( doc, tmpFile );
+		}
+		catch ( final Exception e )
+		{
+			tmpFile.delete();
+			throw new SpimDataIOException( e );
+		}
+
+		// fist move the old XML to a backup to not loose it (renaming instead of copying)
+		if ( xmlFile.exists() )
 		{
 			int maxExistingBackup = 0;
 			for ( int i = 1; i < numBackups; ++i )
-				if ( new File( xmlFilename + "~" + i ).exists() )
+				if ( new File( xmlFile + "~" + i ).exists() )
 					maxExistingBackup = i;
 				else
 					break;
 
-			// copy the backups
 			try
 			{
 				for ( int i = maxExistingBackup; i >= 1; --i )
-					copyFile( new File( xmlFilename + "~" + i ), new File( xmlFilename + "~" + (i + 1) ) );
+					Files.move( new File( xmlFile + "~" + i ).toPath(), new File( xmlFile + "~" + (i + 1) ).toPath(), StandardCopyOption.REPLACE_EXISTING );
 
-				copyFile( new File( xmlFilename ), new File( xmlFilename + "~1" ) );
+				Files.move( xmlFile.toPath(), new File( xmlFile + "~1" ).toPath(), StandardCopyOption.REPLACE_EXISTING );
 			}
 			catch ( final IOException e )
 			{
@@ -128,36 +198,106 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 			}
 		}
 
-		super.save( spimData, xmlFilename );
-	}
+		try
+		{
+			Files.move( tmpFile.toPath(), xmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+		catch ( final IOException e )
+		{
+			throw new SpimDataIOException( e );
+		}
 
-	public String lastFileName() { return lastFileName; }
+		// everything is in the XML now
+		SpimData2Journal.delete( xmlFile );
 
-	protected static void copyFile( final File inputFile, final File outputFile ) throws IOException
+		if ( defaultUseJournal )
+			SpimData2Journal.remember( spimData, xmlFile, digestNotJournaled( spimData ), 0 );
+
+		timer.stop( time );
+
+		// performance report of everything that happened since the last report (if enabled)
+		Metrics.writeReport( xmlFile );
+	}
+
+	/**
+	 * @param spimData - the project
+	 * @return SHA-1 of everything that is not journaled (base path, sequence description incl. ImgLoader, view setups and
+	 * missing views, stitching results, intensity adjustments), null if it cannot be computed
+	 */
+	protected String digestNotJournaled( final SpimData2 spimData )
 	{
-		InputStream input = null;
-		OutputStream output = null;
-		
 		try
 		{
-			input = new FileInputStream( inputFile );
-			output = new FileOutputStream( outputFile );
+			final XMLOutputter xout = new XMLOutputter( Format.getCompactFormat() );
+			final MessageDigest md = MessageDigest.getInstance( "SHA-1" );
 
-			final byte[] buf = new byte[ 65536 ];
-			int bytesRead;
-			while ( ( bytesRead = input.read( buf ) ) > 0 )
-				output.write( buf, 0, bytesRead );
+			md.update( String.valueOf( spimData.getBasePath() ).getBytes( StandardCharsets.UTF_8 ) );
+			md.update( xout.outputString( unwrapImgLoader( xmlSequenceDigest.toXml( spimData.getSequenceDescription(), spimData.getBasePath() ), spimData.getSequenceDescription(), spimData.getBasePath() ) ).getBytes( StandardCharsets.UTF_8 ) );
+			md.update( xout.outputString( xmlStitchingResults.toXml( spimData.getStitchingResults() ) ).getBytes( StandardCharsets.UTF_8 ) );
+			md.update( xout.outputString( xmlIntensityAdjustments.toXml( spimData.getIntensityAdjustments() ) ).getBytes( StandardCharsets.UTF_8 ) );
 
+			return new BigInteger( 1, md.digest() ).toString( 16 );
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Could not compute digest of '" + lastFileName + "', saving complete XML: " + e );
+			return null;
+		}
+	}
+
+	protected static void writeXml( final Document doc, final File file ) throws Exception
+	{
+		final OutputStream out = new BufferedOutputStream( new FileOutputStream( file ), 1024 * 1024 );
+
+		try
+		{
+			if ( useStAX )
+			{
+				final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter( out, "UTF-8" );
+				new StAXStreamOutputter( Format.getPrettyFormat() ).output( doc, writer );
+				writer.close();
+			}
+			else
+			{
+				new XMLOutputter( Format.getPrettyFormat() ).output( doc, out );
+			}
 		}
 		finally
 		{
-			if ( input != null )
-				input.close();
-			if ( output != null )
-				output.close();
+			out.close();
 		}
 	}
 
+	@Override
+	public SpimData2 load( final String xmlFilename ) throws SpimDataException
+	{
+		if ( !useStAX )
+			return super.load( xmlFilename );
+
+		final Document doc;
+
+		try ( final InputStream in = new BufferedInputStream( new FileInputStream( xmlFilename ), 1024 * 1024 ) )
+		{
+			final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader( in );
+			doc = new StAXStreamBuilder().build( reader );
+			reader.close();
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not read '" + xmlFilename + "' using StAX (" + e + "), trying SAX." );
+			return super.load( xmlFilename );
+		}
+
+		final Element root = doc.getRootElement();
+
+		if ( !root.getName().equals( "SpimData" ) )
+			throw new RuntimeException( "expected <SpimData> root element. wrong file?" );
+
+		return fromXml( root, new File( xmlFilename ) );
+	}
+
+	public String lastFileName() { return lastFileName; }
+
 	@Override
 	public SpimData2 fromXml( final Element root, final File xmlFile ) throws SpimDataException
 	{
@@ -209,6 +349,16 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 			intensityAdjustments = xmlIntensityAdjustments.fromXml( elem );
 		spimData.setIntensityAdjustments( intensityAdjustments );
 
+		// apply what was saved to the journal since the XML was written
+		final int numJournalEntries = SpimData2Journal.replay( spimData, xmlFile );
+
+		if ( numJournalEntries >= 0 || defaultUseJournal )
+			SpimData2Journal.remember( spimData, xmlFile, digestNotJournaled( spimData ), Math.max( 0, numJournalEntries ) );
+
+		// opt-in, the wrapper is not saved (see unwrapImgLoader)
+		if ( PyramidCacheWrappedImgLoader.defaultWrapOnLoad && PyramidCacheWrappedImgLoader.wrap( spimData ) )
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Downsampled levels of '" + xmlFile.getName() + "' are cached in " + PyramidCacheWrappedImgLoader.defaultContainerName );
+
 		return spimData;
 	}
 
@@ -217,6 +367,8 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 	{
 		final Element root = super.toXml( spimData, xmlFileDirectory );
 
+		unwrapImgLoader( root.getChild( SEQUENCEDESCRIPTION_TAG ), spimData.getSequenceDescription(), spimData.getBasePath() );
+
 		root.addContent( xmlViewsInterestPoints.toXml( spimData.getViewInterestPoints() ) );
 		root.addContent( xmlBoundingBoxes.toXml( spimData.getBoundingBoxes() ) );
 		root.addContent( xmlPointSpreadFunctions.toXml( spimData.getPointSpreadFunctions() ) );
@@ -225,4 +377,31 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 
 		return root;
 	}
+
+	/**
+	 * Replaces the XML of a {@link PyramidCacheWrappedImgLoader} that was only added when loading (see
+	 * {@link PyramidCacheWrappedImgLoader#defaultWrapOnLoad}) with the XML of the ImgLoader it wraps.
+	 *
+	 * @param seqElem - the XML of the sequence description
+	 * @param seq - the sequence description
+	 * @param basePath - the base path of the project
+	 * @return seqElem
+	 * @throws SpimDataException if the wrapped ImgLoader cannot be written
+	 */
+	@SuppressWarnings( "unchecked" )
+	protected static Element unwrapImgLoader( final Element seqElem, final SequenceDescription seq, final File basePath ) throws SpimDataException
+	{
+		final ImgLoader imgLoader = seq.getImgLoader();
+
+		if ( !PyramidCacheWrappedImgLoader.class.isInstance( imgLoader ) || !( (PyramidCacheWrappedImgLoader)imgLoader ).isWrappedOnLoad() )
+			return seqElem;
+
+		final ImgLoader wrapped = ( (PyramidCacheWrappedImgLoader)imgLoader ).getWrappedImgLoader();
+		final XmlIoBasicImgLoader< ImgLoader > xmlIoWrapped = (XmlIoBasicImgLoader< ImgLoader >)ImgLoaders.createXmlIoForImgLoaderClass( wrapped.getClass() );
+		final Element imgLoaderElem = seqElem.getChild( IMGLOADER_TAG );
+
+		seqElem.setContent( seqElem.indexOf( imgLoaderElem ), xmlIoWrapped.toXml( wrapped, basePath ) );
+
+		return seqElem;
+	}
 }
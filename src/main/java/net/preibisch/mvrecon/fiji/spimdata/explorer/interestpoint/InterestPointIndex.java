@@ -0,0 +1,253 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.explorer.interestpoint;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * A static KD-tree over the local coordinates of the interest points of one view, stored in primitive arrays.
+ * It returns the screen coordinates of all points that fall into the viewport and a slab around the current
+ * slice, and caches them as long as the (local to screen) transform and the viewport do not change.
+ */
+public class InterestPointIndex
+{
+	final static int leafSize = 16;
+
+	// the collection the index was built from
+	final Collection< ? extends RealLocalizable > source;
+
+	final int n;
+	final double[] xyz;
+	final int[] perm;
+
+	// the cache of the last query
+	final double[] lastTransform = new double[ 12 ];
+	double lastWidth = -1, lastHeight = -1, lastDepth = -1;
+	float[] screen = new float[ 0 ];
+	int numVisible = 0;
+
+	// the buffer for the indices of the last range query
+	int[] result = new int[ 1024 ];
+	int numResult = 0;
+
+	public InterestPointIndex( final Collection< ? extends RealLocalizable > points )
+	{
+		this.source = points;
+		this.n = points.size();
+		this.xyz = new double[ n * 3 ];
+		this.perm = new int[ n ];
+
+		final double[] l = new double[ 3 ];
+		int i = 0;
+
+		for ( final RealLocalizable p : points )
+		{
+			p.localize( l );
+			xyz[ i * 3 ] = l[ 0 ];
+			xyz[ i * 3 + 1 ] = l[ 1 ];
+			xyz[ i * 3 + 2 ] = l[ 2 ];
+			perm[ i ] = i;
+			++i;
+		}
+
+		build( 0, n, 0 );
+	}
+
+	/**
+	 * @param points - the collection of points
+	 * @return true if this index was built from exactly this collection (identity)
+	 */
+	public boolean isIndexOf( final Collection< ? extends RealLocalizable > points ) { return source == points; }
+
+	public int size() { return n; }
+
+	/**
+	 * Computes (or returns the cached) screen coordinates of all points that are visible.
+	 *
+	 * @param localToScreen - transform from local coordinates to screen coordinates
+	 * @param width - width of the viewport in pixels
+	 * @param height - height of the viewport in pixels
+	 * @param depth - half the thickness of the slab around the current slice in screen pixels
+	 * @param border - extra border around the viewport in pixels (e.g. the size of a point)
+	 * @return the number of visible points, their screen coordinates are in {@link #getScreenCoordinates()} as [x,y,z,x,y,z,...]
+	 */
+	public int visible( final AffineTransform3D localToScreen, final double width, final double height, final double depth, final double border )
+	{
+		final double[] t = localToScreen.getRowPackedCopy();
+
+		if ( width == lastWidth && height == lastHeight && depth == lastDepth && Arrays.equals( t, lastTransform ) )
+			return numVisible;
+
+		System.arraycopy( t, 0, lastTransform, 0, 12 );
+		lastWidth = width;
+		lastHeight = height;
+		lastDepth = depth;
+
+		// bounding box of the visible volume in local coordinates
+		final double[] min = new double[]{ Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] max = new double[]{ -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		final double[] corner = new double[ 3 ];
+		final double[] local = new double[ 3 ];
+		final AffineTransform3D screenToLocal = localToScreen.inverse();
+
+		for ( int c = 0; c < 8; ++c )
+		{
+			corner[ 0 ] = ( c & 1 ) == 0 ? -border : width + border;
+			corner[ 1 ] = ( c & 2 ) == 0 ? -border : height + border;
+			corner[ 2 ] = ( c & 4 ) == 0 ? -depth : depth;
+
+			screenToLocal.apply( corner, local );
+
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = Math.min( min[ d ], local[ d ] );
+				max[ d ] = Math.max( max[ d ], local[ d ] );
+			}
+		}
+
+		numResult = 0;
+		query( 0, n, 0, min, max );
+
+		if ( screen.length < numResult * 3 )
+			screen = new float[ numResult * 3 ];
+
+		// the bounding box is conservative, test again in screen coordinates
+		numVisible = 0;
+
+		for ( int j = 0; j < numResult; ++j )
+		{
+			final int i = result[ j ] * 3;
+			final double x = xyz[ i ], y = xyz[ i + 1 ], z = xyz[ i + 2 ];
+
+			final double sx = t[ 0 ] * x + t[ 1 ] * y + t[ 2 ] * z + t[ 3 ];
+			final double sy = t[ 4 ] * x + t[ 5 ] * y + t[ 6 ] * z + t[ 7 ];
+			final double sz = t[ 8 ] * x + t[ 9 ] * y + t[ 10 ] * z + t[ 11 ];
+
+			if ( sx >= -border && sx <= width + border && sy >= -border && sy <= height + border && sz >= -depth && sz <= depth )
+			{
+				final int k = numVisible * 3;
+				screen[ k ] = (float)sx;
+				screen[ k + 1 ] = (float)sy;
+				screen[ k + 2 ] = (float)sz;
+				++numVisible;
+			}
+		}
+
+		return numVisible;
+	}
+
+	public float[] getScreenCoordinates() { return screen; }
+
+	protected void query( final int lo, final int hi, final int depth, final double[] min, final double[] max )
+	{
+		if ( hi - lo <= leafSize )
+		{
+			for ( int j = lo; j < hi; ++j )
+				testAndAdd( perm[ j ], min, max );
+
+			return;
+		}
+
+		final int d = depth % 3;
+		final int mid = ( lo + hi ) >>> 1;
+		final double c = xyz[ perm[ mid ] * 3 + d ];
+
+		testAndAdd( perm[ mid ], min, max );
+
+		if ( min[ d ] <= c )
+			query( lo, mid, depth + 1, min, max );
+
+		if ( max[ d ] >= c )
+			query( mid + 1, hi, depth + 1, min, max );
+	}
+
+	protected void testAndAdd( final int i, final double[] min, final double[] max )
+	{
+		final int k = i * 3;
+
+		if ( xyz[ k ] >= min[ 0 ] && xyz[ k ] <= max[ 0 ] &&
+			 xyz[ k + 1 ] >= min[ 1 ] && xyz[ k + 1 ] <= max[ 1 ] &&
+			 xyz[ k + 2 ] >= min[ 2 ] && xyz[ k + 2 ] <= max[ 2 ] )
+		{
+			if ( numResult == result.length )
+				result = Arrays.copyOf( result, result.length * 2 );
+
+			result[ numResult++ ] = i;
+		}
+	}
+
+	/*
+	 * Builds the implicit tree: the median (along depth % 3) of perm[lo,hi) is moved to the middle,
+	 * smaller coordinates to the left, larger ones to the right.
+	 */
+	protected void build( final int lo, final int hi, final int depth )
+	{
+		if ( hi - lo <= leafSize )
+			return;
+
+		final int d = depth % 3;
+		final int mid = ( lo + hi ) >>> 1;
+
+		select( lo, hi - 1, mid, d );
+
+		build( lo, mid, depth + 1 );
+		build( mid + 1, hi, depth + 1 );
+	}
+
+	protected void select( int left, int right, final int k, final int d )
+	{
+		while ( right > left )
+		{
+			final double pivot = xyz[ perm[ ( left + right ) >>> 1 ] * 3 + d ];
+			int i = left, j = right;
+
+			while ( i <= j )
+			{
+				while ( xyz[ perm[ i ] * 3 + d ] < pivot )
+					++i;
+				while ( xyz[ perm[ j ] * 3 + d ] > pivot )
+					--j;
+
+				if ( i <= j )
+				{
+					final int tmp = perm[ i ];
+					perm[ i ] = perm[ j ];
+					perm[ j ] = tmp;
+					++i;
+					--j;
+				}
+			}
+
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+}
@@ -25,6 +25,8 @@ package net.preibisch.mvrecon.fiji.spimdata.explorer.interestpoint;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 
@@ -49,25 +51,47 @@ public class InterestPointOverlay implements OverlayRenderer, TransformListener<
 
 	private final ViewerPanel viewer;
 
+	// one spatial index per source and view, rebuilt when the source returns a different collection,
+	// removed when the source or the view is not displayed anymore
+	private final HashMap< InterestPointSource, HashMap< ViewId, InterestPointIndex > > indices = new HashMap<>();
+
 	private Color col = Color.green.darker();
+	private Color[] colors = new Color[ 256 ];
+
+	private int width = 0, height = 0;
+
+	/** half the thickness (in screen pixels) of the slab around the current slice in which points are drawn **/
+	private double slabDepth = 192;
+
+	/** if true, at most one point is drawn per screen cell of the size of a point (useful when zoomed out) **/
+	private boolean levelOfDetail = true;
+
+	/** level of detail is only applied if more points than this are visible **/
+	private int levelOfDetailThreshold = 20000;
 
-	public void setColor( final Color col ) { this.col = col; }
+	public void setColor( final Color col ) { this.col = col; this.colors = new Color[ 256 ]; }
+	public void setSlabDepth( final double slabDepth ) { this.slabDepth = slabDepth; }
+	public void setLevelOfDetail( final boolean levelOfDetail ) { this.levelOfDetail = levelOfDetail; }
+	public void setLevelOfDetailThreshold( final int levelOfDetailThreshold ) { this.levelOfDetailThreshold = levelOfDetailThreshold; }
 
 	/** screen pixels [x,y,z] **/
-	private Color getColor( final double[] gPos )
+	private Color getColor( final double z )
 	{
-		if ( Math.abs( gPos[ 2 ] ) < 3 )
+		if ( Math.abs( z ) < 3 )
 			return Color.red;
 
-		int alpha = 255 - (int)Math.round( Math.abs( gPos[ 2 ] ) );
+		int alpha = 255 - (int)Math.round( Math.abs( z ) );
 
 		if ( alpha < 64 )
 			alpha = 64;
 
-		return new Color( col.getRed(), col.getGreen(), col.getBlue(), alpha );
+		if ( colors[ alpha ] == null )
+			colors[ alpha ] = new Color( col.getRed(), col.getGreen(), col.getBlue(), alpha );
+
+		return colors[ alpha ];
 	}
 
-	private double getPointSize( final double[] gPos )
+	private double getPointSize( final double z )
 	{
 		return 3.0;
 	}
@@ -90,35 +114,112 @@ public class InterestPointOverlay implements OverlayRenderer, TransformListener<
 	{
 		final Graphics2D graphics = ( Graphics2D ) g;
 		final int t = viewer.getState().getCurrentTimepoint();
-		final double[] lPos = new double[ 3 ];
-		final double[] gPos = new double[ 3 ];
 		final AffineTransform3D transform = new AffineTransform3D();
 
+		if ( width <= 0 || height <= 0 )
+		{
+			width = viewer.getDisplay().getWidth();
+			height = viewer.getDisplay().getHeight();
+		}
+
+		final double maxSize = getPointSize( 0 );
+
+		// sources that are not displayed anymore
+		indices.keySet().retainAll( interestPointSources );
+
+		// first find the visible points of all views, they decide whether level of detail is necessary
+		final ArrayList< InterestPointIndex > visibleIndices = new ArrayList<>();
+		final ArrayList< Integer > numVisibleIndices = new ArrayList<>();
+		long numVisibleTotal = 0;
+
 		for ( final InterestPointSource pointSource : interestPointSources )
 		{
 			final HashMap< ? extends ViewId, ? extends Collection< ? extends RealLocalizable > > coordinates = pointSource.getLocalCoordinates( t );
 
+			HashMap< ViewId, InterestPointIndex > sourceIndices = indices.get( pointSource );
+
+			if ( sourceIndices == null )
+			{
+				sourceIndices = new HashMap<>();
+				indices.put( pointSource, sourceIndices );
+			}
+
+			// views of other timepoints, or whose points (e.g. the label) are not displayed anymore
+			sourceIndices.keySet().retainAll( coordinates.keySet() );
+
 			for ( final ViewId viewId : coordinates.keySet() )
 			{
+				final Collection< ? extends RealLocalizable > points = coordinates.get( viewId );
+				InterestPointIndex index = sourceIndices.get( viewId );
+
+				if ( index == null || !index.isIndexOf( points ) )
+				{
+					index = new InterestPointIndex( points );
+					sourceIndices.put( viewId, index );
+				}
+
+				if ( index.size() == 0 )
+					continue;
+
 				pointSource.getLocalToGlobalTransform( viewId, t, transform );
 				transform.preConcatenate( viewerTransform );
 
-				for ( final RealLocalizable p : coordinates.get( viewId ) )
+				final int numVisible = index.visible( transform, width, height, slabDepth, maxSize );
+
+				if ( numVisible > 0 )
 				{
-					p.localize( lPos );
-					transform.apply( lPos, gPos );
-					final double size = getPointSize( gPos );
-					final int x = ( int ) ( gPos[ 0 ] - 0.5 * size );
-					final int y = ( int ) ( gPos[ 1 ] - 0.5 * size );
-					final int w = ( int ) size;
-					graphics.setColor( getColor( gPos ) );
-					graphics.fillOval( x, y, w, w );
+					visibleIndices.add( index );
+					numVisibleIndices.add( numVisible );
+					numVisibleTotal += numVisible;
 				}
 			}
 		}
+
+		final int cellSize = Math.max( 1, (int)Math.round( maxSize ) );
+		final int cellsX = width / cellSize + 1;
+		final int cellsY = height / cellSize + 1;
+		final BitSet occupied = levelOfDetail && numVisibleTotal > levelOfDetailThreshold ? new BitSet( cellsX * cellsY ) : null;
+
+		for ( int j = 0; j < visibleIndices.size(); ++j )
+		{
+			final int numVisible = numVisibleIndices.get( j );
+			final float[] screen = visibleIndices.get( j ).getScreenCoordinates();
+
+			for ( int i = 0; i < numVisible; ++i )
+			{
+				final double x = screen[ i * 3 ];
+				final double y = screen[ i * 3 + 1 ];
+				final double z = screen[ i * 3 + 2 ];
+
+				if ( occupied != null )
+				{
+					final int cx = (int)Math.floor( x / cellSize );
+					final int cy = (int)Math.floor( y / cellSize );
+
+					if ( cx >= 0 && cy >= 0 && cx < cellsX && cy < cellsY )
+					{
+						final int cell = cx + cy * cellsX;
+
+						// always draw points close to the slice
+						if ( occupied.get( cell ) && Math.abs( z ) >= 3 )
+							continue;
+
+						occupied.set( cell );
+					}
+				}
+
+				final double size = getPointSize( z );
+				final int w = ( int ) size;
+				graphics.setColor( getColor( z ) );
+				graphics.fillOval( ( int ) ( x - 0.5 * size ), ( int ) ( y - 0.5 * size ), w, w );
+			}
+		}
 	}
 
 	@Override
 	public void setCanvasSize( final int width, final int height )
-	{}
+	{
+		this.width = width;
+		this.height = height;
+	}
 }
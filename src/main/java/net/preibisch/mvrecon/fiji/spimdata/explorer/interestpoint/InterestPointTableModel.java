@@ -197,15 +197,8 @@ public class InterestPointTableModel extends AbstractTableModel implements Inter
 		int sum = 0;
 
 		for ( final ViewId v : views )
-		{
-			final HashSet< Integer > cips = new HashSet< Integer >();
-
 			if ( vip.getViewInterestPointLists( v ).getHashMap().containsKey( label ) )
-				for ( final CorrespondingInterestPoints c : vip.getViewInterestPointLists( v ).getInterestPointList( label ).getCorrespondingInterestPointsCopy() )
-					cips.add( c.getDetectionId() );
-	
-			sum += cips.size();
-		}
+				sum += vip.getViewInterestPointLists( v ).getInterestPointList( label ).getStatistics().getNumCorrespondingInterestPoints();
 
 		return sum;
 	}
@@ -224,7 +217,7 @@ public class InterestPointTableModel extends AbstractTableModel implements Inter
 
 		for ( final ViewId v : views )
 			if ( vip.getViewInterestPointLists( v ).getHashMap().containsKey( label ) )
-				sum += vip.getViewInterestPointLists( v ).getInterestPointList( label ).getCorrespondingInterestPointsCopy().size();
+				sum += vip.getViewInterestPointLists( v ).getInterestPointList( label ).getStatistics().getNumCorrespondences();
 
 		return sum;
 	}
@@ -235,7 +228,7 @@ public class InterestPointTableModel extends AbstractTableModel implements Inter
 
 		for ( final ViewId v : views )
 			if ( vip.getViewInterestPointLists( v ).getHashMap().containsKey( label ) )
-				sum += vip.getViewInterestPointLists( v ).getInterestPointList( label ).getInterestPointsCopy().size();
+				sum += vip.getViewInterestPointLists( v ).getInterestPointList( label ).getStatistics().getNumInterestPoints();
 
 		return sum;
 	}
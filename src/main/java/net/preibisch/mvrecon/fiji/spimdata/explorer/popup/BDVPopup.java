@@ -38,6 +38,10 @@ import bdv.tools.InitializeViewerState;
 import bdv.tools.brightness.MinMaxGroup;
 import bdv.tools.brightness.SetupAssignments;
 import bdv.tools.transformation.TransformedSource;
+import bdv.util.Bdv;
+import bdv.util.BdvOptions;
+import bdv.util.BdvStackSource;
+import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.Source;
 import bdv.viewer.ViewerOptions;
 import bdv.viewer.ViewerPanel;
@@ -52,15 +56,20 @@ import net.imglib2.histogram.Histogram1d;
 import net.imglib2.histogram.Real1dBinMapper;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.volatiles.VolatileFloatType;
 import net.imglib2.util.LinAlgHelpers;
+import net.imglib2.util.Pair;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.apply.BigDataViewerTransformationWindow;
+import net.preibisch.mvrecon.fiji.plugin.interactive.MultiResolutionTools;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.ExplorerWindow;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.GroupedRowWindow;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.ViewSetupExplorerPanel;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.bdv.ScrollableBrightnessDialog;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.AbstractImgLoader;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
 
 
 public class BDVPopup extends JMenuItem implements ExplorerWindowSetable, BasicBDVPopup
@@ -265,6 +274,41 @@ public class BDVPopup extends JMenuItem implements ExplorerWindowSetable, BasicB
 		minmax.getMaxBoundedValue().setCurrentValue( max );
 	}
 
+	/**
+	 * Shows a fused multiresolution pyramid progressively in its own BigDataViewer window, see
+	 * {@link MultiResolutionTools#showProgressive(List, String, SharedQueue, BdvOptions)}. If the BigDataViewer
+	 * of the explorer is running, the new window starts at its current viewer transform.
+	 *
+	 * @param panel - the explorer window
+	 * @param multiRes - the (virtual) fused pyramid, full resolution first
+	 * @param name - name of the source and window
+	 * @return the BDV source
+	 */
+	public static BdvStackSource< VolatileFloatType > showFusedPreview(
+			final ExplorerWindow< ?, ? > panel,
+			final List< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes,
+			final String name )
+	{
+		final SharedQueue queue = MultiResolutionTools.createFetcherQueue( multiRes.size() );
+		final BdvStackSource< VolatileFloatType > source =
+				MultiResolutionTools.showProgressive( multiRes, name, queue, Bdv.options().frameTitle( name ) );
+
+		// the coarsest level is small and computed first anyways
+		final double[] minmax = FusionTools.minMaxApprox( multiRes.get( multiRes.size() - 1 ).getA() );
+		source.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
+
+		final BasicBDVPopup p = panel == null ? null : panel.bdvPopup();
+
+		if ( p != null && p.bdvRunning() )
+		{
+			final AffineTransform3D viewerTransform = new AffineTransform3D();
+			p.getBDV().getViewer().getState().getViewerTransform( viewerTransform );
+			source.getBdvHandle().getViewerPanel().setCurrentViewerTransform( viewerTransform );
+		}
+
+		return source;
+	}
+
 	public static BigDataViewer createBDV( final ExplorerWindow< ?, ? > panel )
 	{
 		final BigDataViewer bdv = createBDV( panel.getSpimData(), panel.xml() );
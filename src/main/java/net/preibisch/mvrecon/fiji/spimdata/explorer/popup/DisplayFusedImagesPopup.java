@@ -39,7 +39,12 @@ import ij.gui.StackWindow;
 import mpicbg.spim.data.SpimData;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Pair;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.plugin.interactive.MultiResolutionTools;
 import net.preibisch.mvrecon.fiji.plugin.util.MouseOverPopUpStateChanger;
 import net.preibisch.mvrecon.fiji.plugin.util.MouseOverPopUpStateChanger.StateChanger;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
@@ -57,6 +62,9 @@ public class DisplayFusedImagesPopup extends JMenu implements ExplorerWindowSeta
 	public static int[] cellDim = new int[]{ 100, 100, 1 };
 	public static int maxCacheSize = 100000;
 
+	// pyramid of the progressive BigDataViewer display
+	public static int progressiveMinDS = 1, progressiveMaxDS = 16, progressiveDSInc = 2;
+
 	public static int defaultInterpolation = 1;
 	public static boolean defaultUseBlending = true;
 
@@ -111,6 +119,13 @@ public class DisplayFusedImagesPopup extends JMenu implements ExplorerWindowSeta
 							fused.addActionListener( new DisplayVirtualFused( spimData, views, bb, downsample, ImgDataType.values()[ defaultCache ] ) );
 							downsampleOptions.add( fused );
 						}
+
+						downsampleOptions.add( new Separator() );
+
+						final JMenuItem progressive = new JMenuItem( "Multiresolution in BigDataViewer (progressive)" );
+						progressive.addActionListener( new DisplayProgressiveFused( spimData, views, bb ) );
+						downsampleOptions.add( progressive );
+
 						boundingBoxes.add( downsampleOptions );
 					}
 
@@ -214,4 +229,47 @@ public class DisplayFusedImagesPopup extends JMenu implements ExplorerWindowSeta
 			} ).start();
 		}
 	}
+
+	public class DisplayProgressiveFused implements ActionListener
+	{
+		final SpimData2 spimData;
+		final ArrayList< ViewId > views;
+		final BoundingBox bb;
+
+		public DisplayProgressiveFused( final SpimData2 spimData, final ArrayList< ViewId > views, final BoundingBox bb )
+		{
+			this.spimData = spimData;
+			this.views = views;
+			this.bb = bb;
+		}
+
+		@Override
+		public void actionPerformed( final ActionEvent e )
+		{
+			if ( panel == null )
+			{
+				IOFunctions.println( "Panel not set for " + this.getClass().getSimpleName() );
+				return;
+			}
+
+			new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Fusing " + views.size() + " views progressively in BigDataViewer." );
+
+					final ArrayList< Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > > multiRes =
+							MultiResolutionTools.createMultiResolutionAffine(
+									spimData.getSequenceDescription().getImgLoader(),
+									MultiResolutionTools.getRegistrations( spimData, views ),
+									spimData.getSequenceDescription().getViewDescriptions(),
+									views, defaultUseBlending, false, defaultInterpolation, bb, null,
+									progressiveMinDS, progressiveMaxDS, progressiveDSInc );
+
+					BDVPopup.showFusedPreview( panel, multiRes, "Fused " + bb.getTitle() );
+				}
+			} ).start();
+		}
+	}
 }
@@ -35,9 +35,9 @@ import java.util.concurrent.ExecutorService;
 import javax.swing.JMenuItem;
 
 import bdv.util.Bdv;
-import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvStackSource;
+import bdv.util.volatiles.SharedQueue;
 import ij.gui.GenericDialog;
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -52,7 +52,6 @@ import net.imglib2.util.Pair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI;
 import net.preibisch.mvrecon.fiji.plugin.fusion.NonRigidParametersGUI;
-import net.preibisch.mvrecon.fiji.plugin.interactive.MultiResolutionSource;
 import net.preibisch.mvrecon.fiji.plugin.interactive.MultiResolutionTools;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
@@ -155,6 +154,13 @@ public class VisualizeNonRigid extends JMenuItem implements ExplorerWindowSetabl
 					final int maxDS = 16;
 					final int dsInc = 2;
 
+					// one background fetcher queue for all sources of the BDV window
+					int numLevels = 0;
+					for ( int ds = minDS; ds <= maxDS; ds *= dsInc )
+						++numLevels;
+
+					final SharedQueue queue = MultiResolutionTools.createFetcherQueue( numLevels );
+
 					if ( display == 0 )
 					{
 						// Overlay all views affine vs. non-rigid
@@ -198,13 +204,13 @@ public class VisualizeNonRigid extends JMenuItem implements ExplorerWindowSetabl
 						service.shutdown();
 
 						BdvOptions options = Bdv.options().numSourceGroups( 2 ).frameTitle( "Affine (magenta) vs. NonRigid (green)" );
-						BdvStackSource< ? > affine = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( multiResAffine ), "affine" ), options );
+						BdvStackSource< ? > affine = MultiResolutionTools.showProgressive( multiResAffine, "affine", queue, options );
 						final double[] minmax = FusionTools.minMaxApprox( multiResAffine.get( multiResAffine.size() - 1 ).getA() );
 						affine.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 						affine.setColor( new ARGBType( ARGBType.rgba( 255, 0, 255, 0 ) ) );
 
 						options.addTo( affine );
-						BdvStackSource< ? > nr = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( multiResNonRigid ), "nonrigid" ), options );
+						BdvStackSource< ? > nr = MultiResolutionTools.showProgressive( multiResNonRigid, "nonrigid", queue, options );
 						nr.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 						nr.setColor( new ARGBType( ARGBType.rgba( 0, 255, 0, 0 ) ) );
 						MultiResolutionTools.updateBDV( nr );
@@ -238,13 +244,13 @@ public class VisualizeNonRigid extends JMenuItem implements ExplorerWindowSetabl
 									viewIds, true, false, 1, boundingBox, null, minDS, maxDS, dsInc );
 
 						BdvOptions options = Bdv.options().numSourceGroups( 2 ).frameTitle( "Affine (magenta) vs. Previous Affine (green)" );
-						BdvStackSource< ? > affine = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( multiResAffine ), "affine" ), options );
+						BdvStackSource< ? > affine = MultiResolutionTools.showProgressive( multiResAffine, "affine", queue, options );
 						final double[] minmax = FusionTools.minMaxApprox( multiResAffine.get( multiResAffine.size() - 1 ).getA() );
 						affine.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 						affine.setColor( new ARGBType( ARGBType.rgba( 255, 0, 255, 0 ) ) );
 
 						options.addTo( affine );
-						BdvStackSource< ? > oldaffine = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( oldMultiResAffine ), "previous affine" ), options );
+						BdvStackSource< ? > oldaffine = MultiResolutionTools.showProgressive( oldMultiResAffine, "previous affine", queue, options );
 						oldaffine.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 						oldaffine.setColor( new ARGBType( ARGBType.rgba( 0, 255, 0, 0 ) ) );
 						MultiResolutionTools.updateBDV( oldaffine );
@@ -294,7 +300,7 @@ public class VisualizeNonRigid extends JMenuItem implements ExplorerWindowSetabl
 	
 							if ( nr != null )
 								options.addTo( nr );
-							nr = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( multiResNonRigid ), "nonrigid " + Group.pvid( viewId ) ), options );
+							nr = MultiResolutionTools.showProgressive( multiResNonRigid, "nonrigid " + Group.pvid( viewId ), queue, options );
 							final double[] minmax = FusionTools.minMaxApprox( multiResNonRigid.get( multiResNonRigid.size() - 1 ).getA() );
 							nr.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 
@@ -328,7 +334,7 @@ public class VisualizeNonRigid extends JMenuItem implements ExplorerWindowSetabl
 	
 							if ( affine != null )
 								options.addTo( affine );
-							affine = BdvFunctions.show( new MultiResolutionSource( MultiResolutionTools.createVolatileRAIs( multiResAffine ), "affine " + Group.pvid( viewId ) ), options );
+							affine = MultiResolutionTools.showProgressive( multiResAffine, "affine " + Group.pvid( viewId ), queue, options );
 							final double[] minmax = FusionTools.minMaxApprox( multiResAffine.get( multiResAffine.size() - 1 ).getA() );
 							affine.setDisplayRange( minmax[ 0 ], minmax[ 1 ] );
 
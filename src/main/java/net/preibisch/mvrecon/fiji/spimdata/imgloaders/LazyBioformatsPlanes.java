@@ -0,0 +1,334 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Util;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+
+/**
+ * Lazily loaded, cell-cached images from Bio-Formats readers. Every cell is one z-plane that is read when it is first
+ * touched, the planes are decoded by a small pool of readers (so several threads can decode planes in parallel)
+ * and converted in bulk directly into the primitive array of the cell. The bulk conversion can also write planes straight
+ * into the primitive arrays of existing {@link ArrayImg}s, {@link PlanarImg}s and CellImgs.
+ */
+public class LazyBioformatsPlanes
+{
+	// the maximal number of readers per file
+	public static int defaultNumReaders = 4;
+
+	/**
+	 * A pool of opened readers for one file, readers are only created when all existing ones are busy.
+	 */
+	public static class ReaderPool
+	{
+		final File file;
+		final Supplier< IFormatReader > readerFactory;
+		final int maxReaders;
+
+		final LinkedBlockingQueue< IFormatReader > idle = new LinkedBlockingQueue<>();
+		final ArrayList< IFormatReader > all = new ArrayList<>();
+
+		public ReaderPool( final File file, final Supplier< IFormatReader > readerFactory, final int maxReaders )
+		{
+			this.file = file;
+			this.readerFactory = readerFactory;
+			this.maxReaders = Math.max( 1, maxReaders );
+		}
+
+		public ReaderPool( final File file, final Supplier< IFormatReader > readerFactory )
+		{
+			this( file, readerFactory, defaultNumReaders );
+		}
+
+		public IFormatReader acquire() throws Exception
+		{
+			IFormatReader r = idle.poll();
+
+			if ( r != null )
+				return r;
+
+			synchronized ( this )
+			{
+				if ( all.size() < maxReaders )
+				{
+					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Opening '" + file.getName() + "' for reading image data (reader " + ( all.size() + 1 ) + "/" + maxReaders + ")." );
+
+					r = readerFactory.get();
+					r.setId( file.getAbsolutePath() );
+					all.add( r );
+
+					return r;
+				}
+			}
+
+			return idle.take();
+		}
+
+		/**
+		 * Returns a reader to the pool, readers that were acquired before {@link #close()} are closed instead of pooled.
+		 *
+		 * @param r - the reader as returned by {@link #acquire()}
+		 */
+		public void release( final IFormatReader r )
+		{
+			synchronized ( this )
+			{
+				// still open and part of the pool
+				if ( all.contains( r ) )
+				{
+					idle.offer( r );
+					return;
+				}
+			}
+
+			try { r.close(); } catch ( IOException e ) {}
+		}
+
+		/**
+		 * Closes all readers, has to be called by the owner of the pool (e.g. when the ImgLoader is closed).
+		 * Readers that are in use while closing are closed when they are released. Images that were already
+		 * opened from this pool re-open readers if more planes are loaded.
+		 */
+		public synchronized void close()
+		{
+			// readers in use are not part of the pool anymore, they are closed by release()
+			IFormatReader r;
+			while ( ( r = idle.poll() ) != null )
+				try { r.close(); } catch ( IOException e ) {}
+
+			all.clear();
+		}
+
+		/**
+		 * @return the number of readers that are currently open (idle or in use)
+		 */
+		public synchronized int numReaders() { return all.size(); }
+	}
+
+	/**
+	 * @param pool - the readers of the file
+	 * @param series - the series of the view
+	 * @param channel - the channel index (as used by {@link IFormatReader#getIndex(int, int, int)})
+	 * @param timepoint - the timepoint index
+	 * @param dim - the dimensions of the view (x,y,z)
+	 * @param pixelType - the Bio-Formats pixel type
+	 * @param isLittleEndian - byte order
+	 * @return a lazily loaded, cell-cached image with one cell per z-plane
+	 */
+	public static RandomAccessibleInterval< UnsignedShortType > open(
+			final ReaderPool pool,
+			final int series,
+			final int channel,
+			final int timepoint,
+			final int[] dim,
+			final int pixelType,
+			final boolean isLittleEndian )
+	{
+		final int numPx = dim[ 0 ] * dim[ 1 ];
+
+		final ReadOnlyCachedCellImgOptions options =
+				new ReadOnlyCachedCellImgOptions().cellDimensions( dim[ 0 ], dim[ 1 ], 1 ).cacheType( CacheType.SOFTREF );
+
+		final CellLoader< UnsignedShortType > loader = new CellLoader< UnsignedShortType >()
+		{
+			@Override
+			public void load( final SingleCellArrayImg< UnsignedShortType, ? > cell ) throws Exception
+			{
+				final long time = Metrics.timer( "loader.bioformats.plane" ).start();
+
+				final short[] target = (short[])( (ArrayDataAccess< ? >)cell.update( null ) ).getCurrentStorageArray();
+				final int z = (int)cell.min( 2 );
+
+				final IFormatReader r = pool.acquire();
+				Metrics.gauge( "loader.bioformats.readersInUse" ).inc();
+
+				try
+				{
+					r.setSeries( series );
+					final byte[] b = r.openBytes( r.getIndex( z, channel, timepoint ) );
+					Metrics.counter( "loader.bioformats.bytes" ).add( b.length );
+
+					decodePlane( b, target, 0, numPx, pixelType, isLittleEndian );
+				}
+				finally
+				{
+					Metrics.gauge( "loader.bioformats.readersInUse" ).dec();
+					pool.release( r );
+				}
+
+				Metrics.timer( "loader.bioformats.plane" ).stop( time, numPx );
+			}
+		};
+
+		return new ReadOnlyCachedCellImgFactory( options ).create( new long[] { dim[ 0 ], dim[ 1 ], dim[ 2 ] }, new UnsignedShortType(), loader );
+	}
+
+	/**
+	 * Converts one plane as read by Bio-Formats into unsigned shorts, values are mapped as by {@link UnsignedShortType#setReal(double)}.
+	 *
+	 * @param b - the bytes of the plane
+	 * @param target - the target array
+	 * @param offset - where the plane starts in the target array
+	 * @param numPx - number of pixels of the plane
+	 * @param pixelType - the Bio-Formats pixel type
+	 * @param isLittleEndian - byte order
+	 */
+	public static void decodePlane( final byte[] b, final short[] target, final int offset, final int numPx, final int pixelType, final boolean isLittleEndian )
+	{
+		final ByteOrder order = isLittleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+		if ( pixelType == FormatTools.UINT8 )
+		{
+			for ( int i = 0; i < numPx; ++i )
+				target[ offset + i ] = (short)( b[ i ] & 0xff );
+		}
+		else if ( pixelType == FormatTools.UINT16 || pixelType == FormatTools.INT16 )
+		{
+			// same bits for signed and unsigned
+			ByteBuffer.wrap( b ).order( order ).asShortBuffer().get( target, offset, numPx );
+		}
+		else if ( pixelType == FormatTools.UINT32 )
+		{
+			for ( int i = 0; i < numPx; ++i )
+				target[ offset + i ] = (short)LegacyStackImgLoaderLOCI.getIntValue( b, i * 4, isLittleEndian );
+		}
+		else if ( pixelType == FormatTools.FLOAT )
+		{
+			for ( int i = 0; i < numPx; ++i )
+				target[ offset + i ] = (short)Math.round( LegacyStackImgLoaderLOCI.getFloatValue( b, i * 4, isLittleEndian ) );
+		}
+		else
+		{
+			throw new RuntimeException( "Pixel type " + FormatTools.getPixelTypeString( pixelType ) + " not supported." );
+		}
+	}
+
+	/**
+	 * Only writable in-memory images qualify ({@link ArrayImg}, {@link PlanarImg}, {@link CellImg} backed by {@link ShortArray}s),
+	 * not cached CellImgs (whose cells might be evicted or loaded lazily) or volatile accesses.
+	 *
+	 * @param img - the image
+	 * @return true if {@link #decodePlane(byte[], Img, int, int, boolean)} can write into the primitive arrays of this image
+	 */
+	public static boolean canDecodeInto( final Img< ? > img )
+	{
+		if ( img.numDimensions() != 3 || !UnsignedShortType.class.isInstance( Util.getTypeFromInterval( img ) ) )
+			return false;
+
+		if ( img instanceof ArrayImg )
+			return ( (ArrayImg< ?, ? >)img ).update( null ) instanceof ShortArray;
+		else if ( img instanceof PlanarImg )
+			return ( (PlanarImg< ?, ? >)img ).numSlices() > 0 && ( (PlanarImg< ?, ? >)img ).getPlane( 0 ) instanceof ShortArray;
+		else if ( img instanceof CellImg )
+		{
+			final Cursor< ? > cells = ( (CellImg< ?, ? >)img ).getCells().cursor();
+			return cells.hasNext() && ( (Cell< ? >)cells.next() ).getData() instanceof ShortArray;
+		}
+		else
+			return false;
+	}
+
+	/**
+	 * Converts one plane as read by Bio-Formats directly into the primitive array(s) of an {@link UnsignedShortType} image,
+	 * different planes can be written concurrently.
+	 *
+	 * @param b - the bytes of the plane
+	 * @param img - the target image, see {@link #canDecodeInto(Img)}
+	 * @param z - which plane
+	 * @param pixelType - the Bio-Formats pixel type
+	 * @param isLittleEndian - byte order
+	 */
+	public static void decodePlane( final byte[] b, final Img< ? > img, final int z, final int pixelType, final boolean isLittleEndian )
+	{
+		final int width = (int)img.dimension( 0 );
+		final int height = (int)img.dimension( 1 );
+		final int numPx = width * height;
+
+		if ( img instanceof ArrayImg )
+		{
+			decodePlane( b, storage( ( (ArrayImg< ?, ? >)img ).update( null ) ), z * numPx, numPx, pixelType, isLittleEndian );
+		}
+		else if ( img instanceof PlanarImg )
+		{
+			decodePlane( b, storage( ( (PlanarImg< ?, ? >)img ).getPlane( z ) ), 0, numPx, pixelType, isLittleEndian );
+		}
+		else
+		{
+			// decode once, then copy the rows into all cells that intersect the plane
+			final short[] plane = new short[ numPx ];
+			decodePlane( b, plane, 0, numPx, pixelType, isLittleEndian );
+
+			final long[] min = new long[ 3 ];
+			final int[] dim = new int[ 3 ];
+
+			for ( final Object o : ( (AbstractCellImg< ?, ?, ?, ? >)img ).getCells() )
+			{
+				final Cell< ? > cell = (Cell< ? >)o;
+				cell.min( min );
+				cell.dimensions( dim );
+
+				if ( z < min[ 2 ] || z >= min[ 2 ] + dim[ 2 ] )
+					continue;
+
+				final short[] data = storage( cell.getData() );
+				final int offset = (int)( z - min[ 2 ] ) * dim[ 0 ] * dim[ 1 ];
+
+				for ( int y = 0; y < dim[ 1 ]; ++y )
+					System.arraycopy( plane, (int)( ( min[ 1 ] + y ) * width + min[ 0 ] ), data, offset + y * dim[ 0 ], dim[ 0 ] );
+			}
+		}
+	}
+
+	protected static short[] storage( final Object access )
+	{
+		return (short[])( (ArrayDataAccess< ? >)access ).getCurrentStorageArray();
+	}
+}
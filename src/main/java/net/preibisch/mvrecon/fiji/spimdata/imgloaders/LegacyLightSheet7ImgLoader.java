@@ -1,5 +1,6 @@
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Date;
@@ -42,7 +43,7 @@ import net.preibisch.mvrecon.fiji.datasetmanager.LightSheet7;
 import net.preibisch.mvrecon.headless.definedataset.LightSheet7MetaData;
 import util.ImgLib2Tools;
 
-public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
+public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader implements Closeable
 {
 	final File cziFile;
 	final AbstractSequenceDescription<?, ?, ?> sequenceDescription;
@@ -51,6 +52,11 @@ public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
 	LightSheet7MetaData meta;
 	boolean isClosed = true;
 
+	// if true, planes are read on demand into a cached CellImg by a pool of readers
+	public static boolean defaultLazyLoading = false;
+	boolean lazyLoading = defaultLazyLoading;
+	LazyBioformatsPlanes.ReaderPool readerPool = null;
+
 	public LegacyLightSheet7ImgLoader(
 			final File cziFile,
 			final ImgFactory< ? extends NativeType< ? > > imgFactory,
@@ -64,6 +70,8 @@ public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
 	}
 
 	public File getCZIFile() { return cziFile; }
+	public boolean isLazyLoading() { return lazyLoading; }
+	public void setLazyLoading( final boolean lazyLoading ) { this.lazyLoading = lazyLoading; }
 
 	@Override
 	public RandomAccessibleInterval< FloatType > getFloatImage( final ViewId view, final boolean normalize )
@@ -79,7 +87,7 @@ public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
 	{
 		try
 		{
-			final Img< UnsignedShortType > img = openCZI( new UnsignedShortType(), view );
+			final RandomAccessibleInterval< UnsignedShortType > img = lazyLoading ? openCZILazy( view ) : openCZI( new UnsignedShortType(), view );
 
 			if ( img == null )
 				throw new RuntimeException( "Could not load '" + cziFile + "' viewId=" + view.getViewSetupId() + ", tpId=" + view.getTimePointId() );
@@ -114,7 +122,20 @@ public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
 		catch (IOException e) {}
 	}
 
-	protected < T extends RealType< T > & NativeType< T > > Img< T > openCZI( final T type, final ViewId view ) throws Exception
+	/**
+	 * Closes the readers used for lazy loading, they are opened again if more planes are requested.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if ( readerPool != null )
+		{
+			readerPool.close();
+			readerPool = null;
+		}
+	}
+
+	protected synchronized boolean loadCZIMetaData()
 	{
 		if ( meta == null )
 		{
@@ -127,7 +148,7 @@ public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
 				IOFunctions.println( "Failed to analyze file: '" + cziFile.getAbsolutePath() + "'." );
 				meta = null;
 				isClosed = true;
-				return null;
+				return false;
 			}
 			else
 			{
@@ -135,6 +156,63 @@ public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
 			}
 		}
 
+		return true;
+	}
+
+	/*
+	 * Returns a cached CellImg with one cell per z-plane, planes are read when first accessed
+	 */
+	protected RandomAccessibleInterval< UnsignedShortType > openCZILazy( final ViewId view )
+	{
+		if ( !loadCZIMetaData() )
+			return null;
+
+		final LazyBioformatsPlanes.ReaderPool pool;
+
+		synchronized ( this )
+		{
+			if ( readerPool == null )
+				readerPool = new LazyBioformatsPlanes.ReaderPool( cziFile, () -> LegacyLightSheet7ImgLoader.instantiateImageReader() );
+
+			pool = readerPool;
+		}
+
+		final BasicViewDescription< ? > vd = sequenceDescription.getViewDescriptions().get( view );
+		final BasicViewSetup vs = vd.getViewSetup();
+
+		final Angle a = getAngle( vd );
+		final Channel c = getChannel( vd );
+		final Illumination i = getIllumination( vd );
+		final Tile tile = getTile( vd );
+
+		final int[] dim;
+
+		if ( vs.hasSize() )
+		{
+			dim = new int[ vs.getSize().numDimensions() ];
+			for ( int d = 0; d < vs.getSize().numDimensions(); ++d )
+				dim[ d ] = (int)vs.getSize().dimension( d );
+		}
+		else
+		{
+			dim = meta.imageSizes().get( a.getId() );
+		}
+
+		// see openCZI()
+		final int ch = i.getId() * meta.numChannels() + c.getId();
+
+		IOFunctions.println(
+				new Date( System.currentTimeMillis() ) + ": Lazily reading image data from '" + cziFile.getName() + "' [" + dim[ 0 ] + "x" + dim[ 1 ] + "x" + dim[ 2 ] +
+				" angle=" + a.getName() + " ch=" + c.getName() + " illum=" + i.getName() + " tp=" + vd.getTimePoint().getName() + " type=" + meta.pixelTypeString() + "]" );
+
+		return LazyBioformatsPlanes.open( pool, tile.getId(), ch, vd.getTimePoint().getId(), dim, meta.pixelType(), meta.isLittleEndian() );
+	}
+
+	protected < T extends RealType< T > & NativeType< T > > Img< T > openCZI( final T type, final ViewId view ) throws Exception
+	{
+		if ( !loadCZIMetaData() )
+			return null;
+
 		final BasicViewDescription< ? > vd = sequenceDescription.getViewDescriptions().get( view );
 		final BasicViewSetup vs = vd.getViewSetup();
 
@@ -445,6 +523,6 @@ public class LegacyLightSheet7ImgLoader extends AbstractImgFactoryImgLoader
 	@Override
 	public String toString()
 	{
-		return new LightSheet7().getTitle() + ", ImgFactory=" + imgFactory.getClass().getSimpleName();
+		return new LightSheet7().getTitle() + ( lazyLoading ? ", lazy loading" : ", ImgFactory=" + imgFactory.getClass().getSimpleName() );
 	}
 }
@@ -22,10 +22,14 @@
  */
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
@@ -37,8 +41,11 @@ import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
@@ -46,15 +53,17 @@ import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
-import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.datasetmanager.MicroManager;
 import util.ImgLib2Tools;
 
-public class LegacyMicroManagerImgLoader extends AbstractImgLoader
+public class LegacyMicroManagerImgLoader extends AbstractImgLoader implements Closeable
 {
 	final File mmFile;
 	final AbstractSequenceDescription< ? extends BasicViewSetup, ? extends BasicViewDescription< ? >, ? > sequenceDescription;
 
+	// opened once and shared by all views, the index of the planes is only parsed once
+	MultipageTiffReader reader = null;
+
 	public LegacyMicroManagerImgLoader(
 			final File mmFile,
 			final AbstractSequenceDescription< ? extends BasicViewSetup, ? extends BasicViewDescription< ? >, ? > sequenceDescription )
@@ -67,54 +76,99 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 
 	public File getFile() { return mmFile; }
 
+	/**
+	 * @return the reader of the file, opened on first use and kept until {@link #close()}
+	 * @throws IOException - if the file cannot be opened
+	 */
+	protected synchronized MultipageTiffReader getReader() throws IOException
+	{
+		if ( reader == null )
+			reader = new MultipageTiffReader( mmFile );
+
+		return reader;
+	}
+
+	/**
+	 * Closes the reader of the file, images that were already returned stay valid (see {@link MultipageTiffReader#readPlane(String)}).
+	 * The file is opened again if further images are requested.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if ( reader != null )
+		{
+			try { reader.close(); } catch ( IOException e ) {}
+			reader = null;
+		}
+	}
+
 	final public static < T extends RealType< T > & NativeType< T > > void populateImage( final Img< T > img, final BasicViewDescription< ? > vd, final MultipageTiffReader r )
 	{
 		final Cursor< T > cursor = Views.flatIterable( img ).cursor();
-		
+		final Buffer[] planes = readPlanes( vd, r );
+
+		for ( final Buffer plane : planes )
+		{
+			if ( plane == null )
+			{
+				// leave the slice empty
+				for ( int j = 0; j < img.dimension( 0 ) * img.dimension( 1 ); ++j )
+					cursor.next();
+			}
+			else if ( plane instanceof ByteBuffer )
+			{
+				final ByteBuffer b = (ByteBuffer)plane;
+				for ( int j = 0; j < b.limit(); ++j )
+					cursor.next().setReal( UnsignedByteType.getUnsignedByte( b.get( j ) ) );
+			}
+			else
+			{
+				final ShortBuffer s = (ShortBuffer)plane;
+				for ( int j = 0; j < s.limit(); ++j )
+					cursor.next().setReal( UnsignedShortType.getUnsignedShort( s.get( j ) ) );
+			}
+		}
+	}
+
+	/**
+	 * Looks up all z-planes of a view as zero-copy views into the memory-mapped files, see {@link MultipageTiffReader#readPlane(String)}.
+	 *
+	 * @param vd - the view description
+	 * @param r - the reader
+	 * @return one {@link ByteBuffer} or {@link ShortBuffer} per plane, null for dropped frames
+	 */
+	public static Buffer[] readPlanes( final BasicViewDescription< ? > vd, final MultipageTiffReader r )
+	{
 		final int t = vd.getTimePoint().getId();
 		final int a = vd.getViewSetup().getAttribute( Angle.class ).getId();
 		final int c = vd.getViewSetup().getAttribute( Channel.class ).getId();
 		final int i = vd.getViewSetup().getAttribute( Illumination.class ).getId();
 
-		int countDroppedFrames = 0;
+		final Buffer[] planes = new Buffer[ r.depth() ];
 		ArrayList< Integer > slices = null;
 
 		for ( int z = 0; z < r.depth(); ++z )
 		{
 			final String label = MultipageTiffReader.generateLabel( r.interleavedId( c, a ), z, t, i );
-			final Pair< Object, HashMap< String, Object > > result = r.readImage( label );
+			planes[ z ] = r.readPlane( label );
 
-			if ( result == null )
+			if ( planes[ z ] == null )
 			{
-				++countDroppedFrames;
 				if ( slices == null )
 					slices = new ArrayList<Integer>();
 				slices.add( z );
-
-				// leave the slice empty
-				for ( int j = 0; j < img.dimension( 0 ) * img.dimension( 1 ); ++j )
-					cursor.next();
-
-				continue;
 			}
-
-			final Object o = result.getA();
-
-			if ( o instanceof byte[] )
-				for ( final byte b : (byte[])o )
-					cursor.next().setReal( UnsignedByteType.getUnsignedByte( b ) );
-			else
-				for ( final short s : (short[])o )
-					cursor.next().setReal( UnsignedShortType.getUnsignedShort( s ) );
 		}
 
-		if ( countDroppedFrames > 0 )
+		if ( slices != null )
 		{
-			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): WARNING!!! " + countDroppedFrames + " DROPPED FRAME(s) in timepoint="  + t + " viewsetup=" + vd.getViewSetupId() + " following slices:" );
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): WARNING!!! " + slices.size() + " DROPPED FRAME(s) in timepoint="  + t + " viewsetup=" + vd.getViewSetupId() + " following slices:" );
 
 			for ( final int z : slices )
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): slice=" + z );
 		}
+
+		return planes;
 	}
 
 	@Override
@@ -131,7 +185,7 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 	{
 		try
 		{
-			final MultipageTiffReader r = new MultipageTiffReader( mmFile );
+			final MultipageTiffReader r = getReader();
 
 			final long w = r.width();
 			final long h = r.height();
@@ -139,18 +193,30 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 
 			final BasicViewDescription< ? > vd = sequenceDescription.getViewDescriptions().get( view );
 
-			final Img< UnsignedShortType > img;
+			// one cell per z-plane, backed directly by the memory-mapped file
+			final Buffer[] planes = readPlanes( vd, r );
+			final CellGrid grid = new CellGrid( new long[] { w, h, d }, new int[] { (int)w, (int)h, 1 } );
 
-			if ( fitsIntoArrayImg( w, h, d ) )
-				img = ArrayImgs.unsignedShorts( w, d, h );
-			else
-				img = new CellImgFactory<>( new UnsignedShortType() ).create( new long[] { w, h, d }  );
+			@SuppressWarnings( "unchecked" )
+			final Cell< ShortAccess >[] cells = new Cell[ planes.length ];
 
-			populateImage( img, vd, r );
+			for ( int z = 0; z < planes.length; ++z )
+			{
+				final ShortAccess access;
 
-			updateMetaDataCache( view, r.width(), r.height(), r.depth(), r.calX(), r.calY(), r.calZ() );
+				if ( planes[ z ] == null )
+					access = new ShortArray( (int)( w * h ) ); // dropped frame, leave the slice empty
+				else if ( planes[ z ] instanceof ByteBuffer )
+					access = new ByteBufferAccess( (ByteBuffer)planes[ z ] );
+				else
+					access = new ShortBufferAccess( (ShortBuffer)planes[ z ] );
+
+				cells[ z ] = new Cell<>( new int[] { (int)w, (int)h, 1 }, new long[] { 0, 0, z }, access );
+			}
 
-			r.close();
+			final Img< UnsignedShortType > img = new LazyCellImg< UnsignedShortType, ShortAccess >( grid, new UnsignedShortType(), index -> cells[ (int)index ] );
+
+			updateMetaDataCache( view, r.width(), r.height(), r.depth(), r.calX(), r.calY(), r.calZ() );
 
 			return img;
 		}
@@ -167,11 +233,9 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 	{
 		try
 		{
-			final MultipageTiffReader r = new MultipageTiffReader( mmFile );
+			final MultipageTiffReader r = getReader();
 
 			updateMetaDataCache( view, r.width(), r.height(), r.depth(), r.calX(), r.calY(), r.calZ() );
-
-			r.close();
 		}
 		catch ( Exception e )
 		{
@@ -180,30 +244,104 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 		}
 	}
 
-	public static boolean fitsIntoArrayImg( final long w, final long h, final long d )
+	/**
+	 * {@link ShortAccess} on a 16 bit plane of a memory-mapped file. The plane is read directly from the file until
+	 * it is written to the first time, then it is copied into a short[] that receives all further reads and writes.
+	 */
+	public static class ShortBufferAccess implements ShortAccess
 	{
-		long maxNumPixels = w * h * d;
+		final ShortBuffer buffer;
+		volatile short[] copy = null;
+
+		public ShortBufferAccess( final ShortBuffer buffer ) { this.buffer = buffer; }
 
-		int smallerLog2 = (int)Math.ceil( Math.log( maxNumPixels ) / Math.log( 2 ) );
+		@Override
+		public short getValue( final int index )
+		{
+			final short[] c = copy;
+			return c == null ? buffer.get( index ) : c[ index ];
+		}
 
-		String s = "Maximum number of pixels in any view: n=" + maxNumPixels + 
-				" (2^" + (smallerLog2-1) + " < n < 2^" + smallerLog2 + " px), ";
+		@Override
+		public void setValue( final int index, final short value ) { writableCopy()[ index ] = value; }
 
-		if ( smallerLog2 <= 31 )
+		protected short[] writableCopy()
 		{
-			//IOFunctions.println( s + "using ArrayImg." );
-			return true;
+			short[] c = copy;
+
+			if ( c == null )
+			{
+				synchronized ( this )
+				{
+					if ( copy == null )
+					{
+						c = new short[ buffer.limit() ];
+
+						for ( int i = 0; i < c.length; ++i )
+							c[ i ] = buffer.get( i );
+
+						copy = c;
+					}
+
+					c = copy;
+				}
+			}
+
+			return c;
 		}
-		else
+	}
+
+	/**
+	 * {@link ShortAccess} on an 8 bit plane of a memory-mapped file, the values are returned as unsigned shorts. The plane
+	 * is read directly from the file until it is written to the first time, then it is copied into a short[] that receives
+	 * all further reads and writes.
+	 */
+	public static class ByteBufferAccess implements ShortAccess
+	{
+		final ByteBuffer buffer;
+		volatile short[] copy = null;
+
+		public ByteBufferAccess( final ByteBuffer buffer ) { this.buffer = buffer; }
+
+		@Override
+		public short getValue( final int index )
 		{
-			IOFunctions.println( s + "using CellImg." );
-			return false;
+			final short[] c = copy;
+			return c == null ? (short)( buffer.get( index ) & 0xff ) : c[ index ];
+		}
+
+		@Override
+		public void setValue( final int index, final short value ) { writableCopy()[ index ] = value; }
+
+		protected short[] writableCopy()
+		{
+			short[] c = copy;
+
+			if ( c == null )
+			{
+				synchronized ( this )
+				{
+					if ( copy == null )
+					{
+						c = new short[ buffer.limit() ];
+
+						for ( int i = 0; i < c.length; ++i )
+							c[ i ] = (short)( buffer.get( i ) & 0xff );
+
+						copy = c;
+					}
+
+					c = copy;
+				}
+			}
+
+			return c;
 		}
 	}
 
 	@Override
 	public String toString()
 	{
-		return new MicroManager().getTitle() + ", ImgFactory=ArrayImgFactory";
+		return new MicroManager().getTitle() + ", memory-mapped planes";
 	}
 }
@@ -30,8 +30,13 @@ import ij.process.ImageProcessor;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
@@ -57,13 +62,18 @@ import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.datasetmanager.StackListLOCI;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 import ome.units.quantity.Length;
 import util.ImgLib2Tools;
 
 public class LegacyStackImgLoaderLOCI extends LegacyStackImgLoader
 {
+	// how many readers load the planes of one file concurrently if they can be decoded directly into the image
+	public static int numParallelReaders = 4;
+
 	public LegacyStackImgLoaderLOCI(
 			final File path, final String fileNamePattern, final ImgFactory< ? extends NativeType< ? > > imgFactory,
 			final int layoutTP, final int layoutChannels, final int layoutIllum, final int layoutAngles, final int layoutTiles,
@@ -320,7 +330,17 @@ public class LegacyStackImgLoaderLOCI extends LegacyStackImgLoader
 		// Tiles are series in the File, move to the corresponding series
 		if (layoutTiles == 2)
 			r.setSeries( ti );
-		
+
+		if ( LazyBioformatsPlanes.canDecodeInto( img ) )
+		{
+			// fast path: planes are read by several readers in parallel and decoded directly into the primitive arrays
+			readPlanesParallel( r, id, img, depth, c, t, layoutTiles == 2 ? ti : -1, pixelType, isLittleEndian );
+
+			IJ.showProgress( 1 );
+
+			return new CalibratedImg<T>( img, calX, calY, calZ );
+		}
+
 		for ( int z = 0; z < depth; ++z )
 		{
 			IJ.showProgress( (double)z / (double)depth );
@@ -328,6 +348,7 @@ public class LegacyStackImgLoaderLOCI extends LegacyStackImgLoader
 			final Cursor< T > cursor = Views.iterable( Views.hyperSlice( img, 2, z ) ).localizingCursor();
 
 			r.openBytes( r.getIndex( z, c, t ), b );
+			Metrics.counter( "loader.loci.bytes" ).add( b.length );
 
 			if ( pixelType == FormatTools.UINT8 )
 			{
@@ -379,6 +400,80 @@ public class LegacyStackImgLoaderLOCI extends LegacyStackImgLoader
 		return new CalibratedImg<T>( img, calX, calY, calZ );
 	}
 
+	/*
+	 * Reads all planes of a file with numParallelReaders readers (the given one and additional ones opened on the same file
+	 * and set up the same way), every reader decodes a contiguous block of planes straight into the image. Closes the given reader.
+	 */
+	protected static void readPlanesParallel(
+			final IFormatReader r,
+			final String id,
+			final Img< ? > img,
+			final int depth,
+			final int c,
+			final int t,
+			final int series,
+			final int pixelType,
+			final boolean isLittleEndian ) throws Exception
+	{
+		final int numReaders = Math.max( 1, Math.min( numParallelReaders, depth ) );
+		final AtomicInteger progress = new AtomicInteger();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int k = 0; k < numReaders; ++k )
+		{
+			final int zFrom = (int)( (long)depth * k / numReaders );
+			final int zTo = (int)( (long)depth * ( k + 1 ) / numReaders );
+			final boolean ownReader = k > 0;
+
+			tasks.add( () ->
+			{
+				final IFormatReader reader = ownReader ? new ChannelSeparator() : r;
+
+				try
+				{
+					if ( ownReader )
+					{
+						if ( !createOMEXMLMetadata( reader ) )
+							throw new IOException( "Could not create OME-XML metadata for an additional reader of '" + id + "'." );
+
+						reader.setId( id );
+
+						if ( series >= 0 )
+							reader.setSeries( series );
+					}
+
+					for ( int z = zFrom; z < zTo; ++z )
+					{
+						final byte[] b = reader.openBytes( reader.getIndex( z, c, t ) );
+						Metrics.counter( "loader.loci.bytes" ).add( b.length );
+						LazyBioformatsPlanes.decodePlane( b, img, z, pixelType, isLittleEndian );
+
+						IJ.showProgress( (double)progress.incrementAndGet() / (double)depth );
+					}
+				}
+				finally
+				{
+					reader.close();
+				}
+
+				return null;
+			});
+		}
+
+		// unlike FusionTools.execTasks, a failing reader is reported to the caller
+		final ExecutorService service = Threads.createFixedExecutorService( numReaders );
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
 	public static final float getFloatValue( final byte[] b, final int i, final boolean isLittleEndian )
 	{
 		if ( isLittleEndian )
@@ -1,5 +1,6 @@
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 
+import java.io.Closeable;
 import java.io.File;
 
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -8,7 +9,7 @@ import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
-public class LightSheet7ImgLoader extends LegacyImgLoaderWrapper< UnsignedShortType, LegacyLightSheet7ImgLoader >
+public class LightSheet7ImgLoader extends LegacyImgLoaderWrapper< UnsignedShortType, LegacyLightSheet7ImgLoader > implements Closeable
 {
     public LightSheet7ImgLoader(
         final File cziFile,
@@ -20,6 +21,11 @@ public class LightSheet7ImgLoader extends LegacyImgLoaderWrapper< UnsignedShortT
 
     public File getCZIFile() { return legacyImgLoader.getCZIFile(); }
 	public ImgFactory< ? extends NativeType< ? > > getImgFactory() { return legacyImgLoader.getImgFactory(); }
+	public boolean isLazyLoading() { return legacyImgLoader.isLazyLoading(); }
+	public void setLazyLoading( final boolean lazyLoading ) { legacyImgLoader.setLazyLoading( lazyLoading ); }
+
+	@Override
+	public void close() { legacyImgLoader.close(); }
 
 	@Override
 	public String toString() {
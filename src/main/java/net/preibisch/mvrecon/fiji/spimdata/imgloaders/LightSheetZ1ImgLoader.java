@@ -22,6 +22,7 @@
  */
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 
+import java.io.Closeable;
 import java.io.File;
 
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -30,7 +31,7 @@ import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
-public class LightSheetZ1ImgLoader extends LegacyImgLoaderWrapper< UnsignedShortType, LegacyLightSheetZ1ImgLoader >
+public class LightSheetZ1ImgLoader extends LegacyImgLoaderWrapper< UnsignedShortType, LegacyLightSheetZ1ImgLoader > implements Closeable
 {
 	public LightSheetZ1ImgLoader(
 			final File cziFile,
@@ -42,6 +43,11 @@ public class LightSheetZ1ImgLoader extends LegacyImgLoaderWrapper< UnsignedShort
 
 	public File getCZIFile() { return legacyImgLoader.getCZIFile(); }
 	public ImgFactory< ? extends NativeType< ? > > getImgFactory() { return legacyImgLoader.getImgFactory(); }
+	public boolean isLazyLoading() { return legacyImgLoader.isLazyLoading(); }
+	public void setLazyLoading( final boolean lazyLoading ) { legacyImgLoader.setLazyLoading( lazyLoading ); }
+
+	@Override
+	public void close() { legacyImgLoader.close(); }
 
 	@Override
 	public String toString() {
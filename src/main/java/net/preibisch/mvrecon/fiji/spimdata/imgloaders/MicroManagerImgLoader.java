@@ -22,6 +22,7 @@
  */
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 
+import java.io.Closeable;
 import java.io.File;
 
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -30,7 +31,7 @@ import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.legacy.LegacyImgLoaderWrapper;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
-public class MicroManagerImgLoader extends LegacyImgLoaderWrapper< UnsignedShortType, LegacyMicroManagerImgLoader >
+public class MicroManagerImgLoader extends LegacyImgLoaderWrapper< UnsignedShortType, LegacyMicroManagerImgLoader > implements Closeable
 {
 	public MicroManagerImgLoader(
 			final File mmFile,
@@ -41,6 +42,9 @@ public class MicroManagerImgLoader extends LegacyImgLoaderWrapper< UnsignedShort
 
 	public File getFile() { return legacyImgLoader.getFile(); }
 
+	@Override
+	public void close() { legacyImgLoader.close(); }
+
 	@Override
 	public String toString() {
 		return legacyImgLoader.toString();
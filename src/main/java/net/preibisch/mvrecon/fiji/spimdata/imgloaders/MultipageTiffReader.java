@@ -52,9 +52,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -77,6 +80,11 @@ public class MultipageTiffReader
 {
 	private static final long BIGGEST_INT_BIT = (long) Math.pow(2, 31);
 
+	// files are memory-mapped in segments (a single mapping is limited to 2GB), consecutive segments
+	// overlap so that a plane is (almost) always contained in one segment
+	private static final long MAPPED_SEGMENT_OVERLAP = 1l << 26;
+	private static final long MAPPED_SEGMENT_SIZE = Integer.MAX_VALUE - MAPPED_SEGMENT_OVERLAP;
+
 	public static final int INDEX_MAP_HEADER = 3453623;
 	public static final int DISPLAY_SETTINGS_OFFSET_HEADER = 483765892;
 	public static final int DISPLAY_SETTINGS_HEADER = 347834724;
@@ -118,6 +126,7 @@ public class MultipageTiffReader
 	protected List< String > channelNames = null;
 
 	private HashMap< String, Pair< Long, FileChannel > > indexMap_;
+	private HashMap< FileChannel, MappedFile > mappedFiles_;
 
 	/*
 	 * This constructor is used for opening datasets that have already been
@@ -161,7 +170,7 @@ public class MultipageTiffReader
 				if ( !lastDisplayedFile.equals( file.getAbsolutePath() ) )
 					IOFunctions.println( f.getAbsolutePath() );
 
-				this.raFiles.add( new RandomAccessFile( f, "rw" ) );
+				this.raFiles.add( new RandomAccessFile( f, "r" ) );
 				this.fileChannels.add( this.raFiles.get( this.raFiles.size() - 1 ).getChannel() );
 			}
 
@@ -187,6 +196,7 @@ public class MultipageTiffReader
 			throw new IOException( "Could not read metadata" );
 
 		this.indexMap_ = new HashMap< String, Pair< Long, FileChannel > >();
+		this.mappedFiles_ = new HashMap< FileChannel, MappedFile >();
 
 		try
 		{
@@ -291,6 +301,91 @@ public class MultipageTiffReader
 		return indexMap_.keySet();
 	}
 
+	/**
+	 * Returns the pixels of one plane as a view into the read-only memory-mapped file, nothing is copied.
+	 * The view stays valid after {@link #close()}.
+	 *
+	 * @param label - the label of the plane, see {@link #generateLabel(int, int, int, int)}
+	 * @return a {@link ByteBuffer} (8 bit) or {@link java.nio.ShortBuffer} (16 bit) in the byte order of the file, or null if the plane cannot be read
+	 */
+	public Buffer readPlane( final String label )
+	{
+		final ByteBuffer pixels = readPlaneBytes( label );
+
+		if ( pixels == null )
+			return null;
+
+		if ( getByteDepth() == 1 )
+			return pixels;
+		else
+			return pixels.asShortBuffer();
+	}
+
+	/**
+	 * Returns the raw bytes of one plane as a view into the read-only memory-mapped file, nothing is copied.
+	 *
+	 * @param label - the label of the plane, see {@link #generateLabel(int, int, int, int)}
+	 * @return the bytes of the plane in the byte order of the file, or null if the plane cannot be read
+	 */
+	public ByteBuffer readPlaneBytes( final String label )
+	{
+		if ( !indexMap_.containsKey( label ) )
+		{
+			IOFunctions.println( "Exception: label '" + label + "' not in present in hashmap, cannot read data." );
+			return null;
+		}
+
+		if ( getByteDepth() == 0 || rgb_ )
+		{
+			IOFunctions.println( "RGB types not supported." );
+			return null;
+		}
+
+		final FileChannel fileChannel = indexMap_.get( label ).getB();
+
+		if ( fileChannel == null )
+		{
+			IOFunctions.println( "Attempted to read image on FileChannel that is null" );
+			return null;
+		}
+
+		try
+		{
+			final IFDData data = readIFD( indexMap_.get( label ).getA(), fileChannel );
+
+			MappedFile mappedFile;
+
+			synchronized ( mappedFiles_ )
+			{
+				mappedFile = mappedFiles_.get( fileChannel );
+
+				if ( mappedFile == null )
+				{
+					mappedFile = new MappedFile( fileChannel );
+					mappedFiles_.put( fileChannel, mappedFile );
+				}
+			}
+
+			return mappedFile.region( data.pixelOffset, (int)data.bytesPerImage ).order( byteOrder_ );
+		}
+		catch ( IOException ex )
+		{
+			IOFunctions.println( ex );
+			return null;
+		}
+	}
+
+	/**
+	 * @return bytes per pixel (1 or 2), 0 if unknown
+	 */
+	public int getByteDepth()
+	{
+		if ( byteDepth_ == 0 )
+			getRGBAndByteDepth( summaryMetadata_ );
+
+		return byteDepth_;
+	}
+
 	private boolean readSummaryMD( final FileChannel fileChannel, final HashMap< String, Object > summaryMD_ )
 	{
 		try
@@ -590,6 +685,10 @@ public class MultipageTiffReader
 
 	public void close() throws IOException
 	{
+		// views returned by readPlane() remain valid, the mappings are released once they are garbage collected
+		if ( this.mappedFiles_ != null )
+			synchronized ( mappedFiles_ ) { this.mappedFiles_.clear(); }
+
 		for ( final FileChannel fileChannel : this.fileChannels )
 			if ( fileChannel != null )
 				fileChannel.close();
@@ -826,6 +925,46 @@ public class MultipageTiffReader
 		return val;
 	}
 
+	/**
+	 * A file that is memory-mapped read-only in (overlapping) segments, each segment is mapped only once when it is first needed.
+	 */
+	private static class MappedFile
+	{
+		final FileChannel fileChannel;
+		final long size;
+		final MappedByteBuffer[] segments;
+
+		public MappedFile( final FileChannel fileChannel ) throws IOException
+		{
+			this.fileChannel = fileChannel;
+			this.size = fileChannel.size();
+			this.segments = new MappedByteBuffer[ (int)Math.max( 1, ( size + MAPPED_SEGMENT_SIZE - 1 ) / MAPPED_SEGMENT_SIZE ) ];
+		}
+
+		public synchronized ByteBuffer region( final long offset, final int length ) throws IOException
+		{
+			if ( offset < 0 || offset + length > size )
+				throw new IOException( "Plane [" + offset + ", " + ( offset + length ) + "] is outside of the file (size=" + size + ")." );
+
+			final int s = (int)( offset / MAPPED_SEGMENT_SIZE );
+			final long segmentStart = s * MAPPED_SEGMENT_SIZE;
+			final long segmentEnd = Math.min( size, segmentStart + MAPPED_SEGMENT_SIZE + MAPPED_SEGMENT_OVERLAP );
+
+			// planes larger than the overlap that cross a segment border are mapped on their own
+			if ( offset + length > segmentEnd )
+				return fileChannel.map( MapMode.READ_ONLY, offset, length );
+
+			if ( segments[ s ] == null )
+				segments[ s ] = fileChannel.map( MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart );
+
+			final ByteBuffer region = segments[ s ].duplicate();
+			region.position( (int)( offset - segmentStart ) );
+			region.limit( (int)( offset - segmentStart ) + length );
+
+			return region.slice();
+		}
+	}
+
 	public class IFDData
 	{
 		public long pixelOffset;
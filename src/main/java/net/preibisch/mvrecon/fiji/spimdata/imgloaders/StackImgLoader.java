@@ -25,6 +25,7 @@ package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 import java.io.File;
 
 import mpicbg.spim.data.legacy.LegacyImgLoaderWrapper;
+import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
@@ -37,6 +38,7 @@ public abstract class StackImgLoader< I extends LegacyStackImgLoader > extends L
 	}
 
 	public File getPath() { return legacyImgLoader.path; }
+	public File getFile( final ViewId view ) { return legacyImgLoader.getFile( view ); }
 	public String getFileNamePattern() { return legacyImgLoader.fileNamePattern; }
 	public int getLayoutTimePoints() { return legacyImgLoader.layoutTP; }
 	public int getLayoutChannels() { return legacyImgLoader.layoutChannels; }
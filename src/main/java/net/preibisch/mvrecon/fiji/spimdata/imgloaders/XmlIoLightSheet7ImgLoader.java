@@ -46,6 +46,7 @@ public class XmlIoLightSheet7ImgLoader implements XmlIoBasicImgLoader< LightShee
 	public static final String DIRECTORY_TAG = "imagedirectory";
 	public static final String MASTER_FILE_TAG = "masterfile";
 	public static final String IMGLIB2CONTAINER_PATTERN_TAG = "imglib2container";
+	public static final String LAZYLOADING_TAG = "lazyloading";
 
 	@Override
 	public Element toXml( final LightSheet7ImgLoader imgLoader, final File basePath )
@@ -57,6 +58,9 @@ public class XmlIoLightSheet7ImgLoader implements XmlIoBasicImgLoader< LightShee
 		elem.addContent( XmlHelpers.textElement( MASTER_FILE_TAG, imgLoader.getCZIFile().getName() ) );
 		elem.addContent( XmlHelpers.textElement( IMGLIB2CONTAINER_PATTERN_TAG, imgLoader.getImgFactory().getClass().getSimpleName() ) );
 
+		// always written so the XML does not depend on LegacyLightSheet7ImgLoader.defaultLazyLoading (older versions ignore it)
+		elem.addContent( XmlHelpers.booleanElement( LAZYLOADING_TAG, imgLoader.isLazyLoading() ) );
+
 		return elem;
 	}
 
@@ -103,7 +107,11 @@ public class XmlIoLightSheet7ImgLoader implements XmlIoBasicImgLoader< LightShee
 				}
 			}
 
-			return new LightSheet7ImgLoader( new File( path, masterFile ), imgFactory, sequenceDescription );
+			// XMLs written before lazy loading existed use the current default (Toggle_Performance_Options)
+			final LightSheet7ImgLoader imgLoader = new LightSheet7ImgLoader( new File( path, masterFile ), imgFactory, sequenceDescription );
+			imgLoader.setLazyLoading( XmlHelpers.getBoolean( elem, LAZYLOADING_TAG, LegacyLightSheet7ImgLoader.defaultLazyLoading ) );
+
+			return imgLoader;
 		}
 		catch ( final Exception e )
 		{
@@ -46,6 +46,7 @@ public class XmlIoLightSheetZ1ImgLoader implements XmlIoBasicImgLoader< LightShe
 	public static final String DIRECTORY_TAG = "imagedirectory";
 	public static final String MASTER_FILE_TAG = "masterfile";
 	public static final String IMGLIB2CONTAINER_PATTERN_TAG = "imglib2container";
+	public static final String LAZYLOADING_TAG = "lazyloading";
 
 	@Override
 	public Element toXml( final LightSheetZ1ImgLoader imgLoader, final File basePath )
@@ -56,6 +57,9 @@ public class XmlIoLightSheetZ1ImgLoader implements XmlIoBasicImgLoader< LightShe
 		elem.addContent( XmlHelpers.pathElement( DIRECTORY_TAG, imgLoader.getCZIFile().getParentFile(), basePath ) );
 		elem.addContent( XmlHelpers.textElement( MASTER_FILE_TAG, imgLoader.getCZIFile().getName() ) );
 		elem.addContent( XmlHelpers.textElement( IMGLIB2CONTAINER_PATTERN_TAG, imgLoader.getImgFactory().getClass().getSimpleName() ) );
+
+		// always written so the XML does not depend on LegacyLightSheetZ1ImgLoader.defaultLazyLoading (older versions ignore it)
+		elem.addContent( XmlHelpers.booleanElement( LAZYLOADING_TAG, imgLoader.isLazyLoading() ) );
 		
 		return elem;
 	}
@@ -103,7 +107,11 @@ public class XmlIoLightSheetZ1ImgLoader implements XmlIoBasicImgLoader< LightShe
 				}
 			}
 
-			return new LightSheetZ1ImgLoader( new File( path, masterFile ), imgFactory, sequenceDescription );
+			// XMLs written before lazy loading existed use the current default (Toggle_Performance_Options)
+			final LightSheetZ1ImgLoader imgLoader = new LightSheetZ1ImgLoader( new File( path, masterFile ), imgFactory, sequenceDescription );
+			imgLoader.setLazyLoading( XmlHelpers.getBoolean( elem, LAZYLOADING_TAG, LegacyLightSheetZ1ImgLoader.defaultLazyLoading ) );
+
+			return imgLoader;
 		}
 		catch ( final Exception e )
 		{
@@ -0,0 +1,537 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.pyramidcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.util.MipmapTransforms;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.sequence.ImgLoader;
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
+import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
+import mpicbg.spim.data.sequence.SetupImgLoader;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Pair;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.plugin.resave.Resave_HDF5;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LightSheet7ImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LightSheetZ1ImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.MicroManagerImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.StackImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.filemap2.FileMapGettable;
+import net.preibisch.mvrecon.process.downsampling.LazyDownsample;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import util.ImgLib2Tools;
+
+/**
+ * Wraps a single-resolution {@link ImgLoader} and exposes it as a {@link MultiResolutionImgLoader}. Level 0 is loaded
+ * by the wrapped loader, the downsampled levels (as proposed by BigDataViewer) are computed on first use with
+ * {@link LazyDownsample} from the level above and written to a local N5 container, later requests open them from there.
+ * Every ViewId stores a stamp of its source file(s) (name, size, modification time and a checksum of the first and last
+ * bytes); if the source changes, the cached levels of that ViewId are deleted and recomputed. The stamp is checked once
+ * per ViewId and loader instance. If {@link #defaultWrapOnLoad} is set, every loaded SpimData2 is wrapped (see
+ * {@link #wrap(SpimData2)}), such a loader is saved as the loader it wraps.
+ */
+public class PyramidCacheWrappedImgLoader implements MultiResolutionImgLoader
+{
+	public static String defaultContainerName = "pyramidcache.n5";
+
+	// opt-in, if true XmlIoSpimData2 wraps the ImgLoader of every SpimData2 it loads, see Toggle_Performance_Options
+	public static boolean defaultWrapOnLoad = false;
+
+	// how many bytes at the beginning and end of each source file are part of its stamp
+	public static int stampSampleSize = 65536;
+
+	public final static String SOURCE_STAMP_ATTRIBUTE = "sourceStamp";
+	public final static String FINISHED_ATTRIBUTE = "finished";
+
+	final ImgLoader wrappedImgLoader;
+	final File n5File;
+	final AbstractSequenceDescription< ?, ?, ? > sequenceDescription;
+
+	// if true, the loader was wrapped by wrap() and XmlIoSpimData2 saves the wrapped loader instead
+	final boolean wrappedOnLoad;
+
+	final Map< Integer, ExportMipmapInfo > mipmapInfos = new HashMap<>();
+	final Map< Integer, PyramidCacheWrappedSetupImgLoader< ? > > setupImgLoaders = new HashMap<>();
+
+	// the opened downsampled levels, and one lock per level that is held while it is opened or computed
+	final Map< String, RandomAccessibleInterval< ? > > levels = new ConcurrentHashMap<>();
+	final Map< String, Object > levelLocks = new ConcurrentHashMap<>();
+
+	// the views whose source stamp was checked by this loader
+	final Set< ViewId > validated = ConcurrentHashMap.newKeySet();
+
+	N5Writer n5 = null;
+
+	public PyramidCacheWrappedImgLoader(
+			final ImgLoader wrappedImgLoader,
+			final File n5File,
+			final AbstractSequenceDescription< ?, ?, ? > sequenceDescription,
+			final boolean wrappedOnLoad )
+	{
+		this.wrappedImgLoader = wrappedImgLoader;
+		this.n5File = n5File;
+		this.sequenceDescription = sequenceDescription;
+		this.wrappedOnLoad = wrappedOnLoad;
+	}
+
+	public PyramidCacheWrappedImgLoader(
+			final ImgLoader wrappedImgLoader,
+			final File n5File,
+			final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
+	{
+		this( wrappedImgLoader, n5File, sequenceDescription, false );
+	}
+
+	public ImgLoader getWrappedImgLoader() { return wrappedImgLoader; }
+	public File getN5File() { return n5File; }
+	public boolean isWrappedOnLoad() { return wrappedOnLoad; }
+
+	/**
+	 * Opt-in: replaces the ImgLoader of a SpimData2 with a {@link PyramidCacheWrappedImgLoader} that stores its levels
+	 * in {@link #defaultContainerName} next to the XML. Nothing happens if the ImgLoader is already multi-resolution.
+	 * The XML still contains the original ImgLoader when the SpimData2 is saved.
+	 *
+	 * @param data - the SpimData2
+	 * @return true if the ImgLoader was wrapped
+	 */
+	public static boolean wrap( final SpimData2 data )
+	{
+		final Object imgLoader = data.getSequenceDescription().getImgLoader();
+
+		if ( imgLoader instanceof MultiResolutionImgLoader || !( imgLoader instanceof ImgLoader ) )
+			return false;
+
+		data.getSequenceDescription().setImgLoader(
+				new PyramidCacheWrappedImgLoader(
+						(ImgLoader)imgLoader,
+						new File( data.getBasePath(), defaultContainerName ),
+						data.getSequenceDescription(),
+						true ) );
+
+		return true;
+	}
+
+	@Override
+	public synchronized PyramidCacheWrappedSetupImgLoader< ? > getSetupImgLoader( final int setupId )
+	{
+		PyramidCacheWrappedSetupImgLoader< ? > setupImgLoader = setupImgLoaders.get( setupId );
+
+		if ( setupImgLoader == null )
+		{
+			setupImgLoader = createSetupImgLoader( wrappedImgLoader.getSetupImgLoader( setupId ), setupId );
+			setupImgLoaders.put( setupId, setupImgLoader );
+		}
+
+		return setupImgLoader;
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	protected PyramidCacheWrappedSetupImgLoader< ? > createSetupImgLoader( final SetupImgLoader< ? > wrapped, final int setupId )
+	{
+		return new PyramidCacheWrappedSetupImgLoader( wrapped, setupId );
+	}
+
+	protected synchronized ExportMipmapInfo getMipmapInfo( final int setupId )
+	{
+		ExportMipmapInfo mipmapInfo = mipmapInfos.get( setupId );
+
+		if ( mipmapInfo == null )
+		{
+			final BasicViewSetup setup = sequenceDescription.getViewSetups().get( setupId );
+			mipmapInfo = Resave_HDF5.proposeMipmaps( Collections.singletonList( setup ) ).get( setupId );
+			mipmapInfos.put( setupId, mipmapInfo );
+		}
+
+		return mipmapInfo;
+	}
+
+	protected synchronized N5Writer getN5() throws IOException
+	{
+		if ( n5 == null )
+			n5 = new N5FSWriter( n5File.getAbsolutePath() );
+
+		return n5;
+	}
+
+	public static String getGroupPath( final ViewId viewId )
+	{
+		return String.format( "setup%d/timepoint%d", viewId.getViewSetupId(), viewId.getTimePointId() );
+	}
+
+	public static String getDatasetPath( final ViewId viewId, final int level )
+	{
+		return String.format( "%s/s%d", getGroupPath( viewId ), level );
+	}
+
+	/**
+	 * @param imgLoader - the ImgLoader
+	 * @param viewId - the view
+	 * @return the file(s) the view is loaded from, empty if unknown
+	 */
+	public static List< File > getSourceFiles( final ImgLoader imgLoader, final ViewId viewId )
+	{
+		final ArrayList< File > files = new ArrayList<>();
+
+		if ( imgLoader instanceof FileMapGettable )
+		{
+			final Pair< File, ? > entry = ( (FileMapGettable)imgLoader ).getFileMap().get( viewId );
+
+			if ( entry != null )
+				files.add( entry.getA() );
+		}
+		else if ( imgLoader instanceof MicroManagerImgLoader )
+			files.add( ( (MicroManagerImgLoader)imgLoader ).getFile() );
+		else if ( imgLoader instanceof LightSheetZ1ImgLoader )
+			files.add( ( (LightSheetZ1ImgLoader)imgLoader ).getCZIFile() );
+		else if ( imgLoader instanceof LightSheet7ImgLoader )
+			files.add( ( (LightSheet7ImgLoader)imgLoader ).getCZIFile() );
+		else if ( imgLoader instanceof StackImgLoader )
+			files.add( ( (StackImgLoader< ? >)imgLoader ).getFile( viewId ) );
+
+		return files;
+	}
+
+	/**
+	 * @param imgLoader - the ImgLoader
+	 * @param viewId - the view
+	 * @return a String that changes when the source file(s) of the view change
+	 */
+	public static String getSourceStamp( final ImgLoader imgLoader, final ViewId viewId )
+	{
+		final StringBuilder stamp = new StringBuilder();
+
+		for ( final File file : getSourceFiles( imgLoader, viewId ) )
+			stamp.append( file.getAbsolutePath() ).append( ':' ).append( file.length() ).append( ':' ).append( file.lastModified() )
+				.append( ':' ).append( Long.toHexString( contentChecksum( file ) ) ).append( ';' );
+
+		return stamp.toString();
+	}
+
+	/**
+	 * @param file - a file
+	 * @return the CRC32 of the first and last {@link #stampSampleSize} bytes of the file (where formats keep headers and
+	 * index tables), -1 if it cannot be read
+	 */
+	public static long contentChecksum( final File file )
+	{
+		if ( !file.isFile() )
+			return -1;
+
+		try ( final RandomAccessFile raf = new RandomAccessFile( file, "r" ) )
+		{
+			final CRC32 crc = new CRC32();
+			final long length = raf.length();
+			final byte[] buffer = new byte[ (int)Math.min( length, Math.max( 0, stampSampleSize ) ) ];
+
+			raf.readFully( buffer );
+			crc.update( buffer );
+
+			if ( length > buffer.length )
+			{
+				raf.seek( Math.max( buffer.length, length - buffer.length ) );
+				final int tail = (int)( length - raf.getFilePointer() );
+				raf.readFully( buffer, 0, tail );
+				crc.update( buffer, 0, tail );
+			}
+
+			return crc.getValue();
+		}
+		catch ( IOException e )
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Deletes all cached levels of a view if its source changed (or it was never cached), and stores the current stamp.
+	 * This is done only once per view and loader instance.
+	 *
+	 * @param viewId - the view
+	 * @throws IOException - if the N5 cannot be accessed
+	 */
+	protected void validate( final ViewId viewId ) throws IOException
+	{
+		if ( validated.contains( viewId ) )
+			return;
+
+		synchronized ( this )
+		{
+			if ( validated.contains( viewId ) )
+				return;
+
+			validateSourceStamp( viewId );
+			validated.add( viewId );
+		}
+	}
+
+	protected void validateSourceStamp( final ViewId viewId ) throws IOException
+	{
+		final N5Writer n5 = getN5();
+		final String group = getGroupPath( viewId );
+		final String stamp = getSourceStamp( wrappedImgLoader, viewId );
+
+		if ( n5.exists( group ) && stamp.equals( n5.getAttribute( group, SOURCE_STAMP_ATTRIBUTE, String.class ) ) )
+			return;
+
+		if ( n5.exists( group ) )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Source of " + group + " changed, removing cached pyramid." );
+			n5.remove( group );
+
+			for ( final String key : new ArrayList<>( levels.keySet() ) )
+				if ( key.startsWith( group + "/" ) )
+					levels.remove( key );
+		}
+
+		n5.createGroup( group );
+		n5.setAttribute( group, SOURCE_STAMP_ATTRIBUTE, stamp );
+	}
+
+	public class PyramidCacheWrappedSetupImgLoader< T extends RealType< T > & NativeType< T > > implements MultiResolutionSetupImgLoader< T >
+	{
+		final SetupImgLoader< T > wrapped;
+		final int setupId;
+
+		public PyramidCacheWrappedSetupImgLoader( final SetupImgLoader< T > wrapped, final int setupId )
+		{
+			this.wrapped = wrapped;
+			this.setupId = setupId;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public RandomAccessibleInterval< T > getImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+		{
+			if ( level == 0 )
+				return wrapped.getImage( timepointId, hints );
+
+			final ViewId viewId = new ViewId( timepointId, setupId );
+			final String dataset = getDatasetPath( viewId, level );
+
+			try
+			{
+				validate( viewId );
+
+				RandomAccessibleInterval< T > img = (RandomAccessibleInterval< T >)levels.get( dataset );
+
+				if ( img != null )
+				{
+					Metrics.counter( "loader.pyramidcache.hits" ).inc();
+					return img;
+				}
+
+				Metrics.counter( "loader.pyramidcache.misses" ).inc();
+
+				// every level is computed only once, from the level above (which has its own lock)
+				synchronized ( levelLocks.computeIfAbsent( dataset, k -> new Object() ) )
+				{
+					img = (RandomAccessibleInterval< T >)levels.get( dataset );
+
+					if ( img == null )
+					{
+						img = loadOrCreateLevel( viewId, level, dataset );
+						levels.put( dataset, img );
+					}
+				}
+
+				return img;
+			}
+			catch ( Exception e )
+			{
+				IOFunctions.println( "Failed to load level " + level + " of viewsetup=" + setupId + " timepoint=" + timepointId + " from pyramid cache: " + e );
+				e.printStackTrace();
+				return null;
+			}
+		}
+
+		protected RandomAccessibleInterval< T > loadOrCreateLevel( final ViewId viewId, final int level, final String dataset ) throws Exception
+		{
+			final N5Writer n5 = getN5();
+
+			if ( n5.datasetExists( dataset ) && Boolean.TRUE.equals( n5.getAttribute( dataset, FINISHED_ATTRIBUTE, Boolean.class ) ) )
+				return N5Utils.open( n5, dataset );
+
+			final int[][] resolutions = getMipmapInfo( setupId ).getExportResolutions();
+			final long[] factors = new long[ resolutions[ level ].length ];
+
+			for ( int d = 0; d < factors.length; ++d )
+				factors[ d ] = resolutions[ level ][ d ] / resolutions[ level - 1 ][ d ];
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Writing " + dataset + " to pyramid cache " + n5File.getAbsolutePath() );
+
+			final RandomAccessibleInterval< T > downsampled = LazyDownsample.downsample( getImage( viewId.getTimePointId(), level - 1 ), factors, getImageType() );
+			final ExecutorService service = Threads.createFixedExecutorService();
+
+			try
+			{
+				N5Utils.save( downsampled, n5, dataset, getMipmapInfo( setupId ).getSubdivisions()[ level ], new GzipCompression(), service );
+			}
+			finally
+			{
+				service.shutdown();
+			}
+
+			n5.setAttribute( dataset, FINISHED_ATTRIBUTE, true );
+
+			return N5Utils.open( n5, dataset );
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final int level, final boolean normalize, final ImgLoaderHint... hints )
+		{
+			if ( level == 0 )
+				return wrapped.getFloatImage( timepointId, normalize, hints );
+
+			if ( normalize )
+				return ImgLib2Tools.normalizeVirtual( getImage( timepointId, level, hints ) );
+			else
+				return ImgLib2Tools.convertVirtual( getImage( timepointId, level, hints ) );
+		}
+
+		@Override
+		public RandomAccessibleInterval< T > getImage( final int timepointId, final ImgLoaderHint... hints )
+		{
+			return getImage( timepointId, 0, hints );
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final boolean normalize, final ImgLoaderHint... hints )
+		{
+			return getFloatImage( timepointId, 0, normalize, hints );
+		}
+
+		@Override
+		public double[][] getMipmapResolutions()
+		{
+			final int[][] resolutions = getMipmapInfo( setupId ).getExportResolutions();
+			final double[][] mipmapResolutions = new double[ resolutions.length ][];
+
+			for ( int l = 0; l < resolutions.length; ++l )
+			{
+				mipmapResolutions[ l ] = new double[ resolutions[ l ].length ];
+
+				for ( int d = 0; d < resolutions[ l ].length; ++d )
+					mipmapResolutions[ l ][ d ] = resolutions[ l ][ d ];
+			}
+
+			return mipmapResolutions;
+		}
+
+		@Override
+		public AffineTransform3D[] getMipmapTransforms()
+		{
+			final double[][] resolutions = getMipmapResolutions();
+			final AffineTransform3D[] transforms = new AffineTransform3D[ resolutions.length ];
+
+			for ( int l = 0; l < resolutions.length; ++l )
+				transforms[ l ] = MipmapTransforms.getMipmapTransformDefault( resolutions[ l ] );
+
+			return transforms;
+		}
+
+		@Override
+		public int numMipmapLevels()
+		{
+			return getMipmapInfo( setupId ).getNumLevels();
+		}
+
+		@Override
+		public Dimensions getImageSize( final int timepointId, final int level )
+		{
+			final Dimensions size = getImageSize( timepointId );
+
+			if ( level == 0 || size == null )
+				return size;
+
+			// every 2x step of LazyDownsample rounds down
+			final int[] resolution = getMipmapInfo( setupId ).getExportResolutions()[ level ];
+			final long[] dim = new long[ size.numDimensions() ];
+
+			for ( int d = 0; d < dim.length; ++d )
+			{
+				dim[ d ] = size.dimension( d );
+
+				for ( int f = d < resolution.length ? resolution[ d ] : 1; f > 1; f /= 2 )
+					dim[ d ] /= 2;
+			}
+
+			return new FinalDimensions( dim );
+		}
+
+		@Override
+		public Dimensions getImageSize( final int timepointId )
+		{
+			return wrapped.getImageSize( timepointId );
+		}
+
+		@Override
+		public VoxelDimensions getVoxelSize( final int timepointId )
+		{
+			return wrapped.getVoxelSize( timepointId );
+		}
+
+		@Override
+		public T getImageType()
+		{
+			return wrapped.getImageType();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return wrappedImgLoader + ", pyramid cached in " + n5File.getAbsolutePath();
+	}
+}
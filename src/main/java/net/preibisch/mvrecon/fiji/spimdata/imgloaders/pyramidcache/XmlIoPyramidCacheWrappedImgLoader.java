@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.pyramidcache;
+
+import static mpicbg.spim.data.XmlKeys.IMGLOADER_FORMAT_ATTRIBUTE_NAME;
+import static mpicbg.spim.data.XmlKeys.IMGLOADER_TAG;
+
+import java.io.File;
+
+import org.jdom2.Element;
+
+import mpicbg.spim.data.SpimDataInstantiationException;
+import mpicbg.spim.data.XmlHelpers;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.generic.sequence.ImgLoaderIo;
+import mpicbg.spim.data.generic.sequence.ImgLoaders;
+import mpicbg.spim.data.generic.sequence.XmlIoBasicImgLoader;
+import mpicbg.spim.data.sequence.ImgLoader;
+
+@ImgLoaderIo(format = "spimreconstruction.wrapped.pyramidcache", type = PyramidCacheWrappedImgLoader.class)
+public class XmlIoPyramidCacheWrappedImgLoader implements XmlIoBasicImgLoader< PyramidCacheWrappedImgLoader >
+{
+	public final static String WRAPPED_IMGLOADER_TAG = "WrappedImgLoader";
+	public final static String PYRAMIDCACHE_TAG = "PyramidCache";
+
+	@Override
+	public PyramidCacheWrappedImgLoader fromXml( final Element elem, final File basePath, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
+	{
+		final Element wrappedImgLoaderEl = elem.getChild( WRAPPED_IMGLOADER_TAG ).getChild( IMGLOADER_TAG );
+		final XmlIoBasicImgLoader< ? > xmlIoWrapped;
+
+		try
+		{
+			xmlIoWrapped = ImgLoaders.createXmlIoForFormat( wrappedImgLoaderEl.getAttributeValue( IMGLOADER_FORMAT_ATTRIBUTE_NAME ) );
+		}
+		catch ( SpimDataInstantiationException e )
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+		final BasicImgLoader wrappedImgLoader = xmlIoWrapped.fromXml( wrappedImgLoaderEl, basePath, sequenceDescription );
+
+		if ( !ImgLoader.class.isInstance( wrappedImgLoader ) )
+			return null;
+
+		final File n5File = XmlHelpers.loadPath( elem, PYRAMIDCACHE_TAG, basePath );
+
+		return new PyramidCacheWrappedImgLoader( (ImgLoader)wrappedImgLoader, n5File, sequenceDescription );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public Element toXml( final PyramidCacheWrappedImgLoader imgLoader, final File basePath )
+	{
+		final Element wholeElem = new Element( IMGLOADER_TAG );
+		wholeElem.setAttribute( IMGLOADER_FORMAT_ATTRIBUTE_NAME, this.getClass().getAnnotation( ImgLoaderIo.class ).format() );
+
+		final Element wrappedIL = new Element( WRAPPED_IMGLOADER_TAG );
+
+		try
+		{
+			final XmlIoBasicImgLoader< ImgLoader > loaderIO = (XmlIoBasicImgLoader< ImgLoader >)ImgLoaders.createXmlIoForImgLoaderClass( imgLoader.getWrappedImgLoader().getClass() );
+			wrappedIL.addContent( loaderIO.toXml( imgLoader.getWrappedImgLoader(), basePath ) );
+		}
+		catch ( SpimDataInstantiationException e )
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+		wholeElem.addContent( wrappedIL );
+		wholeElem.addContent( XmlHelpers.pathElement( PYRAMIDCACHE_TAG, imgLoader.getN5File(), basePath ) );
+
+		return wholeElem;
+	}
+}
@@ -48,6 +48,10 @@ public class InterestPointList
 
 	boolean modifiedInterestPoints, modifiedCorrespondingInterestPoints;
 
+	// always up to date with the lists in memory, persisted next to them
+	// only accessed while holding the lock of this list
+	final InterestPointStatistics statistics = new InterestPointStatistics();
+
 	/**
 	 * Instantiates a new {@link InterestPointList}
 	 * 
@@ -101,19 +105,65 @@ public class InterestPointList
 		return list;
 	}
 
+	/**
+	 * @return - the number of detections and correspondences (copied), the lists are only loaded if they are neither in memory nor summarized up to date on disc
+	 */
+	public synchronized InterestPointStatistics getStatistics()
+	{
+		if ( !statistics.isComplete() )
+		{
+			// the parts that are unknown were never loaded, take them from disc if they still match the files
+			final InterestPointStatistics loaded = loadStatistics();
+
+			if ( loaded != null )
+			{
+				if ( !statistics.hasInterestPoints() && loaded.hasInterestPoints() )
+				{
+					statistics.numInterestPoints = loaded.numInterestPoints;
+					statistics.ipFileLength = loaded.ipFileLength;
+					statistics.ipFileModified = loaded.ipFileModified;
+				}
+
+				if ( !statistics.hasCorrespondences() && loaded.hasCorrespondences() )
+				{
+					statistics.numCorrespondences = loaded.numCorrespondences;
+					statistics.numCorrespondingInterestPoints = loaded.numCorrespondingInterestPoints;
+					statistics.correspondingViews = loaded.correspondingViews;
+					statistics.corrFileLength = loaded.corrFileLength;
+					statistics.corrFileModified = loaded.corrFileModified;
+				}
+			}
+
+			if ( !statistics.isComplete() )
+			{
+				if ( !statistics.hasInterestPoints() )
+					loadInterestPoints();
+
+				if ( !statistics.hasCorrespondences() )
+					loadCorrespondences();
+
+				saveStatistics();
+			}
+		}
+
+		return statistics.copy();
+	}
+
 	public File getBaseDir() { return baseDir; }
 	public File getFile() { return file; }
 	public String getParameters() { return parameters; }
 	public void setParameters( final String parameters ) { this.parameters = parameters; }
-	public void setInterestPoints( final List< InterestPoint > list )
+	public synchronized void setInterestPoints( final List< InterestPoint > list )
 	{
 		this.interestPoints = list;
 		this.modifiedInterestPoints = true;
+		this.statistics.updateInterestPoints( list );
 	}
-	public void setCorrespondingInterestPoints( final List< CorrespondingInterestPoints > list )
+	public synchronized void setCorrespondingInterestPoints( final List< CorrespondingInterestPoints > list )
 	{
 		this.correspondingInterestPoints = list;
 		this.modifiedCorrespondingInterestPoints = true;
+		this.statistics.updateCorrespondences( list );
 	}
 	public void setFile( final File file )
 	{
@@ -130,6 +180,48 @@ public class InterestPointList
 
 	public String getInterestPointsExt() { return ".ip.txt"; }
 	public String getCorrespondencesExt() { return ".corr.txt"; }
+	public String getStatisticsExt() { return ".stats.txt"; }
+
+	protected File getInterestPointsFile() { return new File( getBaseDir(), getFile().toString() + getInterestPointsExt() ); }
+	protected File getCorrespondencesFile() { return new File( getBaseDir(), getFile().toString() + getCorrespondencesExt() ); }
+	protected File getStatisticsFile() { return new File( getBaseDir(), getFile().toString() + getStatisticsExt() ); }
+
+	protected boolean saveStatistics()
+	{
+		final File f = getStatisticsFile();
+
+		if ( !f.getParentFile().exists() )
+			return false;
+
+		try
+		{
+			statistics.save( f );
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "InterestPointList.saveStatistics(): " + e );
+			return false;
+		}
+	}
+
+	protected InterestPointStatistics loadStatistics()
+	{
+		final File f = getStatisticsFile();
+
+		if ( !f.exists() )
+			return null;
+
+		try
+		{
+			return InterestPointStatistics.load( f, getInterestPointsFile(), getCorrespondencesFile() );
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "InterestPointList.loadStatistics(): " + e );
+			return null;
+		}
+	}
 
 	public boolean saveInterestPoints( final boolean forceWrite )
 	{
@@ -165,6 +257,13 @@ public class InterestPointList
 
 			modifiedInterestPoints = false;
 
+			synchronized ( this )
+			{
+				statistics.updateInterestPoints( list );
+				statistics.stampInterestPoints( f );
+				saveStatistics();
+			}
+
 			IOFunctions.println( "Saved: " + f );
 
 			return true;
@@ -217,6 +316,13 @@ public class InterestPointList
 
 			modifiedCorrespondingInterestPoints = false;
 
+			synchronized ( this )
+			{
+				statistics.updateCorrespondences( list );
+				statistics.stampCorrespondences( f );
+				saveStatistics();
+			}
+
 			IOFunctions.println( "Saved: " + f );
 
 			return true;
@@ -229,13 +335,14 @@ public class InterestPointList
 		}
 	}
 
-	protected boolean loadCorrespondences()
+	protected synchronized boolean loadCorrespondences()
 	{
 		try
 		{
 			final ArrayList< CorrespondingInterestPoints > correspondingInterestPoints = new ArrayList<>();
 
-			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getCorrespondencesExt() ) );
+			final File f = getCorrespondencesFile();
+			final BufferedReader in = TextFileAccess.openFileReadEx( f );
 
 			// the header
 			do {} while ( !in.readLine().startsWith( "id" ) );
@@ -260,25 +367,32 @@ public class InterestPointList
 			this.correspondingInterestPoints = correspondingInterestPoints;
 			modifiedCorrespondingInterestPoints = false;
 
+			statistics.updateCorrespondences( correspondingInterestPoints );
+			statistics.stampCorrespondences( f );
+
 			return true;
 		}
 		catch ( final IOException e )
 		{
 			this.correspondingInterestPoints = new ArrayList<>();
 
+			statistics.updateCorrespondences( this.correspondingInterestPoints );
+			statistics.stampCorrespondences( getCorrespondencesFile() );
+
 			// it is normal that this file does not exist until a registration was computed
 			System.out.println( "InterestPointList.loadCorrespondingInterestPoints(): " + e );
 			return false;
 		}
 	}
 
-	protected boolean loadInterestPoints()
+	protected synchronized boolean loadInterestPoints()
 	{
 		try
 		{
 			final ArrayList< InterestPoint > interestPoints = new ArrayList<>();
 
-			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getInterestPointsExt() ) );
+			final File f = getInterestPointsFile();
+			final BufferedReader in = TextFileAccess.openFileReadEx( f );
 
 			// the header
 			do {} while ( !in.readLine().startsWith( "id" ) );
@@ -302,11 +416,15 @@ public class InterestPointList
 			this.interestPoints = interestPoints;
 			modifiedInterestPoints = false;
 
+			statistics.updateInterestPoints( interestPoints );
+			statistics.stampInterestPoints( f );
+
 			return true;
 		} 
 		catch ( final IOException e )
 		{
 			this.interestPoints = new ArrayList<>();
+			statistics.updateInterestPoints( this.interestPoints );
 			IOFunctions.println( "InterestPointList.loadInterestPoints(): " + e );
 			e.printStackTrace();
 			return false;
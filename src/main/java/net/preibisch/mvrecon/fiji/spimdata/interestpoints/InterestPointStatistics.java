@@ -0,0 +1,207 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.legacy.io.TextFileAccess;
+
+/**
+ * Summary of one {@link InterestPointList} (number of detections, number of correspondences, number of detections that
+ * have correspondences and the views they correspond to), so that it can be displayed without loading or copying the lists.
+ * Both parts remember the size and modification time of the file they were computed from, so a persisted version can
+ * be validated against the .ip.txt and .corr.txt files.
+ */
+public class InterestPointStatistics
+{
+	int numInterestPoints = -1;
+	long ipFileLength, ipFileModified;
+
+	int numCorrespondences = -1, numCorrespondingInterestPoints = -1;
+	Set< ViewId > correspondingViews = null;
+	long corrFileLength, corrFileModified;
+
+	public InterestPointStatistics copy()
+	{
+		final InterestPointStatistics copy = new InterestPointStatistics();
+
+		copy.numInterestPoints = numInterestPoints;
+		copy.ipFileLength = ipFileLength;
+		copy.ipFileModified = ipFileModified;
+		copy.numCorrespondences = numCorrespondences;
+		copy.numCorrespondingInterestPoints = numCorrespondingInterestPoints;
+		copy.correspondingViews = correspondingViews == null ? null : new HashSet<>( correspondingViews );
+		copy.corrFileLength = corrFileLength;
+		copy.corrFileModified = corrFileModified;
+
+		return copy;
+	}
+
+	public boolean hasInterestPoints() { return numInterestPoints >= 0; }
+	public boolean hasCorrespondences() { return numCorrespondences >= 0; }
+	public boolean isComplete() { return hasInterestPoints() && hasCorrespondences(); }
+
+	/**
+	 * @return number of detections
+	 */
+	public int getNumInterestPoints() { return numInterestPoints; }
+
+	/**
+	 * @return number of correspondences
+	 */
+	public int getNumCorrespondences() { return numCorrespondences; }
+
+	/**
+	 * @return number of detections that have at least one correspondence
+	 */
+	public int getNumCorrespondingInterestPoints() { return numCorrespondingInterestPoints; }
+
+	/**
+	 * @return all views that the correspondences point to
+	 */
+	public Set< ViewId > getCorrespondingViews() { return correspondingViews == null ? null : Collections.unmodifiableSet( correspondingViews ); }
+
+	protected void updateInterestPoints( final List< InterestPoint > list )
+	{
+		numInterestPoints = list.size();
+		ipFileLength = ipFileModified = -1;
+	}
+
+	protected void updateCorrespondences( final List< CorrespondingInterestPoints > list )
+	{
+		final HashSet< Integer > ids = new HashSet<>();
+		final HashSet< ViewId > views = new HashSet<>();
+
+		for ( final CorrespondingInterestPoints c : list )
+		{
+			ids.add( c.getDetectionId() );
+			views.add( c.getCorrespondingViewId() );
+		}
+
+		numCorrespondences = list.size();
+		numCorrespondingInterestPoints = ids.size();
+		correspondingViews = views;
+		corrFileLength = corrFileModified = -1;
+	}
+
+	/**
+	 * Remembers which file version the interest point part corresponds to (after saving or loading)
+	 *
+	 * @param ipFile - the .ip.txt file
+	 */
+	protected void stampInterestPoints( final File ipFile )
+	{
+		ipFileLength = ipFile.length();
+		ipFileModified = ipFile.lastModified();
+	}
+
+	/**
+	 * Remembers which file version the correspondence part corresponds to (after saving or loading)
+	 *
+	 * @param corrFile - the .corr.txt file
+	 */
+	protected void stampCorrespondences( final File corrFile )
+	{
+		corrFileLength = corrFile.length();
+		corrFileModified = corrFile.lastModified();
+	}
+
+	/**
+	 * Saves the parts that are known and stamped.
+	 *
+	 * @param f - the file
+	 * @throws IOException - if it cannot be written
+	 */
+	protected void save( final File f ) throws IOException
+	{
+		final PrintWriter out = TextFileAccess.openFileWriteEx( f );
+
+		if ( hasInterestPoints() && ipFileModified >= 0 )
+			out.println( "interestpoints\t" + numInterestPoints + "\t" + ipFileLength + "\t" + ipFileModified );
+
+		if ( hasCorrespondences() && corrFileModified >= 0 )
+		{
+			out.println( "correspondences\t" + numCorrespondences + "\t" + numCorrespondingInterestPoints + "\t" + corrFileLength + "\t" + corrFileModified );
+
+			for ( final ViewId v : correspondingViews )
+				out.println( "view\t" + v.getTimePointId() + "\t" + v.getViewSetupId() );
+		}
+
+		out.close();
+	}
+
+	/**
+	 * Loads the parts of a saved statistics file that still match the given files, the other parts stay unknown.
+	 *
+	 * @param f - the statistics file
+	 * @param ipFile - the .ip.txt file
+	 * @param corrFile - the .corr.txt file
+	 * @return the statistics, possibly incomplete
+	 * @throws IOException - if it cannot be read
+	 */
+	protected static InterestPointStatistics load( final File f, final File ipFile, final File corrFile ) throws IOException
+	{
+		final InterestPointStatistics stats = new InterestPointStatistics();
+		final HashSet< ViewId > views = new HashSet<>();
+
+		final BufferedReader in = TextFileAccess.openFileReadEx( f );
+
+		String line;
+
+		while ( ( line = in.readLine() ) != null )
+		{
+			final String[] p = line.split( "\t" );
+
+			if ( p[ 0 ].equals( "interestpoints" ) &&
+					Long.parseLong( p[ 2 ] ) == ipFile.length() && Long.parseLong( p[ 3 ] ) == ipFile.lastModified() )
+			{
+				stats.numInterestPoints = Integer.parseInt( p[ 1 ] );
+				stats.stampInterestPoints( ipFile );
+			}
+			else if ( p[ 0 ].equals( "correspondences" ) &&
+					Long.parseLong( p[ 3 ] ) == corrFile.length() && Long.parseLong( p[ 4 ] ) == corrFile.lastModified() )
+			{
+				stats.numCorrespondences = Integer.parseInt( p[ 1 ] );
+				stats.numCorrespondingInterestPoints = Integer.parseInt( p[ 2 ] );
+				stats.correspondingViews = views;
+				stats.stampCorrespondences( corrFile );
+			}
+			else if ( p[ 0 ].equals( "view" ) )
+			{
+				views.add( new ViewId( Integer.parseInt( p[ 1 ] ), Integer.parseInt( p[ 2 ] ) ) );
+			}
+		}
+
+		in.close();
+
+		return stats;
+	}
+}
@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import mpicbg.spim.data.sequence.ViewId;
+
+/**
+ * A very simple job queue that lives in a directory and can be shared by several JVMs on the same machine.
+ * All jobs are written once into a text file (one job per line), workers claim the next job by incrementing
+ * a counter that is protected by an exclusive {@link FileLock}. Finished and failed jobs are appended to
+ * separate text files, again under the lock.
+ */
+public class LocalJobQueue
+{
+	public static String jobsFile = "jobs.txt";
+	public static String lockFile = "jobs.lock";
+	public static String nextFile = "jobs.next";
+	public static String finishedFile = "jobs.finished";
+	public static String failedFile = "jobs.failed";
+
+	final File dir;
+
+	public LocalJobQueue( final File dir )
+	{
+		this.dir = dir;
+	}
+
+	public File getDirectory() { return dir; }
+
+	/**
+	 * Creates (or overwrites) the queue in the directory
+	 *
+	 * @param dir - the directory of the queue, will be created if necessary
+	 * @param jobs - one String per job (must not contain line breaks)
+	 * @return the queue
+	 * @throws IOException - if the queue files cannot be written
+	 */
+	public static LocalJobQueue create( final File dir, final List< String > jobs ) throws IOException
+	{
+		if ( !dir.exists() && !dir.mkdirs() )
+			throw new IOException( "Could not create queue directory '" + dir.getAbsolutePath() + "'" );
+
+		final LocalJobQueue queue = new LocalJobQueue( dir );
+
+		queue.locked( () ->
+		{
+			Files.write( new File( dir, jobsFile ).toPath(), jobs, StandardCharsets.UTF_8 );
+			writeCounter( new File( dir, nextFile ), 0 );
+			new File( dir, finishedFile ).delete();
+			new File( dir, failedFile ).delete();
+			return null;
+		});
+
+		return queue;
+	}
+
+	/**
+	 * @return the next unclaimed job or null if all jobs were claimed already
+	 * @throws IOException - if the queue cannot be accessed
+	 */
+	public String claimNext() throws IOException
+	{
+		return locked( () ->
+		{
+			final List< String > jobs = Files.readAllLines( new File( dir, jobsFile ).toPath(), StandardCharsets.UTF_8 );
+			final File counter = new File( dir, nextFile );
+			final int next = readCounter( counter );
+
+			if ( next >= jobs.size() )
+				return null;
+
+			writeCounter( counter, next + 1 );
+
+			return jobs.get( next );
+		});
+	}
+
+	public void reportFinished( final String job ) throws IOException { append( finishedFile, job ); }
+	public void reportFailed( final String job ) throws IOException { append( failedFile, job ); }
+
+	public List< String > getJobs() throws IOException { return read( jobsFile ); }
+	public List< String > getFinished() throws IOException { return read( finishedFile ); }
+	public List< String > getFailed() throws IOException { return read( failedFile ); }
+
+	protected void append( final String file, final String job ) throws IOException
+	{
+		locked( () ->
+		{
+			final ArrayList< String > line = new ArrayList<>();
+			line.add( job );
+
+			Files.write(
+					new File( dir, file ).toPath(), line, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+			return null;
+		});
+	}
+
+	protected List< String > read( final String file ) throws IOException
+	{
+		return locked( () ->
+		{
+			final File f = new File( dir, file );
+
+			if ( !f.exists() )
+				return new ArrayList<>();
+
+			return Files.readAllLines( f.toPath(), StandardCharsets.UTF_8 );
+		});
+	}
+
+	protected < T > T locked( final LockedIO< T > io ) throws IOException
+	{
+		try ( final RandomAccessFile raf = new RandomAccessFile( new File( dir, lockFile ), "rw" );
+			  final FileChannel channel = raf.getChannel();
+			  final FileLock lock = channel.lock() )
+		{
+			return io.run();
+		}
+	}
+
+	protected static int readCounter( final File file ) throws IOException
+	{
+		if ( !file.exists() )
+			return 0;
+
+		final String s = new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ).trim();
+
+		return s.length() == 0 ? 0 : Integer.parseInt( s );
+	}
+
+	protected static void writeCounter( final File file, final int value ) throws IOException
+	{
+		Files.write( file.toPath(), Integer.toString( value ).getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * @param v - the view
+	 * @return the job String for a ViewId, e.g. "0,1"
+	 */
+	public static String toJob( final ViewId v )
+	{
+		return v.getTimePointId() + "," + v.getViewSetupId();
+	}
+
+	/**
+	 * @param job - a job String created by {@link #toJob(ViewId)}
+	 * @return the ViewId
+	 */
+	public static ViewId toViewId( final String job )
+	{
+		final String[] entries = job.trim().split( "," );
+		return new ViewId( Integer.parseInt( entries[ 0 ].trim() ), Integer.parseInt( entries[ 1 ].trim() ) );
+	}
+
+	@FunctionalInterface
+	protected interface LockedIO< T >
+	{
+		public T run() throws IOException;
+	}
+}
@@ -0,0 +1,345 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.mvrecon.fiji.plugin.cluster.MergeClusterJobs;
+import net.preibisch.mvrecon.fiji.plugin.resave.Resave_N5;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+
+/**
+ * Runs the per-view jobs that {@link CreateN5Scripts} would submit to a cluster on the local machine instead,
+ * using several worker JVMs that claim ViewIds from a {@link LocalJobQueue}. This avoids the scaling limits
+ * (GC, lock contention) of a single JVM on large machines without requiring a scheduler.
+ *
+ * Resave as N5 using 16 JVMs with 8 threads each (this is the default job)
+ * ./java -cp multiview-reconstruction-0.11.4-SNAPSHOT.jar net.preibisch.mvrecon.headless.cluster.LocalJobRunner -i /data/dataset.xml -n 16 -t 8 -m 64000M
+ *
+ * Any other class with a main method (or runJob method, see {@link LocalJobWorker}) can be run per view, {tp} and {setup} are replaced for every job,
+ * resulting per-view XMLs can be merged automatically (see {@link MergeClusterJobs})
+ * ./java -cp ... net.preibisch.mvrecon.headless.cluster.LocalJobRunner -i /data/dataset.xml -n 16 -c my.Class -a "-i /data/dataset.xml -o /data/job_{tp}_{setup}.xml" -x /data/job_{tp}_{setup}.xml -o /data/merged.xml
+ */
+public class LocalJobRunner
+{
+	public static String queueDirectoryName = "localjobs";
+	public static String workerLogPrefix = "worker_";
+	public static String workerLogEnding = ".log";
+
+	public static void main( String[] args ) throws SpimDataException, IOException, InterruptedException
+	{
+		run( args );
+	}
+
+	/**
+	 * @param args - the command line arguments
+	 * @throws SpimDataException - if the XML cannot be loaded or the per-view XMLs cannot be merged
+	 * @throws IOException - if the queue cannot be created or the workers cannot be started
+	 * @throws InterruptedException - if waiting for the workers is interrupted
+	 * @throws IllegalArgumentException - if the arguments are invalid
+	 * @throws IllegalStateException - if jobs failed
+	 */
+	public static void run( final String[] args ) throws SpimDataException, IOException, InterruptedException
+	{
+		final Arguments arg = new Arguments( args );
+
+		final String inputXML = arg.getInputXMLPath();
+
+		System.out.println( "Loading input XML: " + inputXML );
+		final SpimData2 data = new XmlIoSpimData2( "" ).load( inputXML );
+
+		final File queueDir = arg.getQueueDirectory() != null ?
+				new File( arg.getQueueDirectory() ) : new File( new File( inputXML ).getAbsoluteFile().getParentFile(), queueDirectoryName );
+
+		final String mainClass;
+		final String[] template, finalize;
+
+		if ( arg.getMainClass() == null )
+		{
+			// resave as N5, same as CreateN5Scripts.getCommand()
+			mainClass = Resave_N5.class.getName();
+			template = new String[]{ "-i", inputXML, "-t", Integer.toString( arg.getNumThreads() ), "-nx", "-v", "({tp},{setup})" };
+			finalize = new String[]{ "-i", inputXML, "-nd" };
+		}
+		else
+		{
+			mainClass = arg.getMainClass();
+			template = split( arg.getArguments() );
+			finalize = split( arg.getFinalizeArguments() );
+		}
+
+		final List< ViewId > views = getViewsToProcess( data );
+
+		System.out.println( "Processing " + views.size() + " views with " + arg.getNumWorkers() + " workers, queue in '" + queueDir.getAbsolutePath() + "'" );
+
+		final LocalJobQueue queue = createQueue( queueDir, views );
+
+		final List< String > failed = runWorkers(
+				queue,
+				arg.getNumWorkers(),
+				arg.getJarFileName() != null ? arg.getJarFileName() : System.getProperty( "java.class.path" ),
+				"-Xms" + arg.getMemory(),
+				"-Xmx" + arg.getMemory(),
+				mainClass,
+				template );
+
+		if ( failed.size() > 0 )
+			throw new IllegalStateException( failed.size() + " jobs failed: " + failed + ", see logs in '" + queueDir.getAbsolutePath() + "'. Stopping." );
+
+		if ( finalize.length > 0 )
+		{
+			System.out.println( "(" + new Date( System.currentTimeMillis() ) + "): running final step " + mainClass + " " + Arrays.toString( finalize ) );
+			runMain( mainClass, finalize );
+		}
+
+		if ( arg.getPartialXMLPattern() != null && arg.getMergedXMLPath() != null )
+			mergeXMLs( views, arg.getPartialXMLPattern(), new File( arg.getMergedXMLPath() ) );
+
+		System.out.println( "done" );
+	}
+
+	public static List< ViewId > getViewsToProcess( final SpimData2 data )
+	{
+		final ArrayList< ViewId > list = new ArrayList<>();
+
+		for ( final ViewId v : data.getSequenceDescription().getViewDescriptions().keySet() )
+			if ( !data.getSequenceDescription().getMissingViews().getMissingViews().contains( v ) )
+				list.add( v );
+
+		Collections.sort( list );
+
+		return list;
+	}
+
+	public static LocalJobQueue createQueue( final File queueDir, final List< ViewId > views ) throws IOException
+	{
+		final ArrayList< String > jobs = new ArrayList<>();
+
+		for ( final ViewId v : views )
+			jobs.add( LocalJobQueue.toJob( v ) );
+
+		return LocalJobQueue.create( queueDir, jobs );
+	}
+
+	/**
+	 * Starts the worker JVMs and waits until all of them are done.
+	 *
+	 * @param queue - the queue the workers claim their jobs from
+	 * @param numWorkers - how many JVMs to start
+	 * @param classPath - the class path of the worker JVMs (e.g. the fat-jar)
+	 * @param jvmArgs1 - first JVM argument (e.g. -Xms)
+	 * @param jvmArgs2 - second JVM argument (e.g. -Xmx)
+	 * @param mainClass - the class whose main method is called for every job
+	 * @param template - the arguments, {tp}, {setup} and {job} are replaced for every job
+	 * @return the list of failed jobs
+	 * @throws IOException - if a worker cannot be started
+	 * @throws InterruptedException - if waiting for the workers is interrupted
+	 */
+	public static List< String > runWorkers(
+			final LocalJobQueue queue,
+			final int numWorkers,
+			final String classPath,
+			final String jvmArgs1,
+			final String jvmArgs2,
+			final String mainClass,
+			final String[] template ) throws IOException, InterruptedException
+	{
+		final String java = new File( new File( System.getProperty( "java.home" ), "bin" ), "java" ).getAbsolutePath();
+		final ArrayList< Process > workers = new ArrayList<>();
+
+		for ( int i = 0; i < numWorkers; ++i )
+		{
+			final ArrayList< String > command = new ArrayList<>();
+			command.add( java );
+			command.add( jvmArgs1 );
+			command.add( jvmArgs2 );
+			command.add( "-cp" );
+			command.add( classPath );
+			command.add( LocalJobWorker.class.getName() );
+			command.add( queue.getDirectory().getAbsolutePath() );
+			command.add( Integer.toString( i ) );
+			command.add( mainClass );
+			command.addAll( Arrays.asList( template ) );
+
+			final ProcessBuilder pb = new ProcessBuilder( command );
+			pb.redirectErrorStream( true );
+			pb.redirectOutput( new File( queue.getDirectory(), workerLogPrefix + i + workerLogEnding ) );
+
+			workers.add( pb.start() );
+		}
+
+		System.out.println( "(" + new Date( System.currentTimeMillis() ) + "): started " + numWorkers + " workers." );
+
+		for ( int i = 0; i < workers.size(); ++i )
+		{
+			final int exit = workers.get( i ).waitFor();
+
+			if ( exit != 0 )
+				System.out.println( "(" + new Date( System.currentTimeMillis() ) + "): worker " + i + " exited with code " + exit );
+		}
+
+		// jobs that were claimed by a worker that died are neither finished nor failed
+		final List< String > finished = queue.getFinished();
+		final ArrayList< String > failed = new ArrayList<>();
+
+		for ( final String job : queue.getJobs() )
+			if ( !finished.contains( job ) )
+				failed.add( job );
+
+		System.out.println( "(" + new Date( System.currentTimeMillis() ) + "): " + finished.size() + "/" + queue.getJobs().size() + " jobs finished." );
+
+		return failed;
+	}
+
+	public static void mergeXMLs( final List< ViewId > views, final String pattern, final File output ) throws SpimDataException
+	{
+		final ArrayList< File > xmls = new ArrayList<>();
+
+		for ( final ViewId v : views )
+		{
+			final File xml = new File( LocalJobWorker.fillTemplate( new String[]{ pattern }, LocalJobQueue.toJob( v ) )[ 0 ] );
+
+			if ( xml.exists() && !xmls.contains( xml ) )
+				xmls.add( xml );
+		}
+
+		if ( xmls.size() == 0 )
+		{
+			System.out.println( "No XMLs found for pattern '" + pattern + "', nothing to merge." );
+			return;
+		}
+
+		System.out.println( "Merging " + xmls.size() + " XMLs into '" + output + "'" );
+		MergeClusterJobs.merge( xmls, output );
+	}
+
+	protected static void runMain( final String mainClass, final String[] args )
+	{
+		try
+		{
+			LocalJobWorker.invoke( LocalJobWorker.getJobMethod( mainClass ), args );
+		}
+		catch ( Exception e )
+		{
+			throw new RuntimeException( "Failed to run " + mainClass + ": " + e, e );
+		}
+	}
+
+	protected static String[] split( final String arguments )
+	{
+		if ( arguments == null || arguments.trim().length() == 0 )
+			return new String[ 0 ];
+
+		return arguments.trim().split( "\\s+" );
+	}
+
+	private static class Arguments implements Serializable
+	{
+		private static final long serialVersionUID = 2360592435563284470L;
+
+		@Option(name = "-i", aliases = { "--inputXMLPath" }, required = true,
+				usage = "Path to the SpimData XML whose views are processed")
+		private String inputXMLPath;
+
+		@Option(name = "-n", aliases = { "--numWorkers" }, required = false,
+				usage = "Number of worker JVMs (default: 4)")
+		private int numWorkers = 4;
+
+		@Option(name = "-t", aliases = { "--numThreads" }, required = false,
+				usage = "Number of threads per worker for resaving (default: 8)")
+		private int numThreads = ClusterSubmissionJanelia.threadsJanelia;
+
+		@Option(name = "-m", aliases = { "--memory" }, required = false,
+				usage = "Memory per worker JVM (default: 4000M)")
+		private String memory = "4000M";
+
+		@Option(name = "-j", aliases = { "--jarFileName" }, required = false,
+				usage = "Path to the fat-jar (default: class path of this JVM)")
+		private String jarFileName;
+
+		@Option(name = "-q", aliases = { "--queueDirectory" }, required = false,
+				usage = "Directory of the job queue and worker logs (default: 'localjobs' next to the XML)")
+		private String queueDirectory;
+
+		@Option(name = "-c", aliases = { "--mainClass" }, required = false,
+				usage = "Class whose main method is called per view (default: resave as N5)")
+		private String mainClass;
+
+		@Option(name = "-a", aliases = { "--arguments" }, required = false,
+				usage = "Arguments per view, {tp} and {setup} are replaced (only with -c)")
+		private String arguments;
+
+		@Option(name = "-f", aliases = { "--finalizeArguments" }, required = false,
+				usage = "Arguments for a final run of the main class once all views are done (only with -c, optional)")
+		private String finalizeArguments;
+
+		@Option(name = "-x", aliases = { "--partialXMLPattern" }, required = false,
+				usage = "Pattern of the XMLs written per view, e.g. /data/job_{tp}_{setup}.xml (optional)")
+		private String partialXMLPattern;
+
+		@Option(name = "-o", aliases = { "--mergedXMLPath" }, required = false,
+				usage = "Where to save the merged per-view XMLs (optional)")
+		private String mergedXMLPath;
+
+		public Arguments( final String... args ) throws IllegalArgumentException
+		{
+			final CmdLineParser parser = new CmdLineParser( this );
+			try
+			{
+				parser.parseArgument( args );
+			}
+			catch ( final CmdLineException e )
+			{
+				System.err.println( e.getMessage() );
+				parser.printUsage( System.err );
+				throw new IllegalArgumentException( e.getMessage(), e );
+			}
+		}
+
+		public String getInputXMLPath() { return inputXMLPath; }
+		public int getNumWorkers() { return Math.max( 1, numWorkers ); }
+		public int getNumThreads() { return Math.max( 1, numThreads ); }
+		public String getMemory() { return memory; }
+		public String getJarFileName() { return jarFileName; }
+		public String getQueueDirectory() { return queueDirectory; }
+		public String getMainClass() { return mainClass; }
+		public String getArguments() { return arguments; }
+		public String getFinalizeArguments() { return finalizeArguments; }
+		public String getPartialXMLPattern() { return partialXMLPattern; }
+		public String getMergedXMLPath() { return mergedXMLPath; }
+	}
+}
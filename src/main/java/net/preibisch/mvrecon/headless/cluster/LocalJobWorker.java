@@ -0,0 +1,190 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Date;
+
+import mpicbg.spim.data.sequence.ViewId;
+
+/**
+ * A worker JVM started by {@link LocalJobRunner}. It claims jobs from a {@link LocalJobQueue} until the
+ * queue is empty and runs a class for each of them, within the same JVM. If the class has a method
+ * {@code public static boolean runJob( String[] args )} it is called and the job fails if it returns false,
+ * otherwise the main method is called and the job only fails if it throws an exception.
+ *
+ * Call: LocalJobWorker queueDirectory workerId mainClass arg1 arg2 ...
+ *
+ * In the arguments, {tp}, {setup} and {job} are replaced by the timepoint id, the viewsetup id and the job
+ * string of the claimed job.
+ */
+public class LocalJobWorker
+{
+	public static void main( String[] args ) throws IOException
+	{
+		run( args );
+	}
+
+	/**
+	 * @param args - queueDirectory workerId mainClass arg1 arg2 ...
+	 * @return the number of failed jobs
+	 * @throws IOException - if the queue cannot be accessed
+	 * @throws IllegalArgumentException - if the arguments are invalid or the class cannot be run
+	 */
+	public static int run( final String[] args ) throws IOException, IllegalArgumentException
+	{
+		if ( args.length < 3 )
+			throw new IllegalArgumentException( "usage: LocalJobWorker queueDirectory workerId mainClass [arguments ...]" );
+
+		final LocalJobQueue queue = new LocalJobQueue( new File( args[ 0 ] ) );
+		final String workerId = args[ 1 ];
+		final String mainClass = args[ 2 ];
+
+		final String[] template = new String[ args.length - 3 ];
+		System.arraycopy( args, 3, template, 0, template.length );
+
+		final Method method = getJobMethod( mainClass );
+
+		String job;
+		int count = 0, failed = 0;
+
+		while ( ( job = queue.claimNext() ) != null )
+		{
+			System.out.println( "(" + new Date( System.currentTimeMillis() ) + "): worker " + workerId + " runs job '" + job + "'" );
+
+			try
+			{
+				invoke( method, fillTemplate( template, job ) );
+				queue.reportFinished( job );
+				++count;
+			}
+			catch ( Exception e )
+			{
+				System.err.println( "(" + new Date( System.currentTimeMillis() ) + "): worker " + workerId + " failed job '" + job + "': " + e );
+				e.printStackTrace();
+				queue.reportFailed( job );
+				++failed;
+			}
+		}
+
+		System.out.println( "(" + new Date( System.currentTimeMillis() ) + "): worker " + workerId + " finished " + count + " jobs, " + failed + " failed." );
+
+		return failed;
+	}
+
+	/**
+	 * @param className - the class to run
+	 * @return its static runJob( String[] ) method that returns a boolean if available, otherwise its main method
+	 * @throws IllegalArgumentException - if the class has neither
+	 */
+	public static Method getJobMethod( final String className ) throws IllegalArgumentException
+	{
+		final Class< ? > c;
+
+		try
+		{
+			c = Class.forName( className );
+		}
+		catch ( Exception e )
+		{
+			throw new IllegalArgumentException( "Cannot find class '" + className + "': " + e, e );
+		}
+
+		try
+		{
+			final Method runJob = c.getMethod( "runJob", String[].class );
+
+			if ( Modifier.isStatic( runJob.getModifiers() ) && runJob.getReturnType() == boolean.class )
+				return runJob;
+		}
+		catch ( NoSuchMethodException e ) {}
+
+		try
+		{
+			return c.getMethod( "main", String[].class );
+		}
+		catch ( Exception e )
+		{
+			throw new IllegalArgumentException( "Cannot find main method of class '" + className + "': " + e, e );
+		}
+	}
+
+	/**
+	 * Runs a job method (see {@link #getJobMethod(String)}).
+	 *
+	 * @param method - the method
+	 * @param args - the arguments
+	 * @throws Exception - if the job throws an exception or reports that it failed
+	 */
+	public static void invoke( final Method method, final String[] args ) throws Exception
+	{
+		final Object result;
+
+		try
+		{
+			result = method.invoke( null, (Object)args );
+		}
+		catch ( InvocationTargetException e )
+		{
+			if ( e.getCause() instanceof Exception )
+				throw (Exception)e.getCause();
+			else
+				throw e;
+		}
+
+		if ( Boolean.FALSE.equals( result ) )
+			throw new RuntimeException( method.getDeclaringClass().getName() + "." + method.getName() + " reported that it failed." );
+	}
+
+	public static String[] fillTemplate( final String[] template, final String job )
+	{
+		final String[] filled = new String[ template.length ];
+
+		ViewId v;
+
+		try
+		{
+			v = LocalJobQueue.toViewId( job );
+		}
+		catch ( Exception e )
+		{
+			v = null;
+		}
+
+		for ( int i = 0; i < template.length; ++i )
+		{
+			String s = template[ i ].replace( "{job}", job );
+
+			if ( v != null )
+				s = s.replace( "{tp}", Integer.toString( v.getTimePointId() ) ).replace( "{setup}", Integer.toString( v.getViewSetupId() ) );
+
+			filled[ i ] = s;
+		}
+
+		return filled;
+	}
+}
@@ -162,7 +162,7 @@ public class MultipageTiffReader
 				if ( !lastDisplayedFile.equals( file.getAbsolutePath() ) )
 					IOFunctions.println( f.getAbsolutePath() );
 
-				this.raFiles.add( new RandomAccessFile( f, "rw" ) );
+				this.raFiles.add( new RandomAccessFile( f, "r" ) );
 				this.fileChannels.add( this.raFiles.get( this.raFiles.size() - 1 ).getChannel() );
 			}
 
@@ -27,6 +27,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.registration.ViewTransformAffine;
@@ -38,6 +39,7 @@ import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
@@ -52,6 +54,9 @@ public class BoundingBoxReorientation implements BoundingBoxEstimation
 {
 	public static String reorientationDescription = "Reorientation to minimize bounding box";
 
+	// search on the vertices of the convex hull in parallel (see ReorientationEngine) instead of all points
+	public static boolean defaultUseConvexHull = true;
+
 	final SpimData2 spimData;
 	final ArrayList< RealLocalizable > points;
 	final boolean testRotations;
@@ -209,6 +214,20 @@ public class BoundingBoxReorientation implements BoundingBoxEstimation
 			return null;
 		}
 
+		if ( defaultUseConvexHull )
+		{
+			final ExecutorService service = Threads.createFixedExecutorService();
+
+			try
+			{
+				return new ReorientationEngine( points, service ).determineOptimalBoundingBox();
+			}
+			finally
+			{
+				service.shutdown();
+			}
+		}
+
 		// identify most distant points
 		RealLocalizable p1 = points.get( 0 );
 		RealLocalizable p2 = points.get( 1 );
@@ -0,0 +1,669 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.boundingbox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.imglib2.util.ValuePair;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.vecmath.Matrix4d;
+import net.preibisch.mvrecon.vecmath.Vector3d;
+
+/**
+ * Finds the rotation that minimizes the axis-aligned bounding box of a point cloud, using the same coarse-to-fine
+ * search as {@link BoundingBoxReorientation}. The bounding box of a point set under any rotation is defined by the
+ * vertices of its convex hull only, so the points are first reduced to their convex hull (quickhull). The most distant
+ * points are searched among the hull vertices, and all rotation candidates of one scale are evaluated in parallel on
+ * primitive arrays of the hull vertices.
+ */
+public class ReorientationEngine
+{
+	final int numPoints;
+	final double[] x, y, z; // the vertices of the convex hull
+	final ExecutorService service;
+
+	/**
+	 * @param points - all points
+	 * @param service - the executor service used for the diameter and for testing rotations
+	 */
+	public ReorientationEngine( final List< ? extends RealLocalizable > points, final ExecutorService service )
+	{
+		this.numPoints = points.size();
+		this.service = service;
+
+		final double[] px = new double[ numPoints ];
+		final double[] py = new double[ numPoints ];
+		final double[] pz = new double[ numPoints ];
+
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			final RealLocalizable p = points.get( i );
+			px[ i ] = p.getDoublePosition( 0 );
+			py[ i ] = p.getDoublePosition( 1 );
+			pz[ i ] = p.getDoublePosition( 2 );
+		}
+
+		int[] hull;
+
+		try
+		{
+			hull = convexHullVertices( px, py, pz );
+		}
+		catch ( final IllegalStateException e )
+		{
+			IOFunctions.println( "Could not compute convex hull (" + e.getMessage() + "), using all points." );
+
+			hull = new int[ numPoints ];
+			for ( int i = 0; i < numPoints; ++i )
+				hull[ i ] = i;
+		}
+
+		this.x = new double[ hull.length ];
+		this.y = new double[ hull.length ];
+		this.z = new double[ hull.length ];
+
+		for ( int i = 0; i < hull.length; ++i )
+		{
+			x[ i ] = px[ hull[ i ] ];
+			y[ i ] = py[ hull[ i ] ];
+			z[ i ] = pz[ hull[ i ] ];
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Reduced " + numPoints + " points to " + hull.length + " vertices of the convex hull." );
+	}
+
+	public int numHullVertices() { return x.length; }
+
+	/**
+	 * @return the coarse-to-fine search result (as {@link BoundingBoxReorientation}), the rotation and minX, minY, minZ, maxX, maxY, maxZ
+	 */
+	public Pair< AffineTransform3D, double[] > determineOptimalBoundingBox()
+	{
+		final double[] diameter = diameter();
+
+		final Vector3d sv;
+
+		if ( diameter == null )
+		{
+			sv = new Vector3d( 1, 0, 0 );
+		}
+		else
+		{
+			sv = new Vector3d( diameter[ 4 ] - diameter[ 1 ], diameter[ 5 ] - diameter[ 2 ], diameter[ 6 ] - diameter[ 3 ] );
+			sv.normalize();
+
+			IOFunctions.println(
+					"Maximum distance: " + Math.sqrt( diameter[ 0 ] ) + "px between points " + Util.printCoordinates( new double[] { diameter[ 1 ], diameter[ 2 ], diameter[ 3 ] } ) +
+					" and " + Util.printCoordinates( new double[] { diameter[ 4 ], diameter[ 5 ], diameter[ 6 ] } ) + ", vector=" + sv + ", volume=" +
+					testAxis( sv )[ 0 ] / (1024*1024) + "MiPixels." );
+		}
+
+		final double[] vectorStep = new double[]{ 0.4, 0.2, 0.1, 0.05, 0.025, 0.01, 0.005, 0.001 };
+
+		double minVolume = Double.MAX_VALUE;
+		double[] minBoundingBox = null;
+
+		for ( int stepIndex = 0; stepIndex < vectorStep.length; ++stepIndex )
+		{
+			final double step = vectorStep[ stepIndex ];
+
+			// all test vectors of this scale
+			final ArrayList< Vector3d > vectors = new ArrayList<>();
+
+			for ( int zi = -1; zi <= 1; ++zi )
+				for ( int yi = -1; yi <= 1; ++yi )
+					for ( int xi = -1; xi <= 1; ++xi )
+					{
+						final Vector3d v = new Vector3d(
+								sv.x + xi * step,
+								sv.y + yi * step,
+								sv.z + zi * step );
+
+						v.normalize();
+						vectors.add( v );
+					}
+
+			final double[][] volumes = testAxes( vectors );
+
+			// the best search vector found so far on this scale (same order as a sequential search)
+			final Vector3d bestSV = new Vector3d( sv );
+
+			for ( int i = 0; i < vectors.size(); ++i )
+			{
+				if ( volumes[ i ][ 0 ] < minVolume )
+				{
+					minVolume = volumes[ i ][ 0 ];
+					minBoundingBox = new double[ 6 ];
+					System.arraycopy( volumes[ i ], 1, minBoundingBox, 0, 6 );
+					bestSV.set( vectors.get( i ) );
+
+					IOFunctions.println( "Scale: " + step + " --- Min Volume: " + minVolume / (1024*1024) + "MiPixels, vector=" + bestSV );
+				}
+			}
+
+			// update the search vector to the best solution from this scale
+			sv.set( bestSV );
+		}
+
+		// final mapping v onto the x axis
+		final Matrix4d m = new Matrix4d();
+		BoundingBoxReorientation.getRotation( sv, new Vector3d( 1, 0, 0 ) ).get( m );
+
+		final AffineTransform3D a = new AffineTransform3D();
+		a.set( m.m00, m.m01, m.m02, m.m03, m.m10, m.m11, m.m12, m.m13, m.m20, m.m21, m.m22, m.m23 );
+
+		return new ValuePair< AffineTransform3D, double[] >( a, minBoundingBox );
+	}
+
+	/**
+	 * Searches the most distant pair of hull vertices in parallel.
+	 *
+	 * @return squared distance, p1 (x,y,z) and p2 (x,y,z) with p1.x &lt;= p2.x; or null if there are less than two points
+	 */
+	public double[] diameter()
+	{
+		final int n = x.length;
+
+		if ( n < 2 )
+			return null;
+
+		final int numTasks = Math.min( n - 1, Threads.numThreads() * 4 );
+		final ArrayList< Callable< long[] > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int task = t;
+
+			// interleaved rows so all tasks have a similar amount of work
+			tasks.add( () ->
+			{
+				double maxDist = -1;
+				int bi = 0, bj = 1;
+
+				for ( int i = task; i < n - 1; i += numTasks )
+					for ( int j = i + 1; j < n; ++j )
+					{
+						final double d = BoundingBoxReorientation.squareDistance( x[ i ], y[ i ], z[ i ], x[ j ], y[ j ], z[ j ] );
+
+						if ( d > maxDist )
+						{
+							maxDist = d;
+							bi = i;
+							bj = j;
+						}
+					}
+
+				return new long[]{ Double.doubleToLongBits( maxDist ), bi, bj };
+			} );
+		}
+
+		double maxDist = -1;
+		int i1 = 0, i2 = 1;
+
+		try
+		{
+			for ( final Future< long[] > future : service.invokeAll( tasks ) )
+			{
+				final long[] r = future.get();
+				final double d = Double.longBitsToDouble( r[ 0 ] );
+
+				if ( d > maxDist )
+				{
+					maxDist = d;
+					i1 = (int)r[ 1 ];
+					i2 = (int)r[ 2 ];
+				}
+			}
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( "Failed to compute the most distant points: " + e, e );
+		}
+
+		if ( x[ i1 ] > x[ i2 ] )
+		{
+			final int tmp = i1;
+			i1 = i2;
+			i2 = tmp;
+		}
+
+		return new double[]{ maxDist, x[ i1 ], y[ i1 ], z[ i1 ], x[ i2 ], y[ i2 ], z[ i2 ] };
+	}
+
+	/**
+	 * Tests several major axes in parallel.
+	 *
+	 * @param vectors - normalized vectors
+	 * @return for each vector the volume, minX, minY, minZ, maxX, maxY, maxZ
+	 */
+	public double[][] testAxes( final List< Vector3d > vectors )
+	{
+		final ArrayList< Callable< double[] > > tasks = new ArrayList<>();
+
+		for ( final Vector3d v : vectors )
+			tasks.add( () -> testAxis( v ) );
+
+		final double[][] volumes = new double[ vectors.size() ][];
+
+		try
+		{
+			final List< Future< double[] > > futures = service.invokeAll( tasks );
+
+			for ( int i = 0; i < volumes.length; ++i )
+				volumes[ i ] = futures.get( i ).get();
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( "Failed to test rotations: " + e, e );
+		}
+
+		return volumes;
+	}
+
+	/**
+	 * Test one major axis for the minimal bounding box volume required
+	 *
+	 * @param v - normalized vector
+	 * @return the volume, minX, minY, minZ, maxX, maxY, maxZ
+	 */
+	public double[] testAxis( final Vector3d v )
+	{
+		// mapping v onto the x axis
+		final Matrix4d m = new Matrix4d();
+		BoundingBoxReorientation.getRotation( v, new Vector3d( 1, 0, 0 ) ).get( m );
+
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double minZ = Double.MAX_VALUE;
+
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		double maxZ = -Double.MAX_VALUE;
+
+		for ( int i = 0; i < x.length; ++i )
+		{
+			final double tx = m.m00 * x[ i ] + m.m01 * y[ i ] + m.m02 * z[ i ] + m.m03;
+			final double ty = m.m10 * x[ i ] + m.m11 * y[ i ] + m.m12 * z[ i ] + m.m13;
+			final double tz = m.m20 * x[ i ] + m.m21 * y[ i ] + m.m22 * z[ i ] + m.m23;
+
+			minX = Math.min( minX, tx );
+			minY = Math.min( minY, ty );
+			minZ = Math.min( minZ, tz );
+
+			maxX = Math.max( maxX, tx );
+			maxY = Math.max( maxY, ty );
+			maxZ = Math.max( maxZ, tz );
+		}
+
+		return new double[]{ ( maxX - minX ) * ( maxY - minY ) * ( maxZ - minZ ), minX, minY, minZ, maxX, maxY, maxZ };
+	}
+
+	/**
+	 * Computes the vertices of the 3d convex hull (quickhull). Points closer than a numerical tolerance to the hull
+	 * may be dropped, if all points are (almost) coplanar all indices are returned.
+	 *
+	 * @param x - x coordinates
+	 * @param y - y coordinates
+	 * @param z - z coordinates
+	 * @return the indices of the hull vertices
+	 * @throws IllegalStateException - if the hull became inconsistent for numerical reasons
+	 */
+	public static int[] convexHullVertices( final double[] x, final double[] y, final double[] z )
+	{
+		final int n = x.length;
+
+		// tolerance as in the original quickhull implementation
+		double maxX = 0, maxY = 0, maxZ = 0;
+
+		for ( int i = 0; i < n; ++i )
+		{
+			maxX = Math.max( maxX, Math.abs( x[ i ] ) );
+			maxY = Math.max( maxY, Math.abs( y[ i ] ) );
+			maxZ = Math.max( maxZ, Math.abs( z[ i ] ) );
+		}
+
+		final double eps = 3 * Math.ulp( 1.0 ) * ( maxX + maxY + maxZ );
+
+		final int[] all = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			all[ i ] = i;
+
+		if ( n < 5 )
+			return all;
+
+		//
+		// initial tetrahedron
+		//
+		final double[][] p = new double[][]{ x, y, z };
+		int i0 = 0, i1 = 0;
+		double extent = -1;
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			int mi = 0, ma = 0;
+
+			for ( int i = 1; i < n; ++i )
+			{
+				if ( p[ d ][ i ] < p[ d ][ mi ] )
+					mi = i;
+				if ( p[ d ][ i ] > p[ d ][ ma ] )
+					ma = i;
+			}
+
+			if ( p[ d ][ ma ] - p[ d ][ mi ] > extent )
+			{
+				extent = p[ d ][ ma ] - p[ d ][ mi ];
+				i0 = mi;
+				i1 = ma;
+			}
+		}
+
+		if ( extent <= eps )
+			return all;
+
+		// farthest from the line i0-i1
+		int i2 = -1;
+		double maxDist = eps;
+
+		final double lx = x[ i1 ] - x[ i0 ], ly = y[ i1 ] - y[ i0 ], lz = z[ i1 ] - z[ i0 ];
+		final double ll = Math.sqrt( lx * lx + ly * ly + lz * lz );
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final double dx = x[ i ] - x[ i0 ], dy = y[ i ] - y[ i0 ], dz = z[ i ] - z[ i0 ];
+			final double cx = ly * dz - lz * dy, cy = lz * dx - lx * dz, cz = lx * dy - ly * dx;
+			final double d = Math.sqrt( cx * cx + cy * cy + cz * cz ) / ll;
+
+			if ( d > maxDist )
+			{
+				maxDist = d;
+				i2 = i;
+			}
+		}
+
+		if ( i2 < 0 )
+			return all;
+
+		// farthest from the plane i0-i1-i2
+		final Face base = new Face( i0, i1, i2, x, y, z );
+		int i3 = -1;
+		maxDist = eps;
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final double d = Math.abs( base.distance( x[ i ], y[ i ], z[ i ] ) );
+
+			if ( d > maxDist )
+			{
+				maxDist = d;
+				i3 = i;
+			}
+		}
+
+		if ( i3 < 0 )
+			return all;
+
+		final HashMap< Long, Face > edges = new HashMap<>();
+		final ArrayList< Face > faces = new ArrayList<>();
+
+		// orient all faces so that the normals point away from the remaining vertex
+		final int[][] tetrahedron = new int[][]{ { i0, i1, i2, i3 }, { i0, i1, i3, i2 }, { i0, i2, i3, i1 }, { i1, i2, i3, i0 } };
+
+		for ( final int[] t : tetrahedron )
+		{
+			Face f = new Face( t[ 0 ], t[ 1 ], t[ 2 ], x, y, z );
+
+			if ( f.distance( x[ t[ 3 ] ], y[ t[ 3 ] ], z[ t[ 3 ] ] ) > 0 )
+				f = new Face( t[ 0 ], t[ 2 ], t[ 1 ], x, y, z );
+
+			addEdges( f, edges, n );
+			faces.add( f );
+		}
+
+		// assign all points to the first face they are outside of
+		for ( int i = 0; i < n; ++i )
+		{
+			if ( i == i0 || i == i1 || i == i2 || i == i3 )
+				continue;
+
+			for ( final Face f : faces )
+			{
+				final double d = f.distance( x[ i ], y[ i ], z[ i ] );
+
+				if ( d > eps )
+				{
+					f.addOutside( i, d );
+					break;
+				}
+			}
+		}
+
+		final ArrayDeque< Face > stack = new ArrayDeque<>();
+
+		for ( final Face f : faces )
+			if ( f.numOutside > 0 )
+				stack.push( f );
+
+		int iteration = 0;
+
+		while ( !stack.isEmpty() )
+		{
+			final Face f = stack.pop();
+
+			if ( f.deleted || f.numOutside == 0 )
+				continue;
+
+			final int eye = f.farthest;
+			final double ex = x[ eye ], ey = y[ eye ], ez = z[ eye ];
+			++iteration;
+
+			// all faces visible from the eye point, connected to f
+			final ArrayList< Face > visible = new ArrayList<>();
+			final ArrayDeque< Face > queue = new ArrayDeque<>();
+			f.mark = iteration;
+			queue.add( f );
+
+			while ( !queue.isEmpty() )
+			{
+				final Face g = queue.poll();
+				visible.add( g );
+
+				for ( int e = 0; e < 3; ++e )
+				{
+					final Face h = neighbor( g, e, edges, n );
+
+					if ( h.mark != iteration && h.distance( ex, ey, ez ) > eps )
+					{
+						h.mark = iteration;
+						queue.add( h );
+					}
+				}
+			}
+
+			// the horizon are all edges between a visible and an invisible face
+			final ArrayList< int[] > horizon = new ArrayList<>();
+
+			for ( final Face g : visible )
+				for ( int e = 0; e < 3; ++e )
+					if ( neighbor( g, e, edges, n ).mark != iteration )
+						horizon.add( new int[]{ g.v[ e ], g.v[ ( e + 1 ) % 3 ] } );
+
+			for ( final Face g : visible )
+			{
+				g.deleted = true;
+
+				for ( int e = 0; e < 3; ++e )
+					edges.remove( key( g.v[ e ], g.v[ ( e + 1 ) % 3 ], n ) );
+			}
+
+			// connect the horizon to the eye point
+			final ArrayList< Face > newFaces = new ArrayList<>();
+
+			for ( final int[] h : horizon )
+			{
+				final Face nf = new Face( h[ 0 ], h[ 1 ], eye, x, y, z );
+				addEdges( nf, edges, n );
+				newFaces.add( nf );
+			}
+
+			// reassign the outside points of the removed faces, points that are inside now are dropped
+			for ( final Face g : visible )
+				for ( int j = 0; j < g.numOutside; ++j )
+				{
+					final int i = g.outside[ j ];
+
+					if ( i == eye )
+						continue;
+
+					for ( final Face nf : newFaces )
+					{
+						final double d = nf.distance( x[ i ], y[ i ], z[ i ] );
+
+						if ( d > eps )
+						{
+							nf.addOutside( i, d );
+							break;
+						}
+					}
+				}
+
+			for ( final Face nf : newFaces )
+				if ( nf.numOutside > 0 )
+					stack.push( nf );
+		}
+
+		final boolean[] isVertex = new boolean[ n ];
+		int numVertices = 0;
+
+		for ( final Face f : edges.values() )
+			for ( int e = 0; e < 3; ++e )
+				if ( !isVertex[ f.v[ e ] ] )
+				{
+					isVertex[ f.v[ e ] ] = true;
+					++numVertices;
+				}
+
+		final int[] vertices = new int[ numVertices ];
+
+		for ( int i = 0, j = 0; i < n; ++i )
+			if ( isVertex[ i ] )
+				vertices[ j++ ] = i;
+
+		return vertices;
+	}
+
+	protected static long key( final int from, final int to, final int n )
+	{
+		return (long)from * n + to;
+	}
+
+	protected static void addEdges( final Face f, final HashMap< Long, Face > edges, final int n )
+	{
+		for ( int e = 0; e < 3; ++e )
+			if ( edges.put( key( f.v[ e ], f.v[ ( e + 1 ) % 3 ], n ), f ) != null )
+				throw new IllegalStateException( "non-manifold edge" );
+	}
+
+	protected static Face neighbor( final Face f, final int e, final HashMap< Long, Face > edges, final int n )
+	{
+		final Face h = edges.get( key( f.v[ ( e + 1 ) % 3 ], f.v[ e ], n ) );
+
+		if ( h == null )
+			throw new IllegalStateException( "open edge" );
+
+		return h;
+	}
+
+	/**
+	 * A triangle of the hull, the vertices are counter-clockwise when seen from outside.
+	 */
+	protected static class Face
+	{
+		final int[] v;
+		final double nx, ny, nz, offset;
+
+		int[] outside = new int[ 4 ];
+		int numOutside = 0, farthest = -1, mark = 0;
+		double farthestDistance = 0;
+		boolean deleted = false;
+
+		public Face( final int a, final int b, final int c, final double[] x, final double[] y, final double[] z )
+		{
+			this.v = new int[]{ a, b, c };
+
+			final double ux = x[ b ] - x[ a ], uy = y[ b ] - y[ a ], uz = z[ b ] - z[ a ];
+			final double wx = x[ c ] - x[ a ], wy = y[ c ] - y[ a ], wz = z[ c ] - z[ a ];
+
+			double cx = uy * wz - uz * wy;
+			double cy = uz * wx - ux * wz;
+			double cz = ux * wy - uy * wx;
+
+			final double len = Math.sqrt( cx * cx + cy * cy + cz * cz );
+
+			// a degenerate face is never visible
+			if ( len > 0 )
+			{
+				cx /= len;
+				cy /= len;
+				cz /= len;
+			}
+
+			this.nx = cx;
+			this.ny = cy;
+			this.nz = cz;
+			this.offset = len > 0 ? cx * x[ a ] + cy * y[ a ] + cz * z[ a ] : 0;
+		}
+
+		public double distance( final double px, final double py, final double pz )
+		{
+			return nx * px + ny * py + nz * pz - offset;
+		}
+
+		public void addOutside( final int i, final double d )
+		{
+			if ( numOutside == outside.length )
+				outside = Arrays.copyOf( outside, outside.length * 2 );
+
+			outside[ numOutside++ ] = i;
+
+			if ( d > farthestDistance )
+			{
+				farthestDistance = d;
+				farthest = i;
+			}
+		}
+	}
+}
@@ -38,6 +38,7 @@ import net.imglib2.view.Views;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.process.deconvolution.normalization.AdjustInput;
 import net.preibisch.mvrecon.process.deconvolution.util.Mirror;
+import net.preibisch.mvrecon.process.deconvolution.util.PSFKernelCache;
 
 import util.FFTConvolution;
 
@@ -83,11 +84,7 @@ public class DeconViewPSF
 			if ( service == null )
 				throw new RuntimeException( "getKernel1FFT can only be called after calling init().");
 
-			final long[] min = new long[ kernel1.numDimensions() ];
-			final long[] max = new long[ kernel1.numDimensions() ];
-
-			final Pair< Interval, Interval > fftIntervals = FFTConvolution.setupFFTs( new FinalInterval( Util.int2long( blockSize ) ), kernel1, min, max );
-			fftKernel1 = FFTConvolution.computeKernelFFT( fftIntervals.getB(), min, max, false, Views.extendValue( kernel1, new FloatType() ), new ArrayImgFactory< ComplexFloatType >(), service );
+			fftKernel1 = computeKernelFFT( kernel1, blockSize, service );
 		}
 
 		return fftKernel1;
@@ -100,16 +97,44 @@ public class DeconViewPSF
 			if ( service == null )
 				throw new RuntimeException( "getKernel2FFT can only be called after calling init().");
 
-			final long[] min = new long[ kernel2.numDimensions() ];
-			final long[] max = new long[ kernel2.numDimensions() ];
-
-			final Pair< Interval, Interval > fftIntervals = FFTConvolution.setupFFTs( new FinalInterval( Util.int2long( blockSize ) ), kernel2, min, max );
-			fftKernel2 = FFTConvolution.computeKernelFFT( fftIntervals.getB(), min, max, false, Views.extendValue( kernel2, new FloatType() ), new ArrayImgFactory< ComplexFloatType >(), service );
+			fftKernel2 = computeKernelFFT( kernel2, blockSize, service );
 		}
 
 		return fftKernel2;
 	}
 
+	/**
+	 * Computes the FFT of a kernel for a certain block size, or takes it from the {@link PSFKernelCache}.
+	 *
+	 * @param kernel - the kernel
+	 * @param blockSize - the block size
+	 * @param service - the executor service
+	 * @return the FFT of the kernel
+	 */
+	public static Img< ComplexFloatType > computeKernelFFT( final ArrayImg< FloatType, ? > kernel, final int[] blockSize, final ExecutorService service )
+	{
+		final String key = PSFKernelCache.defaultUseCache ? new PSFKernelCache.Key( "fft" ).add( blockSize ).add( kernel ).build() : null;
+
+		if ( key != null )
+		{
+			final Img< ComplexFloatType > cached = PSFKernelCache.getFFT( key );
+
+			if ( cached != null )
+				return cached;
+		}
+
+		final long[] min = new long[ kernel.numDimensions() ];
+		final long[] max = new long[ kernel.numDimensions() ];
+
+		final Pair< Interval, Interval > fftIntervals = FFTConvolution.setupFFTs( new FinalInterval( Util.int2long( blockSize ) ), kernel, min, max );
+		final Img< ComplexFloatType > fft = FFTConvolution.computeKernelFFT( fftIntervals.getB(), min, max, false, Views.extendValue( kernel, new FloatType() ), new ArrayImgFactory< ComplexFloatType >(), service );
+
+		if ( key != null )
+			PSFKernelCache.putFFT( key, fft );
+
+		return fft;
+	}
+
 	/**
 	 * Init the PSF, once the Views object contains all views
 	 *
@@ -124,6 +149,41 @@ public class DeconViewPSF
 		// normalize kernel so that sum of all pixels == 1
 		AdjustInput.normToSum1( kernel1 );
 
+		// the compound kernel only depends on the PSF type and the kernels of all views
+		final String key;
+
+		if ( PSFKernelCache.defaultUseCache )
+		{
+			final PSFKernelCache.Key k = new PSFKernelCache.Key( "kernel2" ).add( psfType.name() ).add( views.getViews().size() ).add( kernel1 );
+
+			if ( psfType == PSFTYPE.EFFICIENT_BAYESIAN || psfType == PSFTYPE.OPTIMIZATION_I )
+				for ( final DeconView view : views.getViews() )
+					if ( view.getPSF() != this )
+						k.add( view.getPSF().getKernel1() );
+
+			key = k.build();
+
+			final ArrayImg< FloatType, ? > cached = PSFKernelCache.getKernel( key );
+
+			if ( cached != null )
+			{
+				this.kernel2 = cached;
+				return;
+			}
+		}
+		else
+		{
+			key = null;
+		}
+
+		computeKernel2( views );
+
+		if ( key != null )
+			PSFKernelCache.putKernel( key, kernel2 );
+	}
+
+	protected void computeKernel2( final DeconViews views )
+	{
 		if ( views.getViews().size() == 1 || psfType == PSFTYPE.INDEPENDENT )
 		{
 			// compute the inverted kernel (switch dimensions)
@@ -33,6 +33,7 @@ import ij.ImageStack;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.process.cuda.Block;
@@ -41,6 +42,7 @@ import net.preibisch.mvrecon.process.deconvolution.init.PsiInitFactory;
 import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThread;
 import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThreadFactory;
 import net.preibisch.mvrecon.process.export.DisplayImage;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 {
@@ -204,9 +206,9 @@ public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 	{
 		for ( final Pair< Pair< Integer, Block >, Img< FloatType > > writeBackBlock : blockWritebackQueue )
 		{
-			long time = System.currentTimeMillis();
+			final long time = Metrics.timer( "deconvolution.writeBack" ).start();
 			writeBackBlock.getA().getB().pasteBlock( psi, writeBackBlock.getB() );
-			System.out.println( " block " + writeBackBlock.getA().getA() + ", (CPU): paste " + (System.currentTimeMillis() - time) );
+			Metrics.timer( "deconvolution.writeBack" ).stop( time, Intervals.numElements( writeBackBlock.getA().getB() ) );
 		}
 	}
 }
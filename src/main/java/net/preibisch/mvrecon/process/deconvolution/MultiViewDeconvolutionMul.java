@@ -33,8 +33,8 @@ import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
-import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
@@ -44,6 +44,7 @@ import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThread.
 import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThreadFactory;
 import net.preibisch.mvrecon.process.deconvolution.iteration.mul.ComputeBlockMulThread;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBlockMulThread >
 {
@@ -163,11 +164,10 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 							final int blockIdOut = blockId + numBlocksBefore;
 
 							final Block blockStruct = blocksBatch.get( blockId );
-							System.out.println( " block " + blockIdOut + ", " + Util.printInterval( blockStruct ) );
 
-							long time = System.currentTimeMillis();
+							long time = Metrics.timer( "deconvolution.copy" ).start();
 							blockStruct.copyBlock( Views.extendMirrorSingle( psi ), blockThread.getPsiBlockTmp() );
-							System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): copy " + (System.currentTimeMillis() - time) );
+							Metrics.timer( "deconvolution.copy" ).stop( time, Intervals.numElements( blockStruct ) );
 
 							final List< DeconView > view = new ArrayList<>();
 							final List< RandomAccessibleInterval< FloatType > > imgBlock = new ArrayList<>();
@@ -186,7 +186,7 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 								kernel2.add( views.getViews().get( i ).getPSF().getKernel2() );
 							}
 
-							time = System.currentTimeMillis();
+							time = Metrics.timer( "deconvolution.compute" ).start();
 							stats.add( blockThread.runIteration(
 									view,
 									imgBlock,//imgBlock,
@@ -194,13 +194,13 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 									maxIntensityView,
 									kernel1,
 									kernel2 ) );
-							System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): compute " + (System.currentTimeMillis() - time) );
+							Metrics.timer( "deconvolution.compute" ).stop( time, Intervals.numElements( blockStruct ) );
 
-							time = System.currentTimeMillis();
+							time = Metrics.timer( "deconvolution.paste" ).start();
 							if ( totalNumBlocks == 1 )
 							{
 								blockStruct.pasteBlock( psi, blockThread.getPsiBlockTmp() );
-								System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): paste " + (System.currentTimeMillis() - time) );
+								Metrics.timer( "deconvolution.paste" ).stop( time, Intervals.numElements( blockStruct ) );
 							}
 							else
 							{
@@ -208,8 +208,9 @@ public class MultiViewDeconvolutionMul extends MultiViewDeconvolution< ComputeBl
 								final Img< FloatType > tmp = blockThread.getPsiBlockTmp().factory().create( blockThread.getPsiBlockTmp(), new FloatType() );
 								FusionTools.copyImg( blockThread.getPsiBlockTmp(), tmp, views.getExecutorService(), false );
 								currentBlockWritebackQueue.add( new ValuePair<>( new ValuePair<>( blockIdOut, blockStruct ), tmp ) );
+								Metrics.gauge( "deconvolution.writebackQueue" ).set( currentBlockWritebackQueue.size() );
 
-								System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): saving for later pasting " + (System.currentTimeMillis() - time) );
+								Metrics.timer( "deconvolution.paste" ).stop( time, Intervals.numElements( blockStruct ) );
 							}
 						}
 					}
@@ -30,8 +30,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
-import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
@@ -41,6 +41,7 @@ import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThread.
 import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThreadFactory;
 import net.preibisch.mvrecon.process.deconvolution.iteration.sequential.ComputeBlockSeqThread;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBlockSeqThread >
 {
@@ -109,13 +110,12 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 								final int blockIdOut = blockId + numBlocksBefore;
 
 								final Block blockStruct = blocksBatch.get( blockId );
-								System.out.println( " block " + blockIdOut + ", " + Util.printInterval( blockStruct ) );
 
-								long time = System.currentTimeMillis();
+								long time = Metrics.timer( "deconvolution.copy" ).start();
 								blockStruct.copyBlock( Views.extendMirrorSingle( psi ), blockThread.getPsiBlockTmp() );
-								System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): copy " + (System.currentTimeMillis() - time) );
+								Metrics.timer( "deconvolution.copy" ).stop( time, Intervals.numElements( blockStruct ) );
 
-								time = System.currentTimeMillis();
+								time = Metrics.timer( "deconvolution.compute" ).start();
 								stats.add( blockThread.runIteration(
 										view,
 										blockStruct,
@@ -124,13 +124,13 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 										max[ viewNum ],
 										view.getPSF().getKernel1(),
 										view.getPSF().getKernel2() ) );
-								System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): compute " + (System.currentTimeMillis() - time) );
+								Metrics.timer( "deconvolution.compute" ).stop( time, Intervals.numElements( blockStruct ) );
 	
-								time = System.currentTimeMillis();
+								time = Metrics.timer( "deconvolution.paste" ).start();
 								if ( totalNumBlocks == 1 )
 								{
 									blockStruct.pasteBlock( psi, blockThread.getPsiBlockTmp() );
-									System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): paste " + (System.currentTimeMillis() - time) );
+									Metrics.timer( "deconvolution.paste" ).stop( time, Intervals.numElements( blockStruct ) );
 								}
 								else
 								{
@@ -138,8 +138,9 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 									final Img< FloatType > tmp = blockThread.getPsiBlockTmp().factory().create( blockThread.getPsiBlockTmp(), new FloatType() );
 									FusionTools.copyImg( blockThread.getPsiBlockTmp(), tmp, views.getExecutorService(), false );
 									currentBlockWritebackQueue.add( new ValuePair<>( new ValuePair<>( blockIdOut, blockStruct ), tmp ) );
+									Metrics.gauge( "deconvolution.writebackQueue" ).set( currentBlockWritebackQueue.size() );
 
-									System.out.println( " block " + blockIdOut + ", thread (" + (threadId+1) + "/" + threads.length + "), (CPU): saving for later pasting " + (System.currentTimeMillis() - time) );
+									Metrics.timer( "deconvolution.paste" ).stop( time, Intervals.numElements( blockStruct ) );
 								}
 							}
 						}
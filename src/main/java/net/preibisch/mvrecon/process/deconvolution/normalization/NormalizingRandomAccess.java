@@ -94,18 +94,38 @@ public class NormalizingRandomAccess< T extends RealType< T > > extends Abstract
 			sumW += value;
 		}
 
+		type.setReal( normalize( myValue, sumW, osemspeedup, additionalSmoothBlending, maxDiffRange, scalingRange ) );
+
+		return type;
+	}
+
+	/**
+	 * @param w - the weight of one view (clamped to 1)
+	 * @param sumW - the sum of the (clamped) weights of all views
+	 * @param osemspeedup - the OSEM speedup
+	 * @param additionalSmoothBlending - use smooth instead of hard normalization
+	 * @param maxDiffRange - see {@link #smoothWeights(float, double, float, float)}
+	 * @param scalingRange - see {@link #smoothWeights(float, double, float, float)}
+	 * @return the normalized weight
+	 */
+	final public static double normalize(
+			final float w,
+			final double sumW,
+			final double osemspeedup,
+			final boolean additionalSmoothBlending,
+			final float maxDiffRange,
+			final float scalingRange )
+	{
 		final double v;
 
 		if ( additionalSmoothBlending )
-			v = smoothWeights( myValue, sumW, maxDiffRange, scalingRange );
+			v = smoothWeights( w, sumW, maxDiffRange, scalingRange );
 		else if ( sumW > 1 )
-			v =  hardWeights( myValue, sumW );
+			v =  hardWeights( w, sumW );
 		else
-			v = myValue;
+			v = w;
 
-		type.setReal( Math.min( 1, v * osemspeedup ) ); // individual contribution never higher than 1
-
-		return type;
+		return Math.min( 1, v * osemspeedup ); // individual contribution never higher than 1
 	}
 
 	@Override
@@ -0,0 +1,398 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.deconvolution.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imglib2.Dimensions;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+
+/**
+ * Content-addressed cache for the compound kernels of the deconvolution and the FFTs of the kernels. Entries are
+ * identified by a hash of everything they are computed from (the PSFs, the PSF type, the block size), so deconvolving
+ * many timepoints with the same PSFs computes them only once. Entries are kept in memory (softly referenced) and, if
+ * {@link #defaultUseDiskCache} is set (see Toggle_Performance_Options), also as raw files in a local directory. Files are
+ * memory-mapped when they are reused by another run, but copied into a float[] as the FFT convolution needs ArrayImgs
+ * backed by arrays. The directory is limited to {@link #defaultMaxDiskCacheBytes}, the least recently used
+ * files are deleted first.
+ * <p>
+ * Cached arrays are shared, they must not be modified (the deconvolution only reads kernels and their FFTs).
+ */
+public class PSFKernelCache
+{
+	public static boolean defaultUseCache = true;
+
+	// also keep the entries as files, so other runs (e.g. cluster jobs) can reuse them, see Toggle_Performance_Options
+	public static boolean defaultUseDiskCache = false;
+
+	// if null, [java.io.tmpdir]/multiview-psf-cache is used
+	public static String defaultCacheDirectory = null;
+
+	// maximal size of all files in the cache directory
+	public static long defaultMaxDiskCacheBytes = 1024l * 1024l * 1024l;
+
+	final static int MAGIC = 0x50534643; // "PSFC"
+
+	final static ConcurrentHashMap< String, SoftReference< Entry > > memory = new ConcurrentHashMap<>();
+
+	protected static class Entry
+	{
+		final long[] dim;
+		final float[] data;
+
+		public Entry( final long[] dim, final float[] data )
+		{
+			this.dim = dim;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Incrementally builds the key of a cache entry.
+	 */
+	public static class Key
+	{
+		final MessageDigest md;
+
+		public Key( final String type )
+		{
+			try
+			{
+				md = MessageDigest.getInstance( "SHA-1" );
+			}
+			catch ( final NoSuchAlgorithmException e )
+			{
+				throw new RuntimeException( e );
+			}
+
+			add( type );
+		}
+
+		public Key add( final String s )
+		{
+			md.update( s.getBytes( StandardCharsets.UTF_8 ) );
+			md.update( (byte)0 );
+			return this;
+		}
+
+		public Key add( final long... values )
+		{
+			final ByteBuffer b = ByteBuffer.allocate( 8 * values.length + 4 );
+			b.putInt( values.length );
+			for ( final long v : values )
+				b.putLong( v );
+			md.update( b.array() );
+			return this;
+		}
+
+		public Key add( final int... values )
+		{
+			final long[] l = new long[ values.length ];
+			for ( int i = 0; i < l.length; ++i )
+				l[ i ] = values[ i ];
+			return add( l );
+		}
+
+		public Key add( final ArrayImg< FloatType, ? > kernel )
+		{
+			final long[] dim = new long[ kernel.numDimensions() ];
+			kernel.dimensions( dim );
+			add( dim );
+
+			final float[] data = data( kernel );
+
+			if ( data != null )
+			{
+				final ByteBuffer b = ByteBuffer.allocate( data.length * 4 );
+				b.asFloatBuffer().put( data );
+				md.update( b.array() );
+			}
+			else
+			{
+				final ByteBuffer b = ByteBuffer.allocate( 4 );
+				for ( final FloatType t : kernel )
+				{
+					b.clear();
+					md.update( b.putFloat( t.get() ).array() );
+				}
+			}
+
+			return this;
+		}
+
+		public String build()
+		{
+			final StringBuilder s = new StringBuilder();
+			for ( final byte b : md.digest() )
+				s.append( String.format( "%02x", b ) );
+			return s.toString();
+		}
+	}
+
+	public static File getCacheDirectory()
+	{
+		if ( defaultCacheDirectory == null )
+			return new File( System.getProperty( "java.io.tmpdir" ), "multiview-psf-cache" );
+		else
+			return new File( defaultCacheDirectory );
+	}
+
+	/**
+	 * @param key - the key
+	 * @return the cached kernel or null
+	 */
+	public static ArrayImg< FloatType, FloatArray > getKernel( final String key )
+	{
+		final Entry e = get( key );
+		return e == null ? null : ArrayImgs.floats( e.data, e.dim );
+	}
+
+	/**
+	 * @param key - the key
+	 * @return the cached kernel FFT or null
+	 */
+	public static ArrayImg< ComplexFloatType, FloatArray > getFFT( final String key )
+	{
+		final Entry e = get( key );
+		return e == null ? null : ArrayImgs.complexFloats( e.data, e.dim );
+	}
+
+	public static void putKernel( final String key, final ArrayImg< FloatType, ? > kernel )
+	{
+		put( key, kernel, data( kernel ) );
+	}
+
+	public static void putFFT( final String key, final Img< ComplexFloatType > fft )
+	{
+		if ( fft instanceof ArrayImg && ( (ArrayImg< ?, ? >)fft ).update( null ) instanceof FloatArray )
+			put( key, fft, ( (FloatArray)( (ArrayImg< ?, ? >)fft ).update( null ) ).getCurrentStorageArray() );
+	}
+
+	protected static float[] data( final ArrayImg< FloatType, ? > kernel )
+	{
+		final Object access = kernel.update( null );
+
+		if ( access instanceof FloatArray )
+			return ( (FloatArray)access ).getCurrentStorageArray();
+		else
+			return null;
+	}
+
+	protected static Entry get( final String key )
+	{
+		final SoftReference< Entry > ref = memory.get( key );
+		Entry e = ref == null ? null : ref.get();
+
+		if ( e != null )
+		{
+			Metrics.counter( "deconvolution.psfcache.memoryHits" ).inc();
+			return e;
+		}
+
+		final File file = new File( getCacheDirectory(), key + ".psf" );
+
+		if ( !defaultUseDiskCache || !file.exists() )
+		{
+			Metrics.counter( "deconvolution.psfcache.misses" ).inc();
+			return null;
+		}
+
+		try ( final RandomAccessFile raf = new RandomAccessFile( file, "r" ); final FileChannel channel = raf.getChannel() )
+		{
+			final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+			buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+			if ( buffer.getInt() != MAGIC )
+				throw new IOException( "not a PSF cache file" );
+
+			final long[] dim = new long[ buffer.getInt() ];
+			long size = 1;
+
+			for ( int d = 0; d < dim.length; ++d )
+				size *= ( dim[ d ] = buffer.getLong() );
+
+			final float[] data = new float[ buffer.getInt() ];
+
+			// complex types store two floats per pixel
+			if ( data.length != size && data.length != size * 2 )
+				throw new IOException( "inconsistent PSF cache file" );
+
+			buffer.asFloatBuffer().get( data );
+
+			e = new Entry( dim, data );
+			memory.put( key, new SoftReference<>( e ) );
+
+			// the modification time is the last use for the LRU eviction
+			file.setLastModified( System.currentTimeMillis() );
+
+			Metrics.counter( "deconvolution.psfcache.diskHits" ).inc();
+
+			return e;
+		}
+		catch ( final Exception ex )
+		{
+			IOFunctions.println( "Could not read cached PSF kernel '" + file + "': " + ex + ", recomputing." );
+			file.delete();
+			return null;
+		}
+	}
+
+	protected static void put( final String key, final Dimensions img, final float[] data )
+	{
+		if ( data == null )
+			return;
+
+		final long[] dim = new long[ img.numDimensions() ];
+		img.dimensions( dim );
+
+		memory.put( key, new SoftReference<>( new Entry( dim, data ) ) );
+
+		if ( !defaultUseDiskCache )
+			return;
+
+		final File dir = getCacheDirectory();
+		final File file = new File( dir, key + ".psf" );
+
+		if ( file.exists() )
+			return;
+
+		if ( !dir.exists() && !dir.mkdirs() && !dir.exists() )
+		{
+			IOFunctions.println( "Could not create PSF cache directory '" + dir + "'." );
+			return;
+		}
+
+		// write to a temporary file first, other processes (e.g. cluster jobs) might read the same entry
+		final File tmp = new File( dir, key + "." + Thread.currentThread().getId() + "." + System.nanoTime() + ".tmp" );
+
+		try
+		{
+			try ( final RandomAccessFile raf = new RandomAccessFile( tmp, "rw" ); final FileChannel channel = raf.getChannel() )
+			{
+				final ByteBuffer buffer = ByteBuffer.allocate( 4 + 4 + dim.length * 8 + 4 + data.length * 4 );
+				buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+				buffer.putInt( MAGIC );
+				buffer.putInt( dim.length );
+				for ( final long d : dim )
+					buffer.putLong( d );
+				buffer.putInt( data.length );
+				buffer.asFloatBuffer().put( data );
+				buffer.rewind();
+
+				while ( buffer.hasRemaining() )
+					channel.write( buffer );
+			}
+
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "Could not write cached PSF kernel '" + file + "': " + e );
+			tmp.delete();
+		}
+
+		evict( dir, defaultMaxDiskCacheBytes );
+	}
+
+	/**
+	 * Deletes the least recently used files until the cache directory is not larger than maxBytes.
+	 *
+	 * @param dir - the cache directory
+	 * @param maxBytes - the maximal size
+	 */
+	protected static synchronized void evict( final File dir, final long maxBytes )
+	{
+		final File[] files = dir.listFiles( ( d, name ) -> name.endsWith( ".psf" ) );
+
+		if ( files == null )
+			return;
+
+		long size = 0;
+		for ( final File file : files )
+			size += file.length();
+
+		if ( size <= maxBytes )
+			return;
+
+		// the modification time does not change while sorting
+		final long[] lastUsed = new long[ files.length ];
+		final Integer[] order = new Integer[ files.length ];
+
+		for ( int i = 0; i < files.length; ++i )
+		{
+			lastUsed[ i ] = files[ i ].lastModified();
+			order[ i ] = i;
+		}
+
+		Arrays.sort( order, Comparator.comparingLong( i -> lastUsed[ i ] ) );
+
+		for ( int i = 0; i < order.length && size > maxBytes; ++i )
+		{
+			final File file = files[ order[ i ] ];
+			final long length = file.length();
+
+			if ( file.delete() )
+			{
+				size -= length;
+				Metrics.counter( "deconvolution.psfcache.evictions" ).inc();
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries from memory and disk.
+	 */
+	public static void clear()
+	{
+		memory.clear();
+
+		final File[] files = getCacheDirectory().listFiles( ( dir, name ) -> name.endsWith( ".psf" ) );
+
+		if ( files != null )
+			for ( final File file : files )
+				file.delete();
+	}
+}
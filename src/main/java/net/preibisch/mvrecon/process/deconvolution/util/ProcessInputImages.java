@@ -28,7 +28,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import bdv.util.ConstantRandomAccessible;
 import mpicbg.models.AffineModel1D;
@@ -39,6 +41,7 @@ import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
@@ -47,11 +50,13 @@ import net.imglib2.img.ImgFactory;
 import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.process.deconvolution.MultiViewDeconvolution;
+import net.preibisch.mvrecon.process.deconvolution.normalization.NormalizingRandomAccess;
 import net.preibisch.mvrecon.process.deconvolution.normalization.NormalizingRandomAccessibleInterval;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.intensityadjust.IntensityAdjuster;
@@ -63,9 +68,13 @@ import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.Combin
 import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.CombineWeightsRandomAccessibleInterval.CombineType;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 public class ProcessInputImages< V extends ViewId >
 {
+	// precompute images and normalized weights of all groups in one pass (see precomputeGroups)
+	public static boolean defaultSinglePass = true;
+
 	final AbstractSpimData< ? extends AbstractSequenceDescription< ? extends BasicViewSetup, ? extends BasicViewDescription< ? >, ? extends BasicImgLoader > > spimData;
 	final ArrayList< Group< V > > groups;
 	final Interval bb;
@@ -183,6 +192,43 @@ public class ProcessInputImages< V extends ViewId >
 	public void copyNormalizedWeights( final ImgFactory< FloatType > imgFactory ) { copyRandomAccessibleInterval( groups, service, imgFactory, normalizedWeights ); }
 	public void copyNormalizedWeights() { copyNormalizedWeights( new CellImgFactory<>( MultiViewDeconvolution.cellDim ) ); }
 
+	/**
+	 * Precomputes the normalized weights (and optionally the fused images) of all groups in a single pass instead of calling
+	 * {@link #normalizeWeights(double, boolean, float, float)}, {@link #copyImages(ImgFactory)} and {@link #copyNormalizedWeights(ImgFactory)}
+	 * one after the other. Call {@link #fuseGroups()} first.
+	 *
+	 * @param copyImages - precompute the fused images as well
+	 * @param imgFactory - the factory for the precomputed images (the layout the deconvolution reads)
+	 * @param brickSize - the size of the bricks that are processed in parallel, should be a multiple of the cell size of the factory
+	 * @param osemspeedup - the OSEM speedup
+	 * @param additionalSmoothBlending - use smooth normalization
+	 * @param maxDiffRange - see {@link NormalizingRandomAccess#smoothWeights(float, double, float, float)}
+	 * @param scalingRange - see {@link NormalizingRandomAccess#smoothWeights(float, double, float, float)}
+	 */
+	public void precomputeGroups(
+			final boolean copyImages,
+			final ImgFactory< FloatType > imgFactory,
+			final int[] brickSize,
+			final double osemspeedup,
+			final boolean additionalSmoothBlending,
+			final float maxDiffRange,
+			final float scalingRange )
+	{
+		precomputeGroups(
+				groups,
+				images,
+				unnormalizedWeights,
+				normalizedWeights,
+				copyImages,
+				imgFactory,
+				brickSize,
+				service,
+				osemspeedup,
+				additionalSmoothBlending,
+				maxDiffRange,
+				scalingRange );
+	}
+
 	public void normalizeWeights() { normalizeWeights( 1.0 ); }
 	public void normalizeWeights( final double osemspeedup )
 	{
@@ -244,6 +290,136 @@ public class ProcessInputImages< V extends ViewId >
 		return normalizedWeights;
 	}
 
+	/**
+	 * Materializes the fused images (optional) and normalized weights of all groups brick by brick in parallel. For every brick
+	 * all groups are computed at once, so the sum of the weights that is required for the normalization is computed in the
+	 * same traversal and the unnormalized weights do not need to be cached or computed twice.
+	 *
+	 * @param groups - the groups
+	 * @param images - the (virtual) fused images, replaced by the precomputed ones if copyImages == true
+	 * @param unnormalizedWeights - the (virtual) unnormalized weights
+	 * @param normalizedWeights - the precomputed normalized weights are put here
+	 * @param copyImages - precompute the fused images as well
+	 * @param factory - the factory for the precomputed images
+	 * @param brickSize - the size of the bricks
+	 * @param service - the executor service
+	 * @param osemspeedup - the OSEM speedup
+	 * @param additionalSmoothBlending - use smooth normalization
+	 * @param maxDiffRange - see {@link NormalizingRandomAccess#smoothWeights(float, double, float, float)}
+	 * @param scalingRange - see {@link NormalizingRandomAccess#smoothWeights(float, double, float, float)}
+	 * @param <V> - view id type
+	 */
+	public static < V extends ViewId > void precomputeGroups(
+			final List< Group< V > > groups,
+			final HashMap< Group< V >, RandomAccessibleInterval< FloatType > > images,
+			final HashMap< Group< V >, RandomAccessibleInterval< FloatType > > unnormalizedWeights,
+			final HashMap< Group< V >, RandomAccessibleInterval< FloatType > > normalizedWeights,
+			final boolean copyImages,
+			final ImgFactory< FloatType > factory,
+			final int[] brickSize,
+			final ExecutorService service,
+			final double osemspeedup,
+			final boolean additionalSmoothBlending,
+			final float maxDiffRange,
+			final float scalingRange )
+	{
+		final int numGroups = groups.size();
+
+		if ( numGroups == 0 )
+			return;
+
+		final long time = Metrics.timer( "deconvolution.prepareInput" ).start();
+
+		final long[] dim = new long[ unnormalizedWeights.get( groups.get( 0 ) ).numDimensions() ];
+		unnormalizedWeights.get( groups.get( 0 ) ).dimensions( dim );
+
+		final ArrayList< RandomAccessibleInterval< FloatType > > inImgs = new ArrayList<>();
+		final ArrayList< RandomAccessibleInterval< FloatType > > inWeights = new ArrayList<>();
+		final ArrayList< RandomAccessibleInterval< FloatType > > outImgs = new ArrayList<>();
+		final ArrayList< RandomAccessibleInterval< FloatType > > outWeights = new ArrayList<>();
+
+		for ( final Group< V > group : groups )
+		{
+			inWeights.add( Views.zeroMin( unnormalizedWeights.get( group ) ) );
+			outWeights.add( factory.create( dim, new FloatType() ) );
+
+			if ( copyImages )
+			{
+				inImgs.add( Views.zeroMin( images.get( group ) ) );
+				outImgs.add( factory.create( dim, new FloatType() ) );
+			}
+		}
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final Interval brick : FusionTools.divideIntoBricks( new FinalInterval( dim ), brickSize ) )
+		{
+			tasks.add( () ->
+			{
+				final int n = (int)Intervals.numElements( brick );
+				final double[] sumW = new double[ n ];
+
+				for ( int g = 0; g < numGroups; ++g )
+				{
+					if ( copyImages )
+					{
+						final Cursor< FloatType > in = Views.flatIterable( Views.interval( inImgs.get( g ), brick ) ).cursor();
+						final Cursor< FloatType > out = Views.flatIterable( Views.interval( outImgs.get( g ), brick ) ).cursor();
+
+						for ( int i = 0; i < n; ++i )
+							out.next().set( in.next() );
+					}
+
+					// if the weight is bigger than 1 it doesn't matter since it is just the fusion
+					// of more than one input images from the same group
+					final Cursor< FloatType > in = Views.flatIterable( Views.interval( inWeights.get( g ), brick ) ).cursor();
+					final Cursor< FloatType > out = Views.flatIterable( Views.interval( outWeights.get( g ), brick ) ).cursor();
+
+					for ( int i = 0; i < n; ++i )
+					{
+						final float w = Math.min( 1.0f, in.next().get() );
+						out.next().set( w );
+						sumW[ i ] += w;
+					}
+				}
+
+				// normalize the weights of this brick in place (sum == 1) and apply osem-speedup if wanted
+				for ( int g = 0; g < numGroups; ++g )
+				{
+					final Cursor< FloatType > c = Views.flatIterable( Views.interval( outWeights.get( g ), brick ) ).cursor();
+
+					for ( int i = 0; i < n; ++i )
+					{
+						final FloatType t = c.next();
+						t.setReal( NormalizingRandomAccess.normalize( t.get(), sumW[ i ], osemspeedup, additionalSmoothBlending, maxDiffRange, scalingRange ) );
+					}
+				}
+
+				return null;
+			} );
+		}
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( "Failed to precompute input images and weights: " + e, e );
+		}
+
+		for ( int g = 0; g < numGroups; ++g )
+		{
+			normalizedWeights.put( groups.get( g ), outWeights.get( g ) );
+
+			if ( copyImages )
+				images.put( groups.get( g ), outImgs.get( g ) );
+		}
+
+		Metrics.timer( "deconvolution.prepareInput" ).stop( time, Intervals.numElements( dim ) * numGroups );
+	}
+
 	public static < V extends ViewId > void cacheRandomAccessibleInterval(
 			final Collection< Group< V > > groups,
 			final int cellDim,
@@ -55,6 +55,7 @@ import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.AbstractImgLoader;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
 import util.ImgLib2Tools;
 
 public class DownsampleTools
@@ -564,7 +565,7 @@ public class DownsampleTools
 			mipMapTransform.concatenate( additonalDS );
 		}
 
-		if ( !transformOnly )
+		if ( !transformOnly && ( dsx > 1 || dsy > 1 || dsz > 1 ) )
 		{
 			ImgFactory  f = null;
 
@@ -584,20 +585,39 @@ public class DownsampleTools
 				f = new CellImgFactory( t );
 			}
 
-			// note: every pixel is read exactly once, therefore caching the virtual input would not give any advantages
-			for ( ;dsx > 1; dsx /= 2 )
-				input = Downsample.simple2x( input, f, new boolean[]{ true, false, false }, service );
-
-			for ( ;dsy > 1; dsy /= 2 )
-				input = Downsample.simple2x( input, f, new boolean[]{ false, true, false }, service );
-
-			for ( ;dsz > 1; dsz /= 2 )
-				input = Downsample.simple2x( input, f, new boolean[]{ false, false, true }, service );
+			input = downsampleLazy( input, new long[]{ dsx, dsy, dsz }, f, openCompletely, service );
 		}
 
 		return input;
 	}
 
+	/**
+	 * Downsamples lazily, every output cell is computed in one pass directly from the input when it is first accessed (see {@link LazyDownsample})
+	 *
+	 * @param input - the input
+	 * @param downsampleFactors - powers of 2
+	 * @param factory - the factory to copy the result into if openCompletely
+	 * @param openCompletely - whether to compute the entire image (only required by legacy ImgLib1 code!!!)
+	 * @param service - the ExecutorService for copying
+	 * @param <T> - the type
+	 * @return the downsampled image
+	 */
+	protected static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > downsampleLazy(
+			final RandomAccessibleInterval< T > input,
+			final long[] downsampleFactors,
+			final ImgFactory< T > factory,
+			final boolean openCompletely,
+			final ExecutorService service )
+	{
+		final T type = Util.getTypeFromInterval( input );
+		final RandomAccessibleInterval< T > downsampled = LazyDownsample.downsample( input, downsampleFactors, type );
+
+		if ( openCompletely )
+			return FusionTools.copyImgNoTranslation( downsampled, factory, type, service );
+		else
+			return downsampled;
+	}
+
 	// TODO: REMOVE IMGLIB1 stuff!!
 	// required by legacy code that wraps to imglib1
 	public static Img<FloatType> openCompletely( final MultiResolutionSetupImgLoader< ? > loader, final int timepointId, final int level, final boolean openAsFloat, final boolean normalize )
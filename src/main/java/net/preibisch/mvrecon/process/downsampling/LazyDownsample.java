@@ -0,0 +1,321 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.downsampling;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Lazy, cell-cached version of repeatedly calling {@link Downsample#simple2x(RandomAccessibleInterval, net.imglib2.img.ImgFactory, boolean[], java.util.concurrent.ExecutorService)}.
+ * The successive 2x steps of each dimension (including their border handling) are combined into one linear filter per
+ * dimension, every output cell is computed directly from the corresponding input block with one separable pass,
+ * no intermediate images are created. The input block is read one plane (along the last dimension) at a time and
+ * filtered in all other dimensions right away, so only the partially filtered block is kept in memory, not the
+ * input block (which grows with the n-th power of the downsampling factor).
+ */
+public class LazyDownsample
+{
+	public static int[] defaultCellDimensions = new int[]{ 64, 64, 64 };
+
+	/**
+	 * The combined 1d filter of several 2x downsampling steps: output pixel o is the sum of weights[ o ][ j ] * input[ start[ o ] + j ]
+	 */
+	public static class Filter1D
+	{
+		final int[] start;
+		final double[][] weights;
+
+		protected Filter1D( final int[] start, final double[][] weights )
+		{
+			this.start = start;
+			this.weights = weights;
+		}
+
+		public int outputSize() { return start.length; }
+
+		/**
+		 * The identity for a given size
+		 *
+		 * @param size - size of the input
+		 */
+		public Filter1D( final long size )
+		{
+			this.start = new int[ (int)size ];
+			this.weights = new double[ (int)size ][];
+
+			for ( int o = 0; o < size; ++o )
+			{
+				start[ o ] = o;
+				weights[ o ] = new double[]{ 1.0 };
+			}
+		}
+
+		/**
+		 * @return this filter followed by one 2x downsampling step as in {@link Downsample#simple2x(RandomAccessibleInterval, RandomAccessibleInterval, int, java.util.concurrent.ExecutorService)}
+		 */
+		public Filter1D downsample2x()
+		{
+			final int size = outputSize() / 2;
+			final int[] s = new int[ size ];
+			final double[][] w = new double[ size ][];
+
+			for ( int o = 0; o < size; ++o )
+			{
+				if ( o == 0 )
+					combine( o, s, w, new int[]{ 0, 1 }, new double[]{ 1.0 / 1.5, 0.5 / 1.5 } );
+				else if ( o == size - 1 )
+					combine( o, s, w, new int[]{ 2 * o - 1, 2 * o }, new double[]{ 0.5 / 1.5, 1.0 / 1.5 } );
+				else
+					combine( o, s, w, new int[]{ 2 * o - 1, 2 * o, 2 * o + 1 }, new double[]{ 0.25, 0.5, 0.25 } );
+			}
+
+			return new Filter1D( s, w );
+		}
+
+		// output o of the new filter is the sum of c[ k ] * (row i[ k ] of this filter)
+		protected void combine( final int o, final int[] s, final double[][] w, final int[] i, final double[] c )
+		{
+			int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+
+			for ( final int r : i )
+			{
+				min = Math.min( min, start[ r ] );
+				max = Math.max( max, start[ r ] + weights[ r ].length );
+			}
+
+			s[ o ] = min;
+			w[ o ] = new double[ max - min ];
+
+			for ( int k = 0; k < i.length; ++k )
+				for ( int j = 0; j < weights[ i[ k ] ].length; ++j )
+					w[ o ][ start[ i[ k ] ] - min + j ] += c[ k ] * weights[ i[ k ] ][ j ];
+		}
+	}
+
+	/**
+	 * @param input - the input image
+	 * @param downsampleFactors - the downsampling per dimension, powers of 2
+	 * @param type - the type of the output
+	 * @param cellDim - the cell size of the output
+	 * @param <T> - the type
+	 * @return a lazily computed, cell-cached, zero-min downsampled image
+	 */
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > downsample(
+			final RandomAccessibleInterval< T > input,
+			final long[] downsampleFactors,
+			final T type,
+			final int... cellDim )
+	{
+		final int n = input.numDimensions();
+		final RandomAccessibleInterval< T > in = Views.zeroMin( input );
+
+		final Filter1D[] filters = new Filter1D[ n ];
+		final long[] dim = new long[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			filters[ d ] = new Filter1D( in.dimension( d ) );
+
+			for ( long ds = d < downsampleFactors.length ? downsampleFactors[ d ] : 1; ds > 1; ds /= 2 )
+				filters[ d ] = filters[ d ].downsample2x();
+
+			dim[ d ] = filters[ d ].outputSize();
+		}
+
+		final ReadOnlyCachedCellImgOptions options =
+				new ReadOnlyCachedCellImgOptions().cellDimensions( Arrays.copyOf( cellDim, n ) ).cacheType( CacheType.SOFTREF );
+
+		final CellLoader< T > loader = new CellLoader< T >()
+		{
+			@Override
+			public void load( final SingleCellArrayImg< T, ? > cell ) throws Exception
+			{
+				downsampleBlock( in, filters, cell );
+			}
+		};
+
+		return new ReadOnlyCachedCellImgFactory( options ).create( dim, type, loader );
+	}
+
+	/**
+	 * @param input - the input image
+	 * @param downsampleFactors - the downsampling per dimension, powers of 2
+	 * @param type - the type of the output
+	 * @param <T> - the type
+	 * @return a lazily computed, cell-cached, zero-min downsampled image
+	 */
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > downsample(
+			final RandomAccessibleInterval< T > input,
+			final long[] downsampleFactors,
+			final T type )
+	{
+		final int[] cellDim = new int[ input.numDimensions() ];
+
+		for ( int d = 0; d < cellDim.length; ++d )
+			cellDim[ d ] = defaultCellDimensions[ Math.min( d, defaultCellDimensions.length - 1 ) ];
+
+		return downsample( input, downsampleFactors, type, cellDim );
+	}
+
+	/*
+	 * Reads the input block that contributes to the output interval plane by plane (along the last dimension), filters
+	 * each plane in all other dimensions and finally filters the stack of partially filtered planes in the last dimension
+	 */
+	protected static < T extends RealType< T > > void downsampleBlock(
+			final RandomAccessibleInterval< T > input,
+			final Filter1D[] filters,
+			final RandomAccessibleInterval< T > output )
+	{
+		final int n = input.numDimensions();
+		final int last = n - 1;
+
+		final long[] blockMin = new long[ n ];
+		final long[] blockMax = new long[ n ];
+		final int[] size = new int[ n ];
+		final int[] outSize = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			final Filter1D f = filters[ d ];
+			final int first = (int)output.min( d );
+			final int lastOut = (int)output.max( d );
+
+			blockMin[ d ] = f.start[ first ];
+			blockMax[ d ] = blockMin[ d ];
+
+			for ( int o = first; o <= lastOut; ++o )
+			{
+				blockMin[ d ] = Math.min( blockMin[ d ], f.start[ o ] );
+				blockMax[ d ] = Math.max( blockMax[ d ], f.start[ o ] + f.weights[ o ].length - 1 );
+			}
+
+			size[ d ] = (int)( blockMax[ d ] - blockMin[ d ] + 1 );
+			outSize[ d ] = (int)output.dimension( d );
+		}
+
+		// one input plane, and the same plane filtered in all but the last dimension
+		final int[] planeSize = size.clone();
+		planeSize[ last ] = 1;
+
+		final int[] filteredPlaneSize = outSize.clone();
+		filteredPlaneSize[ last ] = 1;
+		final int filteredPlaneElements = numElements( filteredPlaneSize );
+
+		final float[] plane = new float[ numElements( planeSize ) ];
+
+		// all planes filtered in all but the last dimension
+		final int[] partialSize = outSize.clone();
+		partialSize[ last ] = size[ last ];
+		final float[] partial = new float[ numElements( partialSize ) ];
+
+		final long[] planeMin = blockMin.clone();
+		final long[] planeMax = blockMax.clone();
+
+		for ( int z = 0; z < size[ last ]; ++z )
+		{
+			planeMin[ last ] = planeMax[ last ] = blockMin[ last ] + z;
+
+			final Cursor< T > inCursor = Views.flatIterable( Views.interval( input, new FinalInterval( planeMin, planeMax ) ) ).cursor();
+
+			for ( int i = 0; i < plane.length; ++i )
+				plane[ i ] = inCursor.next().getRealFloat();
+
+			final int[] s = planeSize.clone();
+			float[] data = plane;
+
+			for ( int d = 0; d < last; ++d )
+				data = filter( data, s, d, filters[ d ], (int)output.min( d ), outSize[ d ], blockMin[ d ] );
+
+			System.arraycopy( data, 0, partial, z * filteredPlaneElements, filteredPlaneElements );
+		}
+
+		final float[] data = filter( partial, partialSize, last, filters[ last ], (int)output.min( last ), outSize[ last ], blockMin[ last ] );
+
+		final Cursor< T > outCursor = Views.flatIterable( output ).cursor();
+
+		for ( int i = 0; i < data.length; ++i )
+			outCursor.next().setReal( data[ i ] );
+	}
+
+	/*
+	 * Applies the filter to dimension d of data (with the given size, size[ d ] is set to the output size)
+	 */
+	protected static float[] filter(
+			final float[] data,
+			final int[] size,
+			final int d,
+			final Filter1D f,
+			final int first,
+			final int outSize,
+			final long blockMin )
+	{
+		int inner = 1;
+		for ( int e = 0; e < d; ++e )
+			inner *= size[ e ];
+
+		final int outer = data.length / ( inner * size[ d ] );
+		final float[] filtered = new float[ outer * outSize * inner ];
+
+		for ( int o = 0; o < outer; ++o )
+			for ( int k = 0; k < outSize; ++k )
+			{
+				final double[] w = f.weights[ first + k ];
+				final int s = (int)( f.start[ first + k ] - blockMin );
+				final int target = ( o * outSize + k ) * inner;
+
+				for ( int j = 0; j < w.length; ++j )
+				{
+					final float wj = (float)w[ j ];
+					final int source = ( o * size[ d ] + s + j ) * inner;
+
+					for ( int i = 0; i < inner; ++i )
+						filtered[ target + i ] += wj * data[ source + i ];
+				}
+			}
+
+		size[ d ] = outSize;
+
+		return filtered;
+	}
+
+	protected static int numElements( final int[] size )
+	{
+		int num = 1;
+
+		for ( final int s : size )
+			num *= s;
+
+		return num;
+	}
+}
@@ -50,6 +50,7 @@ import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.RealUnsignedShortConverter;
 import net.imglib2.converter.read.ConvertedRandomAccessibleInterval;
+import net.imglib2.img.Img;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
@@ -73,6 +74,7 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+import net.preibisch.mvrecon.process.fusion.FusionStatistics;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
@@ -235,9 +237,19 @@ public class ExportSpimData2HDF5 implements ImgExport
 
 		if ( params == null || params.getConvertChoice() == 0 || Double.isNaN( params.getMin() ) || Double.isNaN( params.getMin() ) )
 		{
-			final float[] minmax = FusionTools.minMax( img );
-			min = minmax[ 0 ];
-			max = minmax[ 1 ];
+			// do not compute a virtual (e.g. fused) image twice, estimate from a sparse sample and clamp during conversion
+			if ( Img.class.isInstance( img ) )
+			{
+				final float[] minmax = FusionTools.minMax( img );
+				min = minmax[ 0 ];
+				max = minmax[ 1 ];
+			}
+			else
+			{
+				final double[] minmax = FusionStatistics.estimate( img ).getEstimatedMinMax();
+				min = minmax[ 0 ];
+				max = minmax[ 1 ];
+			}
 
 			min = Math.max( 0, min - ((min+max)/2.0) * 0.1 );
 			max = max + ((min+max)/2.0) * 0.1;
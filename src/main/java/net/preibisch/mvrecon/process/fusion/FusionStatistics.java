@@ -0,0 +1,246 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * Collects intensity statistics (min, max, streaming histogram, percentiles) of a fused image while it is computed,
+ * e.g. by the cell loader of {@link FusionTools#cacheRandomAccessibleInterval(RandomAccessibleInterval, long, net.imglib2.type.NativeType, FusionStatistics, int...)},
+ * so the fused image does not need to be evaluated a second time just to determine its intensity range.
+ * <p>
+ * The histogram covers a range that is estimated beforehand from a sparse sample of the image, values outside that
+ * range are counted separately (min and max are always exact).
+ */
+public class FusionStatistics
+{
+	public static int defaultNumBins = 4096;
+	public static int defaultNumSamples = 100000;
+
+	final double lo, hi, binSize;
+	final long[] histogram;
+	long underflow = 0, overflow = 0, count = 0;
+	double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+
+	// blocks that were already recorded (cells can be evicted and loaded again)
+	final Set< String > recordedBlocks = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param lo - lower bound of the histogram
+	 * @param hi - upper bound of the histogram
+	 * @param numBins - number of bins
+	 */
+	public FusionStatistics( final double lo, final double hi, final int numBins )
+	{
+		this.lo = lo;
+		this.hi = hi > lo ? hi : lo + 1;
+		this.histogram = new long[ numBins ];
+		this.binSize = ( this.hi - this.lo ) / numBins;
+	}
+
+	/**
+	 * Estimates the range of the histogram from a sparse sample (see {@link FusionTools#minMaxApprox(RandomAccessibleInterval, int)}),
+	 * this does not compute the whole image.
+	 *
+	 * @param img - the (virtual) image
+	 * @param <T> - pixel type
+	 * @return new, empty statistics
+	 */
+	public static < T extends RealType< T > > FusionStatistics estimate( final RandomAccessibleInterval< T > img )
+	{
+		final double[] minmax = FusionTools.minMaxApprox( img, defaultNumSamples );
+		return new FusionStatistics( minmax[ 0 ], minmax[ 1 ], defaultNumBins );
+	}
+
+	/**
+	 * @return the range estimated before the image was computed (the histogram range)
+	 */
+	public double[] getEstimatedMinMax() { return new double[]{ lo, hi }; }
+
+	/**
+	 * Records a block of the image once, calling it again for the same block (e.g. a reloaded cell) does nothing.
+	 *
+	 * @param block - the block
+	 * @param <T> - pixel type
+	 */
+	public < T extends RealType< T > > void addBlock( final RandomAccessibleInterval< T > block )
+	{
+		final long[] min = new long[ block.numDimensions() ];
+		block.min( min );
+
+		if ( recordedBlocks.add( Arrays.toString( min ) ) )
+			add( Views.flatIterable( block ) );
+	}
+
+	/**
+	 * Records all values, thread-safe.
+	 *
+	 * @param values - the values
+	 * @param <T> - pixel type
+	 */
+	public < T extends RealType< T > > void add( final Iterable< T > values )
+	{
+		final long[] h = new long[ histogram.length ];
+		long under = 0, over = 0, n = 0;
+		double mi = Double.MAX_VALUE, ma = -Double.MAX_VALUE;
+
+		for ( final T t : values )
+		{
+			final double v = t.getRealDouble();
+
+			mi = Math.min( mi, v );
+			ma = Math.max( ma, v );
+			++n;
+
+			if ( v < lo )
+				++under;
+			else if ( v > hi )
+				++over;
+			else
+				++h[ Math.min( h.length - 1, (int)( ( v - lo ) / binSize ) ) ];
+		}
+
+		synchronized ( this )
+		{
+			for ( int i = 0; i < h.length; ++i )
+				histogram[ i ] += h[ i ];
+
+			underflow += under;
+			overflow += over;
+			count += n;
+			min = Math.min( min, mi );
+			max = Math.max( max, ma );
+		}
+	}
+
+	/**
+	 * Records a computed (e.g. precomputed, in-memory) image in parallel.
+	 *
+	 * @param img - the image
+	 * @param service - the executor service
+	 * @param <T> - pixel type
+	 */
+	public < T extends RealType< T > > void addAll( final RandomAccessibleInterval< T > img, final ExecutorService service )
+	{
+		final IterableInterval< T > iterable = Views.iterable( img );
+		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( iterable.size() );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final ImagePortion portion : portions )
+		{
+			tasks.add( () ->
+			{
+				final Cursor< T > c = iterable.cursor();
+				c.jumpFwd( portion.getStartPosition() );
+
+				add( () -> new Iterator< T >()
+				{
+					long j = 0;
+
+					@Override
+					public boolean hasNext() { return j < portion.getLoopSize(); }
+
+					@Override
+					public T next() { ++j; return c.next(); }
+				} );
+
+				return null;
+			} );
+		}
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to compute intensity statistics: " + e );
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized long getCount() { return count; }
+	public synchronized double getMin() { return min; }
+	public synchronized double getMax() { return max; }
+	public synchronized double[] getMinMax() { return new double[]{ min, max }; }
+
+	/**
+	 * @return number of values outside of the estimated range
+	 */
+	public synchronized long getNumOutsideEstimate() { return underflow + overflow; }
+
+	/**
+	 * @return a copy of the histogram over the estimated range
+	 */
+	public synchronized long[] getHistogram() { return histogram.clone(); }
+
+	/**
+	 * @param p - the percentile [0...100]
+	 * @return the approximate value of the percentile (precision is one bin), NaN if nothing was recorded
+	 */
+	public synchronized double getPercentile( final double p )
+	{
+		if ( count == 0 )
+			return Double.NaN;
+
+		final double target = Math.max( 0, Math.min( 1, p / 100.0 ) ) * count;
+
+		long cumulative = underflow;
+
+		if ( cumulative >= target && underflow > 0 )
+			return min;
+
+		for ( int i = 0; i < histogram.length; ++i )
+		{
+			cumulative += histogram[ i ];
+
+			if ( cumulative >= target )
+				return Math.min( max, Math.max( min, lo + ( i + 1 ) * binSize ) );
+		}
+
+		return max;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "min=" + min + ", max=" + max + ", 0.1%=" + getPercentile( 0.1 ) + ", 99.9%=" + getPercentile( 99.9 ) + ", #values=" + count +
+				", #outside estimate [" + lo + ", " + hi + "]=" + getNumOutsideEstimate();
+	}
+}
@@ -80,6 +80,7 @@ import net.imglib2.type.Type;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.complex.ComplexFloatType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.RealSum;
 import net.imglib2.util.Util;
@@ -102,6 +103,7 @@ import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.Combin
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 public class FusionTools
 {
@@ -114,6 +116,13 @@ public class FusionTools
 	public static double defaultContentBasedSigma1 = 20;
 	public static double defaultContentBasedSigma2 = 40;
 
+	// compute content-based weights lazily and cell by cell instead of with two full-size FFT convolutions
+	public static boolean defaultLazyContentBased = true;
+
+	// copy/min-max of virtual 3d images in bricks (scheduled in Morton order) instead of flat portions of the image
+	public static boolean defaultBrickTraversal = true;
+	public static int[] defaultBrickSize = new int[]{ 64, 64, 64 };
+
 	public static long numPixels( final Interval bb, final double downsampling )
 	{
 		final long[] min = new long[ bb.numDimensions() ];
@@ -271,6 +280,20 @@ public class FusionTools
 			final Interval boundingBox,
 			final double downsampling,
 			final Map< ? extends ViewId, AffineModel1D > intensityAdjustments )
+	{
+		return fuseVirtual( spimData, views, useBlending, useContentBased, interpolation, boundingBox, downsampling, intensityAdjustments, null );
+	}
+
+	public static Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > fuseVirtual(
+			final AbstractSpimData< ? > spimData,
+			final Collection< ? extends ViewId > views,
+			final boolean useBlending,
+			final boolean useContentBased,
+			final int interpolation,
+			final Interval boundingBox,
+			final double downsampling,
+			final Map< ? extends ViewId, AffineModel1D > intensityAdjustments,
+			final ExecutorService service )
 	{
 		final BasicImgLoader imgLoader = spimData.getSequenceDescription().getImgLoader();
 
@@ -285,7 +308,7 @@ public class FusionTools
 
 		final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions = spimData.getSequenceDescription().getViewDescriptions();
 
-		return fuseVirtual( imgLoader, registrations, viewDescriptions, views, useBlending, useContentBased, interpolation, boundingBox, downsampling, intensityAdjustments );
+		return fuseVirtual( imgLoader, registrations, viewDescriptions, views, useBlending, useContentBased, interpolation, boundingBox, downsampling, intensityAdjustments, service );
 	}
 
 	/**
@@ -343,6 +366,25 @@ public class FusionTools
 			final double downsampling,
 			final Map< ? extends ViewId, AffineModel1D > intensityAdjustments )
 	{
+		return fuseVirtual( imgloader, registrations, viewDescriptions, views, useBlending, useContentBased, interpolation, boundingBox, downsampling, intensityAdjustments, null );
+	}
+
+	/**
+	 * @param service - used for computing the normalization of content-based weights (can be null)
+	 */
+	public static Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > fuseVirtual(
+			final BasicImgLoader imgloader,
+			final Map< ViewId, AffineTransform3D > registrations,
+			final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions,
+			final Collection< ? extends ViewId > views,
+			final boolean useBlending,
+			final boolean useContentBased,
+			final int interpolation,
+			final Interval boundingBox,
+			final double downsampling,
+			final Map< ? extends ViewId, AffineModel1D > intensityAdjustments,
+			final ExecutorService service )
+	{
 
 		Interval bBox2d = null;
 		// go through the images and check if they are all 2-dimensional
@@ -441,7 +483,7 @@ public class FusionTools
 					// adjust both for z-scaling (anisotropy), downsampling, and registrations itself
 					adjustContentBased( viewDescriptions.get( viewId ), sigma1, sigma2, model );
 
-					transformedContentBased = TransformWeight.transformContentBased( inputImg, new CellImgFactory< ComplexFloatType >(), sigma1, sigma2, model, bb );
+					transformedContentBased = TransformWeight.transformContentBased( inputImg, new CellImgFactory< ComplexFloatType >(), sigma1, sigma2, model, bb, service );
 				}
 
 				if ( useContentBased && useBlending )
@@ -697,6 +739,26 @@ public class FusionTools
 			final long maxCacheSize,
 			final T type,
 			final int... cellDim )
+	{
+		return cacheRandomAccessibleInterval( input, maxCacheSize, type, null, cellDim );
+	}
+
+	/**
+	 * @param input - the (virtual) input
+	 * @param maxCacheSize - max number of cells, soft references if not positive
+	 * @param type - the type
+	 * @param stats - records the intensity statistics of every cell when it is computed for the first time (can be null, requires a RealType)
+	 * @param cellDim - the cell size
+	 * @param <T> - the type
+	 * @return the cached image
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public static < T extends NativeType< T > > RandomAccessibleInterval< T > cacheRandomAccessibleInterval(
+			final RandomAccessibleInterval< T > input,
+			final long maxCacheSize,
+			final T type,
+			final FusionStatistics stats,
+			final int... cellDim )
 	{
 		final RandomAccessibleInterval< T > in;
 
@@ -719,6 +781,8 @@ public class FusionTools
 			@Override
 			public void load( final SingleCellArrayImg< T, ? > cell ) throws Exception
 			{
+				final long time = Metrics.timer( "fusion.cell" ).start();
+
 				final Cursor< T > cursor = cell.localizingCursor();
 				final RandomAccess< T > ra = in.randomAccess();
 				
@@ -728,6 +792,11 @@ public class FusionTools
 					ra.setPosition( cursor );
 					cursor.get().set( ra.get() );
 				}
+
+				Metrics.timer( "fusion.cell" ).stop( time, Intervals.numElements( cell ) );
+
+				if ( stats != null )
+					stats.addBlock( (RandomAccessibleInterval)cell );
 			}
 		};
 
@@ -804,6 +873,12 @@ public class FusionTools
 
 	public static < T extends Type< T > > void copyImg( final RandomAccessibleInterval< T > input, final RandomAccessibleInterval< T > output, final ExecutorService service, final boolean showProgress )
 	{
+		if ( useBricks( input ) )
+		{
+			copyImgBricks( input, output, service, showProgress, defaultBrickSize );
+			return;
+		}
+
 		final long numPixels = Views.iterable( input ).size();
 		final int nThreads = Threads.numThreads();
 		final Vector< ImagePortion > portions = divideIntoPortions( numPixels );
@@ -837,6 +912,157 @@ public class FusionTools
 			execTasks( tasks, service, "copy image" );
 	}
 
+	/**
+	 * Copies the input into the output brick by brick, the bricks are processed in Morton order (see
+	 * {@link #divideIntoBricks(Interval, int[])}), so threads that run at the same time work on neighboring
+	 * bricks and the input blocks (e.g. cells of the views that are fused) they need overlap.
+	 *
+	 * @param input - the input (e.g. a virtual fused image)
+	 * @param output - the output, same size as the input
+	 * @param service - the executor service (if null a temporary one is created)
+	 * @param showProgress - show the progress bar in ImageJ
+	 * @param brickSize - size of the bricks, should be a multiple of the cell size of the output
+	 * @param <T> - pixel type
+	 */
+	public static < T extends Type< T > > void copyImgBricks(
+			final RandomAccessibleInterval< T > input,
+			final RandomAccessibleInterval< T > output,
+			final ExecutorService service,
+			final boolean showProgress,
+			final int[] brickSize )
+	{
+		final RandomAccessibleInterval< T > in = Views.zeroMin( input );
+		final RandomAccessibleInterval< T > out = Views.zeroMin( output );
+
+		final ArrayList< Interval > bricks = divideIntoBricks( out, brickSize );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		final AtomicInteger progress = new AtomicInteger( 0 );
+
+		for ( final Interval brick : bricks )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					final long time = Metrics.timer( "fusion.brick" ).start();
+
+					final Cursor< T > cursorSource = Views.flatIterable( Views.interval( in, brick ) ).cursor();
+					final Cursor< T > cursorTarget = Views.flatIterable( Views.interval( out, brick ) ).cursor();
+
+					while ( cursorTarget.hasNext() )
+						cursorTarget.next().set( cursorSource.next() );
+
+					Metrics.timer( "fusion.brick" ).stop( time, Intervals.numElements( brick ) );
+
+					if ( showProgress )
+						IJ.showProgress( (double)progress.incrementAndGet() / tasks.size() );
+
+					return null;
+				}
+			});
+		}
+
+		if ( showProgress )
+			IJ.showProgress( 0.01 );
+
+		if ( service == null )
+			execTasks( tasks, Threads.numThreads(), "copy image" );
+		else
+			execTasks( tasks, service, "copy image" );
+	}
+
+	/**
+	 * @param img - the image
+	 * @return true if it is a virtual 3d image that should be traversed in bricks (see {@link #defaultBrickTraversal})
+	 */
+	public static boolean useBricks( final RandomAccessibleInterval< ? > img )
+	{
+		return defaultBrickTraversal && img.numDimensions() == defaultBrickSize.length && !Img.class.isInstance( img );
+	}
+
+	/**
+	 * @param brickSize - the desired brick size
+	 * @param cellDim - the cell size of the output
+	 * @return the brick size rounded up to a multiple of the cell size
+	 */
+	public static int[] alignBrickSize( final int[] brickSize, final int[] cellDim )
+	{
+		final int[] aligned = new int[ brickSize.length ];
+
+		for ( int d = 0; d < brickSize.length; ++d )
+			aligned[ d ] = Math.max( 1, ( brickSize[ d ] + cellDim[ d ] - 1 ) / cellDim[ d ] ) * cellDim[ d ];
+
+		return aligned;
+	}
+
+	/**
+	 * Divides an interval into bricks that are aligned to a grid of the given size (starting at the min of the interval),
+	 * sorted in Morton (Z-) order of their grid position so that subsequent bricks are spatially close.
+	 *
+	 * @param interval - the interval
+	 * @param brickSize - the size of the bricks
+	 * @return the bricks in Morton order
+	 */
+	public static ArrayList< Interval > divideIntoBricks( final Interval interval, final int[] brickSize )
+	{
+		final int n = interval.numDimensions();
+		final long[] numBricks = new long[ n ];
+		long total = 1;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			numBricks[ d ] = ( interval.dimension( d ) + brickSize[ d ] - 1 ) / brickSize[ d ];
+			total *= numBricks[ d ];
+		}
+
+		// morton code, followed by the grid position
+		final ArrayList< long[] > codes = new ArrayList< long[] >();
+		final int bitsPerDim = 63 / n;
+
+		for ( long k = 0; k < total; ++k )
+		{
+			final long[] code = new long[ n + 1 ];
+			long i = k;
+
+			for ( int d = 0; d < n; ++d )
+			{
+				code[ d + 1 ] = i % numBricks[ d ];
+				i /= numBricks[ d ];
+			}
+
+			long morton = 0;
+
+			for ( int b = 0; b < bitsPerDim; ++b )
+				for ( int d = 0; d < n; ++d )
+					morton |= ( ( code[ d + 1 ] >> b ) & 1l ) << ( b * n + d );
+
+			code[ 0 ] = morton;
+			codes.add( code );
+		}
+
+		codes.sort( ( a, b ) -> Long.compare( a[ 0 ], b[ 0 ] ) );
+
+		final ArrayList< Interval > bricks = new ArrayList< Interval >();
+
+		for ( final long[] code : codes )
+		{
+			final long[] min = new long[ n ];
+			final long[] max = new long[ n ];
+
+			for ( int d = 0; d < n; ++d )
+			{
+				min[ d ] = interval.min( d ) + code[ d + 1 ] * brickSize[ d ];
+				max[ d ] = Math.min( interval.max( d ), min[ d ] + brickSize[ d ] - 1 );
+			}
+
+			bricks.add( new FinalInterval( min, max ) );
+		}
+
+		return bricks;
+	}
+
 	public static final void execTasks( final ArrayList< Callable< Void > > tasks, final int nThreads, final String jobDescription )
 	{
 		final ExecutorService taskExecutor = Executors.newFixedThreadPool( nThreads );
@@ -916,6 +1142,9 @@ public class FusionTools
 
 	public static < T extends RealType< T > > float[] minMax( final RandomAccessibleInterval< T > img, final ExecutorService service )
 	{
+		if ( useBricks( img ) )
+			return minMaxBricks( img, service, defaultBrickSize );
+
 		final IterableInterval< T > iterable = Views.iterable( img );
 		
 		// split up into many parts for multithreading
@@ -977,6 +1206,67 @@ public class FusionTools
 		return new float[]{ min, max };
 	}
 
+	/**
+	 * Computes min and max brick by brick, the bricks are processed in Morton order (see {@link #divideIntoBricks(Interval, int[])}).
+	 *
+	 * @param img - the image
+	 * @param service - the executor service
+	 * @param brickSize - size of the bricks
+	 * @param <T> - pixel type
+	 * @return min and max, null if it failed
+	 */
+	public static < T extends RealType< T > > float[] minMaxBricks( final RandomAccessibleInterval< T > img, final ExecutorService service, final int[] brickSize )
+	{
+		final ArrayList< Callable< float[] > > tasks = new ArrayList< Callable< float[] > >();
+
+		for ( final Interval brick : divideIntoBricks( img, brickSize ) )
+		{
+			tasks.add( new Callable< float[] >()
+			{
+				@Override
+				public float[] call() throws Exception
+				{
+					float min = Float.MAX_VALUE;
+					float max = -Float.MAX_VALUE;
+
+					final Cursor< T > c = Views.flatIterable( Views.interval( img, brick ) ).cursor();
+
+					while ( c.hasNext() )
+					{
+						final float v = c.next().getRealFloat();
+
+						min = Math.min( min, v );
+						max = Math.max( max, v );
+					}
+
+					// min & max of this brick
+					return new float[]{ min, max };
+				}
+			});
+		}
+
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+
+		try
+		{
+			for ( final Future< float[] > future : service.invokeAll( tasks ) )
+			{
+				final float[] minmax = future.get();
+				min = Math.min( min, minmax[ 0 ] );
+				max = Math.max( max, minmax[ 1 ] );
+			}
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to compute min/max: " + e );
+			e.printStackTrace();
+			return null;
+		}
+
+		return new float[]{ min, max };
+	}
+
 	public static < T extends RealType< T > > double[] minMaxApprox( final RandomAccessibleInterval< T > img )
 	{
 		return minMaxApprox( img, 1000 );
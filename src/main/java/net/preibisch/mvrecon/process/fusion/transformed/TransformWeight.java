@@ -22,6 +22,8 @@
  */
 package net.preibisch.mvrecon.process.fusion.transformed;
 
+import java.util.concurrent.ExecutorService;
+
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
@@ -34,7 +36,9 @@ import net.imglib2.type.numeric.complex.ComplexFloatType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 import net.preibisch.mvrecon.process.fusion.transformed.weights.BlendingRealRandomAccessible;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.transformed.weights.ContentBasedRealRandomAccessible;
+import net.preibisch.mvrecon.process.fusion.transformed.weights.LazyContentBasedRealRandomAccessible;
 import net.preibisch.mvrecon.process.fusion.transformed.weights.TransformedRasteredRandomAccessible;
 import util.RealViews;
 
@@ -47,22 +51,65 @@ public class TransformWeight
 			final double[] sigma2,
 			final AffineTransform3D transform,
 			final Interval boundingBox )
+	{
+		return transformContentBased( inputImg, imgFactory, sigma1, sigma2, transform, boundingBox, null );
+	}
+
+	public static < T extends RealType< T > > RandomAccessibleInterval< FloatType > transformContentBased(
+			final RandomAccessibleInterval< T > inputImg,
+			final ImgFactory< ComplexFloatType > imgFactory,
+			final double[] sigma1,
+			final double[] sigma2,
+			final AffineTransform3D transform,
+			final Interval boundingBox,
+			final ExecutorService service )
 	{
 		if ( inputImg.dimension( 2 ) == 1 && inputImg.min( 2 ) == 0 )
 		{
 			final double[] sigma1_2d = new double[]{ sigma1[ 0 ], sigma1[ 1 ] };
 			final double[] sigma2_2d = new double[]{ sigma2[ 0 ], sigma2[ 1 ] };
 
-			final ContentBasedRealRandomAccessible< T > content = new ContentBasedRealRandomAccessible< T >( Views.hyperSlice( inputImg, 2, 0 ), imgFactory, sigma1_2d, sigma2_2d );
+			final RealRandomAccessible< FloatType > content = createContentBased( Views.hyperSlice( inputImg, 2, 0 ), imgFactory, sigma1_2d, sigma2_2d, service );
 
 			return transformWeight( RealViews.addDimension( content ), transform, boundingBox );
 		}
 		else
 		{
-			return transformWeight( new ContentBasedRealRandomAccessible< T >( inputImg, imgFactory, sigma1, sigma2 ), transform, boundingBox );
+			return transformWeight( createContentBased( inputImg, imgFactory, sigma1, sigma2, service ), transform, boundingBox );
 		}
 	}
 
+	public static < T extends RealType< T > > RealRandomAccessible< FloatType > createContentBased(
+			final RandomAccessibleInterval< T > inputImg,
+			final ImgFactory< ComplexFloatType > imgFactory,
+			final double[] sigma1,
+			final double[] sigma2 )
+	{
+		return createContentBased( inputImg, imgFactory, sigma1, sigma2, null );
+	}
+
+	/**
+	 * @param inputImg - the input image
+	 * @param imgFactory - the factory for the FFT-based version
+	 * @param sigma1 - sigma of the first Gaussian
+	 * @param sigma2 - sigma of the second Gaussian
+	 * @param service - the service for computing the normalization of the lazy version (can be null)
+	 * @param <T> - pixel type
+	 * @return the lazy, cell-cached content-based weights if {@link FusionTools#defaultLazyContentBased} is set, otherwise the FFT-based version
+	 */
+	public static < T extends RealType< T > > RealRandomAccessible< FloatType > createContentBased(
+			final RandomAccessibleInterval< T > inputImg,
+			final ImgFactory< ComplexFloatType > imgFactory,
+			final double[] sigma1,
+			final double[] sigma2,
+			final ExecutorService service )
+	{
+		if ( FusionTools.defaultLazyContentBased )
+			return new LazyContentBasedRealRandomAccessible< T >( inputImg, sigma1, sigma2, service );
+		else
+			return new ContentBasedRealRandomAccessible< T >( inputImg, imgFactory, sigma1, sigma2 );
+	}
+
 	public static RandomAccessibleInterval< FloatType > transformBlending(
 			final Interval inputImgInterval,
 			final float[] border,
@@ -76,7 +76,6 @@ import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.ModelGrid;
 import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.CombineWeightsRandomAccessibleInterval;
 import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.CombineWeightsRandomAccessibleInterval.CombineType;
 import net.preibisch.mvrecon.process.fusion.transformed.weights.BlendingRealRandomAccessible;
-import net.preibisch.mvrecon.process.fusion.transformed.weights.ContentBasedRealRandomAccessible;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
@@ -198,7 +197,8 @@ public class NonRigidTools
 						useContentBased,
 						displayDistances,
 						interpolation,
-						intensityAdjustments );
+						intensityAdjustments,
+						service );
 
 		return new ValuePair<>( new FusedRandomAccessibleInterval( FusionTools.getFusedZeroMinInterval( bbDS ), virtual.getA(), virtual.getB() ), bbTransform );
 	}
@@ -297,6 +297,23 @@ public class NonRigidTools
 			final boolean displayDistances,
 			final int interpolation,
 			final Map< ? extends ViewId, AffineModel1D > intensityAdjustments )
+	{
+		return createNonRigidVirtualImages( imgloader, viewDescriptions, viewsToFuse, downsampledRegistrations, nonrigidGrids, bbDS, useBlending, useContentBased, displayDistances, interpolation, intensityAdjustments, null );
+	}
+
+	public static Pair< ArrayList< RandomAccessibleInterval< FloatType > >, ArrayList< RandomAccessibleInterval< FloatType > > > createNonRigidVirtualImages(
+			final BasicImgLoader imgloader,
+			final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions,
+			final Collection< ? extends ViewId > viewsToFuse,
+			final Map< ViewId, AffineTransform3D > downsampledRegistrations,
+			final HashMap< ViewId, ModelGrid > nonrigidGrids,
+			final Interval bbDS,
+			final boolean useBlending,
+			final boolean useContentBased,
+			final boolean displayDistances,
+			final int interpolation,
+			final Map< ? extends ViewId, AffineModel1D > intensityAdjustments,
+			final ExecutorService service )
 	{
 		final ArrayList< RandomAccessibleInterval< FloatType > > images = new ArrayList<>();
 		final ArrayList< RandomAccessibleInterval< FloatType > > weights = new ArrayList<>();
@@ -396,15 +413,16 @@ public class NonRigidTools
 					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Estimating Entropy for " + Group.pvid( viewId ) );
 
 					if ( grid == null )
-						transformedContentBased = TransformWeight.transformContentBased( inputImg, new CellImgFactory<>( new ComplexFloatType() ), sigma1, sigma2, modelAffine, bbDS );
+						transformedContentBased = TransformWeight.transformContentBased( inputImg, new CellImgFactory<>( new ComplexFloatType() ), sigma1, sigma2, modelAffine, bbDS, service );
 					else
 						transformedContentBased = 
 								NonRigidWeightTools.transformWeightNonRigidInterpolated(
-									new ContentBasedRealRandomAccessible(
+									TransformWeight.createContentBased(
 											inputImg,
 											new CellImgFactory<>( new ComplexFloatType() ),
 											sigma1,
-											sigma2 ),
+											sigma2,
+											service ),
 									grid,
 									invertedModelOpener,
 									bbDS );
@@ -0,0 +1,383 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.transformed.weights;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.converter.read.ConvertedRandomAccessibleInterval;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+
+/**
+ * Lazily computed, cell-cached version of {@link ContentBasedRealRandomAccessible}. The two Gaussian convolutions are
+ * computed separably, every 1d pass is a cell-cached image whose cells only read a halo of 3 sigma along the convolved
+ * dimension. All caches use soft references, so cells can be evicted and are recomputed when necessary. The normalization
+ * to [0...1] requires the global min and max, which are computed once for all cells in parallel when the weights are
+ * created (on the calling thread, so it must not be a task of the service that is passed). Optionally they are only
+ * estimated from the input subsampled by {@link #defaultMinMaxSubsampling}, so only the cells that are actually needed
+ * are computed at full resolution.
+ *
+ * @param <T> pixel type
+ */
+public class LazyContentBasedRealRandomAccessible< T extends RealType< T > > implements RealRandomAccessible< FloatType >
+{
+	public static int[] defaultCellDim = new int[]{ 128, 128, 128 };
+
+	/**
+	 * the subsampling of the input used to estimate min and max for the normalization, 1 computes them exactly
+	 * (which requires to compute all cells of the final stage), larger values clamp the normalized weights to [0...1]
+	 */
+	public static int defaultMinMaxSubsampling = 1;
+
+	final int n;
+	final RandomAccessibleInterval< FloatType > in, conv, contentBasedImg;
+	final double[] sigma1, sigma2;
+	final int[] cellDim;
+	final int minMaxSubsampling;
+
+	public LazyContentBasedRealRandomAccessible(
+			final RandomAccessibleInterval< T > input,
+			final double[] sigma1,
+			final double[] sigma2 )
+	{
+		this( input, sigma1, sigma2, null );
+	}
+
+	public LazyContentBasedRealRandomAccessible(
+			final RandomAccessibleInterval< T > input,
+			final double[] sigma1,
+			final double[] sigma2,
+			final ExecutorService service )
+	{
+		this( input, sigma1, sigma2, Arrays.copyOf( defaultCellDim, input.numDimensions() ), defaultMinMaxSubsampling, service );
+	}
+
+	/**
+	 * @param input - the input image
+	 * @param sigma1 - sigma of the first Gaussian, per dimension
+	 * @param sigma2 - sigma of the second Gaussian, per dimension
+	 * @param cellDim - the cell size of the cached images
+	 * @param minMaxSubsampling - subsampling of the input for estimating min and max, 1 means exact
+	 * @param service - the service used to compute min and max (if null a temporary one is created)
+	 */
+	public LazyContentBasedRealRandomAccessible(
+			final RandomAccessibleInterval< T > input,
+			final double[] sigma1,
+			final double[] sigma2,
+			final int[] cellDim,
+			final int minMaxSubsampling,
+			final ExecutorService service )
+	{
+		this.n = input.numDimensions();
+		this.sigma1 = sigma1;
+		this.sigma2 = sigma2;
+		this.cellDim = cellDim;
+		this.minMaxSubsampling = Math.max( 1, minMaxSubsampling );
+
+		this.in = Views.zeroMin( new ConvertedRandomAccessibleInterval< T, FloatType >( input, new RealFloatConverter< T >(), new FloatType() ) );
+		this.conv = contentBased( in, sigma1, sigma2, cellDim );
+
+		// normalize to [0...1]
+		this.contentBasedImg = normalize( service );
+	}
+
+	/**
+	 * @return the normalized content-based weights
+	 */
+	public RandomAccessibleInterval< FloatType > getContentBasedImg() { return contentBasedImg; }
+
+	@Override
+	public int numDimensions() { return n; }
+
+	@Override
+	public RealRandomAccess< FloatType > realRandomAccess()
+	{
+		return Views.interpolate(
+				Views.extendZero( getContentBasedImg() ),
+				new NLinearInterpolatorFactory< FloatType >()
+				).realRandomAccess();
+	}
+
+	@Override
+	public RealRandomAccess< FloatType > realRandomAccess( final RealInterval interval )
+	{
+		return Views.interpolate(
+				Views.extendZero( getContentBasedImg() ),
+				new NLinearInterpolatorFactory< FloatType >()
+				).realRandomAccess( interval );
+	}
+
+	protected RandomAccessibleInterval< FloatType > normalize( final ExecutorService service )
+	{
+		final RandomAccessibleInterval< FloatType > estimate;
+
+		if ( minMaxSubsampling == 1 )
+		{
+			estimate = conv;
+		}
+		else
+		{
+			final double[] s1 = new double[ n ];
+			final double[] s2 = new double[ n ];
+
+			for ( int d = 0; d < n; ++d )
+			{
+				s1[ d ] = Math.max( 0.5, sigma1[ d ] / minMaxSubsampling );
+				s2[ d ] = Math.max( 0.5, sigma2[ d ] / minMaxSubsampling );
+			}
+
+			estimate = contentBased( Views.zeroMin( Views.subsample( in, minMaxSubsampling ) ), s1, s2, cellDim );
+		}
+
+		final float[] minmax = minMax( estimate, cellDim, service );
+		final float min = minmax[ 0 ];
+		final float diffMinMax = minmax[ 1 ] - minmax[ 0 ];
+
+		if ( Float.isNaN( diffMinMax ) || Float.isInfinite( diffMinMax ) || diffMinMax == 0 )
+		{
+			IOFunctions.println( "Cannot normalize image, min=" + minmax[ 0 ] + "  + max=" + minmax[ 1 ] );
+			return conv;
+		}
+
+		if ( minMaxSubsampling == 1 )
+			return Converters.convert( conv, ( a, b ) -> b.set( ( a.get() - min ) / diffMinMax ), new FloatType() );
+
+		// the estimate might not contain the exact extrema
+		return Converters.convert( conv, ( a, b ) -> b.set( Math.min( 1.0f, Math.max( 0.0f, ( a.get() - min ) / diffMinMax ) ) ), new FloatType() );
+	}
+
+	/**
+	 * @param in - the zero-min input
+	 * @param sigma1 - sigma of the first Gaussian, per dimension
+	 * @param sigma2 - sigma of the second Gaussian, per dimension
+	 * @param cellDim - cell size
+	 * @return the lazily computed, not normalized ( ( I - I*sigma1 )^2 ) * sigma2
+	 */
+	protected static RandomAccessibleInterval< FloatType > contentBased(
+			final RandomAccessibleInterval< FloatType > in,
+			final double[] sigma1,
+			final double[] sigma2,
+			final int[] cellDim )
+	{
+		final int n = in.numDimensions();
+
+		// I*sigma1
+		RandomAccessibleInterval< FloatType > conv = in;
+
+		for ( int d = 0; d < n; ++d )
+			conv = convolve1d( conv, Util.createGaussianKernel1DDouble( sigma1[ d ], true ), d, cellDim );
+
+		// ( I - I*sigma1 )^2
+		final RandomAccessibleInterval< FloatType > blurred = conv;
+		final RandomAccessibleInterval< FloatType > diff = cached( in, cellDim, new CellLoader< FloatType >()
+		{
+			@Override
+			public void load( final SingleCellArrayImg< FloatType, ? > cell ) throws Exception
+			{
+				final Cursor< FloatType > c = Views.flatIterable( cell ).cursor();
+				final Cursor< FloatType > ci = Views.flatIterable( Views.interval( in, cell ) ).cursor();
+				final Cursor< FloatType > cb = Views.flatIterable( Views.interval( blurred, cell ) ).cursor();
+
+				while ( c.hasNext() )
+				{
+					final float diff = cb.next().get() - ci.next().get();
+					c.next().set( diff * diff );
+				}
+			}
+		} );
+
+		// ( ( I - I*sigma1 )^2 ) * sigma2
+		conv = diff;
+
+		for ( int d = 0; d < n; ++d )
+			conv = convolve1d( conv, Util.createGaussianKernel1DDouble( sigma2[ d ], true ), d, cellDim );
+
+		return conv;
+	}
+
+	/**
+	 * @param input - zero-min input, extended by mirroring as in {@link util.FFTConvolution}
+	 * @param kernel - the (odd-sized, centered) 1d kernel
+	 * @param d - the dimension to convolve
+	 * @param cellDim - cell size
+	 * @return lazily computed, cell-cached convolution of the input along dimension d
+	 */
+	public static RandomAccessibleInterval< FloatType > convolve1d(
+			final RandomAccessibleInterval< FloatType > input,
+			final double[] kernel,
+			final int d,
+			final int[] cellDim )
+	{
+		final RandomAccessible< FloatType > extended = Views.extendMirrorSingle( input );
+		final int halo = kernel.length / 2;
+		final int n = input.numDimensions();
+
+		return cached( input, cellDim, new CellLoader< FloatType >()
+		{
+			@Override
+			public void load( final SingleCellArrayImg< FloatType, ? > cell ) throws Exception
+			{
+				final long[] min = new long[ n ];
+				final long[] max = new long[ n ];
+				cell.min( min );
+				cell.max( max );
+
+				min[ d ] -= halo;
+				max[ d ] += halo;
+
+				// the block of the input that contributes to the cell
+				final Cursor< FloatType > inCursor = Views.flatIterable( Views.interval( extended, new FinalInterval( min, max ) ) ).cursor();
+
+				int inner = 1;
+				for ( int e = 0; e < d; ++e )
+					inner *= (int)cell.dimension( e );
+
+				final int size = (int)( max[ d ] - min[ d ] + 1 );
+				final int outSize = (int)cell.dimension( d );
+
+				final float[] data = new float[ (int)( Views.iterable( cell ).size() / outSize * size ) ];
+
+				for ( int i = 0; i < data.length; ++i )
+					data[ i ] = inCursor.next().get();
+
+				final int outer = data.length / ( inner * size );
+				final Cursor< FloatType > outCursor = Views.flatIterable( cell ).cursor();
+
+				// the cursor traverses the cell in the same (flat) order
+				for ( int o = 0; o < outer; ++o )
+					for ( int k = 0; k < outSize; ++k )
+						for ( int i = 0; i < inner; ++i )
+						{
+							double sum = 0;
+
+							for ( int j = 0, source = ( o * size + k ) * inner + i; j < kernel.length; ++j, source += inner )
+								sum += kernel[ j ] * data[ source ];
+
+							outCursor.next().set( (float)sum );
+						}
+			}
+		} );
+	}
+
+	protected static RandomAccessibleInterval< FloatType > cached( final RandomAccessibleInterval< FloatType > interval, final int[] cellDim, final CellLoader< FloatType > loader )
+	{
+		final ReadOnlyCachedCellImgOptions options =
+				new ReadOnlyCachedCellImgOptions().cellDimensions( cellDim ).cacheType( CacheType.SOFTREF );
+
+		final long[] dim = new long[ interval.numDimensions() ];
+		interval.dimensions( dim );
+
+		return new ReadOnlyCachedCellImgFactory( options ).create( dim, new FloatType(), loader );
+	}
+
+	/*
+	 * Computes min and max cell by cell, which also computes all intermediate cells of the image in parallel
+	 */
+	protected static float[] minMax( final RandomAccessibleInterval< FloatType > img, final int[] cellDim, final ExecutorService service )
+	{
+		final int n = img.numDimensions();
+		final long[] dim = new long[ n ];
+		img.dimensions( dim );
+
+		final CellGrid grid = new CellGrid( dim, cellDim );
+		final ArrayList< Callable< float[] > > tasks = new ArrayList<>();
+
+		for ( long i = 0; i < grid.getNumCells(); ++i )
+		{
+			final long index = i;
+
+			tasks.add( () ->
+			{
+				final long[] min = new long[ n ];
+				final int[] size = new int[ n ];
+				grid.getCellDimensions( index, min, size );
+
+				final long[] max = new long[ n ];
+				for ( int d = 0; d < n; ++d )
+					max[ d ] = min[ d ] + size[ d ] - 1;
+
+				float minV = Float.MAX_VALUE, maxV = -Float.MAX_VALUE;
+
+				for ( final FloatType t : Views.iterable( Views.interval( img, min, max ) ) )
+				{
+					final float v = t.get();
+					minV = Math.min( minV, v );
+					maxV = Math.max( maxV, v );
+				}
+
+				return new float[]{ minV, maxV };
+			} );
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Estimating min/max of the content-based weights from " + tasks.size() + " blocks ..." );
+
+		final ExecutorService taskExecutor = service == null ? Threads.createFixedExecutorService() : service;
+		final float[] minmax = new float[]{ Float.MAX_VALUE, -Float.MAX_VALUE };
+
+		try
+		{
+			for ( final Future< float[] > future : taskExecutor.invokeAll( tasks ) )
+			{
+				final float[] m = future.get();
+				minmax[ 0 ] = Math.min( minmax[ 0 ], m[ 0 ] );
+				minmax[ 1 ] = Math.max( minmax[ 1 ], m[ 1 ] );
+			}
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( "Failed to compute content-based weights: " + e, e );
+		}
+		finally
+		{
+			if ( service == null )
+				taskExecutor.shutdown();
+		}
+
+		return minmax;
+	}
+}
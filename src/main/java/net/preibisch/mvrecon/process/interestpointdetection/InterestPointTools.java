@@ -118,7 +118,7 @@ public class InterestPointTools
 				final InterestPointList list = lists.getInterestPointList( label );
 				int count;
 
-				if ( list.getCorrespondingInterestPointsCopy().size() > 0 )
+				if ( list.getStatistics().getNumCorrespondences() > 0 )
 					count = 1;
 				else
 					count = 0;
@@ -22,9 +22,12 @@
  */
 package net.preibisch.mvrecon.process.interestpointdetection.methods.dog;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import mpicbg.spim.data.sequence.ViewDescription;
@@ -34,12 +37,16 @@ import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.deconvolution.DeconViews;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+import net.preibisch.mvrecon.process.pipeline.TimepointPipeline;
 import util.ImgLib1Convert;
 
 public class DoG
@@ -126,93 +133,155 @@ public class DoG
 		if ( dog.showProgress() )
 			IJ.showProgress( dog.showProgressMin );
 
-		int count = 1;
+		final long[] downsampling = new long[] { dog.downsampleXY, dog.downsampleXY, dog.downsampleZ };
 
 		// TODO: special iterator that takes into account missing views
+		final ArrayList< ViewDescription > views = new ArrayList<>();
+
 		for ( final ViewDescription vd : dog.toProcess )
+			if ( vd.isPresent() )
+				views.add( vd );
+
+		final AtomicInteger count = new AtomicInteger( 1 );
+
+		// the image of the next view is loaded while the current one is processed (completely if it fits into the memory budget)
+		new TimepointPipeline< ViewDescription, Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D >, Boolean >(
+				( vd, withinBudget ) -> open( dog, vd, downsampling, withinBudget ),
+				( vd, input ) ->
+				{
+					if ( input != null )
+						detect( interestPoints, dog, vd, input.getA(), input.getB() );
+
+					if ( dog.showProgress() )
+						IJ.showProgress( dog.showProgressMin +
+								( (double)(count.getAndIncrement()) / (double)dog.toProcess.size() ) / ( dog.showProgressMax - dog.showProgressMin ) );
+
+					return true;
+				},
+				null,
+				vd -> TimepointPipeline.estimateBytes( vd, downsampling, 4 ) ).run( views );
+
+		if ( dog.showProgress() )
+			IJ.showProgress( dog.showProgressMax );
+	}
+
+	/**
+	 * Opens the (downsampled) image of a view
+	 *
+	 * @param dog - the parameters
+	 * @param vd - the view
+	 * @param downsampling - the downsampling
+	 * @param openCompletely - load the image into memory, so the loading is done when prefetching (otherwise it is loaded on access)
+	 * @return the image and the transformation to correct the coordinates, null if it could not be opened
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > open( final DoGParameters dog, final ViewDescription vd, final long[] downsampling, final boolean openCompletely )
+	{
+		// make sure not everything crashes if one file is missing
+		try
 		{
-			// make sure not everything crashes if one file is missing
-			try
+			final AffineTransform3D correctCoordinates = new AffineTransform3D();
+
+			final ExecutorService service = Threads.createFixedExecutorService( Threads.numThreads() );
+
+			final RandomAccessibleInterval< FloatType > input =
+					DownsampleTools.openAndDownsample(
+							dog.imgloader,
+							vd,
+							correctCoordinates,
+							downsampling,
+							false,  //transformOnly
+							false,   //openAsFloat
+							openCompletely,
+							service );
+
+			service.shutdown();
+
+			return new ValuePair<>( input, correctCoordinates );
+		}
+		catch ( Exception e )
+		{
+			printError( vd, e );
+			return null;
+		}
+	}
+
+	protected static void detect(
+			final HashMap< ViewId, List< InterestPoint > > interestPoints,
+			final DoGParameters dog,
+			final ViewDescription vd,
+			final RandomAccessibleInterval< FloatType > input,
+			final AffineTransform3D correctCoordinates )
+	{
+		// make sure not everything crashes if one image fails
+		try
+		{
+			final long time = Metrics.timer( "detection.dog" ).start();
+
+			final ExecutorService service = Threads.createFixedExecutorService( Threads.numThreads() );
+
+			List< InterestPoint > ips;
+
+			if ( dog.cuda == null )
+			{
+				ips = DoGImgLib2.computeDoG(input, null, dog.sigma, dog.threshold, dog.localization, dog.findMin, dog.findMax, dog.minIntensity,
+					dog.maxIntensity, service, Threads.numThreads() );
+			}
+			else
 			{
+				
+				final ImgLib1Convert convert = new ImgLib1Convert( input, service );
+
 				//
-				// open the corresponding image (if present at this timepoint)
+				// compute Difference-of-Gaussian (includes normalization)
 				//
-				if ( !vd.isPresent() )
-					continue;
-
-				final AffineTransform3D correctCoordinates = new AffineTransform3D();
+				ips = ProcessDOG.compute(
+						dog.cuda, dog.deviceList, dog.accurateCUDA, dog.percentGPUMem,
+						service,
+						Threads.numThreads(),
+						convert,
+						(float) dog.sigma, (float) dog.threshold,
+						dog.localization,
+						Math.min( dog.imageSigmaX, (float) dog.sigma ),
+						Math.min( dog.imageSigmaY, (float) dog.sigma ),
+						Math.min( dog.imageSigmaZ, (float) dog.sigma ),
+						dog.findMin, dog.findMax, dog.minIntensity,
+						dog.maxIntensity,
+						dog.limitDetections );
 
-				final ExecutorService service = Threads.createFixedExecutorService( Threads.numThreads() );
+				convert.imglib1Img().close();
+			}
 
-				@SuppressWarnings("unchecked")
-				final RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input =
-						DownsampleTools.openAndDownsample(
-								dog.imgloader,
-								vd,
-								correctCoordinates,
-								new long[] { dog.downsampleXY, dog.downsampleXY, dog.downsampleZ },
-								false,  //transformOnly
-								false,   //openAsFloat
-								false, //openCompletely
-								service );
+			service.shutdown();
 
-				List< InterestPoint > ips;
+			if ( dog.limitDetections )
+				ips = InterestPointTools.limitList( dog.maxDetections, dog.maxDetectionsTypeIndex, ips );
 
-				if ( dog.cuda == null )
-				{
-					ips = DoGImgLib2.computeDoG(input, null, dog.sigma, dog.threshold, dog.localization, dog.findMin, dog.findMax, dog.minIntensity,
-						dog.maxIntensity, service, Threads.numThreads() );
-				}
-				else
-				{
-					
-					final ImgLib1Convert convert = new ImgLib1Convert( input, service );
-	
-					//
-					// compute Difference-of-Gaussian (includes normalization)
-					//
-					ips = ProcessDOG.compute(
-							dog.cuda, dog.deviceList, dog.accurateCUDA, dog.percentGPUMem,
-							service,
-							Threads.numThreads(),
-							convert,
-							(float) dog.sigma, (float) dog.threshold,
-							dog.localization,
-							Math.min( dog.imageSigmaX, (float) dog.sigma ),
-							Math.min( dog.imageSigmaY, (float) dog.sigma ),
-							Math.min( dog.imageSigmaZ, (float) dog.sigma ),
-							dog.findMin, dog.findMax, dog.minIntensity,
-							dog.maxIntensity,
-							dog.limitDetections );
-	
-					convert.imglib1Img().close();
-				}
-
-				service.shutdown();
-
-				if ( dog.limitDetections )
-					ips = InterestPointTools.limitList( dog.maxDetections, dog.maxDetectionsTypeIndex, ips );
-
-				DownsampleTools.correctForDownsampling( ips, correctCoordinates );
+			DownsampleTools.correctForDownsampling( ips, correctCoordinates );
 
-				interestPoints.put( vd, ips );
-			} catch ( Exception e )
+			synchronized ( interestPoints )
 			{
-				IOFunctions.println( "An error occured (DOG): " + e );
-				IOFunctions.println( "Failed to segment angleId: "
-						+ vd.getViewSetup().getAngle().getId() + " channelId: "
-						+ vd.getViewSetup().getChannel().getId() + " illumId: "
-						+ vd.getViewSetup().getIllumination().getId()
-						+ ". Continuing with next one." );
-				e.printStackTrace();
+				interestPoints.put( vd, ips );
 			}
 
-			if ( dog.showProgress() )
-				IJ.showProgress( dog.showProgressMin + 
-						( (double)(count++) / (double)dog.toProcess.size() ) / ( dog.showProgressMax - dog.showProgressMin ) );
+			Metrics.counter( "detection.points" ).add( ips.size() );
+			Metrics.log( "(" + new Date( System.currentTimeMillis() ) + "): DoG found " + ips.size() + " interest points for timepoint=" + vd.getTimePointId() +
+					", viewsetup=" + vd.getViewSetupId() + " in " + Metrics.timer( "detection.dog" ).stop( time, ips.size() ) + " ms." );
 		}
+		catch ( Exception e )
+		{
+			printError( vd, e );
+		}
+	}
 
-		if ( dog.showProgress() )
-			IJ.showProgress( dog.showProgressMax );
+	protected static void printError( final ViewDescription vd, final Exception e )
+	{
+		IOFunctions.println( "An error occured (DOG): " + e );
+		IOFunctions.println( "Failed to segment angleId: "
+				+ vd.getViewSetup().getAngle().getId() + " channelId: "
+				+ vd.getViewSetup().getChannel().getId() + " illumId: "
+				+ vd.getViewSetup().getIllumination().getId()
+				+ ". Continuing with next one." );
+		e.printStackTrace();
 	}
 }
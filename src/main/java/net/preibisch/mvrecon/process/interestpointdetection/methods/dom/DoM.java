@@ -22,6 +22,8 @@
  */
 package net.preibisch.mvrecon.process.interestpointdetection.methods.dom;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -34,11 +36,15 @@ import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
+import net.preibisch.mvrecon.process.pipeline.TimepointPipeline;
 
 /**
  * Created by schmied on 01/07/15.
@@ -63,76 +69,130 @@ public class DoM
 
 	public static void addInterestPoints( final HashMap< ViewId, List< InterestPoint >> interestPoints, final DoMParameters dom )
 	{
+		final long[] downsampling = new long[] { dom.downsampleXY, dom.downsampleXY, dom.downsampleZ };
+
 		// TODO: special iterator that takes into account missing views
-		// make sure not everything crashes if one file is missing
+		final ArrayList< ViewDescription > views = new ArrayList<>();
+
 		for ( final ViewDescription vd : dom.toProcess )
+			if ( vd.isPresent() )
+				views.add( vd );
+
+		// the image of the next view is loaded while the current one is processed
+		new TimepointPipeline< ViewDescription, Pair< Img< net.imglib2.type.numeric.real.FloatType >, AffineTransform3D >, Boolean >(
+				vd -> open( dom, vd, downsampling ),
+				( vd, input ) ->
+				{
+					if ( input != null )
+						detect( interestPoints, dom, vd, input.getA(), input.getB() );
+
+					return true;
+				},
+				null,
+				vd -> TimepointPipeline.estimateBytes( vd, downsampling, 4 ) ).run( views );
+	}
+
+	/**
+	 * Opens the (downsampled) image of a view completely as float
+	 *
+	 * @param dom - the parameters
+	 * @param vd - the view
+	 * @param downsampling - the downsampling
+	 * @return the image and the transformation to correct the coordinates, null if it could not be opened
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Pair< Img< net.imglib2.type.numeric.real.FloatType >, AffineTransform3D > open( final DoMParameters dom, final ViewDescription vd, final long[] downsampling )
+	{
+		// make sure not everything crashes if one file is missing
+		try
 		{
-			// make sure not everything crashes if one file is missing
-			try
-			{
-				//
-				// open the corresponding image (if present at this timepoint)
-				//
-				if ( !vd.isPresent() )
-					continue;
-
-				final AffineTransform3D correctCoordinates = new AffineTransform3D();
-
-				final ExecutorService service = Threads.createFixedExecutorService( Threads.numThreads() );
-
-				@SuppressWarnings("unchecked")
-				final RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input =
-					DownsampleTools.openAndDownsample(
-						dom.imgloader,
-						vd,
-						correctCoordinates,
-						new long[] { dom.downsampleXY, dom.downsampleXY, dom.downsampleZ },
-						false,  //transformOnly
-						true,   //openAsFloat
-						true, //openCompletely
-						service );
-
-				service.shutdown();
-
-				final Image< FloatType > img = ImgLib2.wrapFloatToImgLib1(
-						(Img< net.imglib2.type.numeric.real.FloatType >) input );
-
-				// Compute DifferenceOfMean
-				List< InterestPoint > ips = ProcessDOM.compute(
-						img,
-						(Img< net.imglib2.type.numeric.real.FloatType >) input,
-						dom.radius1,
-						dom.radius2,
-						dom.threshold,
-						dom.localization,
-						dom.imageSigmaX,
-						dom.imageSigmaY,
-						dom.imageSigmaZ,
-						dom.findMin,
-						dom.findMax,
-						dom.minIntensity,
-						dom.maxIntensity,
-						dom.limitDetections );
-
-				img.close();
-
-				if ( dom.limitDetections )
-					ips = InterestPointTools.limitList( dom.maxDetections, dom.maxDetectionsTypeIndex, ips );
-
-				DownsampleTools.correctForDownsampling( ips, correctCoordinates );
+			final AffineTransform3D correctCoordinates = new AffineTransform3D();
 
-				interestPoints.put( vd, ips );
-			}
-			catch ( Exception e )
+			final ExecutorService service = Threads.createFixedExecutorService( Threads.numThreads() );
+
+			final RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input =
+				DownsampleTools.openAndDownsample(
+					dom.imgloader,
+					vd,
+					correctCoordinates,
+					downsampling,
+					false,  //transformOnly
+					true,   //openAsFloat
+					true, //openCompletely
+					service );
+
+			service.shutdown();
+
+			return new ValuePair<>( (Img< net.imglib2.type.numeric.real.FloatType >) input, correctCoordinates );
+		}
+		catch ( Exception e )
+		{
+			printError( vd, e );
+			return null;
+		}
+	}
+
+	protected static void detect(
+			final HashMap< ViewId, List< InterestPoint >> interestPoints,
+			final DoMParameters dom,
+			final ViewDescription vd,
+			final Img< net.imglib2.type.numeric.real.FloatType > input,
+			final AffineTransform3D correctCoordinates )
+	{
+		// make sure not everything crashes if one image fails
+		try
+		{
+			final long time = Metrics.timer( "detection.dom" ).start();
+
+			final Image< FloatType > img = ImgLib2.wrapFloatToImgLib1( input );
+
+			// Compute DifferenceOfMean
+			List< InterestPoint > ips = ProcessDOM.compute(
+					img,
+					input,
+					dom.radius1,
+					dom.radius2,
+					dom.threshold,
+					dom.localization,
+					dom.imageSigmaX,
+					dom.imageSigmaY,
+					dom.imageSigmaZ,
+					dom.findMin,
+					dom.findMax,
+					dom.minIntensity,
+					dom.maxIntensity,
+					dom.limitDetections );
+
+			img.close();
+
+			if ( dom.limitDetections )
+				ips = InterestPointTools.limitList( dom.maxDetections, dom.maxDetectionsTypeIndex, ips );
+
+			DownsampleTools.correctForDownsampling( ips, correctCoordinates );
+
+			synchronized ( interestPoints )
 			{
-				IOFunctions.println( "An error occured (Difference of Mean): " + e );
-				IOFunctions.println( "Failed to segment angleId: "
-						+ vd.getViewSetup().getAngle().getId() + " channelId: "
-						+ vd.getViewSetup().getChannel().getId() + " illumId: "
-						+ vd.getViewSetup().getIllumination().getId()
-						+ ". Continuing with next one." );
-				e.printStackTrace();
+				interestPoints.put( vd, ips );
 			}
+
+			Metrics.counter( "detection.points" ).add( ips.size() );
+			Metrics.log( "(" + new Date( System.currentTimeMillis() ) + "): DoM found " + ips.size() + " interest points for timepoint=" + vd.getTimePointId() +
+					", viewsetup=" + vd.getViewSetupId() + " in " + Metrics.timer( "detection.dom" ).stop( time, ips.size() ) + " ms." );
+		}
+		catch ( Exception e )
+		{
+			printError( vd, e );
 		}
 	}
+
+	protected static void printError( final ViewDescription vd, final Exception e )
+	{
+		IOFunctions.println( "An error occured (Difference of Mean): " + e );
+		IOFunctions.println( "Failed to segment angleId: "
+				+ vd.getViewSetup().getAngle().getId() + " channelId: "
+				+ vd.getViewSetup().getChannel().getId() + " illumId: "
+				+ vd.getViewSetup().getIllumination().getId()
+				+ ". Continuing with next one." );
+		e.printStackTrace();
+	}
 }
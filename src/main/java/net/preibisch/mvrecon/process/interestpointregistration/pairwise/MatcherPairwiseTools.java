@@ -44,6 +44,7 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.GroupedInterestPoint;
+import net.preibisch.mvrecon.process.metrics.Metrics;
 
 public class MatcherPairwiseTools
 {
@@ -281,7 +282,10 @@ public class MatcherPairwiseTools
 				@Override
 				public PairwiseResult< I > call() throws Exception
 				{
+					final long time = Metrics.timer( "registration.pairwise" ).start();
 					final PairwiseResult< I > pwr = matcher.match( listA, listB );
+					Metrics.timer( "registration.pairwise" ).stop( time, listA.size() + listB.size() );
+
 					assignLoggingDescriptions( pair, pwr );
 					return pwr;
 				}
@@ -24,14 +24,19 @@ package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.KDTree;
 import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.pointcloud.PointKDTree;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LocalCoordinateSystemPointDescriptor;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LocalCoordinateSystemPointDescriptorMatrix;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.PointDescriptorMatrix;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
 
@@ -43,6 +48,22 @@ import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMa
  */
 public class GeometricHasher< I extends InterestPoint >
 {
+	final ExecutorService service;
+
+	/**
+	 * @param service - computes the descriptors and the matching, must not stall on nested tasks (e.g.
+	 * {@link Threads#sharedFlexibleExecutorService()}) as the matching usually runs within a task of another pool
+	 */
+	public GeometricHasher( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	public GeometricHasher()
+	{
+		this( Threads.sharedFlexibleExecutorService() );
+	}
+
 	public ArrayList< PointMatchGeneric< I > > extractCorrespondenceCandidates( 
 			final ArrayList< I > nodeListA,
 			final ArrayList< I > nodeListB,
@@ -53,24 +74,73 @@ public class GeometricHasher< I extends InterestPoint >
 		final KDTree< I > tree1 = new KDTree<>( nodeListA, nodeListA );
 		final KDTree< I > tree2 = new KDTree<>( nodeListB, nodeListB );
 
-		final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors1 =
-			createLocalCoordinateSystemPointDescriptors( tree1, nodeListA, redundancy, false );
-		
-		final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors2 =
-			createLocalCoordinateSystemPointDescriptors( tree2, nodeListB, redundancy, false );
-		
-		// create lookup tree for descriptors2
-		final KDTree< LocalCoordinateSystemPointDescriptor< I > > lookUpTree2 = new KDTree<>( descriptors2, descriptors2 );
-		final KNearestNeighborSearchOnKDTree< LocalCoordinateSystemPointDescriptor< I > > nnsearch = new KNearestNeighborSearchOnKDTree<>( lookUpTree2, 2 );
+		// all descriptors are computed in parallel and stored in flat arrays
+		final LocalCoordinateSystemPointDescriptorMatrix< I > descriptors1 =
+			new LocalCoordinateSystemPointDescriptorMatrix<>( tree1, nodeListA, redundancy, false, service );
+
+		final LocalCoordinateSystemPointDescriptorMatrix< I > descriptors2 =
+			new LocalCoordinateSystemPointDescriptorMatrix<>( tree2, nodeListB, redundancy, false, service );
 
 		// store the candidates for corresponding beads
 		final ArrayList< PointMatchGeneric< I > > correspondences = new ArrayList<>();
-		
+
 		/* compute matching */
-		computeMatching( descriptors1, nnsearch, correspondences, differenceThreshold, ratioOfDistance );
-		
+		computeMatching( descriptors1, descriptors2, correspondences, differenceThreshold, ratioOfDistance );
+
 		return correspondences;
 	}
+
+	/**
+	 * Finds the two most similar descriptors of B for every descriptor of A in parallel using a KDTree on the descriptors of B.
+	 *
+	 * @param descriptors1 - descriptors of A
+	 * @param descriptors2 - descriptors of B
+	 * @param correspondences - the candidates are added here
+	 * @param differenceThreshold - max difference of the best match
+	 * @param ratioOfDistance - how much better the best match has to be than the second best
+	 */
+	protected void computeMatching(
+			final LocalCoordinateSystemPointDescriptorMatrix< I > descriptors1,
+			final LocalCoordinateSystemPointDescriptorMatrix< I > descriptors2,
+			final ArrayList< PointMatchGeneric< I > > correspondences,
+			final double differenceThreshold,
+			final double ratioOfDistance )
+	{
+		final PointKDTree lookUpTree2 = descriptors2.getTree();
+		final int[] bestMatch = new int[ descriptors1.numRows() ];
+
+		PointDescriptorMatrix.parallel( bestMatch.length, ( from, to ) ->
+		{
+			final PointKDTree.Search nnsearch2 = lookUpTree2.search();
+
+			for ( int r = from; r < to; ++r )
+			{
+				bestMatch[ r ] = -1;
+
+				final int first = nnsearch2.nearestTwo( descriptors1.getData(), r * descriptors1.rowLength(), -1 );
+				final int second = nnsearch2.second();
+
+				if ( second < 0 )
+					continue;
+
+				final double best = descriptors1.descriptorDistance( r, descriptors2, first );
+				final double secondBest = descriptors1.descriptorDistance( r, descriptors2, second );
+
+				if ( best < differenceThreshold && best * ratioOfDistance <= secondBest )
+					bestMatch[ r ] = first;
+			}
+		}, service );
+
+		// twice the same pair could potentially show up due to redundancy
+		final HashSet< Pair< I, I > > pairs = new HashSet<>();
+
+		for ( int r = 0; r < bestMatch.length; ++r )
+			if ( bestMatch[ r ] >= 0 )
+				pairs.add( new ValuePair<>( descriptors1.getBasisPoint( r ), descriptors2.getBasisPoint( bestMatch[ r ] ) ) );
+
+		for ( final Pair< I, I > pair : pairs )
+			correspondences.add( new PointMatchGeneric< I >( pair.getA(), pair.getB(), 1 ) );
+	}
 	
 	protected void computeMatching( 
 			final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors1,
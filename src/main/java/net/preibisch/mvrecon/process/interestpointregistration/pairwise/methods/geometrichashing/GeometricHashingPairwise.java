@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
@@ -50,7 +51,7 @@ public class GeometricHashingPairwise< I extends InterestPoint > implements Matc
 	public PairwiseResult< I > match( final List< I > listAIn, final List< I > listBIn )
 	{
 		final PairwiseResult< I > result = new PairwiseResult<>( true );
-		final GeometricHasher< I > hasher = new GeometricHasher<>();
+		final GeometricHasher< I > hasher = new GeometricHasher<>( Threads.sharedFlexibleExecutorService() );
 		
 		final ArrayList< I > listA = new ArrayList<>();
 		final ArrayList< I > listB = new ArrayList<>();
@@ -83,7 +84,7 @@ public class GeometricHashingPairwise< I extends InterestPoint > implements Matc
 		// compute ransac and remove inconsistent candidates
 		final ArrayList< PointMatchGeneric< I > > inliers = new ArrayList<>();
 
-		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, inliers, gp.getModel(), rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations() );
+		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, null, inliers, gp.getModel(), rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations(), Threads.sharedFlexibleExecutorService() );
 
 		result.setInliers( inliers, ransacResult.getB() );
 
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import mpicbg.models.IllDefinedDataPointsException;
 import mpicbg.models.Model;
@@ -39,6 +40,7 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResult;
 import net.preibisch.mvrecon.process.pointcloud.icp.ICP;
+import net.preibisch.mvrecon.process.pointcloud.icp.StaticReferenceICP;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 
 /**
@@ -50,10 +52,22 @@ import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuit
 public class IterativeClosestPointPairwise< I extends InterestPoint > implements MatcherPairwise< I >
 {
 	final IterativeClosestPointParameters ip;
+	final ExecutorService service;
 
-	public IterativeClosestPointPairwise( final IterativeClosestPointParameters ip  )
+	/**
+	 * @param ip - the parameters
+	 * @param service - the {@link ExecutorService} for the nearest neighbor queries of each pair, or null to run them in the
+	 * calling thread (the pairs themselves are already matched in parallel). Must not be the service that runs the pairs.
+	 */
+	public IterativeClosestPointPairwise( final IterativeClosestPointParameters ip, final ExecutorService service )
 	{
 		this.ip = ip;
+		this.service = service;
+	}
+
+	public IterativeClosestPointPairwise( final IterativeClosestPointParameters ip  )
+	{
+		this( ip, null );
 	}
 
 	@Override
@@ -81,7 +95,8 @@ public class IterativeClosestPointPairwise< I extends InterestPoint > implements
 			return result;
 		}
 
-		final ICP< I > icp = new ICP< I >( listA, listB, (float)ip.getMaxDistance(), ip.useRANSAC(), ip.getMaxEpsilonRANSAC(), ip.getMaxIterationsRANSAC() );
+		// listB is the static reference, its KD-tree is built once; listA is transformed and queried in every iteration
+		final ICP< I > icp = new StaticReferenceICP< I >( listA, listB, (float)ip.getMaxDistance(), ip.useRANSAC(), ip.getMaxEpsilonRANSAC(), ip.getMaxIterationsRANSAC(), service );
 
 		int i = 0;
 		double lastAvgError = 0;
@@ -0,0 +1,424 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.Model;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+import net.preibisch.mvrecon.Threads;
+
+/**
+ * The hypothesis-and-test part of RANSAC (as in mpicbg's Model.ransac) over primitive coordinate arrays.
+ * Hypotheses are evaluated in batches (in parallel if an {@link ExecutorService} is given) and sampling stops as soon as
+ * the consensus set found so far makes it unlikely (see {@link #confidence}) that a better one exists, or after the maximal
+ * number of iterations. If descriptor distances are given, the first hypotheses are sampled preferably from the candidates
+ * with the most similar descriptors (guided sampling), the pool grows to all candidates over {@link #guidedSamplingIterations}
+ * iterations.
+ *
+ * The result is deterministic and independent of the number of threads: the sample of every iteration is drawn from a
+ * random generator seeded with the iteration index, and the results of each batch are merged in the order of the
+ * iterations (ties are resolved by the smaller error, then the smaller iteration index) exactly as a sequential loop would.
+ */
+public class AdaptiveRANSAC
+{
+	// probability to have drawn at least one outlier-free sample before stopping
+	public static double confidence = 0.999;
+
+	// over how many iterations guided sampling grows the pool to all candidates
+	public static int guidedSamplingIterations = 1000;
+
+	// below this number of candidates all hypotheses are evaluated in the calling thread
+	public static int minCandidatesMultiThreaded = 256;
+
+	// how many hypotheses each thread evaluates per batch before the results are merged
+	public static int hypothesesPerTask = 16;
+
+	// seed of the random sampling, the generator is re-seeded for every iteration
+	public static long randomSeed = 3543;
+
+	final List< ? extends PointMatch > candidates;
+	final int numCandidates, n;
+
+	// local coordinates of point1 and world coordinates of point2 [x0,y0,z0,x1,...], weights of the matches
+	final double[] p1, p2, weights;
+
+	// the order in which candidates become available for sampling, best descriptor first
+	final int[] order;
+	final boolean guided;
+
+	// the best hypothesis
+	int[] bestSample = null;
+	int bestNumInliers = 0;
+	double bestError = Double.MAX_VALUE;
+	int requiredIterations;
+	int numIterationsRun = 0;
+
+	/**
+	 * @param candidates - the correspondence candidates, only read
+	 * @param descriptorDistances - the descriptor distance of each candidate for guided sampling (smaller is better), or null for uniform sampling
+	 */
+	public AdaptiveRANSAC( final List< ? extends PointMatch > candidates, final double[] descriptorDistances )
+	{
+		this.candidates = candidates;
+		this.numCandidates = candidates.size();
+		this.n = numCandidates == 0 ? 0 : candidates.get( 0 ).getP1().getL().length;
+
+		this.p1 = new double[ numCandidates * n ];
+		this.p2 = new double[ numCandidates * n ];
+		this.weights = new double[ numCandidates ];
+
+		for ( int i = 0; i < numCandidates; ++i )
+		{
+			final PointMatch pm = candidates.get( i );
+			System.arraycopy( pm.getP1().getL(), 0, p1, i * n, n );
+			System.arraycopy( pm.getP2().getW(), 0, p2, i * n, n );
+			weights[ i ] = pm.getWeight();
+		}
+
+		final Integer[] sorted = new Integer[ numCandidates ];
+		for ( int i = 0; i < numCandidates; ++i )
+			sorted[ i ] = i;
+
+		this.guided = descriptorDistances != null;
+
+		if ( guided )
+			Arrays.sort( sorted, ( a, b ) -> Double.compare( descriptorDistances[ a ], descriptorDistances[ b ] ) );
+
+		this.order = new int[ numCandidates ];
+		for ( int i = 0; i < numCandidates; ++i )
+			order[ i ] = sorted[ i ];
+	}
+
+	/**
+	 * Finds the largest consensus set evaluating all hypotheses in the calling thread, see
+	 * {@link #ransac(Model, List, int, double, double, int, ExecutorService)}.
+	 *
+	 * @param model - the model, will be set to the best hypothesis
+	 * @param consensus - will contain the candidates that agree with the best hypothesis (in the order of the candidates)
+	 * @param maxIterations - the maximal number of hypotheses
+	 * @param maxEpsilon - maximal distance of an inlier
+	 * @param minInlierRatio - minimal ratio of inliers
+	 * @param minNumInliers - minimal number of inliers
+	 * @param <P> - the type of the point matches
+	 * @return true if a model was found
+	 * @throws NotEnoughDataPointsException - if there are less candidates than the model needs
+	 */
+	public < P extends PointMatch > boolean ransac(
+			final Model< ? > model,
+			final List< P > consensus,
+			final int maxIterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers ) throws NotEnoughDataPointsException
+	{
+		return ransac( model, consensus, maxIterations, maxEpsilon, minInlierRatio, minNumInliers, null );
+	}
+
+	/**
+	 * Finds the largest consensus set, the model is fitted to the sample of the best hypothesis.
+	 *
+	 * @param model - the model, will be set to the best hypothesis
+	 * @param consensus - will contain the candidates that agree with the best hypothesis (in the order of the candidates)
+	 * @param maxIterations - the maximal number of hypotheses
+	 * @param maxEpsilon - maximal distance of an inlier
+	 * @param minInlierRatio - minimal ratio of inliers
+	 * @param minNumInliers - minimal number of inliers
+	 * @param service - the {@link ExecutorService} to evaluate the hypotheses with, or null to use the calling thread
+	 * (must not be the service that runs the caller if it has a fixed size)
+	 * @param <P> - the type of the point matches
+	 * @return true if a model was found
+	 * @throws NotEnoughDataPointsException - if there are less candidates than the model needs
+	 */
+	@SuppressWarnings( "unchecked" )
+	public < P extends PointMatch > boolean ransac(
+			final Model< ? > model,
+			final List< P > consensus,
+			final int maxIterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final ExecutorService service ) throws NotEnoughDataPointsException
+	{
+		final int m = model.getMinNumMatches();
+
+		if ( numCandidates < m )
+			throw new NotEnoughDataPointsException( numCandidates + " data points are not enough to solve the Model, at least " + m + " data points required." );
+
+		consensus.clear();
+
+		this.bestSample = null;
+		this.bestNumInliers = 0;
+		this.bestError = Double.MAX_VALUE;
+		this.requiredIterations = maxIterations;
+
+		final int numTasks = ( service == null || numCandidates < minCandidatesMultiThreaded ) ? 1 : Threads.numThreads();
+		final int batchSize = numTasks * Math.max( 1, hypothesesPerTask );
+
+		// the results of one batch: number of inliers (-1 if the hypothesis was rejected), average error, sample
+		final int[] numInliers = new int[ batchSize ];
+		final double[] errors = new double[ batchSize ];
+		final int[][] samples = new int[ batchSize ][ m ];
+
+		final ArrayList< Model< ? > > hypotheses = new ArrayList<>();
+		for ( int t = 0; t < numTasks; ++t )
+			hypotheses.add( model.copy() );
+
+		int iteration = 0;
+
+		while ( iteration < requiredIterations )
+		{
+			final int first = iteration;
+			final int count = Math.min( batchSize, requiredIterations - first );
+			final int toBeat = bestNumInliers;
+
+			if ( numTasks == 1 )
+			{
+				hypothesize( hypotheses.get( 0 ), first, count, 0, 1, toBeat, maxEpsilon, minInlierRatio, minNumInliers, numInliers, errors, samples );
+			}
+			else
+			{
+				final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+				for ( int t = 0; t < numTasks; ++t )
+				{
+					final int task = t;
+
+					tasks.add( () ->
+					{
+						hypothesize( hypotheses.get( task ), first, count, task, numTasks, toBeat, maxEpsilon, minInlierRatio, minNumInliers, numInliers, errors, samples );
+						return null;
+					});
+				}
+
+				try
+				{
+					for ( final Future< Void > future : service.invokeAll( tasks ) )
+						future.get();
+				}
+				catch ( InterruptedException | ExecutionException e )
+				{
+					throw new RuntimeException( "Failed to evaluate RANSAC hypotheses: " + e, e );
+				}
+			}
+
+			// merge in the order of the iterations, as a sequential loop would
+			for ( int j = 0; j < count && first + j < requiredIterations; ++j )
+			{
+				iteration = first + j + 1;
+
+				if ( numInliers[ j ] < 0 )
+					continue;
+
+				if ( numInliers[ j ] > bestNumInliers || ( numInliers[ j ] == bestNumInliers && errors[ j ] < bestError ) )
+				{
+					bestNumInliers = numInliers[ j ];
+					bestError = errors[ j ];
+					bestSample = samples[ j ].clone();
+
+					// number of iterations so that an outlier-free sample was drawn with the desired confidence
+					final double pOutlierFree = Math.pow( (double)bestNumInliers / (double)numCandidates, m );
+					final double required = pOutlierFree >= 1 ? 1 : Math.ceil( Math.log( 1.0 - confidence ) / Math.log( 1.0 - pOutlierFree ) );
+
+					if ( required < requiredIterations )
+						requiredIterations = (int)Math.max( 1, required );
+				}
+			}
+		}
+
+		numIterationsRun = Math.min( iteration, requiredIterations );
+
+		if ( bestSample == null )
+			return false;
+
+		try
+		{
+			model.fit( sample( bestSample ) );
+		}
+		catch ( IllDefinedDataPointsException e )
+		{
+			return false;
+		}
+
+		final double[] l = new double[ n ];
+		final double maxSquaredEpsilon = maxEpsilon * maxEpsilon;
+
+		for ( int i = 0; i < numCandidates; ++i )
+			if ( squaredDistance( model, i, l ) < maxSquaredEpsilon )
+				consensus.add( (P)candidates.get( i ) );
+
+		return true;
+	}
+
+	/**
+	 * @return how many hypotheses were evaluated in the last call of ransac()
+	 */
+	public int getNumIterations() { return numIterationsRun; }
+
+	/**
+	 * Evaluates the hypotheses first + task, first + task + numTasks, ... of a batch.
+	 */
+	protected void hypothesize(
+			final Model< ? > hypothesis,
+			final int first,
+			final int count,
+			final int task,
+			final int numTasks,
+			final int toBeat,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final int[] numInliersOut,
+			final double[] errorsOut,
+			final int[][] samples )
+	{
+		final int m = hypothesis.getMinNumMatches();
+		final double[] l = new double[ n ];
+		final double maxSquaredEpsilon = maxEpsilon * maxEpsilon;
+		final Random rnd = new Random();
+
+		for ( int j = task; j < count; j += numTasks )
+		{
+			final int iteration = first + j;
+			final int[] sample = samples[ j ];
+
+			numInliersOut[ j ] = -1;
+
+			// guided sampling: draw from the best candidates first, the pool grows linearly to all candidates
+			final int poolSize = guided ? (int)Math.min( numCandidates, m + (long)iteration * numCandidates / Math.max( 1, guidedSamplingIterations ) ) : numCandidates;
+
+			rnd.setSeed( seed( iteration ) );
+			drawSample( rnd, poolSize, sample );
+
+			try
+			{
+				hypothesis.fit( sample( sample ) );
+			}
+			catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				continue;
+			}
+
+			int numInliers = 0;
+			double error = 0;
+			boolean abandoned = false;
+
+			for ( int i = 0; i < numCandidates; ++i )
+			{
+				final double d = squaredDistance( hypothesis, i, l );
+
+				if ( d < maxSquaredEpsilon )
+				{
+					++numInliers;
+					error += Math.sqrt( d );
+				}
+				else if ( numInliers + ( numCandidates - i - 1 ) < toBeat )
+				{
+					// cannot become as good as the best hypothesis of the previous batches anymore
+					abandoned = true;
+					break;
+				}
+			}
+
+			final double ratio = (double)numInliers / (double)numCandidates;
+
+			if ( abandoned || numInliers < minNumInliers || ratio <= minInlierRatio )
+				continue;
+
+			numInliersOut[ j ] = numInliers;
+			errorsOut[ j ] = error / numInliers;
+		}
+	}
+
+	/**
+	 * @param iteration - the index of the iteration
+	 * @return a well-mixed seed for the random sampling of this iteration (SplitMix64)
+	 */
+	protected static long seed( final int iteration )
+	{
+		long z = randomSeed + iteration * 0x9E3779B97F4A7C15L;
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+
+	protected void drawSample( final Random rnd, final int poolSize, final int[] sample )
+	{
+		for ( int j = 0; j < sample.length; ++j )
+		{
+			boolean unique;
+
+			do
+			{
+				sample[ j ] = order[ rnd.nextInt( poolSize ) ];
+				unique = true;
+
+				for ( int k = 0; k < j; ++k )
+					if ( sample[ k ] == sample[ j ] )
+						unique = false;
+			}
+			while ( !unique );
+		}
+	}
+
+	protected ArrayList< PointMatch > sample( final int[] indices )
+	{
+		final ArrayList< PointMatch > matches = new ArrayList<>( indices.length );
+
+		for ( final int i : indices )
+			matches.add( new PointMatch(
+					new Point( Arrays.copyOfRange( p1, i * n, i * n + n ) ),
+					new Point( Arrays.copyOfRange( p2, i * n, i * n + n ) ),
+					weights[ i ] ) );
+
+		return matches;
+	}
+
+	protected double squaredDistance( final Model< ? > model, final int i, final double[] l )
+	{
+		final int o = i * n;
+
+		System.arraycopy( p1, o, l, 0, n );
+		model.applyInPlace( l );
+
+		double d = 0;
+
+		for ( int k = 0; k < n; ++k )
+		{
+			final double diff = l[ k ] - p2[ o + k ];
+			d += diff * diff;
+		}
+
+		return d;
+	}
+}
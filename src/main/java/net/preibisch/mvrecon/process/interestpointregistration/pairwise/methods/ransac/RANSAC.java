@@ -24,6 +24,7 @@ package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
@@ -41,14 +42,59 @@ import mpicbg.models.PointMatch;
  */
 public class RANSAC
 {
+	// max trust of the final filter step, same as mpicbg's Model.filterRansac
+	public static double maxTrust = 4.0;
+
+	public static < I extends InterestPoint > Pair< String, Double > computeRANSAC( 
+			final ArrayList< PointMatchGeneric < I > > correspondenceCandidates, 
+			final ArrayList< PointMatchGeneric < I > > inlierList, 
+			final Model<?> model, 
+			final double maxEpsilon, 
+			final double minInlierRatio, 
+			final double minNumberInlierFactor, 
+			final int numIterations )
+	{
+		return computeRANSAC( correspondenceCandidates, null, inlierList, model, maxEpsilon, minInlierRatio, minNumberInlierFactor, numIterations );
+	}
+
 	public static < I extends InterestPoint > Pair< String, Double > computeRANSAC( 
 			final ArrayList< PointMatchGeneric < I > > correspondenceCandidates, 
+			final double[] descriptorDistances,
 			final ArrayList< PointMatchGeneric < I > > inlierList, 
 			final Model<?> model, 
 			final double maxEpsilon, 
 			final double minInlierRatio, 
 			final double minNumberInlierFactor, 
 			final int numIterations )
+	{
+		return computeRANSAC( correspondenceCandidates, descriptorDistances, inlierList, model, maxEpsilon, minInlierRatio, minNumberInlierFactor, numIterations, null );
+	}
+
+	/**
+	 * Computes RANSAC (deterministic, stopping adaptively, see {@link AdaptiveRANSAC}) followed by the iterative filter of mpicbg.
+	 *
+	 * @param correspondenceCandidates - the candidates
+	 * @param descriptorDistances - the descriptor distance of each candidate to guide the sampling, or null
+	 * @param inlierList - will contain the inliers
+	 * @param model - the model
+	 * @param maxEpsilon - maximal error of an inlier
+	 * @param minInlierRatio - minimal ratio of inliers
+	 * @param minNumberInlierFactor - minimal number of inliers as a multiple of the minimal number of matches of the model
+	 * @param numIterations - maximal number of RANSAC iterations
+	 * @param service - evaluates the hypotheses in parallel, or null to use the calling thread (e.g. if the pairs are already matched in parallel)
+	 * @param <I> - interest point type
+	 * @return the message and the average error (NaN if it failed)
+	 */
+	public static < I extends InterestPoint > Pair< String, Double > computeRANSAC( 
+			final ArrayList< PointMatchGeneric < I > > correspondenceCandidates, 
+			final double[] descriptorDistances,
+			final ArrayList< PointMatchGeneric < I > > inlierList, 
+			final Model<?> model, 
+			final double maxEpsilon, 
+			final double minInlierRatio, 
+			final double minNumberInlierFactor, 
+			final int numIterations,
+			final ExecutorService service )
 	{
 		final int numCorrespondences = correspondenceCandidates.size();
 		final int minNumCorrespondences = Math.max( model.getMinNumMatches(), (int)Math.round( model.getMinNumMatches() * minNumberInlierFactor ) );
@@ -67,47 +113,46 @@ public class RANSAC
 		 * The ArrayList that stores the inliers after RANSAC, contains PointMatches of LinkedPoints
 		 * so that MultiThreading is possible
 		 */
-		//final ArrayList< PointMatchGeneric<LinkedPoint<T>> > candidates = new ArrayList<PointMatchGeneric<LinkedPoint<T>>>();		
 		final ArrayList< PointMatch > candidates = new ArrayList< PointMatch >();
 		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
-		
-		// clone the beads for the RANSAC as we are working multithreaded and they will be modified
-		for ( final PointMatchGeneric< I > correspondence : correspondenceCandidates )
-		{
-			final I detectionA = correspondence.getPoint1();
-			final I detectionB = correspondence.getPoint2();
-
-			// the LinkedPoint always clones the location array
-			final LinkedPoint< I > pA = new LinkedPoint< I >( detectionA.getL(), detectionA.getW(), detectionA );
-			final LinkedPoint< I > pB = new LinkedPoint< I >( detectionB.getL(), detectionB.getW(), detectionB );
-			final double weight = correspondence.getWeight(); 
+		final ArrayList< PointMatchGeneric< I > > consensus = new ArrayList<>();
 
-			candidates.add( new PointMatchGeneric< LinkedPoint< I > >( pA, pB, weight ) );
-		}
-		
 		boolean modelFound = false;
-		
+
 		try
 		{
-			/*modelFound = m.ransac(
-  					candidates,
-					inliers,
+			// the hypotheses are only evaluated on primitive copies of the coordinates
+			modelFound = new AdaptiveRANSAC( correspondenceCandidates, descriptorDistances ).ransac(
+					model,
+					consensus,
 					numIterations,
-					maxEpsilon, minInlierRatio );*/
-		
-			modelFound = model.filterRansac(
-					candidates,
-					inliers,
-					numIterations,
-					maxEpsilon, minInlierRatio ); 
+					maxEpsilon, minInlierRatio, model.getMinNumMatches(),
+					service );
+
+			// clone the beads of the consensus set for the filter as we are working multithreaded and they will be modified
+			for ( final PointMatchGeneric< I > correspondence : consensus )
+			{
+				final I detectionA = correspondence.getPoint1();
+				final I detectionB = correspondence.getPoint2();
+
+				// the LinkedPoint always clones the location array
+				final LinkedPoint< I > pA = new LinkedPoint< I >( detectionA.getL(), detectionA.getW(), detectionA );
+				final LinkedPoint< I > pB = new LinkedPoint< I >( detectionB.getL(), detectionB.getW(), detectionB );
+				final double weight = correspondence.getWeight(); 
+
+				candidates.add( new PointMatchGeneric< LinkedPoint< I > >( pA, pB, weight ) );
+			}
+
+			if ( modelFound )
+				modelFound = model.filter( candidates, inliers, maxTrust, model.getMinNumMatches() );
 		}
 		catch ( NotEnoughDataPointsException e )
 		{
 			return new ValuePair< String, Double >( e.toString(), Double.NaN );
 		}
-			
+
 		final NumberFormat nf = NumberFormat.getPercentInstance();
-		final double ratio = ( (double)inliers.size() / (double)candidates.size() );
+		final double ratio = ( (double)inliers.size() / (double)numCorrespondences );
 		
 		if ( modelFound && inliers.size() >= minNumCorrespondences )
 		{			
@@ -122,14 +167,14 @@ public class RANSAC
 				inlierList.add( new PointMatchGeneric< I >( detectionA, detectionB ) );
 			}
 
-			return new ValuePair< String, Double >( "Remaining inliers after RANSAC: " + inliers.size() + " of " + candidates.size() + " (" + nf.format(ratio) + ") with average error " + model.getCost(), model.getCost() );
+			return new ValuePair< String, Double >( "Remaining inliers after RANSAC: " + inliers.size() + " of " + numCorrespondences + " (" + nf.format(ratio) + ") with average error " + model.getCost(), model.getCost() );
 		}
 		else
 		{
 			if ( modelFound )
-				return new ValuePair< String, Double >( "Model found but not enough remaining inliers (" + inliers.size() + "/" + minNumCorrespondences + ") after RANSAC of " + candidates.size(), Double.NaN );
+				return new ValuePair< String, Double >( "Model found but not enough remaining inliers (" + inliers.size() + "/" + minNumCorrespondences + ") after RANSAC of " + numCorrespondences, Double.NaN );
 			else
-				return new ValuePair< String, Double >( "NO Model found after RANSAC of " + candidates.size(), Double.NaN );
+				return new ValuePair< String, Double >( "NO Model found after RANSAC of " + numCorrespondences, Double.NaN );
 		}
 	}
 }
@@ -23,21 +23,56 @@
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.rgldm;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.KDTree;
 import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.AbstractPointDescriptor;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.PointDescriptorMatrix;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.SimplePointDescriptor;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.SimplePointDescriptorMatrix;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.Matcher;
-import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.similarity.SimilarityMeasure;
-import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.similarity.SquareDistance;
 
 public class RGLDMMatcher< I extends InterestPoint >
 {
+	// the descriptor distance of each correspondence candidate of the last call to extractCorrespondenceCandidates
+	final ArrayList< Double > descriptorDistances = new ArrayList<>();
+
+	final ExecutorService service;
+
+	/**
+	 * @param service - computes the descriptors and the matching, must not stall on nested tasks (e.g.
+	 * {@link Threads#sharedFlexibleExecutorService()}) as the matching usually runs within a task of another pool
+	 */
+	public RGLDMMatcher( final ExecutorService service )
+	{
+		this.service = service;
+	}
+
+	public RGLDMMatcher()
+	{
+		this( Threads.sharedFlexibleExecutorService() );
+	}
+
+	/**
+	 * @return the descriptor distance of each correspondence candidate returned by the last call to extractCorrespondenceCandidates (e.g. for guided RANSAC sampling)
+	 */
+	public double[] getDescriptorDistances()
+	{
+		final double[] d = new double[ descriptorDistances.size() ];
+
+		for ( int i = 0; i < d.length; ++i )
+			d[ i ] = descriptorDistances.get( i );
+
+		return d;
+	}
+
 	public ArrayList< PointMatchGeneric< I > > extractCorrespondenceCandidates( 
 			final ArrayList< I > nodeListA,
 			final ArrayList< I > nodeListB,
@@ -50,23 +85,104 @@ public class RGLDMMatcher< I extends InterestPoint >
 		final KDTree< I > treeA = new KDTree< I >( nodeListA, nodeListA );
 		final KDTree< I > treeB = new KDTree< I >( nodeListB, nodeListB );
 		
-		/* extract point descriptors */
-		final Matcher matcher = new SubsetMatcher( numNeighbors, numNeighbors + redundancy );
-		final int numRequiredNeighbors = matcher.getRequiredNumNeighbors();
-		
-		final SimilarityMeasure similarityMeasure = new SquareDistance();
-		
-		final ArrayList< SimplePointDescriptor< I > > descriptorsA = createSimplePointDescriptors( treeA, nodeListA, numRequiredNeighbors, matcher, similarityMeasure );
-		final ArrayList< SimplePointDescriptor< I > > descriptorsB = createSimplePointDescriptors( treeB, nodeListB, numRequiredNeighbors, matcher, similarityMeasure );
+		/* extract point descriptors (SubsetMatcher( numNeighbors, numNeighbors + redundancy ), SquareDistance) in parallel */
+		final SimplePointDescriptorMatrix< I > descriptorsA = new SimplePointDescriptorMatrix<>( treeA, nodeListA, numNeighbors, numNeighbors + redundancy, service );
+		final SimplePointDescriptorMatrix< I > descriptorsB = new SimplePointDescriptorMatrix<>( treeB, nodeListB, numNeighbors, numNeighbors + redundancy, service );
 
-		return findCorrespondingDescriptors( descriptorsA, descriptorsB, ratioOfDistance, differenceThreshold );
+		descriptorDistances.clear();
+
+		return findCorrespondingDescriptors( descriptorsA, descriptorsB, ratioOfDistance, differenceThreshold, descriptorDistances, service );
+	}
+
+	/**
+	 * Same as {@link #findCorrespondingDescriptors(ArrayList, ArrayList, double, double, List)}, but computes the best
+	 * and second best match of all descriptors of A in parallel directly on the flat descriptors.
+	 *
+	 * @param descriptorsA - descriptors of A
+	 * @param descriptorsB - descriptors of B
+	 * @param nTimesBetter - how much better the best match has to be than the second best
+	 * @param differenceThreshold - max difference of the best match
+	 * @param descriptorDistances - the descriptor distance of every candidate is added here (can be null)
+	 * @param service - the executor service (if null the shared one of {@link PointDescriptorMatrix} is used)
+	 * @param <I> - interest point type
+	 * @return the correspondence candidates
+	 */
+	protected static final < I extends InterestPoint > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptors(
+			final SimplePointDescriptorMatrix< I > descriptorsA,
+			final SimplePointDescriptorMatrix< I > descriptorsB,
+			final double nTimesBetter,
+			final double differenceThreshold,
+			final List< Double > descriptorDistances,
+			final ExecutorService service )
+	{
+		final int numA = descriptorsA.numDescriptors();
+		final int numB = descriptorsB.numDescriptors();
+
+		final int[] bestMatch = new int[ numA ];
+		final double[] bestDifferences = new double[ numA ];
+
+		PointDescriptorMatrix.parallel( numA, ( from, to ) ->
+		{
+			for ( int a = from; a < to; ++a )
+			{
+				double bestDifference = Double.MAX_VALUE;
+				double secondBestDifference = Double.MAX_VALUE;
+
+				int best = -1;
+
+				for ( int b = 0; b < numB; ++b )
+				{
+					// only the two best matches are of interest
+					final double difference = descriptorsA.descriptorDistance( a, descriptorsB, b, secondBestDifference );
+
+					if ( difference < secondBestDifference )
+					{
+						secondBestDifference = difference;
+
+						if ( secondBestDifference < bestDifference )
+						{
+							secondBestDifference = bestDifference;
+							bestDifference = difference;
+							best = b;
+						}
+					}
+				}
+
+				if ( bestDifference < differenceThreshold && bestDifference * nTimesBetter < secondBestDifference )
+				{
+					bestMatch[ a ] = best;
+					bestDifferences[ a ] = bestDifference;
+				}
+				else
+				{
+					bestMatch[ a ] = -1;
+				}
+			}
+		}, service );
+
+		final ArrayList< PointMatchGeneric< I > > correspondenceCandidates = new ArrayList<>();
+
+		for ( int a = 0; a < numA; ++a )
+		{
+			if ( bestMatch[ a ] < 0 )
+				continue;
+
+			// add correspondence for the two basis points of the descriptor, for RANSAC
+			correspondenceCandidates.add( new PointMatchGeneric< I >( descriptorsA.getBasisPoints().get( a ), descriptorsB.getBasisPoints().get( bestMatch[ a ] ) ) );
+
+			if ( descriptorDistances != null )
+				descriptorDistances.add( bestDifferences[ a ] );
+		}
+
+		return correspondenceCandidates;
 	}
 	
 	protected static final < I extends InterestPoint, D extends AbstractPointDescriptor< I , D > > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptors(
 			final ArrayList< D > descriptorsA,
 			final ArrayList< D > descriptorsB,
 			final double nTimesBetter,
-			final double differenceThreshold )
+			final double differenceThreshold,
+			final List< Double > descriptorDistances )
 	{
 		final ArrayList< PointMatchGeneric< I > > correspondenceCandidates = new ArrayList<>();
 		
@@ -109,6 +225,9 @@ public class RGLDMMatcher< I extends InterestPoint >
 				
 				// for RANSAC
 				correspondenceCandidates.add( new PointMatchGeneric< I >( detectionA, detectionB ) );
+
+				if ( descriptorDistances != null )
+					descriptorDistances.add( bestDifference );
 			}
 		}
 
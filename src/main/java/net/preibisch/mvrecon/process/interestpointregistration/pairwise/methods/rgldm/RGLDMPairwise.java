@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
@@ -75,7 +76,7 @@ public class RGLDMPairwise< I extends InterestPoint > implements MatcherPairwise
 			return result;
 		}
 
-		final RGLDMMatcher< I > matcher = new RGLDMMatcher< I >();
+		final RGLDMMatcher< I > matcher = new RGLDMMatcher< I >( Threads.sharedFlexibleExecutorService() );
 		final ArrayList< PointMatchGeneric< I > > candidates = matcher.extractCorrespondenceCandidates(
 				listA,
 				listB,
@@ -86,10 +87,10 @@ public class RGLDMPairwise< I extends InterestPoint > implements MatcherPairwise
 
 		result.setCandidates( candidates );
 
-		// compute ransac and remove inconsistent candidates
+		// compute ransac and remove inconsistent candidates, sampling guided by the descriptor distances
 		final ArrayList< PointMatchGeneric< I > > inliers = new ArrayList<>();
 	
-		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, inliers, dp.getModel(), rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations() );
+		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, matcher.getDescriptorDistances(), inliers, dp.getModel(), rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations(), Threads.sharedFlexibleExecutorService() );
 	
 		result.setInliers( inliers, ransacResult.getB() );
 	
@@ -26,22 +26,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Random;
 
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
-import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
-import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointremoval.NearestNeighborDistances.ViewPoints;
 import net.preibisch.mvrecon.process.interestpointremoval.histogram.Histogram;
 
 public class DistanceHistogram
@@ -70,9 +65,7 @@ public class DistanceHistogram
 	{
 		final ViewInterestPoints vip = spimData.getViewInterestPoints();
 
-		// list of all distances
-		final ArrayList< Double > distances = new ArrayList< Double >();
-		final Random rnd = new Random( System.currentTimeMillis() );
+		final HashMap< ViewId, InterestPointList > lists = new HashMap<>();
 		String unit = null;
 
 		for ( final ViewId viewId : viewIds )
@@ -85,43 +78,22 @@ public class DistanceHistogram
 			if ( ipl == null )
 				continue;
 
-			final VoxelDimensions voxelSize = vd.getViewSetup().getVoxelSize();
-
 			if ( unit == null )
 				unit = vd.getViewSetup().getVoxelSize().unit();
 
-			// assemble the list of points
-			final List< RealPoint > list = new ArrayList< RealPoint >();
+			lists.put( viewId, ipl );
+		}
 
-			for ( final InterestPoint ip : ipl.getInterestPointsCopy() )
-			{
-				list.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
+		// load points & KDTrees in parallel
+		final HashMap< ViewId, ViewPoints > points = NearestNeighborDistances.getViewPoints( spimData, lists, Threads.numThreads() );
 
-			if ( list.size() < 2 )
-				continue;
+		for ( final ViewId viewId : lists.keySet() )
+			if ( points.get( viewId ).size() < 2 )
+				points.remove( viewId );
 
-			// make the KDTree
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( list, list );
-
-			// Nearest neighbor for each point
-			final KNearestNeighborSearchOnKDTree< RealPoint > nn = new KNearestNeighborSearchOnKDTree< RealPoint >( tree, 2 );
-
-			for ( final RealPoint p : list )
-			{
-				// every n'th point only
-				if ( subsampling == 1 || rnd.nextDouble() < 1.0 / subsampling )
-				{
-					nn.search( p );
-					
-					// first nearest neighbor is the point itself, we need the second nearest
-					distances.add( nn.getDistance( 1 ) );
-				}
-			}
-		}
+		// nearest neighbor (excluding the point itself) for every n'th point (randomly), all views in parallel
+		final ArrayList< Double > distances = NearestNeighborDistances.collect(
+				NearestNeighborDistances.nearestNeighborDistances( points, points, 1.0 / subsampling, Threads.numThreads() ) );
 
 		final Histogram h = new Histogram( distances, 100, "Distance Histogram [" + title + "]", unit  );
 		h.showHistogram();
@@ -0,0 +1,221 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointremoval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.pointcloud.PointKDTree;
+
+/**
+ * Computes nearest neighbor distances of interest points for many views in parallel (used by thin-out,
+ * relative thin-out and the distance histograms). The points of each {@link InterestPointList} are copied into
+ * primitive arrays together with a {@link PointKDTree} for every call, so they always reflect the current points.
+ */
+public class NearestNeighborDistances
+{
+	// how many queries one task performs
+	public static int pointsPerTask = 10000;
+
+	public static class ViewPoints
+	{
+		// the raw local coordinates and the ones scaled by the voxel size, both [x0,y0,z0,x1,...]
+		final double[] local, scaled;
+		final PointKDTree tree;
+
+		protected ViewPoints( final List< InterestPoint > points, final double[] scale )
+		{
+			this.local = new double[ points.size() * 3 ];
+			this.scaled = new double[ points.size() * 3 ];
+
+			for ( int i = 0; i < points.size(); ++i )
+			{
+				final double[] l = points.get( i ).getL();
+
+				for ( int d = 0; d < 3; ++d )
+				{
+					local[ i * 3 + d ] = l[ d ];
+					scaled[ i * 3 + d ] = l[ d ] * scale[ d ];
+				}
+			}
+
+			this.tree = new PointKDTree( scaled, 3 );
+		}
+
+		public int size() { return tree.size(); }
+
+		/**
+		 * @param i - index of the point
+		 * @return a copy of the local (unscaled) coordinates of a point
+		 */
+		public double[] getLocal( final int i ) { return Arrays.copyOfRange( local, i * 3, i * 3 + 3 ); }
+	}
+
+	/**
+	 * @param ipl - the interest point list
+	 * @param voxelSize - the voxel size the coordinates are scaled with
+	 * @return the points and KD-tree of this list
+	 */
+	public static ViewPoints getViewPoints( final InterestPointList ipl, final VoxelDimensions voxelSize )
+	{
+		final double[] scale = new double[]{ voxelSize.dimension( 0 ), voxelSize.dimension( 1 ), voxelSize.dimension( 2 ) };
+
+		return new ViewPoints( ipl.getInterestPointsCopy(), scale );
+	}
+
+	/**
+	 * Loads the points and builds the KD-trees for many views in parallel.
+	 *
+	 * @param spimData - the SpimData2 for the voxel sizes
+	 * @param lists - the interest point list for each view
+	 * @param numThreads - how many threads to use
+	 * @return the points and KD-tree for each view
+	 */
+	public static HashMap< ViewId, ViewPoints > getViewPoints(
+			final SpimData2 spimData,
+			final Map< ? extends ViewId, InterestPointList > lists,
+			final int numThreads )
+	{
+		final Map< ViewId, ViewPoints > result = Collections.synchronizedMap( new HashMap<>() );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final ViewId viewId : lists.keySet() )
+		{
+			final VoxelDimensions voxelSize = spimData.getSequenceDescription().getViewDescription( viewId ).getViewSetup().getVoxelSize();
+
+			tasks.add( () ->
+			{
+				result.put( viewId, getViewPoints( lists.get( viewId ), voxelSize ) );
+				return null;
+			});
+		}
+
+		FusionTools.execTasks( tasks, numThreads, "load interest points" );
+
+		return new HashMap<>( result );
+	}
+
+	/**
+	 * Computes for every point of the query views the distance to the nearest neighbor in the reference
+	 * points of the same view. If query and reference are the same, the point itself is ignored. All views
+	 * and blocks of points within each view are processed in parallel.
+	 *
+	 * @param queries - the query points per view
+	 * @param references - the reference points per view (can be the same as queries)
+	 * @param fraction - fraction of query points for which the distance is computed randomly (1.0 for all), others are NaN
+	 * @param numThreads - how many threads to use
+	 * @return the distance for each query point per view
+	 */
+	public static HashMap< ViewId, double[] > nearestNeighborDistances(
+			final Map< ? extends ViewId, ViewPoints > queries,
+			final Map< ? extends ViewId, ViewPoints > references,
+			final double fraction,
+			final int numThreads )
+	{
+		final HashMap< ViewId, double[] > distances = new HashMap<>();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final ViewId viewId : queries.keySet() )
+		{
+			final ViewPoints query = queries.get( viewId );
+			final ViewPoints reference = references.get( viewId );
+
+			if ( query == null || reference == null )
+				continue;
+
+			final boolean excludeSelf = ( query == reference );
+			final double[] d = new double[ query.size() ];
+			distances.put( viewId, d );
+
+			for ( int start = 0; start < d.length; start += pointsPerTask )
+			{
+				final int from = start;
+				final int to = Math.min( d.length, start + pointsPerTask );
+
+				tasks.add( () ->
+				{
+					final PointKDTree.Search search = reference.tree.search();
+					final Random rnd = new Random( 31 * viewId.hashCode() + from );
+
+					for ( int i = from; i < to; ++i )
+					{
+						if ( fraction < 1.0 && rnd.nextDouble() >= fraction )
+						{
+							d[ i ] = Double.NaN;
+							continue;
+						}
+
+						search.nearest( query.scaled, i * 3, excludeSelf ? i : -1 );
+						d[ i ] = search.distance();
+					}
+
+					return null;
+				});
+			}
+		}
+
+		FusionTools.execTasks( tasks, numThreads, "compute nearest neighbor distances" );
+
+		return distances;
+	}
+
+	/**
+	 * @param distances - distances per view (NaN entries are ignored)
+	 * @return all distances in one list
+	 */
+	public static ArrayList< Double > collect( final Map< ? extends ViewId, double[] > distances )
+	{
+		final ArrayList< Double > all = new ArrayList<>();
+
+		for ( final double[] d : distances.values() )
+			for ( final double v : d )
+				if ( !Double.isNaN( v ) )
+					all.add( v );
+
+		return all;
+	}
+
+	/**
+	 * @param d - the distance
+	 * @param minDistance - lower threshold
+	 * @param maxDistance - upper threshold
+	 * @param keepRange - if true the range is kept, otherwise removed
+	 * @return if a point with this distance is kept
+	 */
+	public static boolean keep( final double d, final double minDistance, final double maxDistance, final boolean keepRange )
+	{
+		return ( keepRange && d >= minDistance && d <= maxDistance ) || ( !keepRange && ( d < minDistance || d > maxDistance ) );
+	}
+}
@@ -26,22 +26,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Random;
 
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
-import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
-import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointremoval.NearestNeighborDistances.ViewPoints;
 import net.preibisch.mvrecon.process.interestpointremoval.histogram.Histogram;
 
 public class RelativeDistanceHistogram
@@ -77,9 +72,8 @@ public class RelativeDistanceHistogram
 	{
 		final ViewInterestPoints vip = spimData.getViewInterestPoints();
 
-		// list of all distances
-		final ArrayList< Double > distances = new ArrayList< Double >();
-		final Random rnd = new Random( System.currentTimeMillis() );
+		final HashMap< ViewId, InterestPointList > lists = new HashMap<>();
+		final HashMap< ViewId, InterestPointList > listsRelative = new HashMap<>();
 		String unit = null;
 
 		for ( final ViewId viewId : viewIds )
@@ -105,59 +99,32 @@ public class RelativeDistanceHistogram
 				continue;
 			}
 
-			final VoxelDimensions voxelSize = vd.getViewSetup().getVoxelSize();
-
 			if ( unit == null )
 				unit = vd.getViewSetup().getVoxelSize().unit();
 
-			// assemble the list of points
-			final List< RealPoint > list = new ArrayList< RealPoint >();
-
-			for ( final InterestPoint ip : ipl.getInterestPointsCopy() )
-			{
-				list.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
-
-			// assemble the list of relative
-			final List< RealPoint > listRelative = new ArrayList< RealPoint >();
+			lists.put( viewId, ipl );
+			listsRelative.put( viewId, iplRelative );
+		}
 
-			for ( final InterestPoint ip : iplRelative.getInterestPointsCopy() )
-			{
-				listRelative.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
+		// load points & KDTrees of both labels in parallel
+		final HashMap< ViewId, ViewPoints > points = NearestNeighborDistances.getViewPoints( spimData, lists, Threads.numThreads() );
+		final HashMap< ViewId, ViewPoints > pointsRelative = NearestNeighborDistances.getViewPoints( spimData, listsRelative, Threads.numThreads() );
 
-			if ( list.size() < 1 || listRelative.size() < 1 )
+		for ( final ViewId viewId : lists.keySet() )
+		{
+			if ( points.get( viewId ).size() < 1 || pointsRelative.get( viewId ).size() < 1 )
 			{
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): "
 						+ "Not enough interestpoints for " + Group.pvid( viewId ) );
 
-				continue;
-			}
-
-			// make the KDTree of the relative interest point list, we need to iterate over all other points
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( listRelative, listRelative );
-
-			// Nearest neighbor for each point
-			final NearestNeighborSearchOnKDTree< RealPoint > nn = new NearestNeighborSearchOnKDTree< RealPoint >( tree );
-
-			for ( final RealPoint p : list )
-			{
-				// every n'th point only
-				if ( subsampling == 1 || rnd.nextDouble() < 1.0 / subsampling )
-				{
-					nn.search( p );
-
-					distances.add( nn.getDistance() );
-				}
+				points.remove( viewId );
 			}
 		}
 
+		// nearest neighbor in the relative list for every n'th point (randomly), all views in parallel
+		final ArrayList< Double > distances = NearestNeighborDistances.collect(
+				NearestNeighborDistances.nearestNeighborDistances( points, pointsRelative, 1.0 / subsampling, Threads.numThreads() ) );
+
 		final Histogram h = new Histogram( distances, 100, "Relative Distance Histogram [" + title + "]", unit  );
 		h.showHistogram();
 		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): min distance=" + h.getMin() + ", max distance=" + h.getMax() );
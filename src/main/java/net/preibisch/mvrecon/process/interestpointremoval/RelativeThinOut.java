@@ -26,21 +26,19 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.List;
+import java.util.HashMap;
 
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
-import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointremoval.NearestNeighborDistances.ViewPoints;
 
 public class RelativeThinOut
 {
@@ -52,10 +50,11 @@ public class RelativeThinOut
 		final double maxDistance = rtop.getMax();
 		final boolean keepRange = rtop.keepRange();
 
+		final HashMap< ViewId, InterestPointList > lists = new HashMap<>();
+		final HashMap< ViewId, InterestPointList > listsRelative = new HashMap<>();
+
 		for ( final ViewId viewId : viewIds )
 		{
-			final ViewDescription vd = spimData.getSequenceDescription().getViewDescription( viewId );
-
 			final ViewInterestPointLists vipl = vip.getViewInterestPointLists( viewId );
 			final InterestPointList oldIpl = vipl.getInterestPointList( rtop.getLabel() );
 
@@ -75,45 +74,41 @@ public class RelativeThinOut
 				continue;
 			}
 
-			final VoxelDimensions voxelSize = vd.getViewSetup().getVoxelSize();
+			lists.put( viewId, oldIpl );
+			listsRelative.put( viewId, iplRelative );
+		}
 
-			final List< RealPoint > list = new ArrayList< RealPoint >();
-			final List< double[] > points = new ArrayList< double[] >();
+		// load points & KDTrees of both labels in parallel
+		final HashMap< ViewId, ViewPoints > points = NearestNeighborDistances.getViewPoints( spimData, lists, Threads.numThreads() );
+		final HashMap< ViewId, ViewPoints > pointsRelative = NearestNeighborDistances.getViewPoints( spimData, listsRelative, Threads.numThreads() );
 
-			for ( final InterestPoint ip : oldIpl.getInterestPointsCopy() )
+		for ( final ViewId viewId : lists.keySet() )
+		{
+			if ( points.get( viewId ).size() < 1 || pointsRelative.get( viewId ).size() < 1 )
 			{
-				list.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): "
+						+ "Not enough interestpoints for " + Group.pvid( viewId ) );
 
-				points.add( ip.getL() );
+				points.remove( viewId );
 			}
+		}
 
-			// assemble the list of relative
-			final List< RealPoint > listRelative = new ArrayList< RealPoint >();
-
-			for ( final InterestPoint ip : iplRelative.getInterestPointsCopy() )
-			{
-				listRelative.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
-
-			if ( list.size() < 1 || listRelative.size() < 1 )
-			{
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): "
-						+ "Not enough interestpoints for " + Group.pvid( viewId ) );
+		// nearest neighbor in the relative list for each point, all views in parallel
+		final HashMap< ViewId, double[] > distances = NearestNeighborDistances.nearestNeighborDistances( points, pointsRelative, 1.0, Threads.numThreads() );
 
+		// write back the new lists
+		for ( final ViewId viewId : viewIds )
+		{
+			if ( !points.containsKey( viewId ) )
 				continue;
-			}
 
-			// make the KDTree
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( listRelative, listRelative );
+			final ViewDescription vd = spimData.getSequenceDescription().getViewDescription( viewId );
+
+			final ViewInterestPointLists vipl = vip.getViewInterestPointLists( viewId );
+			final InterestPointList oldIpl = lists.get( viewId );
+			final ViewPoints vp = points.get( viewId );
+			final double[] d = distances.get( viewId );
 
-			// Nearest neighbor for each point, populate the new list
-			final NearestNeighborSearchOnKDTree< RealPoint > nn = new NearestNeighborSearchOnKDTree< RealPoint >( tree );
 			final InterestPointList newIpl = new InterestPointList(
 					oldIpl.getBaseDir(),
 					new File(
@@ -123,17 +118,9 @@ public class RelativeThinOut
 			final ArrayList< InterestPoint > newIPs = new ArrayList<>();
 
 			int id = 0;
-			for ( int j = 0; j < list.size(); ++j )
-			{
-				final RealPoint p = list.get( j );
-				nn.search( p );
-				
-				// first nearest neighbor is the point itself, we need the second nearest
-				final double d = nn.getDistance();
-				
-				if ( ( keepRange && d >= minDistance && d <= maxDistance ) || ( !keepRange && ( d < minDistance || d > maxDistance ) ) )
-					newIPs.add( new InterestPoint( id++, points.get( j ).clone() ) );
-			}
+			for ( int j = 0; j < vp.size(); ++j )
+				if ( NearestNeighborDistances.keep( d[ j ], minDistance, maxDistance, keepRange ) )
+					newIPs.add( new InterestPoint( id++, vp.getLocal( j ) ) );
 
 			newIpl.setInterestPoints( newIPs );
 			newIpl.setCorrespondingInterestPoints( new ArrayList<>() );
@@ -146,7 +133,7 @@ public class RelativeThinOut
 			vipl.addInterestPointList( rtop.getNewLabel(), newIpl );
 
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": TP=" + vd.getTimePointId() + " ViewSetup=" + vd.getViewSetupId() + 
-					", Detections: " + oldIpl.getInterestPointsCopy().size() + " >>> " + newIpl.getInterestPointsCopy().size() );
+					", Detections: " + vp.size() + " >>> " + newIPs.size() );
 		}
 
 			return true;
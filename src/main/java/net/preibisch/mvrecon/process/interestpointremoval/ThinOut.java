@@ -25,20 +25,19 @@ package net.preibisch.mvrecon.process.interestpointremoval;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
-import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
+import net.preibisch.mvrecon.process.interestpointremoval.NearestNeighborDistances.ViewPoints;
 
 public class ThinOut
 {
@@ -50,44 +49,33 @@ public class ThinOut
 		final double maxDistance = top.getMax();
 		final boolean keepRange = top.keepRange();
 
+		final HashMap< ViewId, InterestPointList > lists = new HashMap<>();
+
 		for ( final ViewId viewId : viewIds )
 		{
-			final ViewDescription vd = spimData.getSequenceDescription().getViewDescription( viewId );
-
-			final ViewInterestPointLists vipl = vip.getViewInterestPointLists( viewId );
-			final InterestPointList oldIpl = vipl.getInterestPointList( top.getLabel() );
-
-			if ( oldIpl == null )
-				continue;
-
-			final VoxelDimensions voxelSize = vd.getViewSetup().getVoxelSize();
+			final InterestPointList oldIpl = vip.getViewInterestPointLists( viewId ).getInterestPointList( top.getLabel() );
 
-			// assemble the list of points (we need two lists as the KDTree sorts the list)
-			// we assume that the order of list2 and points is preserved!
-			final List< RealPoint > list1 = new ArrayList< RealPoint >();
-			final List< RealPoint > list2 = new ArrayList< RealPoint >();
-			final List< double[] > points = new ArrayList< double[] >();
+			if ( oldIpl != null )
+				lists.put( viewId, oldIpl );
+		}
 
-			for ( final InterestPoint ip : oldIpl.getInterestPointsCopy() )
-			{
-				list1.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
+		// load points & KDTrees, compute the nearest neighbor (excluding the point itself) for each point, all in parallel
+		final HashMap< ViewId, ViewPoints > points = NearestNeighborDistances.getViewPoints( spimData, lists, Threads.numThreads() );
+		final HashMap< ViewId, double[] > distances = NearestNeighborDistances.nearestNeighborDistances( points, points, 1.0, Threads.numThreads() );
 
-				list2.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
+		// write back the new lists
+		for ( final ViewId viewId : viewIds )
+		{
+			if ( !lists.containsKey( viewId ) )
+				continue;
 
-				points.add( ip.getL() );
-			}
+			final ViewDescription vd = spimData.getSequenceDescription().getViewDescription( viewId );
 
-			// make the KDTree
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( list1, list1 );
+			final ViewInterestPointLists vipl = vip.getViewInterestPointLists( viewId );
+			final InterestPointList oldIpl = lists.get( viewId );
+			final ViewPoints vp = points.get( viewId );
+			final double[] d = distances.get( viewId );
 
-			// Nearest neighbor for each point, populate the new list
-			final KNearestNeighborSearchOnKDTree< RealPoint > nn = new KNearestNeighborSearchOnKDTree< RealPoint >( tree, 2 );
 			final InterestPointList newIpl = new InterestPointList(
 					oldIpl.getBaseDir(),
 					new File(
@@ -97,17 +85,9 @@ public class ThinOut
 			final ArrayList< InterestPoint > newIPs = new ArrayList<>();
 
 			int id = 0;
-			for ( int j = 0; j < list2.size(); ++j )
-			{
-				final RealPoint p = list2.get( j );
-				nn.search( p );
-				
-				// first nearest neighbor is the point itself, we need the second nearest
-				final double d = nn.getDistance( 1 );
-				
-				if ( ( keepRange && d >= minDistance && d <= maxDistance ) || ( !keepRange && ( d < minDistance || d > maxDistance ) ) )
-					newIPs.add( new InterestPoint( id++, points.get( j ).clone() ) );
-			}
+			for ( int j = 0; j < vp.size(); ++j )
+				if ( NearestNeighborDistances.keep( d[ j ], minDistance, maxDistance, keepRange ) )
+					newIPs.add( new InterestPoint( id++, vp.getLocal( j ) ) );
 
 			newIpl.setInterestPoints( newIPs );
 			newIpl.setCorrespondingInterestPoints( new ArrayList<>() );
@@ -120,7 +100,7 @@ public class ThinOut
 			vipl.addInterestPointList( top.getNewLabel(), newIpl );
 
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": TP=" + vd.getTimePointId() + " ViewSetup=" + vd.getViewSetupId() + 
-					", Detections: " + oldIpl.getInterestPointsCopy().size() + " >>> " + newIpl.getInterestPointsCopy().size() );
+					", Detections: " + vp.size() + " >>> " + newIPs.size() );
 		}
 
 			return true;
@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.metrics;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * Logs messages from a background thread, messages that queue up while the log is busy are written as one batch
+ * (so a burst of messages from worker threads costs one call of {@link IOFunctions#println(String)}, not one per message).
+ */
+public class AsyncLogSink
+{
+	// how long the JVM shutdown waits for queued messages (in ms)
+	public static long shutdownTimeout = 2000;
+
+	private static AsyncLogSink instance;
+
+	final LinkedBlockingQueue< String > queue = new LinkedBlockingQueue<>();
+	final AtomicLong submitted = new AtomicLong(), written = new AtomicLong();
+
+	public static synchronized AsyncLogSink getInstance()
+	{
+		if ( instance == null )
+			instance = new AsyncLogSink();
+
+		return instance;
+	}
+
+	protected AsyncLogSink()
+	{
+		final Thread thread = new Thread( () ->
+		{
+			final ArrayList< String > batch = new ArrayList<>();
+
+			while ( true )
+			{
+				try
+				{
+					batch.add( queue.take() );
+					queue.drainTo( batch );
+
+					IOFunctions.println( String.join( "\n", batch ) );
+				}
+				catch ( final InterruptedException e )
+				{
+					return;
+				}
+				catch ( final Exception e )
+				{
+					e.printStackTrace();
+				}
+				finally
+				{
+					written.addAndGet( batch.size() );
+					batch.clear();
+				}
+			}
+		}, "AsyncLogSink" );
+
+		thread.setDaemon( true );
+		thread.start();
+
+		// the daemon thread would otherwise be stopped with messages still queued
+		Runtime.getRuntime().addShutdownHook( new Thread( () -> flush( shutdownTimeout ), "AsyncLogSink-flush" ) );
+	}
+
+	public void println( final String message )
+	{
+		submitted.incrementAndGet();
+		queue.offer( message );
+	}
+
+	/**
+	 * Waits until all messages submitted so far are written.
+	 */
+	public void flush()
+	{
+		flush( Long.MAX_VALUE );
+	}
+
+	/**
+	 * Waits until all messages submitted so far are written, or the timeout elapsed.
+	 *
+	 * @param timeout - in milliseconds
+	 * @return true if all messages were written
+	 */
+	public boolean flush( final long timeout )
+	{
+		final long target = submitted.get();
+		final long start = System.currentTimeMillis();
+
+		while ( written.get() < target )
+		{
+			if ( System.currentTimeMillis() - start >= timeout )
+				return false;
+
+			try { Thread.sleep( 5 ); } catch ( final InterruptedException e ) { return false; }
+		}
+
+		return true;
+	}
+}
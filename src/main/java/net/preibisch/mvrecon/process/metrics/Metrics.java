@@ -0,0 +1,328 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.legacy.io.TextFileAccess;
+
+/**
+ * Lightweight, thread-safe metrics of the processing pipeline: named timers (with an optional number of processed
+ * units, e.g. voxels or blocks, to report throughput), counters (e.g. bytes read, cache hits/misses) and gauges (e.g. queue
+ * depths). Everything is global and accumulated until {@link #reset()}. If {@link #writeReports} is set, a report is written
+ * next to the XML whenever the project is saved (see {@link #writeReport(File)}), which also starts a new run, i.e. every
+ * report covers what happened since the previous one. Per-block messages of hot paths go through the {@link AsyncLogSink}.
+ * <p>
+ * Names are hierarchical by convention, e.g. "fusion.cell", "loader.bioformats.bytes".
+ */
+public class Metrics
+{
+	// record metrics at all
+	public static boolean enabled = true;
+
+	// write a .metrics.json and .metrics.csv next to the XML when it is saved (and log a summary), see Toggle_Performance_Options
+	// or start with -Dmvrecon.metrics.writeReports=true
+	public static boolean writeReports = Boolean.getBoolean( "mvrecon.metrics.writeReports" );
+
+	static final ConcurrentHashMap< String, Timer > timers = new ConcurrentHashMap<>();
+	static final ConcurrentHashMap< String, Counter > counters = new ConcurrentHashMap<>();
+	static final ConcurrentHashMap< String, Gauge > gauges = new ConcurrentHashMap<>();
+
+	static volatile long startTime = System.currentTimeMillis();
+
+	public static Timer timer( final String name ) { return timers.computeIfAbsent( name, n -> new Timer( n ) ); }
+	public static Counter counter( final String name ) { return counters.computeIfAbsent( name, n -> new Counter( n ) ); }
+	public static Gauge gauge( final String name ) { return gauges.computeIfAbsent( name, n -> new Gauge( n ) ); }
+
+	/**
+	 * Logs asynchronously, the calling thread does not wait for the ImageJ log window.
+	 *
+	 * @param message - the message
+	 */
+	public static void log( final String message )
+	{
+		AsyncLogSink.getInstance().println( message );
+	}
+
+	public static void reset()
+	{
+		timers.clear();
+		counters.clear();
+		gauges.clear();
+		startTime = System.currentTimeMillis();
+	}
+
+	public static boolean isEmpty() { return timers.isEmpty() && counters.isEmpty() && gauges.isEmpty(); }
+
+	/**
+	 * Measures the time (and the units processed) of a recurring operation, e.g. computing one cell of a fused image.
+	 */
+	public static class Timer
+	{
+		final String name;
+		final LongAdder count = new LongAdder(), nanos = new LongAdder(), units = new LongAdder();
+		final AtomicLong maxNanos = new AtomicLong(), first = new AtomicLong( Long.MAX_VALUE ), last = new AtomicLong( Long.MIN_VALUE );
+
+		protected Timer( final String name ) { this.name = name; }
+
+		/**
+		 * @return the start time to pass to {@link #stop(long, long)}
+		 */
+		public long start() { return System.nanoTime(); }
+
+		public long stop( final long start ) { return stop( start, 0 ); }
+
+		/**
+		 * @param start - as returned by {@link #start()}
+		 * @param units - how many units (e.g. voxels) were processed
+		 * @return the elapsed time in milliseconds
+		 */
+		public long stop( final long start, final long units )
+		{
+			final long end = System.nanoTime();
+			final long time = end - start;
+
+			if ( !enabled )
+				return time / 1000000;
+
+			count.increment();
+			nanos.add( time );
+			this.units.add( units );
+			maxNanos.accumulateAndGet( time, Math::max );
+			first.accumulateAndGet( start, Math::min );
+			last.accumulateAndGet( end, Math::max );
+
+			return time / 1000000;
+		}
+
+		public String getName() { return name; }
+		public long getCount() { return count.sum(); }
+		public long getUnits() { return units.sum(); }
+		public double getTotalMillis() { return nanos.sum() / 1e6; }
+		public double getMaxMillis() { return maxNanos.get() / 1e6; }
+		public double getMeanMillis() { return getCount() == 0 ? 0 : getTotalMillis() / getCount(); }
+
+		/**
+		 * @return time from the first start to the last stop (if called from several threads this is less than the total time)
+		 */
+		public double getWallMillis() { return getCount() == 0 ? 0 : ( last.get() - first.get() ) / 1e6; }
+
+		/**
+		 * @return units per second of wall time, i.e. the throughput of all threads together
+		 */
+		public double getUnitsPerSecond() { final double wall = getWallMillis(); return wall > 0 ? getUnits() / ( wall / 1000.0 ) : 0; }
+
+		/**
+		 * @return operations per second of wall time, e.g. blocks per second
+		 */
+		public double getCountPerSecond() { final double wall = getWallMillis(); return wall > 0 ? getCount() / ( wall / 1000.0 ) : 0; }
+	}
+
+	/**
+	 * A monotonic count, e.g. bytes read or cache misses.
+	 */
+	public static class Counter
+	{
+		final String name;
+		final LongAdder value = new LongAdder();
+
+		protected Counter( final String name ) { this.name = name; }
+
+		public void inc() { add( 1 ); }
+		public void add( final long n ) { if ( enabled ) value.add( n ); }
+
+		public String getName() { return name; }
+		public long get() { return value.sum(); }
+	}
+
+	/**
+	 * A current value, e.g. a queue depth, that also remembers its maximum.
+	 */
+	public static class Gauge
+	{
+		final String name;
+		final AtomicLong value = new AtomicLong(), max = new AtomicLong();
+
+		protected Gauge( final String name ) { this.name = name; }
+
+		public void set( final long v ) { if ( enabled ) { value.set( v ); max.accumulateAndGet( v, Math::max ); } }
+		public void inc() { if ( enabled ) max.accumulateAndGet( value.incrementAndGet(), Math::max ); }
+		public void dec() { if ( enabled ) value.decrementAndGet(); }
+
+		public String getName() { return name; }
+		public long get() { return value.get(); }
+		public long getMax() { return max.get(); }
+	}
+
+	/**
+	 * @return a human-readable summary of all metrics
+	 */
+	public static String summary()
+	{
+		final StringBuilder s = new StringBuilder( "Metrics since " + new Date( startTime ) + ":" );
+
+		for ( final Timer t : sorted( timers.values() ) )
+			s.append( "\n  " + t.getName() + ": " + t.getCount() + "x, total " + Math.round( t.getTotalMillis() ) + " ms, mean " + String.format( "%.2f", t.getMeanMillis() ) +
+					" ms, max " + String.format( "%.2f", t.getMaxMillis() ) + " ms, " + String.format( "%.2f", t.getCountPerSecond() ) + "/s" +
+					( t.getUnits() > 0 ? ", " + t.getUnits() + " units, " + String.format( "%.0f", t.getUnitsPerSecond() ) + " units/s" : "" ) );
+
+		for ( final Counter c : sorted( counters.values() ) )
+			s.append( "\n  " + c.getName() + ": " + c.get() );
+
+		for ( final Gauge g : sorted( gauges.values() ) )
+			s.append( "\n  " + g.getName() + ": " + g.get() + " (max " + g.getMax() + ")" );
+
+		return s.toString();
+	}
+
+	/**
+	 * Logs the {@link #summary()} and resets all metrics if reports are enabled, for runs that do not save the XML
+	 * (e.g. fusion, deconvolution).
+	 */
+	public static void endRun()
+	{
+		if ( !writeReports || isEmpty() )
+			return;
+
+		logSummary();
+		reset();
+	}
+
+	protected static void logSummary()
+	{
+		// the per-block messages of this run appear before the summary
+		AsyncLogSink.getInstance().flush();
+		IOFunctions.println( summary() );
+	}
+
+	/**
+	 * Writes the metrics as [name].metrics.json and [name].metrics.csv next to the XML and logs the {@link #summary()}
+	 * (if enabled and there are any), afterwards all metrics are reset so the next report only covers the next run.
+	 *
+	 * @param xmlFile - the XML file of the project
+	 */
+	public static void writeReport( final File xmlFile )
+	{
+		if ( !writeReports || isEmpty() )
+			return;
+
+		logSummary();
+
+		String base = xmlFile.getAbsolutePath();
+
+		if ( base.toLowerCase().endsWith( ".xml" ) )
+			base = base.substring( 0, base.length() - 4 );
+
+		try
+		{
+			writeJSON( new File( base + ".metrics.json" ) );
+			writeCSV( new File( base + ".metrics.csv" ) );
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "Could not write metrics report: " + e );
+		}
+
+		reset();
+	}
+
+	public static void writeJSON( final File file ) throws IOException
+	{
+		final PrintWriter out = TextFileAccess.openFileWriteEx( file );
+
+		out.println( "{" );
+		out.println( "  \"start\": \"" + new Date( startTime ) + "\"," );
+		out.println( "  \"written\": \"" + new Date( System.currentTimeMillis() ) + "\"," );
+
+		out.println( "  \"timers\": {" );
+		final List< Timer > t = sorted( timers.values() );
+		for ( int i = 0; i < t.size(); ++i )
+			out.println( "    \"" + t.get( i ).getName() + "\": { \"count\": " + t.get( i ).getCount() + ", \"totalMs\": " + t.get( i ).getTotalMillis() +
+					", \"meanMs\": " + t.get( i ).getMeanMillis() + ", \"maxMs\": " + t.get( i ).getMaxMillis() + ", \"wallMs\": " + t.get( i ).getWallMillis() +
+					", \"perSecond\": " + t.get( i ).getCountPerSecond() + ", \"units\": " + t.get( i ).getUnits() + ", \"unitsPerSecond\": " + t.get( i ).getUnitsPerSecond() +
+					" }" + ( i < t.size() - 1 ? "," : "" ) );
+		out.println( "  }," );
+
+		out.println( "  \"counters\": {" );
+		final List< Counter > c = sorted( counters.values() );
+		for ( int i = 0; i < c.size(); ++i )
+			out.println( "    \"" + c.get( i ).getName() + "\": " + c.get( i ).get() + ( i < c.size() - 1 ? "," : "" ) );
+		out.println( "  }," );
+
+		out.println( "  \"gauges\": {" );
+		final List< Gauge > g = sorted( gauges.values() );
+		for ( int i = 0; i < g.size(); ++i )
+			out.println( "    \"" + g.get( i ).getName() + "\": { \"value\": " + g.get( i ).get() + ", \"max\": " + g.get( i ).getMax() + " }" + ( i < g.size() - 1 ? "," : "" ) );
+		out.println( "  }" );
+
+		out.println( "}" );
+		out.close();
+	}
+
+	public static void writeCSV( final File file ) throws IOException
+	{
+		final PrintWriter out = TextFileAccess.openFileWriteEx( file );
+
+		out.println( "type,name,count,totalMs,meanMs,maxMs,wallMs,perSecond,units,unitsPerSecond,value,max" );
+
+		for ( final Timer t : sorted( timers.values() ) )
+			out.println( "timer," + t.getName() + "," + t.getCount() + "," + t.getTotalMillis() + "," + t.getMeanMillis() + "," + t.getMaxMillis() + "," +
+					t.getWallMillis() + "," + t.getCountPerSecond() + "," + t.getUnits() + "," + t.getUnitsPerSecond() + ",," );
+
+		for ( final Counter c : sorted( counters.values() ) )
+			out.println( "counter," + c.getName() + ",,,,,,,,," + c.get() + "," );
+
+		for ( final Gauge g : sorted( gauges.values() ) )
+			out.println( "gauge," + g.getName() + ",,,,,,,,," + g.get() + "," + g.getMax() );
+
+		out.close();
+	}
+
+	protected static < M > List< M > sorted( final Iterable< M > metrics )
+	{
+		final ArrayList< M > list = new ArrayList<>();
+		metrics.forEach( list::add );
+		Collections.sort( list, ( a, b ) -> name( a ).compareTo( name( b ) ) );
+		return list;
+	}
+
+	protected static String name( final Object metric )
+	{
+		if ( metric instanceof Timer )
+			return ( (Timer)metric ).getName();
+		else if ( metric instanceof Counter )
+			return ( (Counter)metric ).getName();
+		else
+			return ( (Gauge)metric ).getName();
+	}
+}
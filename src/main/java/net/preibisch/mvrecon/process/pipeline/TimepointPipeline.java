@@ -0,0 +1,366 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pipeline;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import mpicbg.spim.data.sequence.ViewDescription;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+
+/**
+ * Processes a sequence of items (e.g. timepoints, or the views of a time series) in three overlapping stages:
+ * the input of the next item(s) is loaded ({@link Prefetcher}) on a background thread while the current item is computed
+ * ({@link Processor}) on the calling thread, and the result of the previous item is written ({@link Writer}) on another
+ * background thread. Stages of the same kind always run in the order of the items.
+ * <p>
+ * Prefetching ahead is limited by a memory budget: an item is only loaded in advance if its estimated size together with
+ * all items that are loaded but not yet processed (and the result that waits to be written) fits into the budget, otherwise
+ * it is loaded once the current item is done. A {@link BudgetedPrefetcher} is told whether the item fits into the budget,
+ * so it can load it completely or only lazily. At most one result waits to be written; if results are materialized in
+ * memory (see {@link #setResultEstimate(ToLongFunction)}) and the next one does not fit next to it, the pending result is
+ * written before the next item is processed.
+ *
+ * @param <I> - the item (e.g. a group of views)
+ * @param <P> - what is prefetched for an item
+ * @param <R> - the result of processing an item
+ */
+public class TimepointPipeline< I, P, R >
+{
+	// if false, everything runs sequentially on the calling thread
+	public static boolean defaultUsePipeline = true;
+
+	// memory budget for prefetched data as fraction of the maximal heap size
+	public static double defaultMemoryFraction = 0.25;
+
+	// how many items to load ahead at most
+	public static int defaultPrefetchDepth = 1;
+
+	@FunctionalInterface
+	public interface BudgetedPrefetcher< I, P >
+	{
+		/**
+		 * @param withinBudget - true if the estimated size of the item fits into the memory budget (always false if the pipeline is not used)
+		 */
+		P prefetch( I item, boolean withinBudget ) throws Exception;
+	}
+
+	@FunctionalInterface
+	public interface Prefetcher< I, P > extends BudgetedPrefetcher< I, P >
+	{
+		P prefetch( I item ) throws Exception;
+
+		@Override
+		default P prefetch( final I item, final boolean withinBudget ) throws Exception { return prefetch( item ); }
+	}
+
+	@FunctionalInterface
+	public interface Processor< I, P, R >
+	{
+		/**
+		 * @return the result, null to abort the pipeline
+		 */
+		R process( I item, P prefetched ) throws Exception;
+	}
+
+	@FunctionalInterface
+	public interface Writer< I, R >
+	{
+		/**
+		 * @return false to abort the pipeline
+		 */
+		boolean write( I item, R result ) throws Exception;
+	}
+
+	final BudgetedPrefetcher< I, P > prefetcher;
+	final Processor< I, P, R > processor;
+	final Writer< I, R > writer;
+	final ToLongFunction< I > memoryEstimate;
+	ToLongFunction< I > resultEstimate = null;
+
+	long memoryBudget = (long)( Runtime.getRuntime().maxMemory() * defaultMemoryFraction );
+	int prefetchDepth = defaultPrefetchDepth;
+	boolean usePipeline = defaultUsePipeline;
+
+	/**
+	 * @param prefetcher - loads the input of an item (runs on the prefetching thread), can be null
+	 * @param processor - computes an item (runs on the calling thread)
+	 * @param writer - writes the result of an item (runs on the writing thread), can be null
+	 * @param memoryEstimate - estimated bytes of what is prefetched for an item (Long.MAX_VALUE if unknown, it is then never prefetched ahead)
+	 */
+	public TimepointPipeline(
+			final Prefetcher< I, P > prefetcher,
+			final Processor< I, P, R > processor,
+			final Writer< I, R > writer,
+			final ToLongFunction< I > memoryEstimate )
+	{
+		this( (BudgetedPrefetcher< I, P >)prefetcher, processor, writer, memoryEstimate );
+	}
+
+	/**
+	 * @param prefetcher - loads the input of an item (runs on the prefetching thread), knowing if it fits into the budget, can be null
+	 * @param processor - computes an item (runs on the calling thread)
+	 * @param writer - writes the result of an item (runs on the writing thread), can be null
+	 * @param memoryEstimate - estimated bytes of what is prefetched for an item (Long.MAX_VALUE if unknown, it is then never prefetched ahead)
+	 */
+	public TimepointPipeline(
+			final BudgetedPrefetcher< I, P > prefetcher,
+			final Processor< I, P, R > processor,
+			final Writer< I, R > writer,
+			final ToLongFunction< I > memoryEstimate )
+	{
+		this.prefetcher = prefetcher;
+		this.processor = processor;
+		this.writer = writer;
+		this.memoryEstimate = memoryEstimate;
+	}
+
+	public TimepointPipeline< I, P, R > setMemoryBudget( final long bytes ) { this.memoryBudget = bytes; return this; }
+	public TimepointPipeline< I, P, R > setPrefetchDepth( final int depth ) { this.prefetchDepth = depth; return this; }
+	public TimepointPipeline< I, P, R > setUsePipeline( final boolean usePipeline ) { this.usePipeline = usePipeline; return this; }
+
+	/**
+	 * @param resultEstimate - estimated bytes of the result of an item while it waits to be written, e.g. a precomputed image
+	 * (Long.MAX_VALUE if unknown, it is then always written before the next item is processed), null if results are virtual
+	 * @return this
+	 */
+	public TimepointPipeline< I, P, R > setResultEstimate( final ToLongFunction< I > resultEstimate ) { this.resultEstimate = resultEstimate; return this; }
+
+	/**
+	 * @param items - the items in the order they are processed
+	 * @return true if all items were processed and written, false if a stage failed or aborted
+	 */
+	public boolean run( final List< I > items )
+	{
+		if ( !usePipeline )
+			return runSequential( items );
+
+		final ExecutorService prefetchService = Executors.newSingleThreadExecutor();
+		final ExecutorService writeService = Executors.newSingleThreadExecutor();
+
+		final ArrayList< Future< P > > prefetched = new ArrayList<>();
+		final long[] reserved = new long[ items.size() ];
+		long inUse = 0, pendingBytes = 0;
+		Future< Boolean > pendingWrite = null;
+
+		try
+		{
+			for ( int t = 0; t < items.size(); ++t )
+			{
+				// the current item is always loaded, prefetch the next ones if they fit into the budget
+				while ( prefetched.size() < items.size() && prefetched.size() <= t + prefetchDepth )
+				{
+					final int next = prefetched.size();
+					final long bytes = Math.max( 0, memoryEstimate.applyAsLong( items.get( next ) ) );
+					final boolean withinBudget = fits( inUse, bytes );
+
+					if ( next > t && !withinBudget )
+						break;
+
+					// if it does not fit, the current item is loaded lazily
+					reserved[ next ] = withinBudget ? bytes : 0;
+					inUse += reserved[ next ];
+					prefetched.add( prefetchService.submit( () -> prefetch( items.get( next ), withinBudget ) ) );
+				}
+
+				final I item = items.get( t );
+				final long resultBytes = resultEstimate == null ? 0 : Math.max( 0, resultEstimate.applyAsLong( item ) );
+
+				// the result of this item would not fit next to the one that waits to be written
+				if ( pendingWrite != null && pendingBytes > 0 && !fits( inUse, resultBytes ) )
+				{
+					final long waitTime = Metrics.timer( "pipeline.waitForOutput" ).start();
+					final boolean written = waitForWrite( pendingWrite );
+					Metrics.timer( "pipeline.waitForOutput" ).stop( waitTime );
+
+					pendingWrite = null;
+					inUse -= pendingBytes;
+					pendingBytes = 0;
+
+					if ( !written )
+						return false;
+				}
+
+				final long waitTime = Metrics.timer( "pipeline.waitForInput" ).start();
+				final P p = prefetched.get( t ).get();
+				Metrics.timer( "pipeline.waitForInput" ).stop( waitTime );
+
+				prefetched.set( t, null );
+
+				final long processTime = Metrics.timer( "pipeline.process" ).start();
+				final R r = processor.process( item, p );
+				Metrics.timer( "pipeline.process" ).stop( processTime );
+
+				inUse -= reserved[ t ];
+
+				if ( r == null )
+					return false;
+
+				// at most one result waits to be written
+				if ( pendingWrite != null )
+				{
+					final boolean written = waitForWrite( pendingWrite );
+
+					pendingWrite = null;
+					inUse -= pendingBytes;
+					pendingBytes = 0;
+
+					if ( !written )
+						return false;
+				}
+
+				if ( writer != null )
+				{
+					// an unknown size blocks prefetching until it is written
+					pendingBytes = resultBytes == Long.MAX_VALUE ? memoryBudget : resultBytes;
+					inUse += pendingBytes;
+					pendingWrite = writeService.submit( () -> write( item, r ) );
+				}
+			}
+
+			return pendingWrite == null || waitForWrite( pendingWrite );
+		}
+		catch ( final ExecutionException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Failed to load the input: " + e.getCause() );
+			e.getCause().printStackTrace();
+			return false;
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Failed to process: " + e );
+			e.printStackTrace();
+			return false;
+		}
+		finally
+		{
+			prefetchService.shutdownNow();
+			writeService.shutdown();
+
+			// if it returned early, the write of the previous item might still run (and use services the caller shuts down next)
+			awaitTermination( writeService );
+		}
+	}
+
+	protected static void awaitTermination( final ExecutorService service )
+	{
+		try
+		{
+			while ( !service.awaitTermination( 1, TimeUnit.MINUTES ) )
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Waiting for the output to be written ... " );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected boolean runSequential( final List< I > items )
+	{
+		try
+		{
+			for ( final I item : items )
+			{
+				final R r = processor.process( item, prefetch( item, false ) );
+
+				if ( r == null || ( writer != null && !write( item, r ) ) )
+					return false;
+			}
+
+			return true;
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Failed to process: " + e );
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	protected boolean fits( final long inUse, final long bytes )
+	{
+		return bytes != Long.MAX_VALUE && inUse + bytes <= memoryBudget;
+	}
+
+	protected P prefetch( final I item, final boolean withinBudget ) throws Exception
+	{
+		if ( prefetcher == null )
+			return null;
+
+		final long time = Metrics.timer( "pipeline.prefetch" ).start();
+		final P p = prefetcher.prefetch( item, withinBudget );
+		Metrics.timer( "pipeline.prefetch" ).stop( time );
+
+		return p;
+	}
+
+	protected boolean write( final I item, final R result ) throws Exception
+	{
+		final long time = Metrics.timer( "pipeline.write" ).start();
+		final boolean success = writer.write( item, result );
+		Metrics.timer( "pipeline.write" ).stop( time );
+
+		return success;
+	}
+
+	/**
+	 * @param vd - the view
+	 * @param downsampling - the downsampling in each dimension (null if none)
+	 * @param bytesPerPixel - bytes per pixel
+	 * @return estimated size of the view in memory, Long.MAX_VALUE if the size of the view is not known
+	 */
+	public static long estimateBytes( final ViewDescription vd, final long[] downsampling, final int bytesPerPixel )
+	{
+		if ( !vd.getViewSetup().hasSize() )
+			return Long.MAX_VALUE;
+
+		long size = bytesPerPixel;
+
+		for ( int d = 0; d < vd.getViewSetup().getSize().numDimensions(); ++d )
+			size *= Math.max( 1, vd.getViewSetup().getSize().dimension( d ) / ( downsampling == null || d >= downsampling.length ? 1 : Math.max( 1, downsampling[ d ] ) ) );
+
+		return size;
+	}
+
+	protected static boolean waitForWrite( final Future< Boolean > write ) throws InterruptedException
+	{
+		try
+		{
+			return write.get();
+		}
+		catch ( final ExecutionException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Failed to write the output: " + e.getCause() );
+			e.getCause().printStackTrace();
+			return false;
+		}
+	}
+}
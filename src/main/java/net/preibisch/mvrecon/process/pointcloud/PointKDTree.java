@@ -0,0 +1,272 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud;
+
+/**
+ * A static, balanced KD-tree over n-dimensional points stored in one flat primitive array [x0,y0,z0,x1,y1,z1,...].
+ * The tree is immutable after construction and can be queried from many threads at the same time, each thread
+ * needs its own {@link Search}. All indices returned refer to the order of the points in the input array.
+ */
+public class PointKDTree
+{
+	final static int leafSize = 8;
+
+	final int n, numDimensions;
+
+	// coordinates in tree order
+	final double[] coords;
+
+	// maps tree order to the original index
+	final int[] perm;
+
+	/**
+	 * @param points - flat array of the point coordinates, not modified
+	 * @param numDimensions - dimensionality of the points
+	 */
+	public PointKDTree( final double[] points, final int numDimensions )
+	{
+		this.numDimensions = numDimensions;
+		this.n = points.length / numDimensions;
+		this.perm = new int[ n ];
+
+		for ( int i = 0; i < n; ++i )
+			perm[ i ] = i;
+
+		build( points, 0, n, 0 );
+
+		// copy the coordinates in tree order so queries access memory linearly
+		this.coords = new double[ n * numDimensions ];
+
+		for ( int j = 0; j < n; ++j )
+			System.arraycopy( points, perm[ j ] * numDimensions, coords, j * numDimensions, numDimensions );
+	}
+
+	public int size() { return n; }
+	public int numDimensions() { return numDimensions; }
+
+	/**
+	 * @return a new searcher, not thread-safe, create one per thread
+	 */
+	public Search search() { return new Search(); }
+
+	public class Search
+	{
+		final double[] q = new double[ numDimensions ];
+		int exclude, best, second;
+		double bestDistSq, secondDistSq;
+		boolean findSecond;
+
+		/**
+		 * Finds the nearest neighbor of a query point.
+		 *
+		 * @param query - the query location
+		 * @param exclude - index of a point to ignore (e.g. the query point itself), or -1
+		 * @return the index of the nearest point, or -1 if there is none
+		 */
+		public int nearest( final double[] query, final int exclude )
+		{
+			return nearest( query, 0, exclude );
+		}
+
+		/**
+		 * Finds the nearest neighbor of a query point that is stored in a flat array.
+		 *
+		 * @param points - flat array containing the query location
+		 * @param offset - where the query location starts in the array
+		 * @param exclude - index of a point to ignore (e.g. the query point itself), or -1
+		 * @return the index of the nearest point, or -1 if there is none
+		 */
+		public int nearest( final double[] points, final int offset, final int exclude )
+		{
+			System.arraycopy( points, offset, q, 0, numDimensions );
+
+			this.exclude = exclude;
+			this.best = this.second = -1;
+			this.bestDistSq = this.secondDistSq = Double.MAX_VALUE;
+			this.findSecond = false;
+
+			if ( n > 0 )
+				nn( 0, n, 0 );
+
+			return best < 0 ? -1 : perm[ best ];
+		}
+
+		/**
+		 * Finds the nearest and second nearest neighbor of a query point that is stored in a flat array.
+		 *
+		 * @param points - flat array containing the query location
+		 * @param offset - where the query location starts in the array
+		 * @param exclude - index of a point to ignore (e.g. the query point itself), or -1
+		 * @return the index of the nearest point, or -1 if there is none (the second nearest is returned by {@link #second()})
+		 */
+		public int nearestTwo( final double[] points, final int offset, final int exclude )
+		{
+			System.arraycopy( points, offset, q, 0, numDimensions );
+
+			this.exclude = exclude;
+			this.best = this.second = -1;
+			this.bestDistSq = this.secondDistSq = Double.MAX_VALUE;
+			this.findSecond = true;
+
+			if ( n > 0 )
+				nn( 0, n, 0 );
+
+			return best < 0 ? -1 : perm[ best ];
+		}
+
+		/**
+		 * @return the index of the second nearest point of the last call to {@link #nearestTwo(double[], int, int)}, or -1 if there is none
+		 */
+		public int second() { return second < 0 ? -1 : perm[ second ]; }
+
+		/**
+		 * @return the squared distance to the second nearest neighbor of the last call to {@link #nearestTwo(double[], int, int)}
+		 */
+		public double secondSquaredDistance() { return secondDistSq; }
+
+		/**
+		 * @return the squared distance to the last nearest neighbor found
+		 */
+		public double squaredDistance() { return bestDistSq; }
+
+		/**
+		 * @return the distance to the last nearest neighbor found
+		 */
+		public double distance() { return Math.sqrt( bestDistSq ); }
+
+		protected void nn( final int lo, final int hi, final int depth )
+		{
+			if ( hi - lo <= leafSize )
+			{
+				for ( int j = lo; j < hi; ++j )
+					test( j );
+
+				return;
+			}
+
+			final int d = depth % numDimensions;
+			final int mid = ( lo + hi ) >>> 1;
+			final double diff = q[ d ] - coords[ mid * numDimensions + d ];
+
+			test( mid );
+
+			if ( diff < 0 )
+			{
+				nn( lo, mid, depth + 1 );
+
+				if ( diff * diff < ( findSecond ? secondDistSq : bestDistSq ) )
+					nn( mid + 1, hi, depth + 1 );
+			}
+			else
+			{
+				nn( mid + 1, hi, depth + 1 );
+
+				if ( diff * diff < ( findSecond ? secondDistSq : bestDistSq ) )
+					nn( lo, mid, depth + 1 );
+			}
+		}
+
+		protected void test( final int j )
+		{
+			if ( perm[ j ] == exclude )
+				return;
+
+			final int o = j * numDimensions;
+			double distSq = 0;
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final double diff = q[ d ] - coords[ o + d ];
+				distSq += diff * diff;
+			}
+
+			if ( distSq < bestDistSq )
+			{
+				if ( findSecond )
+				{
+					secondDistSq = bestDistSq;
+					second = best;
+				}
+
+				bestDistSq = distSq;
+				best = j;
+			}
+			else if ( findSecond && distSq < secondDistSq )
+			{
+				secondDistSq = distSq;
+				second = j;
+			}
+		}
+	}
+
+	/*
+	 * Builds the implicit tree: the median (along depth % numDimensions) of perm[lo,hi) is moved to the middle,
+	 * smaller coordinates to the left, larger ones to the right.
+	 */
+	protected void build( final double[] points, final int lo, final int hi, final int depth )
+	{
+		if ( hi - lo <= leafSize )
+			return;
+
+		final int d = depth % numDimensions;
+		final int mid = ( lo + hi ) >>> 1;
+
+		select( points, lo, hi - 1, mid, d );
+
+		build( points, lo, mid, depth + 1 );
+		build( points, mid + 1, hi, depth + 1 );
+	}
+
+	protected void select( final double[] points, int left, int right, final int k, final int d )
+	{
+		while ( right > left )
+		{
+			final double pivot = points[ perm[ ( left + right ) >>> 1 ] * numDimensions + d ];
+			int i = left, j = right;
+
+			while ( i <= j )
+			{
+				while ( points[ perm[ i ] * numDimensions + d ] < pivot )
+					++i;
+				while ( points[ perm[ j ] * numDimensions + d ] > pivot )
+					--j;
+
+				if ( i <= j )
+				{
+					final int tmp = perm[ i ];
+					perm[ i ] = perm[ j ];
+					perm[ j ] = tmp;
+					++i;
+					--j;
+				}
+			}
+
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+}
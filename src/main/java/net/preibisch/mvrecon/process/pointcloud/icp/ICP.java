@@ -25,7 +25,9 @@ package net.preibisch.mvrecon.process.pointcloud.icp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import fiji.util.KDTree;
 import fiji.util.node.Leaf;
@@ -313,122 +315,68 @@ public class ICP < P extends RealLocalizable >
 	public List< LinkedInterestPoint< P > > getWrappedReferencePoints() { return reference; }
 	
 	/**
-	 * Detects ambigous (and duplicate) {@link PointMatch}es, i.e. if a {@link Point} corresponds with more than one other {@link Point}
+	 * Detects ambigous (and duplicate) {@link PointMatch}es, i.e. if a {@link Point} corresponds with more than one other {@link Point}.
+	 * All matches of ambigous points are removed, of duplicate matches only the first one is kept. The points are compared by identity
+	 * and looked up in hash maps, so this is linear in the number of matches.
+	 *
 	 * @param matches - the {@link List} of {@link PointMatch}es
 	 * @param <P> - something extening point
 	 * @return - the {@link ArrayList} containing the removed ambigous or duplicate {@link PointMatch}es 
 	 */
 	public static < P extends Point & RealLocalizable > ArrayList<PointMatch> removeAmbigousMatches( final List<PointMatchGeneric< P > > matches )
 	{
-		final ArrayList<Integer> inconsistentCorrespondences = new ArrayList<Integer>();
-		final ArrayList<PointMatch> ambigousMatches = new ArrayList<PointMatch>();
-		
+		// the first partner of each point, or the point itself as marker if it has more than one different partner
+		final IdentityHashMap< Point, Point > partnerTarget = new IdentityHashMap<>();
+		final IdentityHashMap< Point, Point > partnerReference = new IdentityHashMap<>();
+
+		for ( final PointMatch pm : matches )
+		{
+			final Point pointTarget = pm.getP1();
+			final Point pointReference = pm.getP2();
+
+			final Point t = partnerTarget.putIfAbsent( pointTarget, pointReference );
+			if ( t != null && t != pointReference )
+				partnerTarget.put( pointTarget, pointTarget );
+
+			final Point r = partnerReference.putIfAbsent( pointReference, pointTarget );
+			if ( r != null && r != pointTarget )
+				partnerReference.put( pointReference, pointReference );
+		}
+
+		final boolean[] remove = new boolean[ matches.size() ];
+		final Set< Point > seen = Collections.newSetFromMap( new IdentityHashMap<>() );
+		boolean removeAny = false;
+
 		for ( int i = 0; i < matches.size(); i++ )
 		{
 			final Point pointTarget = matches.get( i ).getP1();
 			final Point pointReference = matches.get( i ).getP2();
 
-			final ArrayList<Integer> inconsistent = getOccurences( pointTarget, pointReference, matches );
-			
-			if ( inconsistent.size() > 0 )
-				for ( int index : inconsistent )
-					if ( !inconsistentCorrespondences.contains( index ) )
-						inconsistentCorrespondences.add( index );
+			// ambigous: remove all matches of the point, duplicate: remove all but the first occurence
+			if ( partnerTarget.get( pointTarget ) == pointTarget || partnerReference.get( pointReference ) == pointReference || !seen.add( pointReference ) )
+				remove[ i ] = removeAny = true;
 		}
-	
-		if ( inconsistentCorrespondences.size() > 0 )
+
+		final ArrayList<PointMatch> ambigousMatches = new ArrayList<PointMatch>();
+
+		if ( removeAny )
 		{
-			Collections.sort( inconsistentCorrespondences );
+			final ArrayList< PointMatchGeneric< P > > consistent = new ArrayList<>( matches.size() );
+
+			for ( int i = matches.size() - 1; i >= 0; i-- )
+				if ( remove[ i ] )
+					ambigousMatches.add( matches.get( i ) );
 
-			for ( int i = inconsistentCorrespondences.size() - 1; i >= 0; i-- )
-			{
-				// save the ambigous match
-				final PointMatch pm = matches.get( (int)inconsistentCorrespondences.get(i) );
-				ambigousMatches.add( pm );
+			for ( int i = 0; i < matches.size(); i++ )
+				if ( !remove[ i ] )
+					consistent.add( matches.get( i ) );
 
-				// the cast to (int) is essential as otherwise he is looking to remove the Integer object that does not exist in the list 
-				matches.remove( (int)inconsistentCorrespondences.get(i) );
-			}
+			matches.clear();
+			matches.addAll( consistent );
 		}
 
 		return ambigousMatches;
 	}
-	
-	/**
-	 * Computes if one {@link Point} pair occurs more than once in a {@link List} of {@link PointMatch}es 
-	 * 
-	 * @param pointTarget - one {@link Point}
-	 * @param pointReference - the other {@link Point}
-	 * @param list - the {@link List} of {@link PointMatch}es (target, reference)
-	 * @param <P> - something extening point
-	 * @return - an {@link ArrayList} of indices which should be removed due to duplicate or ambigous occurence
-	 */
-	protected static < P extends Point & RealLocalizable > ArrayList<Integer> getOccurences( final Point pointTarget, final Point pointReference, List< PointMatchGeneric< P > > list )
-	{
-		final ArrayList<Integer> occurences = new ArrayList<Integer>();
-		
-		boolean differentOccurence = false;
-				
-		/* Test if pointReference has matches with different points than pointTarget */
-		for ( final PointMatch pm : list )
-		{			
-			if ( pm.getP2() == pointReference )
-			{
-				// it is NOT twice the correct occurence
-				if ( pm.getP1() != pointTarget )
-				{
-					differentOccurence = true;
-					break;
-				}
-			}
-
-			if ( pm.getP1() == pointTarget )
-			{
-				// it is NOT twice the correct occurence
-				if ( pm.getP2() != pointReference )
-				{
-					differentOccurence = true;
-					break;
-				}				
-			}
-		}
-		
-		if ( differentOccurence )
-		{
-			/* remove all occurences/matches with pointReference as it is ambigous */
-			for ( int i = 0; i < list.size(); i++ )
-			{
-				final PointMatch pm = list.get( i );
-				
-				if ( pm.getP2() == pointReference )
-					occurences.add( i );				
-				
-				if ( pm.getP1() == pointTarget )
-					occurences.add( i );
-			}
-		}
-		else
-		{
-			/* remove double occurences */
-			boolean sameOccurence = false;
-
-			for ( int i = 0; i < list.size(); i++ )
-			{
-				final PointMatch pm = list.get( i );
-				
-				/* remove all but the first occurence/match */
-				if ( pm.getP2() == pointReference )
-				{
-					if ( sameOccurence )
-						occurences.add( i );
-					else
-						sameOccurence = true;
-				}
-			}			
-		}
-		
-		return occurences;
-	}
 
 	static public double meanDistance( final Collection< ? extends PointMatch > matches )
 	{
@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud.icp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.Model;
+import mpicbg.models.NotEnoughDataPointsException;
+import net.imglib2.RealLocalizable;
+import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.LinkedInterestPoint;
+import net.preibisch.mvrecon.process.pointcloud.PointKDTree;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
+
+/**
+ * {@link ICP} for a static reference and a moving target. The KD-tree is built only once over the reference points,
+ * in every iteration the target points are transformed into a primitive buffer that is reused and their nearest
+ * reference point is searched (in parallel if an {@link ExecutorService} is given). Every target point is assigned to its nearest reference point within the
+ * distance threshold, ambiguous assignments are removed by {@link ICP#removeAmbigousMatches(List)}.
+ *
+ * @param <P> - something extending point
+ */
+public class StaticReferenceICP< P extends RealLocalizable > extends ICP< P >
+{
+	// how many target points one task queries
+	public static int pointsPerTask = 5000;
+
+	final ExecutorService service;
+	final double distanceThreshold;
+	final int n;
+
+	final PointKDTree referenceTree;
+
+	// reused in every iteration: local and transformed coordinates of the target points [x0,y0,z0,x1,...], and the assigned reference point (or -1)
+	final double[] targetLocal, targetTransformed;
+	final int[] assignment;
+
+	/**
+	 * @param target - the {@link List} of target points (moving)
+	 * @param reference - the {@link List} of reference points (static)
+	 * @param distanceThreshold - the maximal distance so that the nearest neighbor of a point is still counted as a corresponding point
+	 * @param useRANSAC - use RANSAC during every iteration
+	 * @param maxEpsilonRANSAC - max error for RANSAC if used
+	 * @param maxIterationsRANSAC - max iterations for RANSAC if used
+	 * @param service - the {@link ExecutorService} to run the nearest neighbor queries, or null to run them in the calling thread
+	 */
+	public StaticReferenceICP(
+			final List< P > target,
+			final List< P > reference,
+			final double distanceThreshold,
+			final boolean useRANSAC,
+			final double maxEpsilonRANSAC,
+			final int maxIterationsRANSAC,
+			final ExecutorService service )
+	{
+		super( target, reference, new SimplePointMatchIdentification< P >( distanceThreshold ), useRANSAC, maxEpsilonRANSAC, maxIterationsRANSAC );
+
+		this.service = service;
+		this.distanceThreshold = distanceThreshold;
+		this.n = this.reference.get( 0 ).numDimensions();
+
+		// the reference is never transformed, world == local
+		final double[] referenceCoordinates = new double[ this.reference.size() * n ];
+
+		for ( int i = 0; i < this.reference.size(); ++i )
+			System.arraycopy( this.reference.get( i ).getW(), 0, referenceCoordinates, i * n, n );
+
+		this.referenceTree = new PointKDTree( referenceCoordinates, n );
+
+		this.targetLocal = new double[ this.target.size() * n ];
+		this.targetTransformed = new double[ this.target.size() * n ];
+		this.assignment = new int[ this.target.size() ];
+
+		for ( int i = 0; i < this.target.size(); ++i )
+			System.arraycopy( this.target.get( i ).getL(), 0, targetLocal, i * n, n );
+	}
+
+	@Override
+	public void runICPIteration( final Model< ? > lastModel, final Model< ? > newModel ) throws NotEnoughDataPointsException, IllDefinedDataPointsException, NoSuitablePointsException
+	{
+		/* transform the target with the last model and find the nearest reference point for each */
+		final double maxSquaredDistance = distanceThreshold * distanceThreshold;
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int start = 0; start < assignment.length; start += pointsPerTask )
+		{
+			final int from = start;
+			final int to = Math.min( assignment.length, start + pointsPerTask );
+
+			tasks.add( () ->
+			{
+				final Model< ? > model = lastModel.copy();
+				final PointKDTree.Search search = referenceTree.search();
+				final double[] l = new double[ n ];
+
+				for ( int i = from; i < to; ++i )
+				{
+					System.arraycopy( targetLocal, i * n, l, 0, n );
+					model.applyInPlace( l );
+					System.arraycopy( l, 0, targetTransformed, i * n, n );
+
+					final int nearest = search.nearest( targetTransformed, i * n, -1 );
+					assignment[ i ] = ( nearest >= 0 && search.squaredDistance() <= maxSquaredDistance ) ? nearest : -1;
+				}
+
+				return null;
+			});
+		}
+
+		if ( service == null )
+		{
+			try
+			{
+				for ( final Callable< Void > task : tasks )
+					task.call();
+			}
+			catch ( Exception e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+		else
+		{
+			FusionTools.execTasks( tasks, service, "assign ICP point matches" );
+		}
+
+		/* get corresponding points for ICP, in the order of the target points */
+		final List< PointMatchGeneric< LinkedInterestPoint< P > > > candidates = new ArrayList<>();
+
+		for ( int i = 0; i < assignment.length; ++i )
+			if ( assignment[ i ] >= 0 )
+				candidates.add( new PointMatchGeneric< LinkedInterestPoint< P > >( target.get( i ), reference.get( assignment[ i ] ) ) );
+
+		/* run RANSAC on the identified points if desired */
+		final List< PointMatchGeneric< LinkedInterestPoint< P > > > matches = new ArrayList<>();
+
+		if ( useRANSAC )
+			newModel.filterRansac( candidates, matches, maxIterationsRANSAC, maxEpsilonRANSAC, 0.0f );
+		else
+			matches.addAll( candidates );
+
+		/* remove ambigous correspondences */
+		ambigousMatches = removeAmbigousMatches( matches );
+
+		/* fit the model */
+		newModel.fit( matches );
+
+		/* apply the new model of the target to determine the error, unmatched points are updated as well so all world coordinates are current */
+		for ( final LinkedInterestPoint< P > point : target )
+			point.apply( newModel );
+
+		/* compute the output */
+		avgError = meanDistance( matches );
+		maxError = maxDistance( matches );
+		numMatches = matches.size();
+		pointMatches = matches;
+	}
+}
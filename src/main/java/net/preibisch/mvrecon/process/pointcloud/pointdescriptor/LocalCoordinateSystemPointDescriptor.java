@@ -78,11 +78,36 @@ public class LocalCoordinateSystemPointDescriptor < P extends Point > extends Ab
 	public Object fitMatches( final ArrayList<PointMatch> matches )  { return null; }
 	
 	public void buildLocalCoordinateSystem( final ArrayList< LinkedPoint< P > > neighbors, final boolean normalize ) throws NoSuitablePointsException 
+	{
+		final float[] values = new float[] { ax, bx, by, cx, cy, cz };
+
+		buildLocalCoordinateSystem( neighbors.get( 0 ).getL(), neighbors.get( 1 ).getL(), neighbors.get( 2 ).getL(), normalize, values );
+
+		ax = values[ 0 ];
+		bx = values[ 1 ];
+		by = values[ 2 ];
+		cx = values[ 3 ];
+		cy = values[ 4 ];
+		cz = values[ 5 ];
+	}
+
+	/**
+	 * Computes the descriptor from the three nearest neighbors relative to the basis point without creating a descriptor
+	 * instance (see {@link LocalCoordinateSystemPointDescriptorMatrix})
+	 *
+	 * @param bL - the first neighbor relative to the basis point
+	 * @param cL - the second neighbor relative to the basis point
+	 * @param dL - the third neighbor relative to the basis point
+	 * @param normalize - normalize by the distance of the third neighbor
+	 * @param values - [ax, bx, by, cx, cy, cz], ax is not modified if normalize == true
+	 * @throws NoSuitablePointsException if no local coordinate system can be built (e.g. identical points)
+	 */
+	public static void buildLocalCoordinateSystem( final double[] bL, final double[] cL, final double[] dL, final boolean normalize, final float[] values ) throws NoSuitablePointsException 
 	{
 		// most distant point		
-		final Vector3d b = new Vector3d( neighbors.get( 0 ).getL() );
-		final Vector3d c = new Vector3d( neighbors.get( 1 ).getL() );
-		final Vector3d d = new Vector3d( neighbors.get( 2 ).getL() );
+		final Vector3d b = new Vector3d( bL );
+		final Vector3d c = new Vector3d( cL );
+		final Vector3d d = new Vector3d( dL );
 		
 		final Vector3d x = new Vector3d( d );
 		x.normalize();			
@@ -107,7 +132,7 @@ public class LocalCoordinateSystemPointDescriptor < P extends Point > extends Ab
 		}
 		else
 		{
-			ax = (float)d.length();
+			values[ 0 ] = (float)d.length();
 		}
 		
 		// get normal vector of ab and ad ( which will be the z-axis)
@@ -152,7 +177,7 @@ public class LocalCoordinateSystemPointDescriptor < P extends Point > extends Ab
 		}
 		catch ( Exception e )
 		{
-			bx = by = cx = cy = cz = 0;
+			values[ 1 ] = values[ 2 ] = values[ 3 ] = values[ 4 ] = values[ 5 ] = 0;
 			return;
 		}
 		
@@ -168,11 +193,11 @@ public class LocalCoordinateSystemPointDescriptor < P extends Point > extends Ab
 //		IOFunctions.println( bl );
 //		IOFunctions.println( cl );
 		
-		bx = (float)bl.x;
-		by = (float)bl.y;
-		cx = (float)cl.x;
-		cy = (float)cl.y;
-		cz = (float)cl.z;
+		values[ 1 ] = (float)bl.x;
+		values[ 2 ] = (float)bl.y;
+		values[ 3 ] = (float)cl.x;
+		values[ 4 ] = (float)cl.y;
+		values[ 5 ] = (float)cl.z;
 		
 //		System.out.println( "NEW" );
 //		System.out.println( ax );
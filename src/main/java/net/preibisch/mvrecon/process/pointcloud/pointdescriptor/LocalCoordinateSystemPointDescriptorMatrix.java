@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud.pointdescriptor;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import mpicbg.models.Point;
+import net.imglib2.KDTree;
+import net.imglib2.RealLocalizable;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.preibisch.mvrecon.process.pointcloud.PointKDTree;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
+
+/**
+ * The {@link LocalCoordinateSystemPointDescriptor}s of all basis points and all subsets of 3 out of (3 + redundancy)
+ * nearest neighbors, stored as rows of [ax,] bx, by, cx, cy, cz (ax only if not normalized). The descriptors are
+ * compared by their euclidean distance, so they can be searched with a {@link PointKDTree} directly.
+ *
+ * @param <P> - the point type
+ */
+public class LocalCoordinateSystemPointDescriptorMatrix< P extends Point & RealLocalizable > extends PointDescriptorMatrix< P >
+{
+	final boolean normalize;
+	PointKDTree tree;
+
+	/**
+	 * @param tree - a KDTree of the basis points
+	 * @param basisPoints - the basis points
+	 * @param redundancy - how many additional nearest neighbors are used to create subsets
+	 * @param normalize - normalize by the distance of the third neighbor (see {@link LocalCoordinateSystemPointDescriptor})
+	 */
+	public LocalCoordinateSystemPointDescriptorMatrix(
+			final KDTree< P > tree,
+			final List< P > basisPoints,
+			final int redundancy,
+			final boolean normalize )
+	{
+		this( tree, basisPoints, redundancy, normalize, null );
+	}
+
+	/**
+	 * @param tree - a KDTree of the basis points
+	 * @param basisPoints - the basis points
+	 * @param redundancy - how many additional nearest neighbors are used to create subsets
+	 * @param normalize - normalize by the distance of the third neighbor (see {@link LocalCoordinateSystemPointDescriptor})
+	 * @param service - the executor service used to build the descriptors (if null a shared one is used)
+	 */
+	public LocalCoordinateSystemPointDescriptorMatrix(
+			final KDTree< P > tree,
+			final List< P > basisPoints,
+			final int redundancy,
+			final boolean normalize,
+			final ExecutorService service )
+	{
+		super( basisPoints, normalize ? 5 : 6, service );
+
+		this.normalize = normalize;
+
+		final int numNeighbors = 3;
+		final int[][] neighborIndicies = SubsetMatcher.computePD( numNeighbors + redundancy, numNeighbors, 1 );
+		final int offset = normalize ? 1 : 0;
+
+		build( neighborIndicies.length, () ->
+		{
+			final KNearestNeighborSearchOnKDTree< P > nnsearch = new KNearestNeighborSearchOnKDTree<>( tree, numNeighbors + redundancy + 1 );
+			final double[][] neighbors = new double[ numNeighbors ][ 3 ];
+			final float[] values = new float[ 6 ];
+
+			return ( i, rows, valid ) ->
+			{
+				final P p = basisPoints.get( i );
+				final double[] basis = p.getL();
+
+				// only dim = 3 is supported, no descriptors otherwise
+				if ( basis.length != 3 )
+					return;
+
+				nnsearch.search( p );
+
+				for ( int s = 0; s < neighborIndicies.length; ++s )
+				{
+					// the first hit is always the point itself
+					for ( int n = 0; n < numNeighbors; ++n )
+					{
+						final double[] l = nnsearch.getSampler( neighborIndicies[ s ][ n ] ).get().getL();
+
+						for ( int d = 0; d < 3; ++d )
+							neighbors[ n ][ d ] = l[ d ] - basis[ d ];
+					}
+
+					try
+					{
+						values[ 0 ] = 1;
+						LocalCoordinateSystemPointDescriptor.buildLocalCoordinateSystem( neighbors[ 0 ], neighbors[ 1 ], neighbors[ 2 ], normalize, values );
+
+						final int row = i * neighborIndicies.length + s;
+
+						for ( int k = 0; k < rowLength; ++k )
+							rows[ row * rowLength + k ] = values[ k + offset ];
+
+						valid[ row ] = true;
+					}
+					catch ( NoSuitablePointsException e )
+					{
+						// exceptions are thrown here when two identical points exist and no local coordinate system can be built
+					}
+				}
+			};
+		} );
+	}
+
+	public boolean isNormalized() { return normalize; }
+
+	/**
+	 * @return a KDTree of the descriptors (built once), indices refer to the rows
+	 */
+	public synchronized PointKDTree getTree()
+	{
+		if ( tree == null )
+			tree = new PointKDTree( data, rowLength );
+
+		return tree;
+	}
+
+	/**
+	 * Same as {@link LocalCoordinateSystemPointDescriptor#descriptorDistance(LocalCoordinateSystemPointDescriptor)}
+	 *
+	 * @param row - the row of this descriptor
+	 * @param other - the other descriptors (normalized the same way)
+	 * @param otherRow - the row of the other descriptor
+	 * @return the squared difference
+	 */
+	public double descriptorDistance( final int row, final LocalCoordinateSystemPointDescriptorMatrix< ? > other, final int otherRow )
+	{
+		final int o1 = row * rowLength;
+		final int o2 = otherRow * rowLength;
+
+		double difference = 0;
+
+		// the values are floats
+		for ( int k = 0; k < rowLength; ++k )
+		{
+			final float diff = (float)data[ o1 + k ] - (float)other.data[ o2 + k ];
+			difference += diff * diff;
+		}
+
+		return difference;
+	}
+}
@@ -0,0 +1,222 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud.pointdescriptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import mpicbg.models.Point;
+import net.preibisch.mvrecon.Threads;
+
+/**
+ * Point descriptors of many basis points stored in one flat primitive array instead of one descriptor object per basis
+ * point and subset of its nearest neighbors. Every basis point has the same number of rows (e.g. one per subset), the
+ * rows are built in parallel. Rows for which no descriptor can be built are not stored, {@link #getBasisPoint(int)}
+ * returns the basis point of a row.
+ *
+ * @param <P> - the point type
+ */
+public abstract class PointDescriptorMatrix< P extends Point >
+{
+	// how many basis points one task processes
+	public static int defaultPointsPerTask = 1024;
+
+	final List< P > basisPoints;
+	final int rowLength;
+	final ExecutorService service;
+
+	int numSubsets, numRows;
+	double[] data;
+	int[] basisIndex;
+
+	/**
+	 * Fills the rows of one basis point, one row per subset. Every task gets its own instance (e.g. for a nearest neighbor search).
+	 */
+	@FunctionalInterface
+	protected interface RowBuilder
+	{
+		/**
+		 * @param i - the index of the basis point
+		 * @param rows - where to write the rows, row (i * numSubsets + s) starts at (i * numSubsets + s) * rowLength
+		 * @param valid - set to true for every row that was built
+		 */
+		void build( int i, double[] rows, boolean[] valid );
+	}
+
+	/**
+	 * Processes the indices [from, to) of a range
+	 */
+	@FunctionalInterface
+	public interface Chunk
+	{
+		void process( int from, int to );
+	}
+
+	/**
+	 * @param basisPoints - the basis points
+	 * @param rowLength - the number of values per row
+	 * @param service - the executor service used to build the rows (if null the {@link #sharedService()} is used)
+	 */
+	public PointDescriptorMatrix( final List< P > basisPoints, final int rowLength, final ExecutorService service )
+	{
+		this.basisPoints = basisPoints;
+		this.rowLength = rowLength;
+		this.service = service;
+	}
+
+	public int numRows() { return numRows; }
+	public int rowLength() { return rowLength; }
+	public int numSubsets() { return numSubsets; }
+	public List< P > getBasisPoints() { return basisPoints; }
+
+	/**
+	 * @return the descriptors, row r starts at r * rowLength() (must not be modified)
+	 */
+	public double[] getData() { return data; }
+
+	/**
+	 * @param row - the row
+	 * @return the basis point of the descriptor in this row
+	 */
+	public P getBasisPoint( final int row ) { return basisPoints.get( basisIndex[ row ] ); }
+
+	/**
+	 * Builds the rows of all basis points in parallel and removes the rows that could not be built.
+	 *
+	 * @param numSubsets - number of rows per basis point
+	 * @param builders - creates a builder per task
+	 */
+	protected void build( final int numSubsets, final Supplier< RowBuilder > builders )
+	{
+		final int numPoints = basisPoints.size();
+		final double[] rows = new double[ numPoints * numSubsets * rowLength ];
+		final boolean[] valid = new boolean[ numPoints * numSubsets ];
+
+		parallel( numPoints, ( from, to ) ->
+		{
+			final RowBuilder builder = builders.get();
+
+			for ( int i = from; i < to; ++i )
+				builder.build( i, rows, valid );
+		}, service );
+
+		int numValid = 0;
+
+		for ( final boolean v : valid )
+			if ( v )
+				++numValid;
+
+		this.numSubsets = numSubsets;
+		this.numRows = numValid;
+		this.basisIndex = new int[ numValid ];
+
+		if ( numValid == valid.length )
+		{
+			this.data = rows;
+
+			for ( int r = 0; r < numValid; ++r )
+				basisIndex[ r ] = r / numSubsets;
+		}
+		else
+		{
+			// keep the order of the rows
+			this.data = new double[ numValid * rowLength ];
+
+			for ( int r = 0, j = 0; r < valid.length; ++r )
+			{
+				if ( valid[ r ] )
+				{
+					System.arraycopy( rows, r * rowLength, data, j * rowLength, rowLength );
+					basisIndex[ j++ ] = r / numSubsets;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the work-stealing pool of {@link Threads#sharedFlexibleExecutorService()}. Descriptors are usually built from
+	 * within tasks that run on another pool (e.g. pairwise matching), a work-stealing pool does not stall on these nested tasks.
+	 */
+	public static ExecutorService sharedService()
+	{
+		return Threads.sharedFlexibleExecutorService();
+	}
+
+	/**
+	 * Same as {@link #parallel(int, Chunk, ExecutorService)} using the {@link #sharedService()}.
+	 *
+	 * @param n - size of the range
+	 * @param chunk - processes one chunk
+	 */
+	public static void parallel( final int n, final Chunk chunk )
+	{
+		parallel( n, chunk, null );
+	}
+
+	/**
+	 * Splits [0, n) into chunks of {@link #defaultPointsPerTask} that are processed in parallel.
+	 *
+	 * @param n - size of the range
+	 * @param chunk - processes one chunk
+	 * @param service - the executor service (if null the {@link #sharedService()} is used), must not stall on nested
+	 * tasks if called from within one of its own tasks
+	 */
+	public static void parallel( final int n, final Chunk chunk, final ExecutorService service )
+	{
+		final int numTasks = ( n + defaultPointsPerTask - 1 ) / defaultPointsPerTask;
+
+		if ( numTasks <= 1 )
+		{
+			chunk.process( 0, n );
+			return;
+		}
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int from = t * defaultPointsPerTask;
+			final int to = Math.min( n, from + defaultPointsPerTask );
+
+			tasks.add( () ->
+			{
+				chunk.process( from, to );
+				return null;
+			} );
+		}
+
+		try
+		{
+			for ( final Future< Void > future : ( service == null ? sharedService() : service ).invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( "Failed to compute point descriptors: " + e, e );
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud.pointdescriptor;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import mpicbg.models.Point;
+import net.imglib2.KDTree;
+import net.imglib2.RealLocalizable;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.similarity.SquareDistance;
+
+/**
+ * The {@link SimplePointDescriptor}s of all basis points as used with a {@link SubsetMatcher} and {@link SquareDistance}.
+ * For every basis point there is one row holding the world coordinates of its m nearest neighbors relative to the basis
+ * point, so row = basisPoint. The subsets of n out of m neighbors are not stored, they are indexed through a table that is
+ * the same for all basis points.
+ *
+ * @param <P> - the point type
+ */
+public class SimplePointDescriptorMatrix< P extends Point & RealLocalizable > extends PointDescriptorMatrix< P >
+{
+	final int numDimensions, subsetSize;
+	final int[][] subsets;
+
+	/**
+	 * @param tree - a KDTree of the basis points
+	 * @param basisPoints - the basis points
+	 * @param subsetSize - how many neighbors are matched (n)
+	 * @param numNeighbors - out of how many nearest neighbors (m)
+	 */
+	public SimplePointDescriptorMatrix(
+			final KDTree< P > tree,
+			final List< P > basisPoints,
+			final int subsetSize,
+			final int numNeighbors )
+	{
+		this( tree, basisPoints, subsetSize, numNeighbors, null );
+	}
+
+	/**
+	 * @param tree - a KDTree of the basis points
+	 * @param basisPoints - the basis points
+	 * @param subsetSize - how many neighbors are matched (n)
+	 * @param numNeighbors - out of how many nearest neighbors (m)
+	 * @param service - the executor service used to build the descriptors (if null a shared one is used)
+	 */
+	public SimplePointDescriptorMatrix(
+			final KDTree< P > tree,
+			final List< P > basisPoints,
+			final int subsetSize,
+			final int numNeighbors,
+			final ExecutorService service )
+	{
+		super( basisPoints, numNeighbors * numDimensions( basisPoints ), service );
+
+		this.numDimensions = numDimensions( basisPoints );
+		this.subsetSize = subsetSize;
+		this.subsets = SubsetMatcher.computePD( numNeighbors, subsetSize, 0 );
+
+		final int n = numDimensions;
+
+		build( 1, () ->
+		{
+			final KNearestNeighborSearchOnKDTree< P > nnsearch = new KNearestNeighborSearchOnKDTree<>( tree, numNeighbors + 1 );
+
+			return ( i, rows, valid ) ->
+			{
+				final P p = basisPoints.get( i );
+				final double[] basis = p.getW();
+				final int o = i * rowLength;
+
+				nnsearch.search( p );
+
+				// the first hit is always the point itself
+				for ( int k = 0; k < numNeighbors; ++k )
+				{
+					final double[] w = nnsearch.getSampler( k + 1 ).get().getW();
+
+					for ( int d = 0; d < n; ++d )
+						rows[ o + k * n + d ] = w[ d ] - basis[ d ];
+				}
+
+				valid[ i ] = true;
+			};
+		} );
+	}
+
+	/**
+	 * @return the number of subsets of n out of m nearest neighbors per basis point (not the number of rows, which is one)
+	 */
+	@Override
+	public int numSubsets() { return subsets.length; }
+
+	/**
+	 * @return the number of descriptors (one per basis point)
+	 */
+	public int numDescriptors() { return basisPoints.size(); }
+
+	/**
+	 * Same as {@link AbstractPointDescriptor#descriptorDistance(AbstractPointDescriptor)} of {@link SimplePointDescriptor}s with a {@link SubsetMatcher} and
+	 * {@link SquareDistance}: the smallest distance of all combinations of subsets. Combinations are skipped as soon as
+	 * they cannot be smaller than the bound, which does not change the result if it is smaller than the bound.
+	 *
+	 * @param i - the basis point of this descriptor
+	 * @param other - the other descriptors
+	 * @param j - the basis point of the other descriptor
+	 * @param bound - only distances smaller than that are of interest
+	 * @return the distance, or Double.MAX_VALUE if it is not smaller than the bound
+	 */
+	public double descriptorDistance( final int i, final SimplePointDescriptorMatrix< ? > other, final int j, final double bound )
+	{
+		double bestSimilarity = Double.MAX_VALUE;
+
+		final int o1 = i * rowLength;
+		final int o2 = j * other.rowLength;
+
+		for ( final int[] subsetA : subsets )
+		{
+			for ( final int[] subsetB : other.subsets )
+			{
+				final double limit = Math.min( bestSimilarity, bound );
+
+				double difference = 0;
+				boolean skip = false;
+
+				for ( int k = 0; k < subsetSize && !skip; ++k )
+				{
+					final int n1 = o1 + subsetA[ k ] * numDimensions;
+					final int n2 = o2 + subsetB[ k ] * numDimensions;
+
+					double sum = 0;
+
+					for ( int d = 0; d < numDimensions; ++d )
+					{
+						final double diff = data[ n1 + d ] - other.data[ n2 + d ];
+						sum += diff * diff;
+					}
+
+					difference += sum;
+					skip = !( difference / numDimensions < limit );
+				}
+
+				if ( !skip )
+					bestSimilarity = difference / numDimensions;
+			}
+		}
+
+		return bestSimilarity;
+	}
+
+	protected static int numDimensions( final List< ? extends Point > points )
+	{
+		return points.size() == 0 ? 0 : points.get( 0 ).getW().length;
+	}
+}
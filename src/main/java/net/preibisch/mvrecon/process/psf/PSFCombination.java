@@ -22,8 +22,12 @@
  */
 package net.preibisch.mvrecon.process.psf;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
@@ -35,6 +39,7 @@ import net.imglib2.img.ImgFactory;
 import net.imglib2.type.Type;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
 
 public class PSFCombination
 {
@@ -87,49 +92,96 @@ public class PSFCombination
 
 		//IJ.log( "maxSize: " + Util.printCoordinates( maxSize ) );
 
-		Img< T > avgPSF = imgFactory.create( maxSize, Views.iterable( imgs.iterator().next() ).firstElement() );
+		final Img< T > avgPSF = imgFactory.create( maxSize, Views.iterable( imgs.iterator().next() ).firstElement() );
 
-		final long[] avgCenter = new long[ numDimensions ];
+		long numPixels = 1;
 		for ( int d = 0; d < numDimensions; ++d )
-			avgCenter[ d ] = avgPSF.dimension( d ) / 2;
+			numPixels *= maxSize[ d ];
 
-		for ( final RandomAccessibleInterval< T > psfIn : imgs )
-		{
-			final IterableInterval< T > psf;
+		// every task sums up some of the PSFs into its own array, which are summed up pairwise in the end
+		final ArrayList< RandomAccessibleInterval< T > > list = new ArrayList<>( imgs );
+		final int numTasks = Math.max( 1, Math.min( Threads.numThreads(), list.size() ) );
 
-			if ( Views.isZeroMin( psfIn ) )
-				psf = Views.iterable( psfIn );
-			else
-				psf = Views.iterable( Views.zeroMin( psfIn ) );
+		final ArrayList< float[] > acc = new ArrayList<>();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
 
-			// works if the kernel is even
-			final RandomAccess< T > avgCursor = Views.extendZero( avgPSF ).randomAccess();
-			final Cursor< T > psfCursor = psf.localizingCursor();
-			
-			final long[] loc = new long[ numDimensions ];
-			final long[] psfCenter = new long[ numDimensions ];
-			for ( int d = 0; d < numDimensions; ++d )
-				psfCenter[ d ] = psf.dimension( d ) / 2;
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int task = t;
+			final float[] local = new float[ (int)numPixels ];
+			acc.add( local );
 
-			while ( psfCursor.hasNext() )
+			tasks.add( () ->
 			{
-				psfCursor.fwd();
-				psfCursor.localize( loc );
+				for ( int i = task; i < list.size(); i += numTasks )
+					addCentered( list.get( i ), maxSize, local );
 
-				for ( int d = 0; d < numDimensions; ++d )
-					loc[ d ] = avgCenter[ d ] - ( psfCenter[ d ] - loc[ d ] );
-
-				avgCursor.setPosition( loc );
-				avgCursor.get().add( psfCursor.get() );
-			}
+				return null;
+			} );
 		}
 
-		for ( final T type : avgPSF )
-			type.setReal( type.getRealDouble() / (double)imgs.size() );
+		final ExecutorService service = Threads.createFixedExecutorService( numTasks );
+
+		PSFEngine.run( tasks, service );
+		PSFEngine.reduce( Collections.singletonList( acc ), service );
+
+		service.shutdown();
+
+		final float[] sum = acc.get( 0 );
+		final Cursor< T > cursor = Views.flatIterable( avgPSF ).cursor();
+
+		for ( int i = 0; i < sum.length; ++i )
+			cursor.next().setReal( sum[ i ] / (double)imgs.size() );
 
 		return avgPSF;
 	}
 
+	/**
+	 * Adds a PSF to an array of a (potentially different) size so that the centers match (in flat iteration order),
+	 * pixels that do not fit are ignored
+	 *
+	 * @param psfIn - the PSF
+	 * @param size - the size of the array
+	 * @param sum - the array
+	 * @param <T> pixel type
+	 */
+	protected static < T extends RealType< T > > void addCentered( final RandomAccessibleInterval< T > psfIn, final long[] size, final float[] sum )
+	{
+		final int numDimensions = size.length;
+
+		final IterableInterval< T > psf;
+
+		if ( Views.isZeroMin( psfIn ) )
+			psf = Views.iterable( psfIn );
+		else
+			psf = Views.iterable( Views.zeroMin( psfIn ) );
+
+		final long[] offset = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			offset[ d ] = size[ d ] / 2 - psf.dimension( d ) / 2;
+
+		final Cursor< T > psfCursor = psf.localizingCursor();
+
+		A: while ( psfCursor.hasNext() )
+		{
+			final float value = psfCursor.next().getRealFloat();
+
+			long index = 0;
+
+			for ( int d = numDimensions - 1; d >= 0; --d )
+			{
+				final long l = psfCursor.getLongPosition( d ) + offset[ d ];
+
+				if ( l < 0 || l >= size[ d ] )
+					continue A;
+
+				index = index * size[ d ] + l;
+			}
+
+			sum[ (int)index ] += value;
+		}
+	}
+
 	/**
 	 * @param imgs image dimensions
 	 * @return - maximal dimensions of the transformed PSFs
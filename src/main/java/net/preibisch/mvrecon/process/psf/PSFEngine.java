@@ -0,0 +1,374 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.psf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.metrics.Metrics;
+
+/**
+ * Sums up the local neighborhood of bead locations into a PSF. The beads of a view are processed in batches by several
+ * threads, every thread accumulates into its own float[] which are summed up pairwise in parallel (tree reduction) in the end.
+ * Several views are processed in one pass, so that all threads are busy even if some views only have a few beads.
+ * <p>
+ * The sum is kept, so beads can be added incrementally (e.g. when new detections become available) without processing the
+ * previous ones again.
+ */
+public class PSFEngine
+{
+	// number of beads one task processes at once
+	public static int defaultBatchSize = 32;
+
+	// number of views whose images are opened and processed in one pass by extract()
+	public static int defaultViewsPerBatch = 4;
+
+	final long[] size, sizeHalf;
+	final float[] sum;
+	long numBeads = 0;
+
+	/**
+	 * @param size - the size of the PSF (should be odd)
+	 */
+	public PSFEngine( final long[] size )
+	{
+		this.size = size.clone();
+		this.sizeHalf = new long[ size.length ];
+
+		long numPixels = 1;
+
+		for ( int d = 0; d < size.length; ++d )
+		{
+			sizeHalf[ d ] = size[ d ] / 2;
+			numPixels *= size[ d ];
+		}
+
+		if ( numPixels > Integer.MAX_VALUE )
+			throw new RuntimeException( "PSF too large: " + numPixels + " pixels." );
+
+		this.sum = new float[ (int)numPixels ];
+	}
+
+	public long[] getSize() { return size.clone(); }
+	public synchronized long getNumBeads() { return numBeads; }
+
+	/**
+	 * @return a copy of the sum of all beads added so far
+	 */
+	public synchronized ArrayImg< FloatType, FloatArray > getPSF()
+	{
+		return ArrayImgs.floats( sum.clone(), size );
+	}
+
+	/**
+	 * Adds the sum of all beads added so far to an image of the size of the PSF (in flat iteration order).
+	 *
+	 * @param target - the target, same size as the PSF
+	 * @param <T> - pixel type
+	 */
+	public synchronized < T extends RealType< T > > void addTo( final RandomAccessibleInterval< T > target )
+	{
+		final Cursor< T > cursor = Views.flatIterable( target ).cursor();
+
+		for ( int i = 0; i < sum.length; ++i )
+		{
+			final T t = cursor.next();
+			t.setReal( t.getRealDouble() + sum[ i ] );
+		}
+	}
+
+	/**
+	 * Adds beads.
+	 *
+	 * @param img - the (interpolated, extended) image
+	 * @param locations - the bead locations in the image
+	 * @param service - the executor service
+	 */
+	public void add( final RealRandomAccessible< ? extends RealType< ? > > img, final Collection< ? extends RealLocalizable > locations, final ExecutorService service )
+	{
+		final ArrayList< PSFEngine > engines = new ArrayList<>();
+		final ArrayList< RealRandomAccessible< ? extends RealType< ? > > > imgs = new ArrayList<>();
+		final ArrayList< Collection< ? extends RealLocalizable > > locationList = new ArrayList<>();
+
+		engines.add( this );
+		imgs.add( img );
+		locationList.add( locations );
+
+		addAll( engines, imgs, locationList, service );
+	}
+
+	/**
+	 * Adds beads to several PSFs (e.g. one per view) in one pass.
+	 *
+	 * @param engines - the PSFs
+	 * @param imgs - the (interpolated, extended) image for each PSF
+	 * @param locations - the bead locations in the image for each PSF
+	 * @param service - the executor service
+	 */
+	public static void addAll(
+			final List< PSFEngine > engines,
+			final List< ? extends RealRandomAccessible< ? extends RealType< ? > > > imgs,
+			final List< ? extends Collection< ? extends RealLocalizable > > locations,
+			final ExecutorService service )
+	{
+		final int numThreads = Threads.numThreads();
+		final long time = Metrics.timer( "psf.extract" ).start();
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+		final ArrayList< ArrayList< float[] > > accumulators = new ArrayList<>();
+		long numBeadsTotal = 0;
+
+		for ( int e = 0; e < engines.size(); ++e )
+		{
+			final PSFEngine engine = engines.get( e );
+			final RealRandomAccessible< ? extends RealType< ? > > img = imgs.get( e );
+			final ArrayList< RealLocalizable > beads = new ArrayList<>( locations.get( e ) );
+
+			numBeadsTotal += beads.size();
+
+			final int numBatches = ( beads.size() + defaultBatchSize - 1 ) / defaultBatchSize;
+			final int numTasks = Math.min( numThreads, numBatches );
+
+			final ArrayList< float[] > acc = new ArrayList<>();
+			accumulators.add( acc );
+
+			for ( int t = 0; t < numTasks; ++t )
+			{
+				final int task = t;
+				final float[] local = new float[ engine.sum.length ];
+				acc.add( local );
+
+				tasks.add( () ->
+				{
+					final RealRandomAccess< ? extends RealType< ? > > interpolator = img.realRandomAccess();
+					final int[] pos = new int[ engine.size.length ];
+
+					// every task processes every numTasks'th batch
+					for ( int batch = task; batch < numBatches; batch += numTasks )
+						for ( int i = batch * defaultBatchSize; i < Math.min( beads.size(), ( batch + 1 ) * defaultBatchSize ); ++i )
+							engine.addBead( interpolator, beads.get( i ), pos, local );
+
+					return null;
+				} );
+			}
+		}
+
+		run( tasks, service );
+
+		// sum up the accumulators of all PSFs pairwise in parallel
+		reduce( accumulators, service );
+
+		for ( int e = 0; e < engines.size(); ++e )
+		{
+			final PSFEngine engine = engines.get( e );
+
+			synchronized ( engine )
+			{
+				if ( accumulators.get( e ).size() > 0 )
+				{
+					final float[] acc = accumulators.get( e ).get( 0 );
+
+					for ( int i = 0; i < acc.length; ++i )
+						engine.sum[ i ] += acc[ i ];
+				}
+
+				engine.numBeads += locations.get( e ).size();
+			}
+		}
+
+		Metrics.timer( "psf.extract" ).stop( time, numBeadsTotal );
+	}
+
+	/**
+	 * Extracts the PSFs of several views in parallel. The views are processed in batches of {@link #defaultViewsPerBatch},
+	 * so only the images (and bead locations) of one batch are held at a time (some image loaders read the entire stack).
+	 *
+	 * @param data - the project
+	 * @param viewIds - the views
+	 * @param label - the interest point label of the beads
+	 * @param useCorresponding - use only corresponding interest points
+	 * @param size - the size of the PSFs
+	 * @param service - the executor service
+	 * @return a PSF for each view (check {@link #getNumBeads()})
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static HashMap< ViewId, PSFEngine > extract(
+			final SpimData2 data,
+			final Collection< ? extends ViewId > viewIds,
+			final String label,
+			final boolean useCorresponding,
+			final long[] size,
+			final ExecutorService service )
+	{
+		final HashMap< ViewId, PSFEngine > psfs = new HashMap<>();
+		final ArrayList< ViewId > views = new ArrayList<>( viewIds );
+
+		for ( final ViewId viewId : views )
+			psfs.put( viewId, new PSFEngine( size ) );
+
+		final int viewsPerBatch = Math.max( 1, defaultViewsPerBatch );
+
+		for ( int from = 0; from < views.size(); from += viewsPerBatch )
+		{
+			final ArrayList< PSFEngine > engines = new ArrayList<>();
+			final ArrayList< RealRandomAccessible< ? extends RealType< ? > > > imgs = new ArrayList<>();
+			final ArrayList< Collection< ? extends RealLocalizable > > locations = new ArrayList<>();
+
+			for ( final ViewId viewId : views.subList( from, Math.min( views.size(), from + viewsPerBatch ) ) )
+			{
+				final ArrayList< RealLocalizable > points = PSFExtraction.getPoints( data, viewId, label, useCorresponding );
+
+				if ( points.size() == 0 )
+					continue;
+
+				final RandomAccessibleInterval img = data.getSequenceDescription().getImgLoader().getSetupImgLoader( viewId.getViewSetupId() ).getImage( viewId.getTimePointId() );
+
+				// Mirror produces some artifacts ... so we use periodic
+				engines.add( psfs.get( viewId ) );
+				imgs.add( Views.interpolate( Views.extendPeriodic( img ), new NLinearInterpolatorFactory() ) );
+				locations.add( points );
+			}
+
+			if ( engines.size() == 0 )
+				continue;
+
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracting PSFs of " + engines.size() + " views in parallel ... " );
+
+			addAll( engines, imgs, locations, service );
+		}
+
+		for ( final ViewId viewId : views )
+			if ( psfs.get( viewId ).getNumBeads() > 0 )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Extracted PSF for " + Group.pvid( viewId ) + " from " + psfs.get( viewId ).getNumBeads() + " beads." );
+
+		return psfs;
+	}
+
+	/**
+	 * Adds the neighborhood of one bead (in flat iteration order of the PSF)
+	 */
+	protected void addBead( final RealRandomAccess< ? extends RealType< ? > > interpolator, final RealLocalizable position, final int[] pos, final float[] acc )
+	{
+		final int n = size.length;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			pos[ d ] = 0;
+			interpolator.setPosition( position.getDoublePosition( d ) - sizeHalf[ d ], d );
+		}
+
+		for ( int i = 0; i < acc.length; ++i )
+		{
+			acc[ i ] += interpolator.get().getRealFloat();
+
+			for ( int d = 0; d < n; ++d )
+			{
+				if ( ++pos[ d ] < size[ d ] )
+				{
+					interpolator.fwd( d );
+					break;
+				}
+
+				pos[ d ] = 0;
+				interpolator.move( 1 - size[ d ], d );
+			}
+		}
+	}
+
+	/**
+	 * Sums up each list of arrays pairwise in parallel, the result is the first array of each list.
+	 *
+	 * @param accumulators - lists of arrays of the same size
+	 * @param service - the executor service
+	 */
+	public static void reduce( final List< ? extends List< float[] > > accumulators, final ExecutorService service )
+	{
+		int maxSize = 0;
+
+		for ( final List< float[] > acc : accumulators )
+			maxSize = Math.max( maxSize, acc.size() );
+
+		for ( int stride = 1; stride < maxSize; stride *= 2 )
+		{
+			final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+			for ( final List< float[] > acc : accumulators )
+			{
+				for ( int i = 0; i + stride < acc.size(); i += 2 * stride )
+				{
+					final float[] a = acc.get( i );
+					final float[] b = acc.get( i + stride );
+
+					tasks.add( () ->
+					{
+						for ( int j = 0; j < a.length; ++j )
+							a[ j ] += b[ j ];
+
+						return null;
+					} );
+				}
+			}
+
+			run( tasks, service );
+		}
+	}
+
+	protected static void run( final List< Callable< Void > > tasks, final ExecutorService service )
+	{
+		if ( tasks.size() == 0 )
+			return;
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( "Failed to extract PSFs: " + e, e );
+		}
+	}
+}
@@ -25,7 +25,7 @@ package net.preibisch.mvrecon.process.psf;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Cursor;
@@ -50,7 +50,6 @@ import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.process.boundingbox.BoundingBoxReorientation;
-import net.preibisch.mvrecon.process.fusion.FusionTools;
 
 public class PSFExtraction< T extends RealType< T > & NativeType< T > >
 {
@@ -268,92 +267,28 @@ public class PSFExtraction< T extends RealType< T > & NativeType< T > >
 		}
 	}
 
+	/**
+	 * Extracts the PSF by summing up the local neighborhood of locations in parallel (see {@link PSFEngine})
+	 * @param img - the source image
+	 * @param locations - the locations inside the source image
+	 * @param psfGlobal - RAI to add the result to
+	 * @param <T> pixel type
+	 */
 	public static < T extends RealType< T > & NativeType< T > > void extractPSFMultiThreaded(
 			final RealRandomAccessible< T > img,
 			final Collection< RealLocalizable > locations,
 			final RandomAccessibleInterval< T > psfGlobal )
 	{
-		final int n = img.numDimensions();
-		final IterableInterval< T > psfSource = Views.iterable( Views.zeroMin( psfGlobal ) );
-
-		final int nThreads = Threads.numThreads();
-		final int nPortions = nThreads * 2;
-		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
-
-		// every task gets its own PSF image to fill, we add up later
-		final ArrayList< Img< T > > psfLocal = new ArrayList<>();
-
-		for ( int task = 0; task < nPortions; ++task )
-		{
-			final int myTask = task;
-
-			psfLocal.add( new ArrayImgFactory< T >().create( psfSource, psfSource.firstElement() ) );
-
-			tasks.add( new Callable< Void >()
-			{
-				@Override
-				public Void call() throws Exception
-				{
-					final Img< T > psf = psfLocal.get( myTask );
-
-					final RealRandomAccess< T > interpolator = img.realRandomAccess();
-
-					final Cursor< T > psfCursor = Views.iterable( Views.zeroMin( psf ) ).localizingCursor();
-
-					final long[] sizeHalf = new long[ n ];
-					for ( int d = 0; d < n; ++d )
-						sizeHalf[ d ] = psf.dimension( d ) / 2;
-
-					final int[] tmpI = new int[ n ];
-					final double[] tmpD = new double[ n ];
-
-					int j = 0;
-					for ( final RealLocalizable position : locations )
-					{
-						if ( j % myTask == 0 )
-						{
-							psfCursor.reset();
-							
-							while ( psfCursor.hasNext() )
-							{
-								psfCursor.fwd();
-								psfCursor.localize( tmpI );
-	
-								for ( int d = 0; d < n; ++d )
-									tmpD[ d ] = tmpI[ d ] - sizeHalf[ d ] + position.getDoublePosition( d );
-	
-								interpolator.setPosition( tmpD );
-	
-								psfCursor.get().setReal( psfCursor.get().getRealDouble() + interpolator.get().getRealDouble() );
-							}
-						}
-						++j;
-					}
-
-					return null;
-				}
-			});
-		}
+		final long[] size = new long[ psfGlobal.numDimensions() ];
+		psfGlobal.dimensions( size );
 
-		FusionTools.execTasks( tasks, nThreads, "extract PSF's" );
+		final PSFEngine engine = new PSFEngine( size );
+		final ExecutorService service = Threads.createFixedExecutorService();
 
-		final ArrayList< RandomAccess< T > > ras = new ArrayList<>();
+		engine.add( img, locations, service );
+		engine.addTo( psfGlobal );
 
-		for ( final Img< T > psf : psfLocal )
-			ras.add( psf.randomAccess() );
-
-		final Cursor< T > cursor = psfSource.localizingCursor();
-
-		while ( cursor.hasNext() )
-		{
-			final T type = cursor.next();
-
-			for ( final RandomAccess< T > ra : ras )
-			{
-				ra.setPosition( cursor );
-				type.add( ra.get() );
-			}
-		}
+		service.shutdown();
 	}
 
 	/**
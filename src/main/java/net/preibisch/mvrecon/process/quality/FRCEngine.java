@@ -0,0 +1,478 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.quality;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imglib2.Cursor;
+import net.imglib2.Point;
+import net.imglib2.RandomAccessible;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Computes the same Fourier Ring Correlation curves as {@link FRC#calculateFrcCurve(ij.process.ImageProcessor, ij.process.ImageProcessor)}
+ * for square planes of a fixed length, but reads the planes directly from imglib2 and reuses all buffers. Both (real)
+ * planes are transformed together in one complex FFT and separated afterwards, the sampling points on the rings are
+ * precomputed once per length and shared by all instances.
+ * <p>
+ * An instance is not thread-safe, use one per thread (e.g. with a {@link ThreadLocal}).
+ */
+public class FRCEngine
+{
+	final int length, paddedLength, size;
+	final double perimeterSamplingFactor;
+	final boolean useHalfCircle;
+
+	final float[] taper;
+	final RingTable rings;
+
+	// workspace
+	final float[] plane1, plane2;
+	final double[] re, im, tmpRe, tmpIm;
+	final double[] numerator, absFFT1, absFFT2;
+
+	// FFT tables
+	final int[] bitReverse;
+	final double[] cos, sin;
+
+	public FRCEngine( final int length )
+	{
+		this( length, 1, true );
+	}
+
+	/**
+	 * @param length - the side length of the planes
+	 * @param perimeterSamplingFactor - see {@link FRC#perimeterSamplingFactor}
+	 * @param useHalfCircle - see {@link FRC#useHalfCircle}
+	 */
+	public FRCEngine( final int length, final double perimeterSamplingFactor, final boolean useHalfCircle )
+	{
+		this.length = length;
+		this.paddedLength = length % 2 == 0 ? length : length + 1;
+		this.size = fftSize( paddedLength );
+		this.perimeterSamplingFactor = perimeterSamplingFactor;
+		this.useHalfCircle = useHalfCircle;
+
+		this.taper = windowFunction( paddedLength );
+		this.rings = RingTable.get( size, length, perimeterSamplingFactor, useHalfCircle );
+
+		this.plane1 = new float[ paddedLength * paddedLength ];
+		this.plane2 = new float[ paddedLength * paddedLength ];
+		this.re = new double[ size * size ];
+		this.im = new double[ size * size ];
+		this.tmpRe = new double[ size ];
+		this.tmpIm = new double[ size ];
+		this.numerator = new double[ size * size ];
+		this.absFFT1 = new double[ size * size ];
+		this.absFFT2 = new double[ size * size ];
+
+		int bits = 0;
+		while ( ( 1 << bits ) < size )
+			++bits;
+
+		this.bitReverse = new int[ size ];
+		for ( int i = 0; i < size; ++i )
+			bitReverse[ i ] = Integer.reverse( i ) >>> ( 32 - bits );
+
+		this.cos = new double[ size / 2 ];
+		this.sin = new double[ size / 2 ];
+		for ( int i = 0; i < size / 2; ++i )
+		{
+			cos[ i ] = Math.cos( -2 * Math.PI * i / size );
+			sin[ i ] = Math.sin( -2 * Math.PI * i / size );
+		}
+	}
+
+	public int getLength() { return length; }
+
+	/**
+	 * Same as {@link FRCRealRandomAccessible#computeFRC(RandomAccessible, Point, int)}
+	 *
+	 * @param input - the (extended) image
+	 * @param location - the center
+	 * @return the integral of the FRC curve of the planes z-1 and z+1
+	 */
+	public double computeFRC( final RandomAccessible< FloatType > input, final Point location )
+	{
+		return FRCRealRandomAccessible.integral( calculateFrcCurve( input, location, -1, 1 ) );
+	}
+
+	/**
+	 * Same as {@link FRCRealRandomAccessible#computeRelativeFRC(RandomAccessible, Point, int, int)}
+	 *
+	 * @param input - the (extended) image
+	 * @param location - the center
+	 * @param relativeFRCDist - the distance in z of the planes used as reference
+	 * @return the integral of the difference between the FRC curve of the planes z-1 and z+1 and the reference FRC curve
+	 */
+	public double computeRelativeFRC( final RandomAccessible< FloatType > input, final Point location, final int relativeFRCDist )
+	{
+		final double[][] frcCurve = calculateFrcCurve( input, location, -1, 1 );
+
+		try
+		{
+			final double[][] frcCurveDist = new FRC().getSmoothedCurve( calculateFrcCurve( input, location, -relativeFRCDist, relativeFRCDist ) );
+
+			for ( int i = 0; i < frcCurve.length; ++i )
+			{
+				if ( !Double.isFinite( frcCurveDist[ i ][ 1 ] ) || !Double.isFinite( frcCurve[ i ][ 1 ] ) )
+					return 0;
+
+				frcCurve[ i ][ 1 ] = frcCurve[ i ][ 1 ] - frcCurveDist[ i ][ 1 ];
+			}
+
+			return FRCRealRandomAccessible.integral( frcCurve );
+		}
+		catch ( Exception e )
+		{
+			// is thrown if everything is zero
+			return 0;
+		}
+	}
+
+	/**
+	 * @param input - the (extended) image
+	 * @param location - the center
+	 * @param dz1 - z offset of the first plane relative to the location
+	 * @param dz2 - z offset of the second plane relative to the location
+	 * @return the FRC curve, see {@link FRC#calculateFrcCurve(ij.process.ImageProcessor, ij.process.ImageProcessor)}
+	 */
+	public double[][] calculateFrcCurve( final RandomAccessible< FloatType > input, final Point location, final int dz1, final int dz2 )
+	{
+		final int x = location.getIntPosition( 0 );
+		final int y = location.getIntPosition( 1 );
+		final int z = location.getIntPosition( 2 );
+
+		readPlane( input, x, y, z + dz1, plane1 );
+		readPlane( input, x, y, z + dz2, plane2 );
+
+		return calculateFrcCurve( plane1, plane2 );
+	}
+
+	/**
+	 * Reads the plane as {@link FRCRealRandomAccessible#getFloatProcessor(RandomAccessible, int, int, int, int)} would.
+	 *
+	 * @param img - the (extended) image
+	 * @param x - center x
+	 * @param y - center y
+	 * @param z - the plane
+	 * @param target - the target, paddedLength x paddedLength
+	 */
+	public void readPlane( final RandomAccessible< FloatType > img, final int x, final int y, final int z, final float[] target )
+	{
+		final int minX = x - length/2;
+		final int minY = y - length/2;
+		final int w = 2 * ( length / 2 );
+
+		final Cursor< FloatType > c = Views.flatIterable(
+				Views.interval( Views.hyperSlice( img, 2, z ), new long[]{ minX, minY }, new long[]{ x + length/2 - 1, y + length/2 - 1 } ) ).cursor();
+
+		for ( int yi = 0; yi < w; ++yi )
+			for ( int xi = 0, i = yi * paddedLength; xi < w; ++xi, ++i )
+				target[ i ] = c.next().get();
+	}
+
+	/**
+	 * @param p1 - the first plane (paddedLength x paddedLength)
+	 * @param p2 - the second plane (paddedLength x paddedLength)
+	 * @return the FRC curve, see {@link FRC#calculateFrcCurve(ij.process.ImageProcessor, ij.process.ImageProcessor)}
+	 */
+	public double[][] calculateFrcCurve( final float[] p1, final float[] p2 )
+	{
+		// tapered planes as real and imaginary part, padded to the FFT size
+		Arrays.fill( re, 0 );
+		Arrays.fill( im, 0 );
+
+		// the taper is zero at 0 and paddedLength-1
+		for ( int y = 1; y < paddedLength - 1; ++y )
+		{
+			final float ty = taper[ y ];
+
+			for ( int x = 1, i = y * paddedLength + 1, ii = y * size + 1; x < paddedLength - 1; ++x, ++i, ++ii )
+			{
+				final float t = taper[ x ] * ty;
+				re[ ii ] = p1[ i ] * t;
+				im[ ii ] = p2[ i ] * t;
+			}
+		}
+
+		fft2d();
+
+		// separate the transforms of both planes: F1(k) = ( Z(k) + conj(Z(-k)) ) / 2, F2(k) = ( Z(k) - conj(Z(-k)) ) / 2i
+		// and store the products with the zero frequency in the center (as after FHT.swapQuadrants)
+		final int half = size / 2;
+
+		for ( int ky = 0; ky < size; ++ky )
+		{
+			final int nky = ( size - ky ) % size;
+			final int cy = ( ( ky + half ) % size ) * size;
+
+			for ( int kx = 0; kx < size; ++kx )
+			{
+				final int nkx = ( size - kx ) % size;
+
+				final int k = ky * size + kx;
+				final int nk = nky * size + nkx;
+
+				final double a1 = ( re[ k ] + re[ nk ] ) / 2;
+				final double b1 = ( im[ k ] - im[ nk ] ) / 2;
+				final double a2 = ( im[ k ] + im[ nk ] ) / 2;
+				final double b2 = ( re[ nk ] - re[ k ] ) / 2;
+
+				final int c = cy + ( kx + half ) % size;
+
+				numerator[ c ] = a1 * a2 + b1 * b2;
+				absFFT1[ c ] = a1 * a1 + b1 * b1;
+				absFFT2[ c ] = a2 * a2 + b2 * b2;
+			}
+		}
+
+		final double[][] frcCurve = new double[ rings.numRadii ][ 3 ];
+
+		// Radius zero is always 1
+		frcCurve[ 0 ][ 0 ] = 0;
+		frcCurve[ 0 ][ 1 ] = 1;
+		frcCurve[ 0 ][ 2 ] = 1;
+
+		for ( int radius = 1; radius < rings.numRadii; ++radius )
+		{
+			final int[] index = rings.index[ radius ];
+			final double[] weight = rings.weight[ radius ];
+
+			double sum1 = 0, sum2 = 0, sum3 = 0;
+
+			for ( int j = 0; j < index.length; ++j )
+			{
+				final int i = index[ j ];
+				final double w = weight[ j ];
+
+				sum1 += w * numerator[ i ];
+				sum2 += w * absFFT1[ i ];
+				sum3 += w * absFFT2[ i ];
+			}
+
+			frcCurve[ radius ][ 0 ] = radius;
+			frcCurve[ radius ][ 1 ] = sum1 / Math.sqrt( sum2 * sum3 );
+			frcCurve[ radius ][ 2 ] = rings.numSamples[ radius ];
+		}
+
+		return frcCurve;
+	}
+
+	/*
+	 * In-place 2d complex FFT of re/im (rows, then columns)
+	 */
+	protected void fft2d()
+	{
+		for ( int y = 0; y < size; ++y )
+		{
+			System.arraycopy( re, y * size, tmpRe, 0, size );
+			System.arraycopy( im, y * size, tmpIm, 0, size );
+			fft1d( tmpRe, tmpIm );
+			System.arraycopy( tmpRe, 0, re, y * size, size );
+			System.arraycopy( tmpIm, 0, im, y * size, size );
+		}
+
+		for ( int x = 0; x < size; ++x )
+		{
+			for ( int y = 0, i = x; y < size; ++y, i += size )
+			{
+				tmpRe[ y ] = re[ i ];
+				tmpIm[ y ] = im[ i ];
+			}
+
+			fft1d( tmpRe, tmpIm );
+
+			for ( int y = 0, i = x; y < size; ++y, i += size )
+			{
+				re[ i ] = tmpRe[ y ];
+				im[ i ] = tmpIm[ y ];
+			}
+		}
+	}
+
+	/*
+	 * Iterative radix-2 FFT using the precomputed bit reversal and twiddle tables
+	 */
+	protected void fft1d( final double[] r, final double[] i )
+	{
+		for ( int a = 0; a < size; ++a )
+		{
+			final int b = bitReverse[ a ];
+
+			if ( b > a )
+			{
+				double t = r[ a ]; r[ a ] = r[ b ]; r[ b ] = t;
+				t = i[ a ]; i[ a ] = i[ b ]; i[ b ] = t;
+			}
+		}
+
+		for ( int len = 2; len <= size; len <<= 1 )
+		{
+			final int halfLen = len >> 1;
+			final int step = size / len;
+
+			for ( int start = 0; start < size; start += len )
+			{
+				for ( int k = 0; k < halfLen; ++k )
+				{
+					final double wr = cos[ k * step ];
+					final double wi = sin[ k * step ];
+
+					final int u = start + k;
+					final int v = u + halfLen;
+
+					final double xr = r[ v ] * wr - i[ v ] * wi;
+					final double xi = r[ v ] * wi + i[ v ] * wr;
+
+					r[ v ] = r[ u ] - xr;
+					i[ v ] = i[ u ] - xi;
+					r[ u ] += xr;
+					i[ u ] += xi;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param size - the (even) side length of the plane
+	 * @return the power of two size that {@link FRC#getSquareTaperedImage(ij.process.ImageProcessor)} pads to
+	 */
+	public static int fftSize( final int size )
+	{
+		for ( int i = 4; i < 15; i++ )
+			if ( size <= ( 1 << i ) )
+				return 1 << i;
+
+		throw new IllegalArgumentException( "FRC length " + size + " too large, maximal size is " + ( 1 << 14 ) );
+	}
+
+	/**
+	 * @param size - the side length
+	 * @return the Tukey window as used by {@link FRC#getSquareTaperedImage(ij.process.ImageProcessor)}
+	 */
+	public static float[] windowFunction( final int size )
+	{
+		final int boundary = size / 8;
+		final int upperBoundary = size - boundary;
+		final float[] taper = new float[ size ];
+
+		for ( int i = 0; i < size; i++ )
+		{
+			if ( ( i < boundary ) || ( i > size - upperBoundary ) )
+				taper[ i ] = (float)Math.pow( Math.sin( 12.566370614359172D * i / size ), 2.0D );
+			else
+				taper[ i ] = 1;
+		}
+
+		return taper;
+	}
+
+	/**
+	 * The bilinear sampling points of all rings for one size, summed up per pixel of the centered Fourier image.
+	 */
+	public static class RingTable
+	{
+		private static final ConcurrentHashMap< String, RingTable > tables = new ConcurrentHashMap<>();
+
+		final int numRadii;
+		final int[][] index;
+		final double[][] weight;
+		final int[] numSamples;
+
+		/**
+		 * @param size - the size of the centered Fourier image
+		 * @param length - the side length of the (unpadded) planes, determines the number of rings as in FRC.calculateFrcCurve
+		 * @param perimeterSamplingFactor - see {@link FRC#perimeterSamplingFactor}
+		 * @param useHalfCircle - see {@link FRC#useHalfCircle}
+		 * @return the shared table
+		 */
+		public static RingTable get( final int size, final int length, final double perimeterSamplingFactor, final boolean useHalfCircle )
+		{
+			return tables.computeIfAbsent(
+					size + "_" + length + "_" + perimeterSamplingFactor + "_" + useHalfCircle,
+					k -> new RingTable( size, length, perimeterSamplingFactor, useHalfCircle ) );
+		}
+
+		/*
+		 * Same sample positions and interpolation as FRC.calculateFrcCurve and FRC.getInterpolatedValues
+		 */
+		protected RingTable( final int size, final int length, final double perimeterSamplingFactor, final boolean useHalfCircle )
+		{
+			final double centre = size / 2;
+			final double max = ( length / 2 ) - 1;
+			final double limit = useHalfCircle ? Math.PI : 2 * Math.PI;
+
+			this.numRadii = (int)max;
+			this.index = new int[ numRadii ][];
+			this.weight = new double[ numRadii ][];
+			this.numSamples = new int[ numRadii ];
+
+			for ( int radius = 1; radius < max; ++radius )
+			{
+				final HashMap< Integer, Double > weights = new HashMap<>();
+				final double angleStep = 1 / ( perimeterSamplingFactor * radius );
+
+				double angle = 0D;
+				int numSum = 0;
+
+				while ( angle < limit )
+				{
+					final double x = centre + radius * Math.cos( angle );
+					final double y = centre + radius * Math.sin( angle );
+
+					final int xbase = (int)x;
+					final int ybase = (int)y;
+					final double xFraction = Math.max( 0, x - xbase );
+					final double yFraction = Math.max( 0, y - ybase );
+
+					final int lowerLeftIndex = ybase * size + xbase;
+					final int upperLeftIndex = lowerLeftIndex + size;
+
+					// note: FRC.getInterpolatedValues interpolates the upper row from right to left
+					weights.merge( lowerLeftIndex, ( 1 - xFraction ) * ( 1 - yFraction ), Double::sum );
+					weights.merge( lowerLeftIndex + 1, xFraction * ( 1 - yFraction ), Double::sum );
+					weights.merge( upperLeftIndex + 1, ( 1 - xFraction ) * yFraction, Double::sum );
+					weights.merge( upperLeftIndex, xFraction * yFraction, Double::sum );
+
+					++numSum;
+					angle += angleStep;
+				}
+
+				index[ radius ] = new int[ weights.size() ];
+				weight[ radius ] = new double[ weights.size() ];
+				numSamples[ radius ] = numSum;
+
+				int j = 0;
+				for ( final Integer i : weights.keySet() )
+				{
+					index[ radius ][ j ] = i;
+					weight[ radius ][ j++ ] = weights.get( i );
+				}
+			}
+		}
+	}
+}
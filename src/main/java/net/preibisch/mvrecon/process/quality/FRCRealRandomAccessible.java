@@ -89,6 +89,9 @@ public class FRCRealRandomAccessible< T extends RealType< T > > implements RealR
 		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
 		final AtomicInteger progress = new AtomicInteger( 0 );
 
+		// preallocated FFT workspace per thread
+		final ThreadLocal< FRCEngine > engines = ThreadLocal.withInitial( () -> new FRCEngine( length ) );
+
 		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Computing FRC for " + locations.size()  + " locations, length=" + length + ", relative=" + relative );
 
 		IJ.showProgress( 0.01 );
@@ -100,12 +103,13 @@ public class FRCRealRandomAccessible< T extends RealType< T > > implements RealR
 				@Override
 				public Void call() throws Exception
 				{
+					final FRCEngine engine = engines.get();
 					final double quality;
 
 					if ( relative )
-						quality = computeRelativeFRC( floatInput, l, length, relativeFRCDist );
+						quality = engine.computeRelativeFRC( floatInput, l, relativeFRCDist );
 					else
-						quality = computeFRC( floatInput, l, length );
+						quality = engine.computeFRC( floatInput, l );
 
 					synchronized ( qualityList )
 					{
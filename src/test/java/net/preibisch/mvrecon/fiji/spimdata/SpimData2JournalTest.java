@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.registration.ViewTransform;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+
+public class SpimData2JournalTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replayReproducesAppendedChanges() throws Exception
+	{
+		final File xml = createXml();
+
+		final SpimData2 saved = createSpimData( xml.getParentFile() );
+		SpimData2Journal.remember( saved, xml, "digest", 0 );
+
+		// a transform without name, a new bounding box, a changed interest point list
+		final ViewRegistration vr = saved.getViewRegistrations().getViewRegistration( new ViewId( 0, 1 ) );
+		final AffineTransform3D shift = new AffineTransform3D();
+		shift.set( 1.0, 0.0, 0.0, 12.5, 0.0, 1.0, 0.0, -3.25, 0.0, 0.0, 1.0, 0.125 );
+		vr.preconcatenateTransform( new ViewTransformAffine( null, shift ) );
+		vr.updateModel();
+
+		saved.getBoundingBoxes().addBoundingBox( new BoundingBox( "my\tbox", new int[]{ -5, 0, 3 }, new int[]{ 100, 200, 50 } ) );
+		saved.getViewInterestPoints().getViewInterestPointLists( new ViewId( 0, 0 ) ).getHashMap().get( "beads" ).setParameters( "DoG sigma=1.8" );
+
+		assertTrue( SpimData2Journal.append( saved, xml, "digest", 1000 ) );
+		assertTrue( SpimData2Journal.journalFile( xml ).exists() );
+
+		final SpimData2 loaded = createSpimData( xml.getParentFile() );
+		assertEquals( 3, SpimData2Journal.replay( loaded, xml ) );
+
+		assertEquals( SpimData2Journal.snapshot( saved ), SpimData2Journal.snapshot( loaded ) );
+
+		final ViewTransform first = loaded.getViewRegistrations().getViewRegistration( new ViewId( 0, 1 ) ).getTransformList().get( 0 );
+		assertNull( first.getName() );
+		assertEquals( 12.5, first.asAffine3D().get( 0, 3 ), 0 );
+		assertEquals( "DoG sigma=1.8", loaded.getViewInterestPoints().getViewInterestPointLists( new ViewId( 0, 0 ) ).getHashMap().get( "beads" ).getParameters() );
+	}
+
+	@Test
+	public void removedEntriesAreReplayed() throws Exception
+	{
+		final File xml = createXml();
+
+		final SpimData2 saved = createSpimData( xml.getParentFile() );
+		SpimData2Journal.remember( saved, xml, "digest", 0 );
+
+		saved.getViewInterestPoints().getViewInterestPointLists( new ViewId( 0, 0 ) ).getHashMap().remove( "beads" );
+		assertTrue( SpimData2Journal.append( saved, xml, "digest", 1000 ) );
+
+		final SpimData2 loaded = createSpimData( xml.getParentFile() );
+		SpimData2Journal.replay( loaded, xml );
+
+		assertFalse( loaded.getViewInterestPoints().getViewInterestPointLists( new ViewId( 0, 0 ) ).getHashMap().containsKey( "beads" ) );
+		assertEquals( SpimData2Journal.snapshot( saved ), SpimData2Journal.snapshot( loaded ) );
+	}
+
+	@Test
+	public void changedDigestRequiresCompleteSave() throws Exception
+	{
+		final File xml = createXml();
+
+		final SpimData2 saved = createSpimData( xml.getParentFile() );
+		SpimData2Journal.remember( saved, xml, "digest", 0 );
+
+		assertFalse( SpimData2Journal.append( saved, xml, "other", 1000 ) );
+		assertFalse( SpimData2Journal.append( saved, xml, null, 1000 ) );
+
+		SpimData2Journal.remember( saved, xml, null, 0 );
+		assertFalse( SpimData2Journal.append( saved, xml, null, 1000 ) );
+
+		assertFalse( SpimData2Journal.journalFile( xml ).exists() );
+	}
+
+	@Test
+	public void tooManyEntriesRequireCompleteSave() throws Exception
+	{
+		final File xml = createXml();
+
+		final SpimData2 saved = createSpimData( xml.getParentFile() );
+		SpimData2Journal.remember( saved, xml, "digest", 0 );
+
+		saved.getBoundingBoxes().addBoundingBox( new BoundingBox( "a", new int[]{ 0, 0, 0 }, new int[]{ 1, 1, 1 } ) );
+		saved.getBoundingBoxes().addBoundingBox( new BoundingBox( "b", new int[]{ 0, 0, 0 }, new int[]{ 1, 1, 1 } ) );
+
+		assertFalse( SpimData2Journal.append( saved, xml, "digest", 1 ) );
+		assertTrue( SpimData2Journal.append( saved, xml, "digest", 2 ) );
+	}
+
+	@Test
+	public void escapeRoundTrip()
+	{
+		for ( final String s : new String[]{ null, "", "\\0", "\\", "a\tb\nc\rd", "C:\\data\\0\\beads" } )
+			assertEquals( s, SpimData2Journal.unescape( SpimData2Journal.escape( s ) ) );
+
+		assertFalse( SpimData2Journal.escape( "\\0" ).equals( SpimData2Journal.escape( null ) ) );
+	}
+
+	protected File createXml() throws Exception
+	{
+		final File xml = new File( folder.newFolder(), "dataset.xml" );
+		Files.write( xml.toPath(), "<SpimData version=\"0.2\"/>".getBytes( StandardCharsets.UTF_8 ) );
+		return xml;
+	}
+
+	/*
+	 * the state as it would be loaded from the XML, the journal does not need a sequence description
+	 */
+	protected static SpimData2 createSpimData( final File basePath )
+	{
+		final HashMap< ViewId, ViewRegistration > registrations = new HashMap<>();
+		final HashMap< ViewId, ViewInterestPointLists > interestPoints = new HashMap<>();
+
+		for ( int setup = 0; setup < 2; ++setup )
+		{
+			final AffineTransform3D calibration = new AffineTransform3D();
+			calibration.set( 1.0, 0.0, 0.0, 0.0, 0.0, 1.0, 0.0, 0.0, 0.0, 0.0, 3.5, 0.0 );
+
+			final ArrayList< ViewTransform > transforms = new ArrayList<>();
+			transforms.add( new ViewTransformAffine( "calibration", calibration ) );
+
+			final ViewRegistration vr = new ViewRegistration( 0, setup, transforms );
+			vr.updateModel();
+			registrations.put( new ViewId( 0, setup ), vr );
+
+			final ViewInterestPointLists lists = new ViewInterestPointLists( 0, setup );
+			final InterestPointList list = new InterestPointList( basePath, new File( "interestpoints", "tpId_0_viewSetupId_" + setup + ".beads" ) );
+			list.setParameters( "DoG sigma=1.5" );
+			lists.addInterestPointList( "beads", list );
+			interestPoints.put( new ViewId( 0, setup ), lists );
+		}
+
+		return new SpimData2(
+				basePath,
+				null,
+				new ViewRegistrations( registrations ),
+				new ViewInterestPoints( interestPoints ),
+				new BoundingBoxes(),
+				new PointSpreadFunctions(),
+				new StitchingResults() );
+	}
+}
@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LazyBioformatsPlanes.ReaderPool;
+
+public class LazyBioformatsPlanesTest
+{
+	final int[] intValues = new int[] { 0, 1, 255, 256, 65535, 65536, 70000, 123456789, Integer.MAX_VALUE, 0x80000000, 0xfffffffe };
+	final float[] floatValues = new float[] { 0, 1, 12.4f, 12.6f, 255, 65535, 65535.7f, 70000.2f, 1e7f };
+
+	@Test
+	public void decodeUINT32AsLegacyLoader()
+	{
+		for ( final boolean isLittleEndian : new boolean[] { true, false } )
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate( intValues.length * 4 ).order( isLittleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+			for ( final int v : intValues )
+				buffer.putInt( v );
+
+			final byte[] b = buffer.array();
+			final short[] expected = new short[ intValues.length ];
+			final UnsignedShortType t = new UnsignedShortType();
+
+			for ( int i = 0; i < intValues.length; ++i )
+			{
+				// as LegacyStackImgLoaderLOCI
+				t.setReal( LegacyStackImgLoaderLOCI.getIntValue( b, i * 4, isLittleEndian ) );
+				expected[ i ] = (short)t.get();
+			}
+
+			final short[] target = new short[ intValues.length + 2 ];
+			LazyBioformatsPlanes.decodePlane( b, target, 1, intValues.length, FormatTools.UINT32, isLittleEndian );
+
+			assertEquals( 0, target[ 0 ] );
+			assertEquals( 0, target[ target.length - 1 ] );
+			assertArrayEquals( expected, Arrays.copyOfRange( target, 1, target.length - 1 ) );
+
+			// the lower 16 bits, as UnsignedShortType.setReal()
+			assertEquals( (short)70000, target[ 1 + 6 ] );
+		}
+	}
+
+	@Test
+	public void decodeFLOATAsLegacyLoader()
+	{
+		for ( final boolean isLittleEndian : new boolean[] { true, false } )
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate( floatValues.length * 4 ).order( isLittleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+			for ( final float v : floatValues )
+				buffer.putFloat( v );
+
+			final byte[] b = buffer.array();
+			final short[] expected = new short[ floatValues.length ];
+			final UnsignedShortType t = new UnsignedShortType();
+
+			for ( int i = 0; i < floatValues.length; ++i )
+			{
+				t.setReal( LegacyStackImgLoaderLOCI.getFloatValue( b, i * 4, isLittleEndian ) );
+				expected[ i ] = (short)t.get();
+			}
+
+			final short[] target = new short[ floatValues.length ];
+			LazyBioformatsPlanes.decodePlane( b, target, 0, floatValues.length, FormatTools.FLOAT, isLittleEndian );
+
+			assertArrayEquals( expected, target );
+		}
+	}
+
+	@Test
+	public void decodeUINT8AndUINT16()
+	{
+		final byte[] b8 = new byte[] { 0, 1, (byte)127, (byte)128, (byte)255 };
+		final short[] target8 = new short[ b8.length ];
+		LazyBioformatsPlanes.decodePlane( b8, target8, 0, b8.length, FormatTools.UINT8, true );
+		assertArrayEquals( new short[] { 0, 1, 127, 128, 255 }, target8 );
+
+		final short[] values = new short[] { 0, 1, 256, (short)40000, (short)65535 };
+
+		for ( final boolean isLittleEndian : new boolean[] { true, false } )
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate( values.length * 2 ).order( isLittleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+			for ( final short v : values )
+				buffer.putShort( v );
+
+			final short[] target16 = new short[ values.length ];
+			LazyBioformatsPlanes.decodePlane( buffer.array(), target16, 0, values.length, FormatTools.UINT16, isLittleEndian );
+			assertArrayEquals( values, target16 );
+		}
+	}
+
+	@Test
+	public void readersReleasedAfterCloseAreClosed() throws Exception
+	{
+		final List< Object > closed = Collections.synchronizedList( new ArrayList<>() );
+		final ReaderPool pool = new ReaderPool( new File( "test.czi" ), () -> reader( closed ), 2 );
+
+		final IFormatReader a = pool.acquire();
+		final IFormatReader b = pool.acquire();
+		assertNotSame( a, b );
+		assertEquals( 2, pool.numReaders() );
+
+		// idle readers are reused
+		pool.release( b );
+		assertSame( b, pool.acquire() );
+		pool.release( b );
+
+		// only idle readers are closed, the one in use is closed once it is released
+		pool.close();
+		assertEquals( 0, pool.numReaders() );
+		assertTrue( closed.contains( b ) );
+		assertFalse( closed.contains( a ) );
+
+		pool.release( a );
+		assertTrue( closed.contains( a ) );
+
+		// images opened from the pool re-open readers, never the closed ones
+		final IFormatReader c = pool.acquire();
+		assertNotSame( a, c );
+		assertNotSame( b, c );
+		assertFalse( closed.contains( c ) );
+		assertEquals( 1, pool.numReaders() );
+
+		pool.release( c );
+		assertSame( c, pool.acquire() );
+	}
+
+	/**
+	 * @param closed - where the reader adds itself when it is closed
+	 * @return a reader that only supports setId() and close()
+	 */
+	protected static IFormatReader reader( final List< Object > closed )
+	{
+		return (IFormatReader)Proxy.newProxyInstance(
+				IFormatReader.class.getClassLoader(),
+				new Class< ? >[] { IFormatReader.class },
+				( proxy, method, args ) ->
+				{
+					switch ( method.getName() )
+					{
+						case "close": closed.add( proxy ); return null;
+						case "equals": return proxy == args[ 0 ];
+						case "hashCode": return System.identityHashCode( proxy );
+						case "toString": return "reader@" + System.identityHashCode( proxy );
+						case "setId": return null;
+						default: throw new UnsupportedOperationException( method.getName() );
+					}
+				} );
+	}
+}
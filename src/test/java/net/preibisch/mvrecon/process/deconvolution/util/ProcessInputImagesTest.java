@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.deconvolution.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+public class ProcessInputImagesTest
+{
+	static ExecutorService service;
+
+	final static long[] dim = new long[]{ 23, 17, 11 };
+	final static int[] brickSize = new int[]{ 8, 8, 4 }; // does not divide the dimensions
+
+	@BeforeClass
+	public static void createService() { service = Executors.newFixedThreadPool( 4 ); }
+
+	@AfterClass
+	public static void shutdownService() { service.shutdown(); }
+
+	@Test
+	public void hardNormalizationEqualsVirtual()
+	{
+		compareToVirtual( 3, 1.0, false );
+	}
+
+	@Test
+	public void osemSpeedupEqualsVirtual()
+	{
+		compareToVirtual( 3, 2.5, false );
+	}
+
+	@Test
+	public void smoothNormalizationEqualsVirtual()
+	{
+		compareToVirtual( 4, 1.0, true );
+	}
+
+	@Test
+	public void smoothNormalizationWithOsemSpeedupEqualsVirtual()
+	{
+		compareToVirtual( 2, 1.7, true );
+	}
+
+	protected static void compareToVirtual( final int numGroups, final double osemspeedup, final boolean additionalSmoothBlending )
+	{
+		final float maxDiffRange = 0.1f;
+		final float scalingRange = 0.05f;
+
+		final Random rnd = new Random( 4242 + numGroups );
+
+		final ArrayList< Group< ViewId > > groups = new ArrayList<>();
+		final HashMap< Group< ViewId >, RandomAccessibleInterval< FloatType > > images = new HashMap<>();
+		final HashMap< Group< ViewId >, RandomAccessibleInterval< FloatType > > unnormalizedWeights = new HashMap<>();
+
+		for ( int g = 0; g < numGroups; ++g )
+		{
+			final Group< ViewId > group = new Group<>( new ViewId( 0, g ) );
+			groups.add( group );
+
+			final Img< FloatType > img = ArrayImgs.floats( dim );
+			for ( final FloatType t : img )
+				t.set( rnd.nextFloat() * 1000 );
+
+			// weights of zero, weights above 1 (fusion of several views of a group) and everything in between
+			final Img< FloatType > weight = ArrayImgs.floats( dim );
+			for ( final FloatType t : weight )
+			{
+				final float r = rnd.nextFloat();
+
+				if ( r < 0.1f )
+					t.set( 0 );
+				else if ( r < 0.2f )
+					t.set( 1 + rnd.nextFloat() * 2 );
+				else
+					t.set( rnd.nextFloat() );
+			}
+
+			images.put( group, img );
+			unnormalizedWeights.put( group, weight );
+		}
+
+		final HashMap< Group< ViewId >, RandomAccessibleInterval< FloatType > > virtual =
+				ProcessInputImages.normalizeWeights(
+						unnormalizedWeights, groups, osemspeedup, additionalSmoothBlending, maxDiffRange, scalingRange );
+
+		final HashMap< Group< ViewId >, RandomAccessibleInterval< FloatType > > precomputedImages = new HashMap<>( images );
+		final HashMap< Group< ViewId >, RandomAccessibleInterval< FloatType > > precomputed = new HashMap<>();
+
+		ProcessInputImages.precomputeGroups(
+				groups,
+				precomputedImages,
+				unnormalizedWeights,
+				precomputed,
+				true,
+				new ArrayImgFactory<>( new FloatType() ),
+				brickSize,
+				service,
+				osemspeedup,
+				additionalSmoothBlending,
+				maxDiffRange,
+				scalingRange );
+
+		for ( final Group< ViewId > group : groups )
+		{
+			assertTrue( precomputedImages.get( group ) != images.get( group ) );
+
+			assertEqualContent( images.get( group ), precomputedImages.get( group ), 0 );
+			assertEqualContent( virtual.get( group ), precomputed.get( group ), 1e-6 );
+		}
+	}
+
+	protected static void assertEqualContent(
+			final RandomAccessibleInterval< FloatType > expected,
+			final RandomAccessibleInterval< FloatType > actual,
+			final double epsilon )
+	{
+		for ( int d = 0; d < expected.numDimensions(); ++d )
+			assertEquals( expected.dimension( d ), actual.dimension( d ) );
+
+		final Cursor< FloatType > e = Views.flatIterable( expected ).cursor();
+		final Cursor< FloatType > a = Views.flatIterable( actual ).cursor();
+
+		while ( e.hasNext() )
+			assertEquals( e.next().get(), a.next().get(), epsilon );
+	}
+}
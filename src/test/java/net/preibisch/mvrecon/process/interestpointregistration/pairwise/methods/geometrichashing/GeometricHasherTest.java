@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.geometrichashing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.pointcloud.PointKDTree;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LocalCoordinateSystemPointDescriptor;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LocalCoordinateSystemPointDescriptorMatrix;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.PointDescriptorMatrix;
+
+public class GeometricHasherTest
+{
+	static ExecutorService service;
+
+	final static int redundancy = 1;
+
+	final ArrayList< InterestPoint > pointsA = randomPoints( 150, 0, new Random( 150 ) );
+	final ArrayList< InterestPoint > pointsB = transformedPoints( pointsA, new Random( 42 ) );
+
+	@BeforeClass
+	public static void createService() { service = Executors.newFixedThreadPool( 4 ); }
+
+	@AfterClass
+	public static void shutdownService() { service.shutdown(); }
+
+	@Test
+	public void matrixEqualsDescriptors()
+	{
+		final int pointsPerTask = PointDescriptorMatrix.defaultPointsPerTask;
+
+		try
+		{
+			// several chunks per matrix
+			PointDescriptorMatrix.defaultPointsPerTask = 16;
+
+			for ( final boolean normalize : new boolean[] { false, true } )
+			{
+				final KDTree< InterestPoint > tree = new KDTree<>( pointsA, pointsA );
+
+				final LocalCoordinateSystemPointDescriptorMatrix< InterestPoint > matrix =
+						new LocalCoordinateSystemPointDescriptorMatrix<>( tree, pointsA, redundancy, normalize, service );
+				final ArrayList< LocalCoordinateSystemPointDescriptor< InterestPoint > > descriptors =
+						GeometricHasher.createLocalCoordinateSystemPointDescriptors( tree, pointsA, redundancy, normalize );
+
+				assertEquals( descriptors.size(), matrix.numRows() );
+				assertEquals( descriptors.get( 0 ).numDimensions(), matrix.rowLength() );
+
+				for ( int r = 0; r < matrix.numRows(); ++r )
+				{
+					assertSame( descriptors.get( r ).getBasisPoint(), matrix.getBasisPoint( r ) );
+
+					for ( int d = 0; d < matrix.rowLength(); ++d )
+						assertEquals( descriptors.get( r ).getDoublePosition( d ), matrix.getData()[ r * matrix.rowLength() + d ], 0 );
+
+					final int other = ( r * 7 ) % matrix.numRows();
+					assertEquals( descriptors.get( r ).descriptorDistance( descriptors.get( other ) ), matrix.descriptorDistance( r, matrix, other ), 0 );
+				}
+			}
+		}
+		finally
+		{
+			PointDescriptorMatrix.defaultPointsPerTask = pointsPerTask;
+		}
+	}
+
+	@Test
+	public void nearestTwoEqualsKNearestNeighborSearch()
+	{
+		final LocalCoordinateSystemPointDescriptorMatrix< InterestPoint > matrixA =
+				new LocalCoordinateSystemPointDescriptorMatrix<>( new KDTree<>( pointsA, pointsA ), pointsA, redundancy, false, service );
+
+		final KDTree< InterestPoint > treeB = new KDTree<>( pointsB, pointsB );
+		final LocalCoordinateSystemPointDescriptorMatrix< InterestPoint > matrixB =
+				new LocalCoordinateSystemPointDescriptorMatrix<>( treeB, pointsB, redundancy, false, service );
+		final ArrayList< LocalCoordinateSystemPointDescriptor< InterestPoint > > descriptorsB =
+				GeometricHasher.createLocalCoordinateSystemPointDescriptors( treeB, pointsB, redundancy, false );
+
+		final PointKDTree.Search search = matrixB.getTree().search();
+		final KNearestNeighborSearchOnKDTree< LocalCoordinateSystemPointDescriptor< InterestPoint > > nnsearch =
+				new KNearestNeighborSearchOnKDTree<>( new KDTree<>( descriptorsB, descriptorsB ), 2 );
+
+		final double[] query = new double[ matrixA.rowLength() ];
+
+		for ( int r = 0; r < matrixA.numRows(); ++r )
+		{
+			final int first = search.nearestTwo( matrixA.getData(), r * matrixA.rowLength(), -1 );
+			final int second = search.second();
+
+			System.arraycopy( matrixA.getData(), r * matrixA.rowLength(), query, 0, query.length );
+			nnsearch.search( new RealPoint( query ) );
+
+			assertTrue( first >= 0 && second >= 0 && first != second );
+
+			// indices can only differ for equal distances
+			assertEquals( nnsearch.getSquareDistance( 0 ), search.squaredDistance(), 1e-9 );
+			assertEquals( nnsearch.getSquareDistance( 1 ), search.secondSquaredDistance(), 1e-9 );
+			assertEquals( nnsearch.getSquareDistance( 0 ), squaredDistance( matrixA, r, matrixB, first ), 1e-9 );
+			assertEquals( nnsearch.getSquareDistance( 1 ), squaredDistance( matrixA, r, matrixB, second ), 1e-9 );
+		}
+	}
+
+	@Test
+	public void matchingEqualsDescriptorMatching()
+	{
+		final GeometricHasher< InterestPoint > hasher = new GeometricHasher<>( service );
+
+		final ArrayList< LocalCoordinateSystemPointDescriptor< InterestPoint > > descriptorsA =
+				GeometricHasher.createLocalCoordinateSystemPointDescriptors( new KDTree<>( pointsA, pointsA ), pointsA, redundancy, false );
+		final ArrayList< LocalCoordinateSystemPointDescriptor< InterestPoint > > descriptorsB =
+				GeometricHasher.createLocalCoordinateSystemPointDescriptors( new KDTree<>( pointsB, pointsB ), pointsB, redundancy, false );
+
+		final KNearestNeighborSearchOnKDTree< LocalCoordinateSystemPointDescriptor< InterestPoint > > nnsearch =
+				new KNearestNeighborSearchOnKDTree<>( new KDTree<>( descriptorsB, descriptorsB ), 2 );
+
+		for ( final double[] parameters : new double[][] { { 50, 3 }, { 10, 10 }, { 1, 1 }, { Double.MAX_VALUE, 1 } } )
+		{
+			final ArrayList< PointMatchGeneric< InterestPoint > > expected = new ArrayList<>();
+			hasher.computeMatching( descriptorsA, nnsearch, expected, parameters[ 0 ], parameters[ 1 ] );
+
+			final ArrayList< PointMatchGeneric< InterestPoint > > actual =
+					hasher.extractCorrespondenceCandidates( pointsA, pointsB, parameters[ 0 ], redundancy, parameters[ 1 ] );
+
+			assertFalse( expected.isEmpty() );
+			assertEquals( expected.size(), actual.size() );
+			assertEquals( pairs( expected ), pairs( actual ) );
+		}
+	}
+
+	protected static double squaredDistance(
+			final LocalCoordinateSystemPointDescriptorMatrix< ? > a, final int rowA,
+			final LocalCoordinateSystemPointDescriptorMatrix< ? > b, final int rowB )
+	{
+		double sum = 0;
+
+		for ( int d = 0; d < a.rowLength(); ++d )
+		{
+			final double diff = a.getData()[ rowA * a.rowLength() + d ] - b.getData()[ rowB * b.rowLength() + d ];
+			sum += diff * diff;
+		}
+
+		return sum;
+	}
+
+	protected static HashSet< String > pairs( final ArrayList< PointMatchGeneric< InterestPoint > > matches )
+	{
+		final HashSet< String > pairs = new HashSet<>();
+
+		for ( final PointMatchGeneric< InterestPoint > pm : matches )
+			pairs.add( pm.getPoint1().getId() + "-" + pm.getPoint2().getId() );
+
+		return pairs;
+	}
+
+	/**
+	 * @return the points rotated around z and translated with some noise, 20% of the points are removed and 30 random points added
+	 */
+	protected static ArrayList< InterestPoint > transformedPoints( final ArrayList< InterestPoint > points, final Random rnd )
+	{
+		final ArrayList< InterestPoint > transformed = new ArrayList<>();
+		final double cos = Math.cos( 0.3 ), sin = Math.sin( 0.3 );
+
+		for ( final InterestPoint p : points )
+		{
+			if ( rnd.nextDouble() < 0.2 )
+				continue;
+
+			final double[] l = p.getL();
+
+			transformed.add( new InterestPoint( transformed.size(), new double[] {
+					cos * l[ 0 ] - sin * l[ 1 ] + 10 + rnd.nextGaussian() * 0.01,
+					sin * l[ 0 ] + cos * l[ 1 ] - 5 + rnd.nextGaussian() * 0.01,
+					l[ 2 ] + 3 + rnd.nextGaussian() * 0.01 } ) );
+		}
+
+		transformed.addAll( randomPoints( 30, transformed.size(), rnd ) );
+
+		return transformed;
+	}
+
+	protected static ArrayList< InterestPoint > randomPoints( final int num, final int firstId, final Random rnd )
+	{
+		final ArrayList< InterestPoint > points = new ArrayList<>();
+
+		for ( int i = 0; i < num; ++i )
+			points.add( new InterestPoint( firstId + i, new double[]{ rnd.nextDouble() * 100, rnd.nextDouble() * 100, rnd.nextDouble() * 20 } ) );
+
+		return points;
+	}
+}
@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimepointPipelineTest
+{
+	final List< Integer > items = Arrays.asList( 0, 1, 2, 3, 4, 5 );
+
+	@Test
+	public void stagesRunInOrder()
+	{
+		final List< String > events = Collections.synchronizedList( new ArrayList<>() );
+
+		final boolean success = new TimepointPipeline< Integer, Integer, Integer >(
+				item -> { events.add( "prefetch " + item ); return item * 10; },
+				( item, p ) -> { events.add( "process " + item ); assertEquals( item * 10, p.intValue() ); return item; },
+				( item, r ) -> { events.add( "write " + item ); return true; },
+				item -> 1 ).setMemoryBudget( 1000 ).setPrefetchDepth( 2 ).run( items );
+
+		assertTrue( success );
+
+		assertEquals( items, indices( events, "prefetch " ) );
+		assertEquals( items, indices( events, "process " ) );
+		assertEquals( items, indices( events, "write " ) );
+
+		for ( final int item : items )
+		{
+			assertTrue( events.indexOf( "prefetch " + item ) < events.indexOf( "process " + item ) );
+			assertTrue( events.indexOf( "process " + item ) < events.indexOf( "write " + item ) );
+		}
+	}
+
+	@Test
+	public void prefetchesAheadWithinBudget()
+	{
+		final List< String > events = Collections.synchronizedList( new ArrayList<>() );
+		final List< Boolean > withinBudget = Collections.synchronizedList( new ArrayList<>() );
+
+		assertTrue( new TimepointPipeline< Integer, Integer, Integer >(
+				( item, fits ) -> { withinBudget.add( fits ); events.add( "prefetch " + item ); return item; },
+				( item, p ) -> { waitFor( events, "prefetch " + ( item + 1 ), item + 1 < items.size() ); events.add( "process " + item ); return item; },
+				null,
+				item -> 40 ).setMemoryBudget( 100 ).setPrefetchDepth( 1 ).run( items ) );
+
+		// the next item was loaded while the current one was processed
+		for ( int item = 0; item < items.size() - 1; ++item )
+			assertTrue( events.indexOf( "prefetch " + ( item + 1 ) ) < events.indexOf( "process " + item ) );
+
+		assertEquals( Collections.nCopies( items.size(), true ), withinBudget );
+	}
+
+	@Test
+	public void doesNotPrefetchBeyondBudget()
+	{
+		final List< String > events = Collections.synchronizedList( new ArrayList<>() );
+		final List< Boolean > withinBudget = Collections.synchronizedList( new ArrayList<>() );
+
+		assertTrue( new TimepointPipeline< Integer, Integer, Integer >(
+				( item, fits ) -> { withinBudget.add( fits ); events.add( "prefetch " + item ); return item; },
+				( item, p ) -> { sleep( 20 ); events.add( "process " + item ); return item; },
+				null,
+				item -> 60 ).setMemoryBudget( 100 ).setPrefetchDepth( 3 ).run( items ) );
+
+		// two items do not fit, so every item is only loaded once the previous one is done
+		for ( int item = 0; item < items.size() - 1; ++item )
+			assertTrue( events.indexOf( "process " + item ) < events.indexOf( "prefetch " + ( item + 1 ) ) );
+
+		// but each one fits on its own
+		assertEquals( Collections.nCopies( items.size(), true ), withinBudget );
+	}
+
+	@Test
+	public void itemsLargerThanTheBudgetAreLoadedLazily()
+	{
+		final List< Boolean > withinBudget = Collections.synchronizedList( new ArrayList<>() );
+
+		assertTrue( new TimepointPipeline< Integer, Integer, Integer >(
+				( item, fits ) -> { withinBudget.add( fits ); return item; },
+				( item, p ) -> item,
+				null,
+				item -> item % 2 == 0 ? 200 : Long.MAX_VALUE ).setMemoryBudget( 100 ).run( items ) );
+
+		assertEquals( Collections.nCopies( items.size(), false ), withinBudget );
+	}
+
+	@Test
+	public void sequentialDoesNotLoadCompletely()
+	{
+		final List< String > events = new ArrayList<>();
+		final List< Boolean > withinBudget = new ArrayList<>();
+
+		assertTrue( new TimepointPipeline< Integer, Integer, Integer >(
+				( item, fits ) -> { withinBudget.add( fits ); events.add( "prefetch " + item ); return item; },
+				( item, p ) -> { events.add( "process " + item ); return item; },
+				( item, r ) -> { events.add( "write " + item ); return true; },
+				item -> 1 ).setUsePipeline( false ).run( items ) );
+
+		final List< String > expected = new ArrayList<>();
+		for ( final int item : items )
+			Collections.addAll( expected, "prefetch " + item, "process " + item, "write " + item );
+
+		assertEquals( expected, events );
+		assertEquals( Collections.nCopies( items.size(), false ), withinBudget );
+	}
+
+	@Test
+	public void pendingResultsCountAgainstTheBudget()
+	{
+		final List< String > events = Collections.synchronizedList( new ArrayList<>() );
+
+		assertTrue( new TimepointPipeline< Integer, Integer, Integer >(
+				item -> item,
+				( item, p ) -> { events.add( "process " + item ); return item; },
+				( item, r ) -> { sleep( 20 ); events.add( "written " + item ); return true; },
+				item -> 10 ).setMemoryBudget( 100 ).setResultEstimate( item -> 60 ).run( items ) );
+
+		// two results do not fit, so the previous one is written before the next item is processed
+		for ( int item = 1; item < items.size(); ++item )
+			assertTrue( events.indexOf( "written " + ( item - 1 ) ) < events.indexOf( "process " + item ) );
+
+		assertEquals( items, indices( events, "written " ) );
+	}
+
+	@Test
+	public void unknownResultSizeIsWrittenFirst()
+	{
+		final List< String > events = Collections.synchronizedList( new ArrayList<>() );
+
+		assertTrue( new TimepointPipeline< Integer, Integer, Integer >(
+				item -> item,
+				( item, p ) -> { events.add( "process " + item ); return item; },
+				( item, r ) -> { sleep( 20 ); events.add( "written " + item ); return true; },
+				item -> 10 ).setMemoryBudget( 100 ).setResultEstimate( item -> Long.MAX_VALUE ).run( items ) );
+
+		for ( int item = 1; item < items.size(); ++item )
+			assertTrue( events.indexOf( "written " + ( item - 1 ) ) < events.indexOf( "process " + item ) );
+	}
+
+	@Test
+	public void failuresAbort()
+	{
+		final List< Integer > processed = Collections.synchronizedList( new ArrayList<>() );
+
+		assertFalse( new TimepointPipeline< Integer, Integer, Integer >(
+				item -> item,
+				( item, p ) -> { processed.add( item ); return item == 2 ? null : item; },
+				null,
+				item -> 1 ).run( items ) );
+
+		assertEquals( items.subList( 0, 3 ), processed );
+
+		assertFalse( new TimepointPipeline< Integer, Integer, Integer >(
+				item -> item,
+				( item, p ) -> item,
+				( item, r ) -> item != 1,
+				item -> 1 ).run( items ) );
+
+		assertFalse( new TimepointPipeline< Integer, Integer, Integer >(
+				item -> { if ( item == 3 ) throw new RuntimeException( "cannot load" ); return item; },
+				( item, p ) -> item,
+				null,
+				item -> 1 ).run( items ) );
+	}
+
+	@Test
+	public void pendingWriteFinishesBeforeFailureReturns()
+	{
+		final List< String > events = Collections.synchronizedList( new ArrayList<>() );
+
+		assertFalse( new TimepointPipeline< Integer, Integer, Integer >(
+				item -> item,
+				( item, p ) -> item == 1 ? null : item,
+				( item, r ) -> { sleep( 100 ); events.add( "written " + item ); return true; },
+				item -> 1 ).run( items ) );
+
+		// item 1 failed while item 0 was written, run() must not return before that write is done
+		assertEquals( Collections.singletonList( "written 0" ), events );
+	}
+
+	protected static List< Integer > indices( final List< String > events, final String prefix )
+	{
+		final ArrayList< Integer > list = new ArrayList<>();
+
+		synchronized ( events )
+		{
+			for ( final String e : events )
+				if ( e.startsWith( prefix ) )
+					list.add( Integer.parseInt( e.substring( prefix.length() ) ) );
+		}
+
+		return list;
+	}
+
+	// waits (bounded) until the prefetcher recorded an event
+	protected static void waitFor( final List< String > events, final String event, final boolean expected )
+	{
+		for ( int i = 0; i < 500 && expected && !events.contains( event ); ++i )
+			sleep( 10 );
+	}
+
+	protected static void sleep( final long ms )
+	{
+		try { Thread.sleep( ms ); } catch ( final InterruptedException e ) { throw new RuntimeException( e ); }
+	}
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud.pointdescriptor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.imglib2.KDTree;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.similarity.SquareDistance;
+
+public class SimplePointDescriptorMatrixTest
+{
+	static ExecutorService service;
+
+	final static int subsetSize = 3;
+	final static int numNeighbors = 5;
+
+	@BeforeClass
+	public static void createService() { service = Executors.newFixedThreadPool( 4 ); }
+
+	@AfterClass
+	public static void shutdownService() { service.shutdown(); }
+
+	@Test
+	public void matrixEqualsDescriptors() throws NoSuitablePointsException
+	{
+		compareToDescriptors( 60, 70, null );
+	}
+
+	@Test
+	public void matrixEqualsDescriptorsInParallel() throws NoSuitablePointsException
+	{
+		final int pointsPerTask = PointDescriptorMatrix.defaultPointsPerTask;
+
+		try
+		{
+			// several chunks per matrix
+			PointDescriptorMatrix.defaultPointsPerTask = 7;
+
+			compareToDescriptors( 60, 70, null );
+			compareToDescriptors( 50, 40, service );
+		}
+		finally
+		{
+			PointDescriptorMatrix.defaultPointsPerTask = pointsPerTask;
+		}
+	}
+
+	protected static void compareToDescriptors( final int numA, final int numB, final ExecutorService service ) throws NoSuitablePointsException
+	{
+		final ArrayList< InterestPoint > pointsA = randomPoints( numA, new Random( numA ) );
+		final ArrayList< InterestPoint > pointsB = randomPoints( numB, new Random( numB ) );
+
+		final KDTree< InterestPoint > treeA = new KDTree<>( pointsA, pointsA );
+		final KDTree< InterestPoint > treeB = new KDTree<>( pointsB, pointsB );
+
+		final SimplePointDescriptorMatrix< InterestPoint > matrixA = new SimplePointDescriptorMatrix<>( treeA, pointsA, subsetSize, numNeighbors, service );
+		final SimplePointDescriptorMatrix< InterestPoint > matrixB = new SimplePointDescriptorMatrix<>( treeB, pointsB, subsetSize, numNeighbors, service );
+
+		final ArrayList< SimplePointDescriptor< InterestPoint > > descriptorsA = descriptors( treeA, pointsA );
+		final ArrayList< SimplePointDescriptor< InterestPoint > > descriptorsB = descriptors( treeB, pointsB );
+
+		assertEquals( numA, matrixA.numDescriptors() );
+		assertEquals( numA, matrixA.numRows() );
+		assertEquals( new SubsetMatcher( subsetSize, numNeighbors ).getNumCombinations(), matrixA.numSubsets() );
+
+		// the rows hold the relative coordinates of the nearest neighbors
+		for ( int i = 0; i < numA; ++i )
+		{
+			assertEquals( pointsA.get( i ), matrixA.getBasisPoint( i ) );
+
+			for ( int k = 0; k < numNeighbors; ++k )
+			{
+				final double[] row = new double[ 3 ];
+				System.arraycopy( matrixA.getData(), i * matrixA.rowLength() + k * 3, row, 0, 3 );
+
+				assertArrayEquals( descriptorsA.get( i ).getDescriptorPoint( k ).getL(), row, 0 );
+			}
+		}
+
+		// same distances for all pairs, also if a bound is given that is not reached
+		for ( int i = 0; i < numA; ++i )
+			for ( int j = 0; j < numB; ++j )
+			{
+				final double expected = descriptorsA.get( i ).descriptorDistance( descriptorsB.get( j ) );
+
+				assertEquals( expected, matrixA.descriptorDistance( i, matrixB, j, Double.MAX_VALUE ), 1e-9 * expected );
+				assertEquals( expected, matrixA.descriptorDistance( i, matrixB, j, expected * 1.01 ), 1e-9 * expected );
+				assertEquals( Double.MAX_VALUE, matrixA.descriptorDistance( i, matrixB, j, expected * 0.99 ), 0 );
+			}
+	}
+
+	protected static ArrayList< SimplePointDescriptor< InterestPoint > > descriptors(
+			final KDTree< InterestPoint > tree,
+			final ArrayList< InterestPoint > points ) throws NoSuitablePointsException
+	{
+		final KNearestNeighborSearchOnKDTree< InterestPoint > nnsearch = new KNearestNeighborSearchOnKDTree<>( tree, numNeighbors + 1 );
+		final ArrayList< SimplePointDescriptor< InterestPoint > > descriptors = new ArrayList<>();
+
+		for ( final InterestPoint p : points )
+		{
+			final ArrayList< InterestPoint > neighbors = new ArrayList<>();
+			nnsearch.search( p );
+
+			// the first hit is always the point itself
+			for ( int n = 1; n < numNeighbors + 1; ++n )
+				neighbors.add( nnsearch.getSampler( n ).get() );
+
+			descriptors.add( new SimplePointDescriptor<>( p, neighbors, new SquareDistance(), new SubsetMatcher( subsetSize, numNeighbors ) ) );
+		}
+
+		return descriptors;
+	}
+
+	protected static ArrayList< InterestPoint > randomPoints( final int num, final Random rnd )
+	{
+		final ArrayList< InterestPoint > points = new ArrayList<>();
+
+		for ( int i = 0; i < num; ++i )
+			points.add( new InterestPoint( i, new double[]{ rnd.nextDouble() * 100, rnd.nextDouble() * 100, rnd.nextDouble() * 20 } ) );
+
+		return points;
+	}
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.psf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class PSFCombinationTest
+{
+	@Test
+	public void averageOfMaxSizeEqualsOldCentering()
+	{
+		compareToOldCentering( true );
+	}
+
+	@Test
+	public void averageOfMinSizeEqualsOldCentering()
+	{
+		compareToOldCentering( false );
+	}
+
+	protected static void compareToOldCentering( final boolean max )
+	{
+		final Random rnd = new Random( max ? 1 : 2 );
+
+		// odd and even sizes, zero-min and translated PSFs, more PSFs than threads
+		final long[][] sizes = new long[][]{
+			{ 11, 11, 15 }, { 9, 13, 15 }, { 10, 11, 14 }, { 11, 12, 17 }, { 7, 7, 7 },
+			{ 13, 9, 16 }, { 11, 11, 15 }, { 8, 10, 12 }, { 9, 9, 9 }, { 12, 13, 11 } };
+
+		final ArrayList< RandomAccessibleInterval< FloatType > > psfs = new ArrayList<>();
+
+		for ( int i = 0; i < sizes.length; ++i )
+		{
+			final Img< FloatType > psf = ArrayImgs.floats( sizes[ i ] );
+
+			// integer values, so the sums are exact in any order
+			for ( final FloatType t : psf )
+				t.set( rnd.nextInt( 1000 ) );
+
+			psfs.add( i % 3 == 0 ? Views.translate( psf, -5, 3, 100 ) : psf );
+		}
+
+		final Img< FloatType > expected = computeAverageImageOld( psfs, max );
+		final Img< FloatType > avg = PSFCombination.computeAverageImage( psfs, new ArrayImgFactory<>( new FloatType() ), max );
+
+		final long[] dimE = new long[ 3 ];
+		final long[] dimA = new long[ 3 ];
+		expected.dimensions( dimE );
+		avg.dimensions( dimA );
+
+		assertArrayEquals( dimE, dimA );
+
+		final Cursor< FloatType > e = Views.flatIterable( expected ).cursor();
+		final Cursor< FloatType > a = Views.flatIterable( avg ).cursor();
+
+		while ( e.hasNext() )
+			assertEquals( e.next().get(), a.next().get(), 1e-3 );
+	}
+
+	/*
+	 * the previous, single-threaded implementation of PSFCombination.computeAverageImage
+	 */
+	protected static Img< FloatType > computeAverageImageOld( final ArrayList< RandomAccessibleInterval< FloatType > > imgs, final boolean max )
+	{
+		final long[] maxSize;
+
+		if ( max )
+			maxSize = PSFCombination.computeMaxDimTransformedPSF( imgs );
+		else
+			maxSize = PSFCombination.computeMinDimTransformedPSF( imgs );
+
+		final int numDimensions = maxSize.length;
+
+		final Img< FloatType > avgPSF = ArrayImgs.floats( maxSize );
+
+		final long[] avgCenter = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			avgCenter[ d ] = avgPSF.dimension( d ) / 2;
+
+		for ( final RandomAccessibleInterval< FloatType > psfIn : imgs )
+		{
+			final IterableInterval< FloatType > psf;
+
+			if ( Views.isZeroMin( psfIn ) )
+				psf = Views.iterable( psfIn );
+			else
+				psf = Views.iterable( Views.zeroMin( psfIn ) );
+
+			// works if the kernel is even
+			final RandomAccess< FloatType > avgCursor = Views.extendZero( avgPSF ).randomAccess();
+			final Cursor< FloatType > psfCursor = psf.localizingCursor();
+
+			final long[] loc = new long[ numDimensions ];
+			final long[] psfCenter = new long[ numDimensions ];
+			for ( int d = 0; d < numDimensions; ++d )
+				psfCenter[ d ] = psf.dimension( d ) / 2;
+
+			while ( psfCursor.hasNext() )
+			{
+				psfCursor.fwd();
+				psfCursor.localize( loc );
+
+				for ( int d = 0; d < numDimensions; ++d )
+					loc[ d ] = avgCenter[ d ] - ( psfCenter[ d ] - loc[ d ] );
+
+				avgCursor.setPosition( loc );
+				avgCursor.get().add( psfCursor.get() );
+			}
+		}
+
+		for ( final FloatType type : avgPSF )
+			type.setReal( type.getRealDouble() / (double)imgs.size() );
+
+		return avgPSF;
+	}
+}
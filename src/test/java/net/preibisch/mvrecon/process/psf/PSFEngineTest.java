@@ -0,0 +1,303 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.psf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class PSFEngineTest
+{
+	static ExecutorService service;
+
+	@BeforeClass
+	public static void createService() { service = Executors.newFixedThreadPool( 4 ); }
+
+	@AfterClass
+	public static void shutdownService() { service.shutdown(); }
+
+	@Test
+	public void reduceSumsEveryList()
+	{
+		final Random rnd = new Random( 42 );
+		final int[] sizes = new int[]{ 1, 2, 3, 5, 8, 13, 16, 17 };
+
+		final ArrayList< List< float[] > > accumulators = new ArrayList<>();
+		final ArrayList< float[] > expected = new ArrayList<>();
+
+		for ( final int size : sizes )
+		{
+			final ArrayList< float[] > acc = new ArrayList<>();
+			final float[] sum = new float[ 50 ];
+
+			for ( int k = 0; k < size; ++k )
+			{
+				// small integers, so the sum is exact in any order
+				final float[] a = new float[ sum.length ];
+
+				for ( int j = 0; j < a.length; ++j )
+				{
+					a[ j ] = rnd.nextInt( 1000 ) - 500;
+					sum[ j ] += a[ j ];
+				}
+
+				acc.add( a );
+			}
+
+			accumulators.add( acc );
+			expected.add( sum );
+		}
+
+		final ArrayList< float[] > firsts = new ArrayList<>();
+		for ( final List< float[] > acc : accumulators )
+			firsts.add( acc.get( 0 ) );
+
+		PSFEngine.reduce( accumulators, service );
+
+		for ( int i = 0; i < sizes.length; ++i )
+		{
+			// the result is accumulated in place into the first array
+			assertSame( firsts.get( i ), accumulators.get( i ).get( 0 ) );
+			assertArrayEquals( expected.get( i ), accumulators.get( i ).get( 0 ), 0 );
+		}
+	}
+
+	@Test
+	public void reduceIsIndependentOfTheNumberOfThreads()
+	{
+		final List< List< float[] > > a = randomAccumulators( 7 );
+		final List< List< float[] > > b = randomAccumulators( 7 );
+
+		final ExecutorService single = Executors.newSingleThreadExecutor();
+
+		try
+		{
+			PSFEngine.reduce( a, single );
+			PSFEngine.reduce( b, service );
+		}
+		finally
+		{
+			single.shutdown();
+		}
+
+		for ( int i = 0; i < a.size(); ++i )
+			assertArrayEquals( a.get( i ).get( 0 ), b.get( i ).get( 0 ), 0 );
+	}
+
+	@Test
+	public void reduceHandlesEmptyInput()
+	{
+		PSFEngine.reduce( Collections.< List< float[] > >emptyList(), service );
+
+		final List< List< float[] > > accumulators = new ArrayList<>();
+		accumulators.add( new ArrayList<>() );
+
+		final ArrayList< float[] > single = new ArrayList<>();
+		single.add( new float[]{ 1, 2, 3 } );
+		accumulators.add( single );
+
+		PSFEngine.reduce( accumulators, service );
+
+		assertArrayEquals( new float[]{ 1, 2, 3 }, single.get( 0 ), 0 );
+	}
+
+	@Test
+	public void addEqualsExtractPSFLocalAtIntegerPositions()
+	{
+		// integer values at integer positions, so no interpolation happens and the sums are exact in any order
+		final Random rnd = new Random( 17 );
+		final RealRandomAccessible< FloatType > img = randomImage( rnd, true );
+
+		compareToExtractPSFLocal( img, randomLocations( rnd, 100, false ), new long[]{ 7, 9, 5 }, 0 );
+	}
+
+	@Test
+	public void addEqualsExtractPSFLocal()
+	{
+		final Random rnd = new Random( 23 );
+		final RealRandomAccessible< FloatType > img = randomImage( rnd, false );
+
+		// subpixel locations, some of them close to the border (the image is extended periodically)
+		compareToExtractPSFLocal( img, randomLocations( rnd, 250, true ), new long[]{ 9, 7, 11 }, 1e-4 );
+	}
+
+	@Test
+	public void addAllEqualsExtractPSFLocalPerImage()
+	{
+		final Random rnd = new Random( 5 );
+		final long[] size = new long[]{ 5, 7, 9 };
+		final int batchSize = PSFEngine.defaultBatchSize;
+
+		try
+		{
+			// several batches and tasks per image
+			PSFEngine.defaultBatchSize = 3;
+
+			final ArrayList< PSFEngine > engines = new ArrayList<>();
+			final ArrayList< RealRandomAccessible< FloatType > > imgs = new ArrayList<>();
+			final ArrayList< Collection< RealLocalizable > > locations = new ArrayList<>();
+
+			for ( int i = 0; i < 4; ++i )
+			{
+				engines.add( new PSFEngine( size ) );
+				imgs.add( randomImage( rnd, false ) );
+
+				// also a view without beads
+				locations.add( i == 2 ? new ArrayList< RealLocalizable >() : randomLocations( rnd, 20 + 15 * i, true ) );
+			}
+
+			PSFEngine.addAll( engines, imgs, locations, service );
+
+			for ( int i = 0; i < engines.size(); ++i )
+			{
+				final Img< FloatType > expected = ArrayImgs.floats( size );
+				PSFExtraction.extractPSFLocal( imgs.get( i ), locations.get( i ), expected );
+
+				assertEquals( locations.get( i ).size(), engines.get( i ).getNumBeads() );
+				assertEqualContent( expected, engines.get( i ).getPSF(), 1e-4 );
+			}
+		}
+		finally
+		{
+			PSFEngine.defaultBatchSize = batchSize;
+		}
+	}
+
+	protected static void compareToExtractPSFLocal(
+			final RealRandomAccessible< FloatType > img,
+			final Collection< RealLocalizable > locations,
+			final long[] size,
+			final double relativeError )
+	{
+		final Img< FloatType > expected = ArrayImgs.floats( size );
+		PSFExtraction.extractPSFLocal( img, locations, expected );
+
+		final PSFEngine engine = new PSFEngine( size );
+
+		// added in two steps, the sum is kept
+		final ArrayList< RealLocalizable > list = new ArrayList<>( locations );
+		engine.add( img, list.subList( 0, list.size() / 3 ), service );
+		engine.add( img, list.subList( list.size() / 3, list.size() ), service );
+
+		assertEquals( locations.size(), engine.getNumBeads() );
+		assertEqualContent( expected, engine.getPSF(), relativeError );
+
+		final Img< FloatType > target = ArrayImgs.floats( size );
+		engine.addTo( target );
+		assertEqualContent( expected, target, relativeError );
+	}
+
+	protected static < T extends RealType< T > > void assertEqualContent(
+			final Img< FloatType > expected,
+			final Img< T > actual,
+			final double relativeError )
+	{
+		for ( int d = 0; d < expected.numDimensions(); ++d )
+			assertEquals( expected.dimension( d ), actual.dimension( d ) );
+
+		final Cursor< FloatType > e = Views.flatIterable( expected ).cursor();
+		final Cursor< T > a = Views.flatIterable( actual ).cursor();
+
+		while ( e.hasNext() )
+		{
+			final double v = e.next().getRealDouble();
+			assertEquals( v, a.next().getRealDouble(), relativeError * Math.max( 1, Math.abs( v ) ) );
+		}
+	}
+
+	protected static RealRandomAccessible< FloatType > randomImage( final Random rnd, final boolean integer )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( 40, 35, 20 );
+
+		for ( final FloatType t : img )
+			t.set( integer ? rnd.nextInt( 100 ) : rnd.nextFloat() * 100 );
+
+		return Views.interpolate( Views.extendPeriodic( img ), new NLinearInterpolatorFactory< FloatType >() );
+	}
+
+	protected static ArrayList< RealLocalizable > randomLocations( final Random rnd, final int num, final boolean subpixel )
+	{
+		final ArrayList< RealLocalizable > locations = new ArrayList<>();
+
+		for ( int i = 0; i < num; ++i )
+		{
+			final double[] l = new double[]{ rnd.nextInt( 40 ), rnd.nextInt( 35 ), rnd.nextInt( 20 ) };
+
+			if ( subpixel )
+				for ( int d = 0; d < l.length; ++d )
+					l[ d ] += rnd.nextDouble();
+
+			locations.add( new RealPoint( l ) );
+		}
+
+		return locations;
+	}
+
+	protected static List< List< float[] > > randomAccumulators( final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final List< List< float[] > > accumulators = new ArrayList<>();
+
+		for ( int i = 0; i < 5; ++i )
+		{
+			final ArrayList< float[] > acc = new ArrayList<>();
+
+			for ( int k = 0; k < 3 + 4 * i; ++k )
+			{
+				final float[] a = new float[ 33 ];
+
+				for ( int j = 0; j < a.length; ++j )
+					a[ j ] = rnd.nextFloat() * 1e-3f + rnd.nextFloat();
+
+				acc.add( a );
+			}
+
+			accumulators.add( acc );
+		}
+
+		return accumulators;
+	}
+}